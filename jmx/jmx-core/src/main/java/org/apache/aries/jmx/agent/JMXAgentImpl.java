@@ -37,6 +37,7 @@ import org.apache.aries.jmx.framework.FrameworkMBeanHandler;
 import org.apache.aries.jmx.framework.PackageStateMBeanHandler;
 import org.apache.aries.jmx.framework.ServiceStateMBeanHandler;
 import org.apache.aries.jmx.framework.StateConfig;
+import org.apache.aries.jmx.framework.StateDeltaMBeanHandler;
 import org.apache.aries.jmx.framework.wiring.BundleWiringStateMBeanHandler;
 import org.apache.aries.jmx.permissionadmin.PermissionAdminMBeanHandler;
 import org.apache.aries.jmx.provisioning.ProvisioningServiceMBeanHandler;
@@ -104,6 +105,9 @@ public class JMXAgentImpl implements JMXAgent {
         MBeanHandler packageStateHandler = new PackageStateMBeanHandler(agentContext);
         mbeansHandlers.put(packageStateHandler, Boolean.FALSE);
         packageStateHandler.open();
+        MBeanHandler stateDeltaHandler = new StateDeltaMBeanHandler(agentContext);
+        mbeansHandlers.put(stateDeltaHandler, Boolean.FALSE);
+        stateDeltaHandler.open();
         MBeanHandler permissionAdminHandler = new PermissionAdminMBeanHandler(agentContext);
         mbeansHandlers.put(permissionAdminHandler, Boolean.FALSE);
         permissionAdminHandler.open();
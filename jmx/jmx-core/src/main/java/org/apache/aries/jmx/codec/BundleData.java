@@ -192,37 +192,68 @@ public class BundleData {
     }
 
     public BundleData(BundleContext localBundleContext, Bundle bundle, PackageAdmin packageAdmin, StartLevel startLevel) {
+        this(localBundleContext, bundle, packageAdmin, startLevel, BUNDLE_TYPE.keySet());
+    }
+
+    /**
+     * Constructs a <code>BundleData</code> holding only the given items, besides the identifier. The other
+     * items are not evaluated, and are left at their default values.
+     *
+     * @param itemNames the names of the items to evaluate, see {@link BundleStateMBean#BUNDLE_TYPE}
+     */
+    public BundleData(BundleContext localBundleContext, Bundle bundle, PackageAdmin packageAdmin, StartLevel startLevel,
+            Collection<String> itemNames) {
         if (bundle == null) {
             throw new IllegalArgumentException("Argument bundle cannot be null");
         }
         if (packageAdmin == null || startLevel == null) {
             throw new IllegalArgumentException("Arguments PackageAdmin / startLevel cannot be null");
         }
-        this.exportedPackages = getBundleExportedPackages(bundle, packageAdmin);
-        this.fragment = (PackageAdmin.BUNDLE_TYPE_FRAGMENT == packageAdmin.getBundleType(bundle));
-        this.fragments = getFragmentIds(bundle, packageAdmin);
-        Dictionary<String, String> bundleHeaders = bundle.getHeaders();
-        Enumeration<String> keys = bundleHeaders.keys();
-        while (keys.hasMoreElements()) {
-            String key = keys.nextElement();
-            headers.add(new Header(key, bundleHeaders.get(key)));
-        }
-        this.hosts = getHostIds(bundle, packageAdmin);
         this.identifier = bundle.getBundleId();
-        this.importedPackages = getBundleImportedPackages(localBundleContext, bundle, packageAdmin);
-        this.lastModified = bundle.getLastModified();
-        this.location = bundle.getLocation();
-        this.persistentlyStarted = startLevel.isBundlePersistentlyStarted(bundle);
-        this.registeredServices = getRegisteredServiceIds(bundle);
-        this.removalPending = isBundlePendingRemoval(bundle, packageAdmin);
-        this.required = isBundleRequiredByOthers(bundle, packageAdmin);
-        this.requiredBundles = getBundleDependencies(localBundleContext, bundle, packageAdmin);
-        this.requiringBundles = getDependentBundles(bundle, packageAdmin);
-        this.servicesInUse = getServicesInUseByBundle(bundle);
-        this.bundleStartLevel = startLevel.getBundleStartLevel(bundle);
-        this.state = getBundleState(bundle);
-        this.symbolicName = bundle.getSymbolicName();
-        this.version = bundle.getVersion().toString();
+        if (itemNames.contains(EXPORTED_PACKAGES))
+            this.exportedPackages = getBundleExportedPackages(bundle, packageAdmin);
+        if (itemNames.contains(FRAGMENT))
+            this.fragment = (PackageAdmin.BUNDLE_TYPE_FRAGMENT == packageAdmin.getBundleType(bundle));
+        if (itemNames.contains(FRAGMENTS))
+            this.fragments = getFragmentIds(bundle, packageAdmin);
+        if (itemNames.contains(HEADERS)) {
+            Dictionary<String, String> bundleHeaders = bundle.getHeaders();
+            Enumeration<String> keys = bundleHeaders.keys();
+            while (keys.hasMoreElements()) {
+                String key = keys.nextElement();
+                headers.add(new Header(key, bundleHeaders.get(key)));
+            }
+        }
+        if (itemNames.contains(HOSTS))
+            this.hosts = getHostIds(bundle, packageAdmin);
+        if (itemNames.contains(IMPORTED_PACKAGES))
+            this.importedPackages = getBundleImportedPackages(localBundleContext, bundle, packageAdmin);
+        if (itemNames.contains(LAST_MODIFIED))
+            this.lastModified = bundle.getLastModified();
+        if (itemNames.contains(LOCATION))
+            this.location = bundle.getLocation();
+        if (itemNames.contains(PERSISTENTLY_STARTED))
+            this.persistentlyStarted = startLevel.isBundlePersistentlyStarted(bundle);
+        if (itemNames.contains(REGISTERED_SERVICES))
+            this.registeredServices = getRegisteredServiceIds(bundle);
+        if (itemNames.contains(REMOVAL_PENDING))
+            this.removalPending = isBundlePendingRemoval(bundle, packageAdmin);
+        if (itemNames.contains(REQUIRED))
+            this.required = isBundleRequiredByOthers(bundle, packageAdmin);
+        if (itemNames.contains(REQUIRED_BUNDLES))
+            this.requiredBundles = getBundleDependencies(localBundleContext, bundle, packageAdmin);
+        if (itemNames.contains(REQUIRING_BUNDLES))
+            this.requiringBundles = getDependentBundles(bundle, packageAdmin);
+        if (itemNames.contains(SERVICES_IN_USE))
+            this.servicesInUse = getServicesInUseByBundle(bundle);
+        if (itemNames.contains(START_LEVEL))
+            this.bundleStartLevel = startLevel.getBundleStartLevel(bundle);
+        if (itemNames.contains(STATE))
+            this.state = getBundleState(bundle);
+        if (itemNames.contains(SYMBOLIC_NAME))
+            this.symbolicName = bundle.getSymbolicName();
+        if (itemNames.contains(VERSION))
+            this.version = bundle.getVersion().toString();
     }
 
     /**
@@ -235,6 +266,16 @@ public class BundleData {
     }
 
     public CompositeData toCompositeData(Collection<String> itemNames) {
+        return toCompositeData(getItems(itemNames));
+    }
+
+    /**
+     * Returns the open type values of the given items, and of the identifier, keyed by item name.
+     *
+     * @param itemNames
+     * @return
+     */
+    public Map<String, Object> getItems(Collection<String> itemNames) {
         Map<String, Object> items = new HashMap<String, Object>();
         items.put(IDENTIFIER, this.identifier);
 
@@ -300,6 +341,17 @@ public class BundleData {
             items.put(HEADERS, headerTable);
         }
 
+        return items;
+    }
+
+    /**
+     * Returns CompositeData typed by {@link BundleStateMBean#BUNDLE_TYPE} holding the given item values, as
+     * returned by {@link #getItems(Collection)}. Missing items are null.
+     *
+     * @param items
+     * @return
+     */
+    public static CompositeData toCompositeData(Map<String, Object> items) {
         String[] allItemNames = BUNDLE_TYPE.keySet().toArray(new String [] {});
         Object[] itemValues = new Object[allItemNames.length];
         for (int i=0; i < allItemNames.length; i++) {
@@ -309,7 +361,7 @@ public class BundleData {
         try {
             return new CompositeDataSupport(BUNDLE_TYPE, allItemNames, itemValues);
         } catch (OpenDataException e) {
-            throw new IllegalStateException("Failed to create CompositeData for BundleData [" + this.identifier
+            throw new IllegalStateException("Failed to create CompositeData for BundleData [" + items.get(IDENTIFIER)
                     + "]", e);
         }
     }
@@ -0,0 +1,192 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.aries.jmx.framework;
+
+import static org.osgi.jmx.framework.BundleStateMBean.BUNDLE_TYPE;
+import static org.osgi.jmx.framework.BundleStateMBean.EXPORTED_PACKAGES;
+import static org.osgi.jmx.framework.BundleStateMBean.FRAGMENTS;
+import static org.osgi.jmx.framework.BundleStateMBean.HOSTS;
+import static org.osgi.jmx.framework.BundleStateMBean.IMPORTED_PACKAGES;
+import static org.osgi.jmx.framework.BundleStateMBean.LAST_MODIFIED;
+import static org.osgi.jmx.framework.BundleStateMBean.PERSISTENTLY_STARTED;
+import static org.osgi.jmx.framework.BundleStateMBean.REGISTERED_SERVICES;
+import static org.osgi.jmx.framework.BundleStateMBean.REMOVAL_PENDING;
+import static org.osgi.jmx.framework.BundleStateMBean.REQUIRED;
+import static org.osgi.jmx.framework.BundleStateMBean.REQUIRED_BUNDLES;
+import static org.osgi.jmx.framework.BundleStateMBean.REQUIRING_BUNDLES;
+import static org.osgi.jmx.framework.BundleStateMBean.SERVICES_IN_USE;
+import static org.osgi.jmx.framework.BundleStateMBean.START_LEVEL;
+import static org.osgi.jmx.framework.BundleStateMBean.STATE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.openmbean.CompositeData;
+
+import org.apache.aries.jmx.codec.BundleData;
+import org.osgi.framework.AllServiceListener;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.osgi.service.startlevel.StartLevel;
+
+/**
+ * <p>
+ * Caches the items of {@link BundleData} per bundle, so that listing bundles that have not changed does not
+ * evaluate their items again. Items are grouped by the events that may change them:
+ * <ul>
+ * <li>items describing the bundle itself, such as its headers, are dropped on events for that bundle;</li>
+ * <li>items describing its wiring to other bundles are dropped on any event that may change wiring, including a
+ * refresh of packages;</li>
+ * <li>its registered services are dropped when any service is registered or unregistered.</li>
+ * </ul>
+ * Bundle and framework events are delivered asynchronously, so a bundle may already have been updated or refreshed
+ * before its event arrives. Each entry is therefore also checked against the bundle's last modified time, which
+ * changes when it is installed or updated, and its wiring items against the bundle's current {@link BundleWiring}, which
+ * is replaced when it is resolved again. A bundle's state and last modified time, like start levels, persistent starts
+ * and services in use, which can change without an event at all, are never cached.
+ * </p>
+ *
+ * @version $Rev$ $Date$
+ */
+class BundleDataCache implements FrameworkListener, AllServiceListener {
+
+    static final Set<String> WIRING_ITEMS = new HashSet<String>(Arrays.asList(EXPORTED_PACKAGES, FRAGMENTS,
+            HOSTS, IMPORTED_PACKAGES, REMOVAL_PENDING, REQUIRED, REQUIRED_BUNDLES, REQUIRING_BUNDLES));
+
+    private static final Set<String> SERVICE_ITEMS = new HashSet<String>(Arrays.asList(REGISTERED_SERVICES));
+
+    private static final Set<String> UNCACHED_ITEMS = new HashSet<String>(Arrays.asList(LAST_MODIFIED,
+            PERSISTENTLY_STARTED, SERVICES_IN_USE, START_LEVEL, STATE));
+
+    private final ConcurrentMap<Long, Entry> entries = new ConcurrentHashMap<Long, Entry>();
+    private final AtomicLong wiringVersion = new AtomicLong();
+    private final AtomicLong servicesVersion = new AtomicLong();
+
+    /**
+     * Returns CompositeData holding the given items of a bundle, evaluating only those that are not cached.
+     */
+    CompositeData getBundle(BundleContext localBundleContext, Bundle bundle, PackageAdmin packageAdmin,
+            StartLevel startLevel, Collection<String> itemNames) {
+        Long id = bundle.getBundleId();
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            Entry newEntry = new Entry();
+            entry = entries.putIfAbsent(id, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+
+        // read the versions before evaluating anything, so that values evaluated while
+        // an event was delivered are dropped on the next call
+        long wiring = wiringVersion.get();
+        long services = servicesVersion.get();
+        long lastModified = bundle.getLastModified();
+        BundleWiring bundleWiring = bundle.adapt(BundleWiring.class);
+
+        Map<String, Object> items = new HashMap<String, Object>();
+        synchronized (entry) {
+            if (entry.lastModified != lastModified) {
+                entry.values.clear();
+                entry.lastModified = lastModified;
+            }
+            if (entry.wiringVersion != wiring || entry.bundleWiring != bundleWiring) {
+                entry.values.keySet().removeAll(WIRING_ITEMS);
+                entry.wiringVersion = wiring;
+                entry.bundleWiring = bundleWiring;
+            }
+            if (entry.servicesVersion != services) {
+                entry.values.keySet().removeAll(SERVICE_ITEMS);
+                entry.servicesVersion = services;
+            }
+
+            List<String> missing = new ArrayList<String>();
+            for (String itemName : itemNames) {
+                if (entry.values.containsKey(itemName)) {
+                    items.put(itemName, entry.values.get(itemName));
+                } else if (BUNDLE_TYPE.containsKey(itemName)) {
+                    missing.add(itemName);
+                }
+            }
+
+            BundleData data = new BundleData(localBundleContext, bundle, packageAdmin, startLevel, missing);
+            for (Map.Entry<String, Object> item : data.getItems(missing).entrySet()) {
+                items.put(item.getKey(), item.getValue());
+                if (!UNCACHED_ITEMS.contains(item.getKey())) {
+                    entry.values.put(item.getKey(), item.getValue());
+                }
+            }
+        }
+        return BundleData.toCompositeData(items);
+    }
+
+    void bundleChanged(BundleEvent event) {
+        entries.remove(event.getBundle().getBundleId());
+        switch (event.getType()) {
+        case BundleEvent.INSTALLED:
+        case BundleEvent.RESOLVED:
+        case BundleEvent.UNRESOLVED:
+        case BundleEvent.UPDATED:
+        case BundleEvent.UNINSTALLED:
+            wiringVersion.incrementAndGet();
+            break;
+        default:
+            break;
+        }
+    }
+
+    public void frameworkEvent(FrameworkEvent event) {
+        if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED) {
+            wiringVersion.incrementAndGet();
+        }
+    }
+
+    public void serviceChanged(ServiceEvent event) {
+        if (event.getType() != ServiceEvent.MODIFIED) {
+            servicesVersion.incrementAndGet();
+        }
+    }
+
+    void clear() {
+        entries.clear();
+        wiringVersion.incrementAndGet();
+        servicesVersion.incrementAndGet();
+    }
+
+    private static class Entry {
+        private final Map<String, Object> values = new HashMap<String, Object>();
+        private long wiringVersion = -1;
+        private long servicesVersion = -1;
+        private long lastModified = -1;
+        private BundleWiring bundleWiring;
+    }
+}
@@ -89,6 +89,9 @@ public class BundleState extends NotificationBroadcasterSupport implements Bundl
     private AtomicInteger attributeChangeNotificationSequenceNumber = new AtomicInteger(1);
     private Lock lock = new ReentrantLock();
     private AtomicInteger registrations = new AtomicInteger(0);
+    private final BundleDataCache bundleDataCache = new BundleDataCache();
+    /** The cache is only used while it is kept up to date by the listeners registered with the MBean */
+    private volatile boolean bundleDataCached;
 
     // notification type description
     public static String BUNDLE_EVENT = "org.osgi.bundle.event";
@@ -337,16 +340,18 @@ public class BundleState extends NotificationBroadcasterSupport implements Bundl
 
     private TabularData listBundles(Collection<String> items) throws IOException {
         Bundle[] containerBundles = bundleContext.getBundles();
-        List<BundleData> bundleDatas = new ArrayList<BundleData>();
+        TabularData bundleTable = new TabularDataSupport(BUNDLES_TYPE);
         if (containerBundles != null) {
             for (Bundle containerBundle : containerBundles) {
-                bundleDatas.add(new BundleData(bundleContext, containerBundle, packageAdmin, startLevel));
+                // only the requested items are evaluated
+                if (bundleDataCached) {
+                    bundleTable.put(bundleDataCache.getBundle(bundleContext, containerBundle, packageAdmin, startLevel, items));
+                } else {
+                    BundleData bundleData = new BundleData(bundleContext, containerBundle, packageAdmin, startLevel, items);
+                    bundleTable.put(bundleData.toCompositeData(items));
+                }
             }
         }
-        TabularData bundleTable = new TabularDataSupport(BUNDLES_TYPE);
-        for (BundleData bundleData : bundleDatas) {
-            bundleTable.put(bundleData.toCompositeData(items));
-        }
         return bundleTable;
     }
 
@@ -383,6 +388,9 @@ public class BundleState extends NotificationBroadcasterSupport implements Bundl
         if (registrationDone && registrations.incrementAndGet() == 1) {
             eventDispatcher = Executors.newSingleThreadExecutor(new JMXThreadFactory("JMX OSGi Bundle State Event Dispatcher"));
             bundleContext.addBundleListener(bundleListener);
+            bundleContext.addFrameworkListener(bundleDataCache);
+            bundleContext.addServiceListener(bundleDataCache);
+            bundleDataCached = true;
         }
     }
 
@@ -402,6 +410,7 @@ public class BundleState extends NotificationBroadcasterSupport implements Bundl
             if (bundleListener == null) {
                 bundleListener = new BundleListener() {
                     public void bundleChanged(BundleEvent event) {
+                        bundleDataCache.bundleChanged(event);
                         if (stateConfig != null && !stateConfig.isBundleChangeNotificationEnabled()) {
                             return;
                         }
@@ -485,6 +494,15 @@ public class BundleState extends NotificationBroadcasterSupport implements Bundl
      * [ARIES-259] MBeans not getting unregistered reliably
      */
     protected void shutDownDispatcher() {
+        bundleDataCached = false;
+        try {
+            bundleContext.removeFrameworkListener(bundleDataCache);
+            bundleContext.removeServiceListener(bundleDataCache);
+        }
+        catch (Exception e) {
+            // ignore
+        }
+        bundleDataCache.clear();
         if (bundleListener != null) {
             try {
                bundleContext.removeBundleListener(bundleListener);
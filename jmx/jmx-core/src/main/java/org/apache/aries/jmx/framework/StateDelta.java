@@ -0,0 +1,304 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.aries.jmx.framework;
+
+import static org.osgi.jmx.framework.BundleStateMBean.BUNDLES_TYPE;
+import static org.osgi.jmx.framework.BundleStateMBean.BUNDLE_TYPE;
+import static org.osgi.jmx.framework.PackageStateMBean.PACKAGES_TYPE;
+import static org.osgi.jmx.framework.ServiceStateMBean.SERVICES_TYPE;
+import static org.osgi.jmx.framework.ServiceStateMBean.SERVICE_TYPE;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanRegistration;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+
+import org.apache.aries.jmx.codec.BundleData;
+import org.apache.aries.jmx.codec.ServiceData;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.osgi.service.startlevel.StartLevel;
+
+/**
+ * <p>
+ * Implementation of <code>StateDeltaMBean</code>. The changes are taken from a {@link StateJournal} that listens to
+ * framework events from the first registration of this MBean to the last unregistration. While it is not registered
+ * every call returns the full table.
+ * </p>
+ *
+ * @see StateDeltaMBean
+ *
+ * @version $Rev$ $Date$
+ */
+public class StateDelta implements StateDeltaMBean, MBeanRegistration {
+
+    private BundleContext bundleContext;
+    private PackageAdmin packageAdmin;
+    private StartLevel startLevel;
+
+    private volatile StateJournal journal;
+    private AtomicInteger registrations = new AtomicInteger(0);
+
+    public StateDelta(BundleContext bundleContext, PackageAdmin packageAdmin, StartLevel startLevel) {
+        if (bundleContext == null) {
+            throw new IllegalArgumentException("Argument bundleContext cannot be null");
+        }
+        this.bundleContext = bundleContext;
+        this.packageAdmin = packageAdmin;
+        this.startLevel = startLevel;
+    }
+
+    /**
+     * @see org.apache.aries.jmx.framework.StateDeltaMBean#getGeneration()
+     */
+    public long getGeneration() throws IOException {
+        StateJournal current = journal;
+        return current != null ? current.getGeneration() : 0;
+    }
+
+    /**
+     * @see org.apache.aries.jmx.framework.StateDeltaMBean#listBundlesSince(long)
+     */
+    public CompositeData listBundlesSince(long generation) throws IOException {
+        return listBundlesSince(generation, BUNDLE_TYPE.keySet());
+    }
+
+    /**
+     * @see org.apache.aries.jmx.framework.StateDeltaMBean#listBundlesSince(long, java.lang.String[])
+     */
+    public CompositeData listBundlesSince(long generation, String... items) throws IOException {
+        return listBundlesSince(generation, Arrays.asList(items));
+    }
+
+    private CompositeData listBundlesSince(long generation, Collection<String> items) throws IOException {
+        StateJournal current = journal;
+        StateJournal.Delta delta = current != null ? current.bundlesSince(generation) : null;
+        long next = generationOf(delta, current);
+        if (delta != null && !Collections.disjoint(items, BundleDataCache.WIRING_ITEMS)
+                && current.wiringChangedSince(generation)) {
+            // the wiring items of any bundle may have changed
+            delta = null;
+        }
+
+        TabularData bundleTable = new TabularDataSupport(BUNDLES_TYPE);
+        Set<Long> removed = new HashSet<Long>();
+        if (delta == null) {
+            Bundle[] bundles = bundleContext.getBundles();
+            if (bundles != null) {
+                for (Bundle bundle : bundles) {
+                    bundleTable.put(new BundleData(bundleContext, bundle, packageAdmin, startLevel, items)
+                            .toCompositeData(items));
+                }
+            }
+        } else {
+            removed.addAll(delta.removed);
+            for (Long id : delta.changed) {
+                Bundle bundle = bundleContext.getBundle(id);
+                if (bundle == null || bundle.getState() == Bundle.UNINSTALLED) {
+                    removed.add(id);
+                } else {
+                    bundleTable.put(new BundleData(bundleContext, bundle, packageAdmin, startLevel, items)
+                            .toCompositeData(items));
+                }
+            }
+        }
+        return toDelta(BUNDLES_DELTA_TYPE, BUNDLES, bundleTable, next, delta == null, removed);
+    }
+
+    /**
+     * @see org.apache.aries.jmx.framework.StateDeltaMBean#listServicesSince(long)
+     */
+    public CompositeData listServicesSince(long generation) throws IOException {
+        return listServicesSince(generation, null, null, SERVICE_TYPE.keySet());
+    }
+
+    /**
+     * @see org.apache.aries.jmx.framework.StateDeltaMBean#listServicesSince(long, java.lang.String,
+     *      java.lang.String, java.lang.String[])
+     */
+    public CompositeData listServicesSince(long generation, String clazz, String filter, String... items)
+            throws IOException {
+        return listServicesSince(generation, clazz, filter, Arrays.asList(items));
+    }
+
+    private CompositeData listServicesSince(long generation, String clazz, String filter, Collection<String> items)
+            throws IOException {
+        StateJournal current = journal;
+        StateJournal.Delta delta = current != null ? current.servicesSince(generation) : null;
+        long next = generationOf(delta, current);
+
+        TabularData servicesTable = new TabularDataSupport(SERVICES_TYPE);
+        Set<Long> removed = new HashSet<Long>();
+        if (delta == null) {
+            for (ServiceReference<?> reference : getServiceReferences(clazz, filter)) {
+                servicesTable.put(new ServiceData(reference).toCompositeData(items));
+            }
+        } else {
+            removed.addAll(delta.removed);
+            if (!delta.changed.isEmpty()) {
+                // a single query for all the changed services, those that are not found are gone or no longer match
+                StringBuilder ids = new StringBuilder("(|");
+                for (Long id : delta.changed) {
+                    ids.append('(').append(Constants.SERVICE_ID).append('=').append(id).append(')');
+                }
+                ids.append(')');
+                String changedFilter = filter == null ? ids.toString() : "(&" + filter + ids + ")";
+
+                Set<Long> found = new HashSet<Long>();
+                for (ServiceReference<?> reference : getServiceReferences(clazz, changedFilter)) {
+                    found.add((Long) reference.getProperty(Constants.SERVICE_ID));
+                    servicesTable.put(new ServiceData(reference).toCompositeData(items));
+                }
+                for (Long id : delta.changed) {
+                    if (!found.contains(id)) {
+                        removed.add(id);
+                    }
+                }
+            }
+        }
+        return toDelta(SERVICES_DELTA_TYPE, SERVICES, servicesTable, next, delta == null, removed);
+    }
+
+    private Collection<ServiceReference<?>> getServiceReferences(String clazz, String filter) {
+        ServiceReference<?>[] references;
+        try {
+            references = bundleContext.getAllServiceReferences(clazz, filter);
+        } catch (InvalidSyntaxException e) {
+            throw new IllegalStateException("Failed to retrieve all service references", e);
+        }
+        if (references == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(references);
+    }
+
+    /**
+     * @see org.apache.aries.jmx.framework.StateDeltaMBean#listPackagesSince(long)
+     */
+    public CompositeData listPackagesSince(long generation) throws IOException {
+        StateJournal current = journal;
+        long next = current != null ? current.getGeneration() : 0;
+        boolean complete = current == null || current.wiringChangedSince(generation);
+
+        TabularData packagesTable;
+        if (complete) {
+            packagesTable = new PackageState(bundleContext, packageAdmin).listPackages();
+        } else {
+            packagesTable = new TabularDataSupport(PACKAGES_TYPE);
+        }
+        Map<String, Object> items = new HashMap<String, Object>();
+        items.put(GENERATION, next);
+        items.put(COMPLETE, complete);
+        items.put(PACKAGES, packagesTable);
+        return toCompositeData(PACKAGES_DELTA_TYPE, items);
+    }
+
+    private static long generationOf(StateJournal.Delta delta, StateJournal current) {
+        if (delta != null) {
+            return delta.generation;
+        }
+        // taken before the listing, a change made meanwhile may be reported twice but is never missed
+        return current != null ? current.getGeneration() : 0;
+    }
+
+    private static CompositeData toDelta(CompositeType type, String tableItem, TabularData table, long generation,
+            boolean complete, Set<Long> removed) {
+        Map<String, Object> items = new HashMap<String, Object>();
+        items.put(GENERATION, generation);
+        items.put(COMPLETE, complete);
+        items.put(tableItem, table);
+        items.put(REMOVED, removed.toArray(new Long[removed.size()]));
+        return toCompositeData(type, items);
+    }
+
+    private static CompositeData toCompositeData(CompositeType type, Map<String, Object> items) {
+        try {
+            return new CompositeDataSupport(type, items);
+        } catch (OpenDataException e) {
+            throw new IllegalStateException("Failed to create CompositeData for " + type.getTypeName(), e);
+        }
+    }
+
+    /**
+     * @see javax.management.MBeanRegistration#preRegister(javax.management.MBeanServer, javax.management.ObjectName)
+     */
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return name;
+    }
+
+    /**
+     * @see javax.management.MBeanRegistration#postRegister(java.lang.Boolean)
+     */
+    public void postRegister(Boolean registrationDone) {
+        if (registrationDone && registrations.incrementAndGet() == 1) {
+            StateJournal newJournal = new StateJournal();
+            bundleContext.addBundleListener(newJournal);
+            bundleContext.addServiceListener(newJournal);
+            bundleContext.addFrameworkListener(newJournal);
+            journal = newJournal;
+        }
+    }
+
+    public void preDeregister() throws Exception {
+        // No action
+    }
+
+    /**
+     * @see javax.management.MBeanRegistration#postDeregister()
+     */
+    public void postDeregister() {
+        if (registrations.decrementAndGet() < 1) {
+            shutDown();
+        }
+    }
+
+    /*
+     * Stops listening to framework events
+     */
+    protected void shutDown() {
+        StateJournal current = journal;
+        journal = null;
+        if (current != null) {
+            try {
+                bundleContext.removeBundleListener(current);
+                bundleContext.removeServiceListener(current);
+                bundleContext.removeFrameworkListener(current);
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.aries.jmx.framework;
+
+import java.io.IOException;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.SimpleType;
+
+import org.osgi.jmx.Item;
+import org.osgi.jmx.JmxConstants;
+import org.osgi.jmx.framework.BundleStateMBean;
+import org.osgi.jmx.framework.PackageStateMBean;
+import org.osgi.jmx.framework.ServiceStateMBean;
+
+/**
+ * <p>
+ * Aries extension to the framework MBeans for clients that poll the bundle, service and package state. Instead of
+ * the full tables returned by {@link BundleStateMBean#listBundles()}, {@link ServiceStateMBean#listServices()} and
+ * {@link PackageStateMBean#listPackages()}, the operations of this MBean only return what changed since the
+ * generation the client got from its previous call.
+ * </p>
+ * <p>
+ * A client starts with a generation of 0, which always gets the full table, and then passes the {@link #GENERATION}
+ * of each result to its next call. When {@link #COMPLETE} is <code>true</code> the result holds the full table and
+ * replaces whatever the client had. Otherwise the result holds the rows that were added or changed, and the
+ * identifiers of the rows that were removed. A row may be reported again even if it did not change.
+ * </p>
+ * <p>
+ * Changes are taken from the bundle, service and framework events delivered while this MBean is registered. Start
+ * levels, persistent starts and the bundles using a service can change without an event and are not tracked.
+ * </p>
+ *
+ * @version $Rev$ $Date$
+ */
+public interface StateDeltaMBean {
+
+    /**
+     * The object name for this MBean.
+     */
+    String OBJECTNAME = "org.apache.aries.jmx:type=stateDelta,version=1.0";
+
+    /**
+     * The key GENERATION, used in {@link #GENERATION_ITEM}.
+     */
+    String GENERATION = "Generation";
+
+    /**
+     * The item containing the generation to pass to the next call. The key is {@link #GENERATION}, and the type is
+     * {@link SimpleType#LONG}.
+     */
+    Item GENERATION_ITEM = new Item(GENERATION, "The generation to pass to the next call", SimpleType.LONG);
+
+    /**
+     * The key COMPLETE, used in {@link #COMPLETE_ITEM}.
+     */
+    String COMPLETE = "Complete";
+
+    /**
+     * The item telling whether the result holds the full table rather than the changes. The key is
+     * {@link #COMPLETE}, and the type is {@link SimpleType#BOOLEAN}.
+     */
+    Item COMPLETE_ITEM = new Item(COMPLETE, "Whether the result holds the full table rather than the changes",
+            SimpleType.BOOLEAN);
+
+    /**
+     * The key REMOVED, used in {@link #REMOVED_ITEM}.
+     */
+    String REMOVED = "Removed";
+
+    /**
+     * The item containing the identifiers of the rows that were removed. The key is {@link #REMOVED}, and the type
+     * is {@link JmxConstants#LONG_ARRAY_TYPE}.
+     */
+    Item REMOVED_ITEM = new Item(REMOVED, "The identifiers of the rows that were removed",
+            JmxConstants.LONG_ARRAY_TYPE);
+
+    /**
+     * The key BUNDLES, used in {@link #BUNDLES_ITEM}.
+     */
+    String BUNDLES = "Bundles";
+
+    /**
+     * The item containing the bundles that were added or changed. The key is {@link #BUNDLES}, and the type is
+     * {@link BundleStateMBean#BUNDLES_TYPE}.
+     */
+    Item BUNDLES_ITEM = new Item(BUNDLES, "The bundles that were added or changed", BundleStateMBean.BUNDLES_TYPE);
+
+    /**
+     * The key SERVICES, used in {@link #SERVICES_ITEM}.
+     */
+    String SERVICES = "Services";
+
+    /**
+     * The item containing the services that were added or changed. The key is {@link #SERVICES}, and the type is
+     * {@link ServiceStateMBean#SERVICES_TYPE}.
+     */
+    Item SERVICES_ITEM = new Item(SERVICES, "The services that were added or changed",
+            ServiceStateMBean.SERVICES_TYPE);
+
+    /**
+     * The key PACKAGES, used in {@link #PACKAGES_ITEM}.
+     */
+    String PACKAGES = "Packages";
+
+    /**
+     * The item containing the packages. The key is {@link #PACKAGES}, and the type is
+     * {@link PackageStateMBean#PACKAGES_TYPE}.
+     */
+    Item PACKAGES_ITEM = new Item(PACKAGES, "The packages", PackageStateMBean.PACKAGES_TYPE);
+
+    /**
+     * The changes to the bundles. The {@link #REMOVED} identifiers are bundle identifiers.
+     */
+    CompositeType BUNDLES_DELTA_TYPE = Item.compositeType("BUNDLES_DELTA", "The changes to the bundles",
+            GENERATION_ITEM, COMPLETE_ITEM, BUNDLES_ITEM, REMOVED_ITEM);
+
+    /**
+     * The changes to the services. The {@link #REMOVED} identifiers are service identifiers.
+     */
+    CompositeType SERVICES_DELTA_TYPE = Item.compositeType("SERVICES_DELTA", "The changes to the services",
+            GENERATION_ITEM, COMPLETE_ITEM, SERVICES_ITEM, REMOVED_ITEM);
+
+    /**
+     * The changes to the packages. Packages are not tracked one by one: if any bundle was rewired the result holds
+     * the full table, otherwise it is empty.
+     */
+    CompositeType PACKAGES_DELTA_TYPE = Item.compositeType("PACKAGES_DELTA", "The changes to the packages",
+            GENERATION_ITEM, COMPLETE_ITEM, PACKAGES_ITEM);
+
+    /**
+     * Answer the current generation.
+     *
+     * @return the current generation
+     * @throws IOException
+     */
+    long getGeneration() throws IOException;
+
+    /**
+     * Answer the bundles that changed since a generation, with all their items.
+     *
+     * @param generation the generation of the previous call, or 0
+     * @return the changes, typed by {@link #BUNDLES_DELTA_TYPE}
+     * @throws IOException
+     */
+    CompositeData listBundlesSince(long generation) throws IOException;
+
+    /**
+     * Answer the bundles that changed since a generation, with the given items.
+     *
+     * @param generation the generation of the previous call, or 0
+     * @param items the items of {@link BundleStateMBean#BUNDLE_TYPE} to return
+     * @return the changes, typed by {@link #BUNDLES_DELTA_TYPE}
+     * @throws IOException
+     */
+    CompositeData listBundlesSince(long generation, String... items) throws IOException;
+
+    /**
+     * Answer the services that changed since a generation, with all their items.
+     *
+     * @param generation the generation of the previous call, or 0
+     * @return the changes, typed by {@link #SERVICES_DELTA_TYPE}
+     * @throws IOException
+     */
+    CompositeData listServicesSince(long generation) throws IOException;
+
+    /**
+     * Answer the services matching a class and filter that changed since a generation, with the given items. A
+     * service that no longer matches is reported as removed.
+     *
+     * @param generation the generation of the previous call, or 0
+     * @param clazz the class of the services, or <code>null</code> for any
+     * @param filter the filter of the services, or <code>null</code> for any
+     * @param items the items of {@link ServiceStateMBean#SERVICE_TYPE} to return
+     * @return the changes, typed by {@link #SERVICES_DELTA_TYPE}
+     * @throws IOException
+     */
+    CompositeData listServicesSince(long generation, String clazz, String filter, String... items)
+            throws IOException;
+
+    /**
+     * Answer the packages if any bundle was rewired since a generation.
+     *
+     * @param generation the generation of the previous call, or 0
+     * @return the changes, typed by {@link #PACKAGES_DELTA_TYPE}
+     * @throws IOException
+     */
+    CompositeData listPackagesSince(long generation) throws IOException;
+
+}
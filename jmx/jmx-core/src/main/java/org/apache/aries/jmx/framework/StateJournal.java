@@ -0,0 +1,199 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.aries.jmx.framework;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.osgi.framework.AllServiceListener;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceEvent;
+
+/**
+ * <p>
+ * Journal of the bundles and services changed by framework events, from which {@link StateDelta} answers what
+ * changed since a generation. Every event starts a new generation. For each bundle and service the journal keeps
+ * the generation of its last change, ordered by generation, so that the changes since a generation are found
+ * without looking at the bundles and services that did not change.
+ * </p>
+ * <p>
+ * Only the most recent changes are kept. Changes since a generation older than those that were dropped, or since a
+ * generation handed out by another journal, are not known and the caller has to list everything again.
+ * </p>
+ *
+ * @version $Rev$ $Date$
+ */
+class StateJournal implements BundleListener, AllServiceListener, FrameworkListener {
+
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private final int capacity;
+    private final Changes bundles = new Changes();
+    private final Changes services = new Changes();
+    private long generation;
+    private long oldestKnown;
+    private long wiringGeneration;
+
+    StateJournal() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    StateJournal(int capacity) {
+        this.capacity = capacity;
+        // start from the current time, so that the generations of an earlier journal are older than ours
+        generation = System.currentTimeMillis() << 16;
+        oldestKnown = generation;
+        wiringGeneration = generation;
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the bundles changed since the generation, or <code>null</code> if they are not known
+     */
+    synchronized Delta bundlesSince(long since) {
+        return bundles.since(since);
+    }
+
+    /**
+     * @return the services changed since the generation, or <code>null</code> if they are not known
+     */
+    synchronized Delta servicesSince(long since) {
+        return services.since(since);
+    }
+
+    /**
+     * @return whether any bundle may have been rewired since the generation
+     */
+    synchronized boolean wiringChangedSince(long since) {
+        return !isKnown(since) || wiringGeneration > since;
+    }
+
+    public synchronized void bundleChanged(BundleEvent event) {
+        generation++;
+        Bundle bundle = event.getBundle();
+        switch (event.getType()) {
+        case BundleEvent.UNINSTALLED:
+            bundles.record(bundle.getBundleId(), true);
+            wiringGeneration = generation;
+            break;
+        case BundleEvent.INSTALLED:
+        case BundleEvent.RESOLVED:
+        case BundleEvent.UNRESOLVED:
+        case BundleEvent.UPDATED:
+            bundles.record(bundle.getBundleId(), false);
+            wiringGeneration = generation;
+            break;
+        default:
+            bundles.record(bundle.getBundleId(), false);
+            break;
+        }
+    }
+
+    public synchronized void serviceChanged(ServiceEvent event) {
+        generation++;
+        long serviceId = (Long) event.getServiceReference().getProperty(Constants.SERVICE_ID);
+        services.record(serviceId, event.getType() == ServiceEvent.UNREGISTERING);
+        if (event.getType() != ServiceEvent.MODIFIED) {
+            // the registered services of the registering bundle changed as well
+            Bundle bundle = event.getServiceReference().getBundle();
+            if (bundle != null) {
+                bundles.record(bundle.getBundleId(), false);
+            }
+        }
+    }
+
+    public synchronized void frameworkEvent(FrameworkEvent event) {
+        if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED) {
+            generation++;
+            wiringGeneration = generation;
+        }
+    }
+
+    private boolean isKnown(long since) {
+        return since >= oldestKnown && since <= generation;
+    }
+
+    /**
+     * The identifiers changed and removed since a generation, and the generation they were taken at.
+     */
+    static class Delta {
+        final long generation;
+        final Set<Long> changed = new LinkedHashSet<Long>();
+        final Set<Long> removed = new LinkedHashSet<Long>();
+
+        Delta(long generation) {
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * The last change of each bundle or service, by identifier and by generation.
+     */
+    private class Changes {
+        private final Map<Long, Long> generations = new HashMap<Long, Long>();
+        private final TreeMap<Long, Change> byGeneration = new TreeMap<Long, Change>();
+
+        void record(long id, boolean removed) {
+            Long previous = generations.put(id, generation);
+            if (previous != null) {
+                byGeneration.remove(previous);
+            }
+            byGeneration.put(generation, new Change(id, removed));
+            while (byGeneration.size() > capacity) {
+                Map.Entry<Long, Change> oldest = byGeneration.pollFirstEntry();
+                generations.remove(oldest.getValue().id);
+                oldestKnown = Math.max(oldestKnown, oldest.getKey());
+            }
+        }
+
+        Delta since(long since) {
+            if (!isKnown(since)) {
+                return null;
+            }
+            Delta delta = new Delta(generation);
+            for (Change change : byGeneration.tailMap(since, false).values()) {
+                if (change.removed) {
+                    delta.removed.add(change.id);
+                } else {
+                    delta.changed.add(change.id);
+                }
+            }
+            return delta;
+        }
+    }
+
+    private static class Change {
+        private final long id;
+        private final boolean removed;
+
+        Change(long id, boolean removed) {
+            this.id = id;
+            this.removed = removed;
+        }
+    }
+}
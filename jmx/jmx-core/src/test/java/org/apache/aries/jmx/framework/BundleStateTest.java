@@ -19,13 +19,21 @@ package org.apache.aries.jmx.framework;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.atMost;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
+import static org.osgi.jmx.framework.BundleStateMBean.FRAGMENTS;
+import static org.osgi.jmx.framework.BundleStateMBean.LAST_MODIFIED;
+import static org.osgi.jmx.framework.BundleStateMBean.LOCATION;
 import static org.osgi.jmx.framework.BundleStateMBean.OBJECTNAME;
+import static org.osgi.jmx.framework.BundleStateMBean.STATE;
+import static org.osgi.jmx.framework.BundleStateMBean.VERSION;
 
 import java.util.LinkedList;
 import java.util.List;
@@ -38,6 +46,7 @@ import javax.management.Notification;
 import javax.management.NotificationListener;
 import javax.management.ObjectName;
 import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
 
 import org.apache.aries.jmx.Logger;
 import org.apache.aries.jmx.codec.BundleEventData;
@@ -47,6 +56,8 @@ import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.service.packageadmin.PackageAdmin;
 import org.osgi.service.startlevel.StartLevel;
 
@@ -231,5 +242,114 @@ public class BundleStateTest {
         assertEquals(0, attributeChanges.size());
     }
 
+    @Test
+    public void testListBundlesEvaluatesRequestedItemsOnly() throws Exception {
+        BundleContext context = mock(BundleContext.class);
+        PackageAdmin admin = mock(PackageAdmin.class);
+        StartLevel startLevel = mock(StartLevel.class);
+        Logger logger = mock(Logger.class);
+
+        Bundle b1 = mock(Bundle.class);
+        when(b1.getBundleId()).thenReturn(new Long(9));
+        when(b1.getState()).thenReturn(Bundle.ACTIVE);
+        when(b1.getVersion()).thenReturn(new Version("1.2.3"));
+        when(context.getBundles()).thenReturn(new Bundle[] { b1 });
+
+        BundleState bundleState = new BundleState(context, admin, startLevel, new StateConfig(), logger);
+
+        TabularData table = bundleState.listBundles(STATE, VERSION);
+        CompositeData data = table.get(new Object[] { new Long(9) });
+        assertEquals("ACTIVE", data.get(STATE));
+        assertEquals("1.2.3", data.get(VERSION));
+        assertNull(data.get(LOCATION));
+        verify(b1, never()).getLocation();
+        verifyZeroInteractions(admin, startLevel);
+
+        // once registered, items are cached until an event for the bundle
+        bundleState.preRegister(mock(MBeanServer.class), new ObjectName(OBJECTNAME));
+        bundleState.postRegister(true);
+        ArgumentCaptor<BundleListener> argument = ArgumentCaptor.forClass(BundleListener.class);
+        verify(context).addBundleListener(argument.capture());
+
+        bundleState.listBundles(VERSION);
+        bundleState.listBundles(VERSION);
+        verify(b1, times(2)).getVersion();
+
+        BundleEvent updatedEvent = mock(BundleEvent.class);
+        when(updatedEvent.getBundle()).thenReturn(b1);
+        when(updatedEvent.getType()).thenReturn(BundleEvent.UPDATED);
+        argument.getValue().bundleChanged(updatedEvent);
+
+        bundleState.listBundles(VERSION);
+        verify(b1, times(3)).getVersion();
+
+        bundleState.postDeregister();
+    }
+
+    @Test
+    public void testListBundlesSeesStateChangesBeforeTheirEvents() throws Exception {
+        BundleContext context = mock(BundleContext.class);
+        Logger logger = mock(Logger.class);
+
+        Bundle b1 = mock(Bundle.class);
+        when(b1.getBundleId()).thenReturn(new Long(9));
+        when(b1.getState()).thenReturn(Bundle.RESOLVED);
+        when(b1.getLastModified()).thenReturn(1L);
+        when(b1.getVersion()).thenReturn(new Version("1.2.3"));
+        when(context.getBundles()).thenReturn(new Bundle[] { b1 });
+
+        BundleState bundleState = new BundleState(context, mock(PackageAdmin.class), mock(StartLevel.class),
+                new StateConfig(), logger);
+        bundleState.preRegister(mock(MBeanServer.class), new ObjectName(OBJECTNAME));
+        bundleState.postRegister(true);
+
+        CompositeData data = bundleState.listBundles(STATE, LAST_MODIFIED, VERSION).get(new Object[] { new Long(9) });
+        assertEquals("RESOLVED", data.get(STATE));
+        assertEquals(1L, data.get(LAST_MODIFIED));
+
+        // the bundle starts and is updated, but the events have not been delivered yet
+        when(b1.getState()).thenReturn(Bundle.ACTIVE);
+        when(b1.getLastModified()).thenReturn(2L);
+        when(b1.getVersion()).thenReturn(new Version("1.2.4"));
+
+        data = bundleState.listBundles(STATE, LAST_MODIFIED, VERSION).get(new Object[] { new Long(9) });
+        assertEquals("ACTIVE", data.get(STATE));
+        assertEquals(2L, data.get(LAST_MODIFIED));
+        assertEquals("1.2.4", data.get(VERSION));
+        verify(b1, times(2)).getVersion();
+
+        bundleState.listBundles(VERSION);
+        verify(b1, times(2)).getVersion();
+
+        bundleState.postDeregister();
+    }
+
+    @Test
+    public void testListBundlesSeesWiringChangesBeforeTheirEvents() throws Exception {
+        BundleContext context = mock(BundleContext.class);
+        PackageAdmin admin = mock(PackageAdmin.class);
+        Logger logger = mock(Logger.class);
+
+        Bundle b1 = mock(Bundle.class);
+        when(b1.getBundleId()).thenReturn(new Long(9));
+        when(b1.adapt(BundleWiring.class)).thenReturn(mock(BundleWiring.class));
+        when(context.getBundles()).thenReturn(new Bundle[] { b1 });
+
+        BundleState bundleState = new BundleState(context, admin, mock(StartLevel.class), new StateConfig(), logger);
+        bundleState.preRegister(mock(MBeanServer.class), new ObjectName(OBJECTNAME));
+        bundleState.postRegister(true);
+
+        bundleState.listBundles(FRAGMENTS);
+        bundleState.listBundles(FRAGMENTS);
+        verify(admin, times(1)).getFragments(b1);
+
+        // the bundle is refreshed, but the events have not been delivered yet
+        when(b1.adapt(BundleWiring.class)).thenReturn(mock(BundleWiring.class));
+
+        bundleState.listBundles(FRAGMENTS);
+        verify(admin, times(2)).getFragments(b1);
+
+        bundleState.postDeregister();
+    }
 
 }
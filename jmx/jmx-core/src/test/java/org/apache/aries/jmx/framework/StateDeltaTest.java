@@ -0,0 +1,196 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.aries.jmx.framework;
+
+import static org.apache.aries.jmx.framework.StateDeltaMBean.BUNDLES;
+import static org.apache.aries.jmx.framework.StateDeltaMBean.COMPLETE;
+import static org.apache.aries.jmx.framework.StateDeltaMBean.GENERATION;
+import static org.apache.aries.jmx.framework.StateDeltaMBean.OBJECTNAME;
+import static org.apache.aries.jmx.framework.StateDeltaMBean.PACKAGES;
+import static org.apache.aries.jmx.framework.StateDeltaMBean.REMOVED;
+import static org.apache.aries.jmx.framework.StateDeltaMBean.SERVICES;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.osgi.jmx.framework.BundleStateMBean.STATE;
+import static org.osgi.jmx.framework.ServiceStateMBean.IDENTIFIER;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.osgi.framework.AllServiceListener;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.osgi.service.startlevel.StartLevel;
+
+/**
+ * {@link StateDeltaMBean} test case.
+ *
+ * @version $Rev$ $Date$
+ */
+public class StateDeltaTest {
+
+    private BundleContext context;
+    private Bundle b1;
+    private Bundle b2;
+    private StateDelta stateDelta;
+
+    @Before
+    public void setUp() throws Exception {
+        context = mock(BundleContext.class);
+        b1 = mock(Bundle.class);
+        when(b1.getBundleId()).thenReturn(new Long(1));
+        when(b1.getState()).thenReturn(Bundle.ACTIVE);
+        b2 = mock(Bundle.class);
+        when(b2.getBundleId()).thenReturn(new Long(2));
+        when(b2.getState()).thenReturn(Bundle.RESOLVED);
+        when(context.getBundles()).thenReturn(new Bundle[] { b1, b2 });
+        when(context.getBundle(1)).thenReturn(b1);
+        when(context.getBundle(2)).thenReturn(b2);
+
+        stateDelta = new StateDelta(context, mock(PackageAdmin.class), mock(StartLevel.class));
+    }
+
+    @Test
+    public void testListBundlesSince() throws Exception {
+        // not registered, everything is listed
+        CompositeData delta = stateDelta.listBundlesSince(0, STATE);
+        assertTrue((Boolean) delta.get(COMPLETE));
+        assertEquals(2, ((TabularData) delta.get(BUNDLES)).size());
+
+        BundleListener listener = register();
+        delta = stateDelta.listBundlesSince(0, STATE);
+        assertTrue((Boolean) delta.get(COMPLETE));
+        long generation = (Long) delta.get(GENERATION);
+
+        delta = stateDelta.listBundlesSince(generation, STATE);
+        assertFalse((Boolean) delta.get(COMPLETE));
+        assertEquals(0, ((TabularData) delta.get(BUNDLES)).size());
+        assertEquals(generation, delta.get(GENERATION));
+
+        listener.bundleChanged(bundleEvent(b2, BundleEvent.STARTED));
+        delta = stateDelta.listBundlesSince(generation, STATE);
+        assertFalse((Boolean) delta.get(COMPLETE));
+        TabularData bundles = (TabularData) delta.get(BUNDLES);
+        assertEquals(1, bundles.size());
+        assertNotNull(bundles.get(new Object[] { new Long(2) }));
+        assertTrue((Long) delta.get(GENERATION) > generation);
+        generation = (Long) delta.get(GENERATION);
+
+        when(context.getBundle(1)).thenReturn(null);
+        listener.bundleChanged(bundleEvent(b1, BundleEvent.UNINSTALLED));
+        delta = stateDelta.listBundlesSince(generation, STATE);
+        assertFalse((Boolean) delta.get(COMPLETE));
+        assertEquals(0, ((TabularData) delta.get(BUNDLES)).size());
+        assertArrayEquals(new Long[] { new Long(1) }, (Long[]) delta.get(REMOVED));
+
+        // a generation that was never handed out
+        delta = stateDelta.listBundlesSince(generation + 1000, STATE);
+        assertTrue((Boolean) delta.get(COMPLETE));
+
+        stateDelta.postDeregister();
+        verify(context).removeBundleListener(listener);
+    }
+
+    @Test
+    public void testListServicesSince() throws Exception {
+        register();
+        ArgumentCaptor<ServiceListener> argument = ArgumentCaptor.forClass(ServiceListener.class);
+        verify(context).addServiceListener(argument.capture());
+        assertTrue(argument.getValue() instanceof AllServiceListener);
+        ServiceListener listener = argument.getValue();
+
+        long generation = (Long) stateDelta.listServicesSince(0).get(GENERATION);
+
+        ServiceReference<?> reference = mock(ServiceReference.class);
+        when(reference.getProperty(Constants.SERVICE_ID)).thenReturn(new Long(5));
+        when(reference.getProperty(Constants.OBJECTCLASS)).thenReturn(new String[] { "org.apache.Service" });
+        when(reference.getPropertyKeys()).thenReturn(new String[0]);
+        when((Object) reference.getBundle()).thenReturn(b1);
+        when(context.getAllServiceReferences(null, "(|(service.id=5))")).thenReturn(new ServiceReference[] { reference });
+
+        listener.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, reference));
+        CompositeData delta = stateDelta.listServicesSince(generation, null, null, IDENTIFIER);
+        assertFalse((Boolean) delta.get(COMPLETE));
+        TabularData services = (TabularData) delta.get(SERVICES);
+        assertEquals(1, services.size());
+        assertNotNull(services.get(new Object[] { new Long(5) }));
+        generation = (Long) delta.get(GENERATION);
+
+        // the registering bundle lists a new registered service
+        delta = stateDelta.listBundlesSince(generation - 1, STATE);
+        assertEquals(1, ((TabularData) delta.get(BUNDLES)).size());
+
+        listener.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, reference));
+        delta = stateDelta.listServicesSince(generation, null, null, IDENTIFIER);
+        assertEquals(0, ((TabularData) delta.get(SERVICES)).size());
+        assertArrayEquals(new Long[] { new Long(5) }, (Long[]) delta.get(REMOVED));
+    }
+
+    @Test
+    public void testListPackagesSince() throws Exception {
+        BundleListener listener = register();
+        ArgumentCaptor<FrameworkListener> argument = ArgumentCaptor.forClass(FrameworkListener.class);
+        verify(context).addFrameworkListener(argument.capture());
+
+        CompositeData delta = stateDelta.listPackagesSince(0);
+        assertTrue((Boolean) delta.get(COMPLETE));
+        long generation = (Long) delta.get(GENERATION);
+
+        listener.bundleChanged(bundleEvent(b2, BundleEvent.STARTED));
+        delta = stateDelta.listPackagesSince(generation);
+        assertFalse((Boolean) delta.get(COMPLETE));
+        assertEquals(0, ((TabularData) delta.get(PACKAGES)).size());
+
+        listener.bundleChanged(bundleEvent(b2, BundleEvent.RESOLVED));
+        delta = stateDelta.listPackagesSince(generation);
+        assertTrue((Boolean) delta.get(COMPLETE));
+    }
+
+    private BundleListener register() throws Exception {
+        stateDelta.preRegister(mock(MBeanServer.class), new ObjectName(OBJECTNAME));
+        stateDelta.postRegister(true);
+        ArgumentCaptor<BundleListener> argument = ArgumentCaptor.forClass(BundleListener.class);
+        verify(context).addBundleListener(argument.capture());
+        return argument.getValue();
+    }
+
+    private static BundleEvent bundleEvent(Bundle bundle, int type) {
+        BundleEvent event = mock(BundleEvent.class);
+        when(event.getBundle()).thenReturn(bundle);
+        when(event.getType()).thenReturn(type);
+        return event;
+    }
+}
@@ -117,7 +117,10 @@ public final class ContextHelper {
             }
         }
 
-        ContextProvider provider = getContextProvider(context, environment);
+        ContextProviderCache cache = Activator.getContextProviderCache();
+        ContextProvider provider = cache != null
+                ? cache.getContextProvider(context, environment)
+                : getContextProvider(context, environment);
 
         if (provider != null) {
             return new DelegateContext(context, provider);
@@ -33,6 +33,10 @@ public abstract class ContextProvider {
         this.reference = reference;
     }
 
+    public ServiceReference<?> getReference() {
+        return reference;
+    }
+
     public boolean isValid() {
         return (reference.getBundle() != null);
     }
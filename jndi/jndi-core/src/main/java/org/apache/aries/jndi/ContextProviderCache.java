@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.jndi;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.jndi.JNDIConstants;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shares the {@link ContextProvider}s created for initial contexts between callers
+ * from the same bundle that ask for an equal environment, so that creating an
+ * InitialContext does not go through every InitialContextFactoryBuilder and
+ * InitialContextFactory service each time.
+ * <p>
+ * Only environments holding nothing but strings, numbers and booleans are shared.
+ * A caller changing the environment of its context gets a context of its own. The
+ * underlying context is still used by several callers, possibly from several
+ * threads, so this is only enabled on request.
+ * <p>
+ * The cache is released whenever an InitialContextFactoryBuilder or
+ * InitialContextFactory service comes, goes or changes, since that may change the
+ * provider that would be chosen, and per bundle when a bundle stops. A released
+ * provider is closed once the last context using it is closed.
+ */
+public final class ContextProviderCache {
+
+    private static final Logger logger = Logger.getLogger(ContextProviderCache.class.getName());
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong creations = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @return a provider for the environment, shared with other callers from the
+     *         same bundle if possible, or null if no provider can be found
+     */
+    public ContextProvider getContextProvider(BundleContext context, Hashtable<?, ?> environment)
+            throws NamingException {
+        Key key = Key.of(context.getBundle(), environment);
+        if (key == null) {
+            creations.incrementAndGet();
+            return ContextHelper.getContextProvider(context, environment);
+        }
+
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            ContextProvider shared = entry.share();
+            if (shared != null) {
+                hits.incrementAndGet();
+                return shared;
+            }
+            entries.remove(key, entry);
+        }
+
+        long created = generation.get();
+        ContextProvider provider = ContextHelper.getContextProvider(context, environment);
+        creations.incrementAndGet();
+        if (provider == null) {
+            return null;
+        }
+
+        entry = new Entry(provider);
+        ContextProvider shared = entry.share();
+        if (created == generation.get() && entries.putIfAbsent(key, entry) == null) {
+            // a release may have slipped in between the check and the put
+            if (created != generation.get() && entries.remove(key, entry)) {
+                entry.evict();
+            }
+        } else {
+            entry.evict();
+        }
+        return shared;
+    }
+
+    /**
+     * Release every cached provider, as the one that would be chosen may have changed.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        entries.values().removeIf(entry -> {
+            entry.evict();
+            return true;
+        });
+    }
+
+    /**
+     * Release the providers cached for a bundle.
+     */
+    public void release(Bundle bundle) {
+        entries.entrySet().removeIf(e -> {
+            if (e.getKey().bundle == bundle) {
+                e.getValue().evict();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return how many providers have been created, whether or not they were shared
+     */
+    public long getCreationCount() {
+        return creations.get();
+    }
+
+    /**
+     * @return how many times a cached provider was reused
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * A cached provider with the number of contexts using it. It is closed once it
+     * has been evicted and is no longer used.
+     */
+    private static final class Entry {
+        private final ContextProvider provider;
+        private int users;
+        private boolean evicted;
+
+        Entry(ContextProvider provider) {
+            this.provider = provider;
+        }
+
+        synchronized ContextProvider share() {
+            if (evicted || !provider.isValid()) {
+                return null;
+            }
+            users++;
+            return new SharedContextProvider(this);
+        }
+
+        synchronized void evict() {
+            evicted = true;
+            closeIfUnused();
+        }
+
+        synchronized void unshare() {
+            users--;
+            closeIfUnused();
+        }
+
+        private void closeIfUnused() {
+            if (evicted && users == 0) {
+                try {
+                    provider.close();
+                } catch (NamingException e) {
+                    logger.log(Level.FINE, "Exception caught", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The view of a cached provider handed to a single context. Closing it only
+     * closes the underlying provider if it is no longer cached or used.
+     */
+    static final class SharedContextProvider extends ContextProvider {
+        private final Entry entry;
+        private boolean closed;
+
+        private SharedContextProvider(Entry entry) {
+            super(null, entry.provider.getReference());
+            this.entry = entry;
+        }
+
+        @Override
+        public boolean isValid() {
+            return !closed && entry.provider.isValid();
+        }
+
+        @Override
+        public Context getContext() throws NamingException {
+            return entry.provider.getContext();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                entry.unshare();
+            }
+        }
+    }
+
+    private static final class Key {
+        private final Bundle bundle;
+        private final Map<String, Object> environment;
+        private final int hash;
+
+        private Key(Bundle bundle, Map<String, Object> environment) {
+            this.bundle = bundle;
+            this.environment = environment;
+            hash = 31 * System.identityHashCode(bundle) + environment.hashCode();
+        }
+
+        /**
+         * @return the key, or null if the environment holds values that cannot
+         *         safely be compared
+         */
+        static Key of(Bundle bundle, Hashtable<?, ?> environment) {
+            if (bundle == null) {
+                return null;
+            }
+            Map<String, Object> normalized = new HashMap<>();
+            for (Map.Entry<?, ?> e : environment.entrySet()) {
+                if (!(e.getKey() instanceof String)) {
+                    return null;
+                }
+                Object value = e.getValue();
+                if (JNDIConstants.BUNDLE_CONTEXT.equals(e.getKey()) && value instanceof BundleContext) {
+                    // the bundle is already part of the key
+                    continue;
+                }
+                if (!(value instanceof String || value instanceof Number || value instanceof Boolean)) {
+                    return null;
+                }
+                normalized.put((String) e.getKey(), value);
+            }
+            return new Key(bundle, Collections.unmodifiableMap(normalized));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return bundle == other.bundle && environment.equals(other.environment);
+        }
+    }
+}
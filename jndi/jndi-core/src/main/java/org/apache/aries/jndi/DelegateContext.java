@@ -53,6 +53,7 @@ public class DelegateContext implements DirContext, LdapContext {
     }
 
     public Object addToEnvironment(String propName, Object propVal) throws NamingException {
+        unshareContextProvider();
         Context ctx = getDefaultContext();
 
         if (ctx != null) {
@@ -166,6 +167,7 @@ public class DelegateContext implements DirContext, LdapContext {
     }
 
     public Object removeFromEnvironment(String propName) throws NamingException {
+        unshareContextProvider();
         Context ctx = getDefaultContext();
 
         if (ctx != null) {
@@ -207,9 +209,21 @@ public class DelegateContext implements DirContext, LdapContext {
         return toReturn;
     }
 
+    /**
+     * A context provider shared with other callers must not see our changes to the
+     * environment, so get one of our own.
+     */
+    private void unshareContextProvider() throws NamingException {
+        if (contextProvider instanceof ContextProviderCache.SharedContextProvider) {
+            contextProvider.close();
+            contextProvider = null;
+        }
+    }
+
     private Context getDefaultContext() throws NamingException {
         if (rebind) {
             if (contextProvider == null || !contextProvider.isValid()) {
+                unshareContextProvider();
                 contextProvider = ContextHelper.getContextProvider(bundleContext, env);
             }
             if (contextProvider == null) {
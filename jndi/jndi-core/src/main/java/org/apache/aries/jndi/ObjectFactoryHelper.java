@@ -29,6 +29,7 @@ import javax.naming.spi.ObjectFactory;
 import javax.naming.spi.ObjectFactoryBuilder;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.logging.Level;
@@ -38,6 +39,21 @@ public class ObjectFactoryHelper implements ObjectFactory {
 
     private static final Logger logger = Logger.getLogger(ObjectFactoryHelper.class.getName());
 
+    /**
+     * The service property an ObjectFactory may use to declare the class names of the
+     * References it handles. Factories that do not declare any are offered everything.
+     */
+    public static final String REFERENCE_CLASS = "aries.object.factory.reference.class";
+
+    /**
+     * The selection keys for objects that are not References, and for References without
+     * a class name. The keys for References with a class name have a prefix, so no class
+     * name can share a key with these.
+     */
+    private static final String NOT_A_REFERENCE = "object";
+    private static final String UNNAMED_REFERENCE = "ref";
+    private static final String REFERENCE_CLASS_PREFIX = "ref:";
+
     protected BundleContext defaultContext;
     protected BundleContext callerContext;
 
@@ -116,29 +132,47 @@ public class ObjectFactoryHelper implements ObjectFactory {
                                                          Context nameCtx,
                                                          Hashtable<?, ?> environment,
                                                          Attributes attrs) throws Exception {
-        for (ServiceReference<ObjectFactory> ref : Activator.getReferences(callerContext, ObjectFactory.class)) {
-            if (canCallObjectFactory(obj, ref)) {
-                ObjectFactory factory = Activator.getService(callerContext, ref);
-                if (factory != null) {
-                    Object result = getObjectFromFactory(obj, name, nameCtx, environment, attrs, factory);
-                    // if the result comes back and is not null and not the reference
-                    // object then we should return the result, so break out of the
-                    // loop we are in.
-                    if (result != null && result != obj) {
-                        return result;
-                    }
+        // The candidates are selected once per Reference class and remembered until
+        // the ObjectFactory services change, so a class no factory accepts costs a
+        // single lookup.
+        boolean isReference = obj instanceof Reference;
+        String referenceClass = isReference ? ((Reference) obj).getClassName() : null;
+        String key = !isReference ? NOT_A_REFERENCE
+                : referenceClass == null ? UNNAMED_REFERENCE : REFERENCE_CLASS_PREFIX + referenceClass;
+        for (ServiceReference<ObjectFactory> ref : Activator.getReferences(callerContext, ObjectFactory.class, key,
+                r -> canCallObjectFactory(isReference, r) && handlesReferenceClass(referenceClass, r))) {
+            ObjectFactory factory = Activator.getService(callerContext, ref);
+            if (factory != null) {
+                Object result = getObjectFromFactory(obj, name, nameCtx, environment, attrs, factory);
+                // if the result comes back and is not null and not the reference
+                // object then we should return the result, so break out of the
+                // loop we are in.
+                if (result != null && result != obj) {
+                    return result;
                 }
             }
         }
         return obj;
     }
 
-    private boolean canCallObjectFactory(Object obj, ServiceReference ref) {
-        if (obj instanceof Reference) return true;
+    private static boolean canCallObjectFactory(boolean isReference, ServiceReference<?> ref) {
+        if (isReference) return true;
         Object prop = ref.getProperty("aries.object.factory.requires.reference");
         return (prop == null) || !(prop instanceof Boolean) || !(Boolean) prop;
     }
 
+    private static boolean handlesReferenceClass(String referenceClass, ServiceReference<?> ref) {
+        if (referenceClass == null) return true;
+        Object prop = ref.getProperty(REFERENCE_CLASS);
+        if (prop instanceof String) {
+            return referenceClass.equals(prop);
+        } else if (prop instanceof String[]) {
+            return Arrays.asList((String[]) prop).contains(referenceClass);
+        } else {
+            return true;
+        }
+    }
+
     private Object getObjectInstanceUsingClassName(Object reference,
                                                    String className,
                                                    Object obj,
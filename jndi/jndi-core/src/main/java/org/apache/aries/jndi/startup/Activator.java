@@ -36,6 +36,7 @@ import javax.naming.spi.*;
 import java.lang.reflect.Field;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 /**
  * The activator for this bundle makes sure the static classes in it are
@@ -47,6 +48,7 @@ public class Activator implements BundleActivator {
 
     private static final String DISABLE_BUILDER = "org.apache.aries.jndi.disable.builder";
     private static final String FORCE_BUILDER = "org.apache.aries.jndi.force.builder";
+    private static final String SHARE_PROVIDERS = "org.apache.aries.jndi.share.providers";
 
     private static volatile Activator instance;
 
@@ -59,6 +61,8 @@ public class Activator implements BundleActivator {
 
     private AugmenterInvoker augmenterInvoker;
 
+    private ContextProviderCache contextProviders;
+
     private InitialContextFactoryBuilder originalICFBuilder;
     private OSGiInitialContextFactoryBuilder icfBuilder;
 
@@ -85,6 +89,14 @@ public class Activator implements BundleActivator {
         return instance.initialContextFactories.find(interfaceName);
     }
 
+    /**
+     * @return the cache of context providers, or null if providers are not shared
+     */
+    public static ContextProviderCache getContextProviderCache() {
+        Activator a = instance;
+        return a == null ? null : a.contextProviders;
+    }
+
     public static AugmenterInvoker getAugmenterInvoker() {
         return instance.augmenterInvoker;
     }
@@ -99,6 +111,15 @@ public class Activator implements BundleActivator {
         return cache.getReferences(clazz);
     }
 
+    /**
+     * @see CachingServiceTracker#getReferences(String, Predicate)
+     */
+    public static <T> Collection<ServiceReference<T>> getReferences(BundleContext context, Class<T> clazz,
+                                                                    String key, Predicate<ServiceReference<T>> selector) {
+        ServiceCache cache = getServiceCache(context);
+        return cache.getReferences(clazz, key, selector);
+    }
+
     public static <T> Iterable<T> getServices(BundleContext context, Class<T> clazz) {
         ServiceCache cache = getServiceCache(context);
         if (cache == null) {
@@ -120,6 +141,10 @@ public class Activator implements BundleActivator {
     public void start(BundleContext context) {
         instance = this;
 
+        if (shareProviders(context)) {
+            contextProviders = new ContextProviderCache();
+        }
+
         bundleServiceCaches = new BundleTracker<ServiceCache>(context, Bundle.ACTIVE, null) {
             @Override
             public ServiceCache addingBundle(Bundle bundle, BundleEvent event) {
@@ -131,13 +156,18 @@ public class Activator implements BundleActivator {
             @Override
             public void removedBundle(Bundle bundle, BundleEvent event, ServiceCache object) {
                 object.close();
+                if (contextProviders != null) {
+                    contextProviders.release(bundle);
+                }
             }
         };
         bundleServiceCaches.open();
 
-        initialContextFactories = new CachingServiceTracker<>(context, InitialContextFactory.class, Activator::getInitialContextFactoryInterfaces);
+        initialContextFactories = new CachingServiceTracker<>(context, InitialContextFactory.class, Activator::getInitialContextFactoryInterfaces,
+                this::releaseContextProviders);
         objectFactories = new CachingServiceTracker<>(context, ObjectFactory.class, Activator::getObjectFactorySchemes);
-        icfBuilders = new CachingServiceTracker<>(context, InitialContextFactoryBuilder.class);
+        icfBuilders = new CachingServiceTracker<>(context, InitialContextFactoryBuilder.class, ref -> Collections.emptyList(),
+                this::releaseContextProviders);
         urlObjectFactoryFinders = new CachingServiceTracker<>(context, URLObjectFactoryFinder.class);
 
         if (!disableBuilder(context)) {
@@ -224,6 +254,8 @@ public class Activator implements BundleActivator {
         objectFactories.close();
         initialContextFactories.close();
 
+        releaseContextProviders();
+
         instance = null;
     }
 
@@ -236,6 +268,17 @@ public class Activator implements BundleActivator {
         return !(revision.getDeclaredCapabilities(FORCE_BUILDER).isEmpty());
     }
 
+    private void releaseContextProviders() {
+        if (contextProviders != null) {
+            contextProviders.clear();
+        }
+    }
+
+    private boolean shareProviders(BundleContext context) {
+        String shareProviders = context.getProperty(SHARE_PROVIDERS);
+        return shareProviders != null && !"false".equals(shareProviders) && !"no".equals(shareProviders);
+    }
+
     private boolean disableBuilder(BundleContext context) {
         String disableBuilder = context.getProperty(DISABLE_BUILDER);
         if (disableBuilder != null) {
@@ -325,9 +368,17 @@ public class Activator implements BundleActivator {
             return (T) cache.computeIfAbsent(ref, this::doGetService);
         }
 
-        @SuppressWarnings("unchecked")
         <T> Collection<ServiceReference<T>> getReferences(Class<T> clazz) {
-            return (List) trackers.computeIfAbsent(clazz, c -> new CachingServiceTracker<>(context, c)).getReferences();
+            return getTracker(clazz).getReferences();
+        }
+
+        <T> Collection<ServiceReference<T>> getReferences(Class<T> clazz, String key, Predicate<ServiceReference<T>> selector) {
+            return getTracker(clazz).getReferences(key, selector);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> CachingServiceTracker<T> getTracker(Class<T> clazz) {
+            return (CachingServiceTracker<T>) trackers.computeIfAbsent(clazz, c -> new CachingServiceTracker<>(context, c));
         }
 
         void close() {
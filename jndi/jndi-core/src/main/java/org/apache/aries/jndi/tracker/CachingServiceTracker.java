@@ -24,7 +24,10 @@ import org.osgi.framework.ServiceReference;
 import org.osgi.util.tracker.ServiceTracker;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 public class CachingServiceTracker<S> extends ServiceTracker<S, ServiceReference<S>> {
 
@@ -32,14 +35,24 @@ public class CachingServiceTracker<S> extends ServiceTracker<S, ServiceReference
     private volatile Map<String, ServiceReference<S>> cache;
     /** The funtion to obtain the identifiers */
     private final Function<ServiceReference<S>, Iterable<String>> properties;
+    /** Called whenever a tracked service comes, goes or changes */
+    private final Runnable onChange;
+    /** The references in ranking order, as of a tracking count */
+    private volatile Snapshot<S> snapshot;
 
     public CachingServiceTracker(BundleContext context, Class<S> clazz) {
         this(context, clazz, ref -> Collections.emptyList());
     }
 
     public CachingServiceTracker(BundleContext context, Class<S> clazz, Function<ServiceReference<S>, Iterable<String>> properties) {
+        this(context, clazz, properties, () -> { });
+    }
+
+    public CachingServiceTracker(BundleContext context, Class<S> clazz, Function<ServiceReference<S>, Iterable<String>> properties,
+                                 Runnable onChange) {
         super(context, clazz, null);
         this.properties = properties;
+        this.onChange = onChange;
         open();
     }
 
@@ -61,26 +74,77 @@ public class CachingServiceTracker<S> extends ServiceTracker<S, ServiceReference
         return c.get(identifier);
     }
 
+    /**
+     * @return the tracked references, highest ranking first
+     */
     public List<ServiceReference<S>> getReferences() {
-        ServiceReference<S>[] refs = Utils.doPrivileged(this::getServiceReferences);
-        if (refs != null) {
-            Arrays.sort(refs, Comparator.reverseOrder());
-            return Arrays.asList(refs);
-        } else {
-            return Collections.emptyList();
+        return snapshot().references;
+    }
+
+    /**
+     * Get the tracked references accepted by a selector, highest ranking first. The
+     * selection is remembered under the key until a tracked service comes, goes or
+     * changes, so a key must always be used with an equivalent selector.
+     */
+    public List<ServiceReference<S>> getReferences(String key, Predicate<ServiceReference<S>> selector) {
+        Snapshot<S> s = snapshot();
+        return s.selections.computeIfAbsent(key, k -> s.select(selector));
+    }
+
+    private Snapshot<S> snapshot() {
+        // the tracking count changes once the tracked services have been updated,
+        // so a snapshot taken while they change is never used again
+        int trackingCount = getTrackingCount();
+        Snapshot<S> s = snapshot;
+        if (s == null || s.trackingCount != trackingCount) {
+            ServiceReference<S>[] refs = Utils.doPrivileged(this::getServiceReferences);
+            List<ServiceReference<S>> references;
+            if (refs != null) {
+                Arrays.sort(refs, Comparator.reverseOrder());
+                references = Collections.unmodifiableList(Arrays.asList(refs));
+            } else {
+                references = Collections.emptyList();
+            }
+            s = new Snapshot<>(trackingCount, references);
+            snapshot = s;
         }
+        return s;
     }
 
     public synchronized ServiceReference<S> addingService(ServiceReference<S> reference) {
         cache = null;
+        onChange.run();
         return reference;
     }
 
     public synchronized void removedService(ServiceReference<S> reference, ServiceReference<S> service) {
         cache = null;
+        onChange.run();
     }
 
     public void modifiedService(ServiceReference<S> reference, ServiceReference<S> service) {
         cache = null;
+        onChange.run();
+    }
+
+    private static final class Snapshot<S> {
+        private final int trackingCount;
+        private final List<ServiceReference<S>> references;
+        private final ConcurrentMap<String, List<ServiceReference<S>>> selections = new ConcurrentHashMap<>();
+
+        Snapshot(int trackingCount, List<ServiceReference<S>> references) {
+            this.trackingCount = trackingCount;
+            this.references = references;
+        }
+
+        List<ServiceReference<S>> select(Predicate<ServiceReference<S>> selector) {
+            List<ServiceReference<S>> selected = new ArrayList<>();
+            for (ServiceReference<S> ref : references) {
+                if (selector.test(ref)) {
+                    selected.add(ref);
+                }
+            }
+            return selected.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(selected);
+        }
     }
 }
@@ -41,6 +41,7 @@ import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -202,6 +203,47 @@ public class InitialContextTest {
         }
     }
 
+    @Test
+    public void testSharedContextProviders() throws Exception {
+        activator.stop(bc);
+        System.setProperty("org.apache.aries.jndi.share.providers", "true");
+        try {
+            activator = new Activator();
+            activator.start(bc);
+        } finally {
+            System.clearProperty("org.apache.aries.jndi.share.providers");
+        }
+
+        final AtomicInteger created = new AtomicInteger();
+        InitialContextFactory icf = new InitialContextFactory() {
+            public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException {
+                created.incrementAndGet();
+                return dummyContext("shared");
+            }
+        };
+        bc.registerService(new String[]{InitialContextFactory.class.getName(), "shared.factory"}, icf, (Dictionary) new Properties());
+
+        Properties props = new Properties();
+        props.put(JNDIConstants.BUNDLE_CONTEXT, bc);
+        props.put(Context.INITIAL_CONTEXT_FACTORY, "shared.factory");
+
+        assertEquals("shared", new InitialContext(props).lookup("something"));
+        assertEquals("shared", new InitialContext(props).lookup("something"));
+        assertEquals(1, created.get());
+        assertEquals(1, Activator.getContextProviderCache().getHitCount());
+
+        // a different environment gets a provider of its own
+        props.put("some.property", "value");
+        new InitialContext(props).lookup("something");
+        assertEquals(2, created.get());
+
+        // a new factory may change the provider to use
+        bc.registerService(InitialContextFactory.class.getName(), Skeleton.newMock(InitialContextFactory.class), (Dictionary) new Properties());
+        new InitialContext(props).lookup("something");
+        assertEquals(3, created.get());
+        assertEquals(3, Activator.getContextProviderCache().getCreationCount());
+    }
+
     /**
      * Create a minimal initial context with just the bundle context in the environment
      * @return
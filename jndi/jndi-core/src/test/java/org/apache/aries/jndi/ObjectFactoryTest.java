@@ -188,6 +188,55 @@ public class ObjectFactoryTest {
         NamingManager.getObjectInstance("Some dummy data", null, null, env);
     }
 
+    @Test
+    public void testFactoriesAreSelectedByReferenceClass() throws Exception {
+        registerReferenceClassFactory("b", "a.B");
+        registerReferenceClassFactory("d", "c.D");
+
+        assertEquals("d", NamingManager.getObjectInstance(new Reference("c.D"), null, null, env));
+        assertEquals("b", NamingManager.getObjectInstance(new Reference("a.B"), null, null, env));
+
+        Reference ref = new Reference("x.Y");
+        assertSame(ref, NamingManager.getObjectInstance(ref, null, null, env));
+
+        // a factory that declares nothing is offered every reference
+        registerReferenceClassFactory("any", null);
+        assertEquals("any", NamingManager.getObjectInstance(ref, null, null, env));
+    }
+
+    @Test
+    public void testEmptyReferenceClassIsNotSelectedAsAnObject() throws Exception {
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put("aries.object.factory.requires.reference", Boolean.TRUE);
+        ObjectFactory factory = Skeleton.newMock(ObjectFactory.class);
+        Skeleton.getSkeleton(factory).setReturnValue(new MethodCall(ObjectFactory.class, "getObjectInstance", Object.class, Name.class, Context.class, Hashtable.class), "ref");
+        bc.registerService(ObjectFactory.class.getName(), factory, props);
+        registerReferenceClassFactory("b", "a.B");
+
+        assertEquals("b", NamingManager.getObjectInstance("Some dummy data", null, null, env));
+        assertEquals("ref", NamingManager.getObjectInstance(new Reference(""), null, null, env));
+    }
+
+    @Test
+    public void testStarReferenceClassIsNotSelectedAsUnnamed() throws Exception {
+        registerReferenceClassFactory("b", "a.B");
+
+        Reference star = new Reference("*");
+        assertSame(star, NamingManager.getObjectInstance(star, null, null, env));
+        // a reference without a class name is offered to every factory
+        assertEquals("b", NamingManager.getObjectInstance(new Reference(null), null, null, env));
+    }
+
+    private void registerReferenceClassFactory(String result, String referenceClass) {
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        if (referenceClass != null) {
+            props.put(ObjectFactoryHelper.REFERENCE_CLASS, referenceClass);
+        }
+        ObjectFactory factory = Skeleton.newMock(ObjectFactory.class);
+        Skeleton.getSkeleton(factory).setReturnValue(new MethodCall(ObjectFactory.class, "getObjectInstance", Object.class, Name.class, Context.class, Hashtable.class), result);
+        bc.registerService(ObjectFactory.class.getName(), factory, props);
+    }
+
     @Test
     public void testContextDotObjectFactories() throws Exception {
         env.put(Context.OBJECT_FACTORIES, "org.apache.aries.jndi.ObjectFactoryTest$DummyObjectFactory");
@@ -52,7 +52,11 @@ public final class ServiceHelper {
      * A cache of proxies returned to the client
      */
     private static final ConcurrentMap<ServiceKey, WeakReference<Object>> proxyCache = new ConcurrentHashMap<>();
-    private static final CacheClearoutListener cacheClearoutListener = new CacheClearoutListener(proxyCache);
+    /**
+     * A cache of the services chosen for lookups
+     */
+    private static final ServiceLookupCache lookupCache = new ServiceLookupCache();
+    private static final CacheClearoutListener cacheClearoutListener = new CacheClearoutListener(proxyCache, lookupCache);
 
     public static Object getService(BundleContext ctx, OsgiName lookupName, String id,
                                     boolean dynamicRebind, Map<String, Object> env, boolean requireProxy) throws NamingException {
@@ -68,21 +72,50 @@ public final class ServiceHelper {
             }
         }
 
+        String serviceNameFilter;
+        if (id == null) {
+            serviceNameFilter = "(" + JNDIConstants.JNDI_SERVICENAME + "=" + serviceName + ')';
+        } else {
+            serviceNameFilter = "(&(" + Constants.SERVICE_ID + '=' + id + ")(" + JNDIConstants.JNDI_SERVICENAME
+                    + "=" + serviceName + "))";
+        }
+
+        // a lookup by service name only queries the registry by service name
+        String queryInterface = lookupName.isServiceNameBased() ? null : interfaceName;
+        String queryFilter = lookupName.isServiceNameBased() ? null : filter;
+        Bundle requesting = ctx.getBundle();
+
         ServicePair pair = null;
 
-        if (!lookupName.isServiceNameBased()) {
-            pair = findService(ctx, interfaceName, filter);
+        ServiceLookupCache.Entry cached = lookupCache.get(requesting, queryInterface, queryFilter, serviceNameFilter);
+        if (cached != null) {
+            pair = getServicePair(ctx, cached.ref);
+            if (pair != null) {
+                interfaceName = cached.interfaceName;
+                filter = cached.filter;
+            }
         }
 
         if (pair == null) {
-            interfaceName = null;
-            if (id == null) {
-                filter = "(" + JNDIConstants.JNDI_SERVICENAME + "=" + serviceName + ')';
-            } else {
-                filter = "(&(" + Constants.SERVICE_ID + '=' + id + ")(" + JNDIConstants.JNDI_SERVICENAME
-                        + "=" + serviceName + "))";
+            // Listen before reading the generation, so that no change made
+            // while the services are looked up can be missed
+            cacheClearoutListener.listen(ctx);
+            long generation = lookupCache.getGeneration();
+
+            if (!lookupName.isServiceNameBased()) {
+                pair = findService(ctx, interfaceName, filter);
+            }
+
+            if (pair == null) {
+                interfaceName = null;
+                filter = serviceNameFilter;
+                pair = findService(ctx, interfaceName, filter);
+            }
+
+            if (pair != null) {
+                cacheLookup(ctx, requesting, queryInterface, queryFilter, serviceNameFilter, generation,
+                        pair, interfaceName, filter);
             }
-            pair = findService(ctx, interfaceName, filter);
         }
 
         Object result = null;
@@ -106,6 +139,48 @@ public final class ServiceHelper {
         return result;
     }
 
+    private static void cacheLookup(BundleContext ctx, Bundle requesting, String queryInterface, String queryFilter,
+                                    String serviceNameFilter, long generation, ServicePair pair,
+                                    String interfaceName, String filter) {
+        String[] interfaces;
+        Filter[] filters;
+        try {
+            if (queryInterface == null) {
+                interfaces = new String[]{null};
+                filters = new Filter[]{FrameworkUtil.createFilter(serviceNameFilter)};
+            } else {
+                interfaces = new String[]{queryInterface, null};
+                filters = new Filter[]{queryFilter == null ? null : FrameworkUtil.createFilter(queryFilter),
+                        FrameworkUtil.createFilter(serviceNameFilter)};
+            }
+        } catch (InvalidSyntaxException e) {
+            // the lookup found something, so this should not happen. Just don't cache it.
+            return;
+        }
+
+        lookupCache.put(requesting, queryInterface, queryFilter, serviceNameFilter, generation,
+                new ServiceLookupCache.Entry(pair.ref, interfaceName, filter, interfaces, filters));
+    }
+
+    /**
+     * @return the cache of lookup results, for monitoring its hit rate
+     */
+    public static ServiceLookupCache getLookupCache() {
+        return lookupCache;
+    }
+
+    private static ServicePair getServicePair(BundleContext ctx, ServiceReference<?> ref) {
+        Object service = ctx.getService(ref);
+        if (service == null) {
+            return null;
+        }
+
+        ServicePair pair = new ServicePair();
+        pair.ref = ref;
+        pair.service = service;
+        return pair;
+    }
+
     private static Object proxy(final String interface1, final String filter, final boolean rebind,
                                 final BundleContext ctx, final ServicePair pair, final int timeout) {
         Object result = null;
@@ -277,14 +352,11 @@ public final class ServiceHelper {
     }
 
     public static Object getService(BundleContext ctx, ServiceReference<?> ref) {
-        Object service = ctx.getService(ref);
-        if (service == null) {
+        ServicePair pair = getServicePair(ctx, ref);
+        if (pair == null) {
             return null;
         }
 
-        ServicePair pair = new ServicePair();
-        pair.ref = ref;
-        pair.service = service;
         return proxy(null, null, false, ctx, pair, 0);
     }
 
@@ -307,20 +379,35 @@ public final class ServiceHelper {
          * The cache to purge
          */
         private final ConcurrentMap<ServiceKey, WeakReference<Object>> cache;
+        /**
+         * The lookup results to purge, if any
+         */
+        private final ServiceLookupCache lookups;
 
 
         public CacheClearoutListener(ConcurrentMap<ServiceKey, WeakReference<Object>> pc) {
+            this(pc, null);
+        }
+
+        public CacheClearoutListener(ConcurrentMap<ServiceKey, WeakReference<Object>> pc, ServiceLookupCache lc) {
             cache = pc;
+            lookups = lc;
         }
 
         public void bundleChanged(BundleEvent event) {
             if (event.getType() == BundleEvent.STOPPED) {
                 Bundle b = event.getBundle();
                 cache.keySet().removeIf(key -> key.requesting == b);
+                if (lookups != null) {
+                    lookups.bundleStopped(b);
+                }
             }
         }
 
         public void serviceChanged(ServiceEvent event) {
+            if (lookups != null) {
+                lookups.serviceChanged(event);
+            }
             if (event.getType() == ServiceEvent.UNREGISTERING) {
                 ServiceReference ref = event.getServiceReference();
                 Long serviceId = (Long) ref.getProperty(Constants.SERVICE_ID);
@@ -337,6 +424,10 @@ public final class ServiceHelper {
         }
 
         public void add(final BundleContext ctx, ServiceKey k) {
+            listen(ctx);
+        }
+
+        void listen(final BundleContext ctx) {
             // try to use the system bundle for our listener, if that fails we fall back to the calling context
             BundleContext systemBundle;
             Bundle system = ctx.getBundle(0);
@@ -349,8 +440,8 @@ public final class ServiceHelper {
             } else {
                 systemBundle = ctx;
             }
-            systemBundle.addBundleListener(cacheClearoutListener);
-            systemBundle.addServiceListener(cacheClearoutListener);
+            systemBundle.addBundleListener(this);
+            systemBundle.addServiceListener(this);
         }
     }
 
@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.jndi.services;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of the service chosen for an <code>osgi:service</code> lookup, so that
+ * repeated lookups of the same name by the same bundle do not query the service
+ * registry again. An entry remembers the registry queries that were used to find
+ * the service and is dropped when a service event could change their result: the
+ * chosen service going away or being modified, or another service being registered
+ * or modified so that it matches one of the queries.
+ * <p>
+ * Every service event that may invalidate an entry starts a new generation. A
+ * lookup that raced with such an event is not cached.
+ * <p>
+ * Entries are indexed by the id of their chosen service and by the interfaces of
+ * their queries, so a service event only looks at the entries it may affect. The
+ * indexes are guarded by the cache itself, while lookups read the entries without
+ * locking.
+ */
+public final class ServiceLookupCache {
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    /** The keys of the entries by the service id of the chosen service */
+    private final Map<Object, Set<Key>> byService = new HashMap<>();
+    /** The keys of the entries by the interface of their queries, null for any */
+    private final Map<String, Set<Key>> byInterface = new HashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @return the current generation, to be passed to {@link #put} with a
+     *         lookup result found after calling this method.
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return the cached entry for the lookup, or <code>null</code> if there is none
+     */
+    Entry get(Bundle requesting, String interfaceName, String filter, String serviceNameFilter) {
+        Key k = new Key(requesting, interfaceName, filter, serviceNameFilter);
+        Entry entry = entries.get(k);
+        if (entry != null && entry.ref.getBundle() == null) {
+            remove(k, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    synchronized void put(Bundle requesting, String interfaceName, String filter, String serviceNameFilter,
+                          long lookupGeneration, Entry entry) {
+        // events start a new generation while holding the lock, so none can slip in
+        if (lookupGeneration == generation.get()) {
+            Key k = new Key(requesting, interfaceName, filter, serviceNameFilter);
+            Entry previous = entries.put(k, entry);
+            if (previous != null) {
+                unindex(k, previous);
+            }
+            index(k, entry);
+        }
+    }
+
+    synchronized void bundleStopped(Bundle b) {
+        for (Map.Entry<Key, Entry> e : entries.entrySet()) {
+            if (e.getKey().requesting == b) {
+                remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    synchronized void serviceChanged(ServiceEvent event) {
+        generation.incrementAndGet();
+        ServiceReference<?> ref = event.getServiceReference();
+        boolean matchable = event.getType() == ServiceEvent.REGISTERED || event.getType() == ServiceEvent.MODIFIED;
+
+        Set<Key> candidates = new HashSet<>();
+        addAll(candidates, byService.get(ref.getProperty(Constants.SERVICE_ID)));
+        if (matchable) {
+            addAll(candidates, byInterface.get(null));
+            Object objectClass = ref.getProperty(Constants.OBJECTCLASS);
+            if (objectClass instanceof String[]) {
+                for (String name : (String[]) objectClass) {
+                    addAll(candidates, byInterface.get(name));
+                }
+            }
+        }
+
+        for (Key k : candidates) {
+            Entry entry = entries.get(k);
+            if (entry != null && (entry.isFor(ref) || (matchable && entry.matches(ref)))) {
+                remove(k, entry);
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+        byService.clear();
+        byInterface.clear();
+    }
+
+    private static void addAll(Set<Key> candidates, Set<Key> keys) {
+        if (keys != null) {
+            candidates.addAll(keys);
+        }
+    }
+
+    private synchronized void remove(Key k, Entry entry) {
+        if (entries.remove(k, entry)) {
+            unindex(k, entry);
+        }
+    }
+
+    private void index(Key k, Entry entry) {
+        byService.computeIfAbsent(entry.serviceId(), id -> new HashSet<>()).add(k);
+        for (String interfaceName : entry.queryInterfaces) {
+            byInterface.computeIfAbsent(interfaceName, name -> new HashSet<>()).add(k);
+        }
+    }
+
+    private void unindex(Key k, Entry entry) {
+        unindex(byService, entry.serviceId(), k);
+        for (String interfaceName : entry.queryInterfaces) {
+            unindex(byInterface, interfaceName, k);
+        }
+    }
+
+    private static <T> void unindex(Map<T, Set<Key>> index, T value, Key k) {
+        Set<Key> keys = index.get(value);
+        if (keys != null && keys.remove(k) && keys.isEmpty()) {
+            index.remove(value);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return the fraction of lookups answered from the cache, or 0 if there have
+     *         been no lookups
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * The result of a lookup: the chosen service, the interface and filter it was
+     * found with, and the queries that were run to find it.
+     */
+    static final class Entry {
+        final ServiceReference<?> ref;
+        final String interfaceName;
+        final String filter;
+        private final String[] queryInterfaces;
+        private final Filter[] queryFilters;
+
+        /**
+         * @param queryInterfaces the interface of each registry query, or null for any
+         * @param queryFilters the filter of each registry query, or null for none
+         */
+        Entry(ServiceReference<?> ref, String interfaceName, String filter,
+              String[] queryInterfaces, Filter[] queryFilters) {
+            this.ref = ref;
+            this.interfaceName = interfaceName;
+            this.filter = filter;
+            this.queryInterfaces = queryInterfaces;
+            this.queryFilters = queryFilters;
+        }
+
+        Object serviceId() {
+            return ref.getProperty(Constants.SERVICE_ID);
+        }
+
+        boolean isFor(ServiceReference<?> ref) {
+            return this.ref.equals(ref)
+                    || Objects.equals(this.ref.getProperty(Constants.SERVICE_ID), ref.getProperty(Constants.SERVICE_ID));
+        }
+
+        boolean matches(ServiceReference<?> ref) {
+            for (int i = 0; i < queryFilters.length; i++) {
+                if (hasInterface(ref, queryInterfaces[i])
+                        && (queryFilters[i] == null || queryFilters[i].match(ref))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean hasInterface(ServiceReference<?> ref, String interfaceName) {
+            if (interfaceName == null) {
+                return true;
+            }
+            Object objectClass = ref.getProperty(Constants.OBJECTCLASS);
+            if (objectClass instanceof String[]) {
+                for (String name : (String[]) objectClass) {
+                    if (interfaceName.equals(name)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Key {
+        private final Bundle requesting;
+        private final String interfaceName;
+        private final String filter;
+        private final String serviceNameFilter;
+        private final int hash;
+
+        Key(Bundle requesting, String interfaceName, String filter, String serviceNameFilter) {
+            this.requesting = requesting;
+            this.interfaceName = interfaceName;
+            this.filter = filter;
+            this.serviceNameFilter = serviceNameFilter;
+            hash = Objects.hash(System.identityHashCode(requesting), interfaceName, filter, serviceNameFilter);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object other) {
+            if (other == this) return true;
+            if (!(other instanceof Key)) return false;
+
+            Key otherKey = (Key) other;
+            return otherKey.requesting == requesting
+                    && Objects.equals(otherKey.interfaceName, interfaceName)
+                    && Objects.equals(otherKey.filter, filter)
+                    && Objects.equals(otherKey.serviceNameFilter, serviceNameFilter);
+        }
+    }
+}
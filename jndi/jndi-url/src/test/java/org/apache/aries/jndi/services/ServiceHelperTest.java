@@ -18,11 +18,30 @@
  */
 package org.apache.aries.jndi.services;
 
+import java.lang.reflect.Proxy;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
 
 import org.apache.aries.jndi.services.ServiceHelper;
+import org.apache.aries.jndi.url.OsgiName;
+import org.apache.aries.mocks.BundleContextMock;
+import org.apache.aries.unittest.mocks.Skeleton;
+import org.junit.After;
 import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class ServiceHelperTest {
@@ -45,4 +64,129 @@ public class ServiceHelperTest {
 		assertTrue (cx.size() == 4);
 		
 	}
+
+	@Test
+	public void testLookupCacheInvalidation() throws Exception {
+		ServiceLookupCache cache = new ServiceLookupCache();
+		Bundle bundle = newProxy(Bundle.class, new HashMap<String, Object>());
+		ServiceReference<?> chosen = newReference(1L, "java.lang.Runnable", "smelly");
+		ServiceReference<?> other = newReference(2L, "java.lang.Runnable", "fragrant");
+		ServiceReference<?> match = newReference(3L, "java.lang.Runnable", "smelly");
+
+		String filter = "(rubbish=smelly)";
+		String nameFilter = "(osgi.jndi.service.name=java.lang.Runnable)";
+		Filter[] filters = { FrameworkUtil.createFilter(filter), FrameworkUtil.createFilter(nameFilter) };
+		String[] interfaces = { "java.lang.Runnable", null };
+
+		cache.put(bundle, "java.lang.Runnable", filter, nameFilter, cache.getGeneration(),
+				new ServiceLookupCache.Entry(chosen, "java.lang.Runnable", filter, interfaces, filters));
+		assertSame(chosen, cache.get(bundle, "java.lang.Runnable", filter, nameFilter).ref);
+
+		// a service that would not be found by the lookup leaves it alone
+		cache.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, other));
+		assertSame(chosen, cache.get(bundle, "java.lang.Runnable", filter, nameFilter).ref);
+
+		// one that would be found may now be the better choice
+		cache.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, match));
+		assertNull(cache.get(bundle, "java.lang.Runnable", filter, nameFilter));
+
+		// a lookup that raced with an event is not cached
+		long generation = cache.getGeneration();
+		cache.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, other));
+		cache.put(bundle, "java.lang.Runnable", filter, nameFilter, generation,
+				new ServiceLookupCache.Entry(chosen, "java.lang.Runnable", filter, interfaces, filters));
+		assertEquals(0, cache.size());
+
+		cache.put(bundle, "java.lang.Runnable", filter, nameFilter, cache.getGeneration(),
+				new ServiceLookupCache.Entry(chosen, "java.lang.Runnable", filter, interfaces, filters));
+		cache.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, chosen));
+		assertEquals(0, cache.size());
+
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(2, cache.getInvalidationCount());
+	}
+
+	@Test
+	public void testGetServiceUsesCachedLookup() throws Exception {
+		BundleContext bc = Skeleton.newMock(new BundleContextMock(), BundleContext.class);
+		ServiceLookupCache cache = ServiceHelper.getLookupCache();
+		cache.clear();
+
+		Runnable first = Skeleton.newMock(Runnable.class);
+		bc.registerService(Runnable.class.getName(), first, null);
+
+		OsgiName name = new OsgiName("osgi:service/java.lang.Runnable");
+		Map<String, Object> env = new HashMap<String, Object>();
+
+		long hits = cache.getHitCount();
+		long misses = cache.getMissCount();
+		assertSame(first, ServiceHelper.getService(bc, name, null, false, env, false));
+		assertEquals(1, cache.size());
+		assertSame(first, ServiceHelper.getService(bc, name, null, false, env, false));
+		assertEquals(hits + 1, cache.getHitCount());
+		assertEquals(misses + 1, cache.getMissCount());
+	}
+
+	@Test
+	public void testGetServiceSeesServiceEvents() throws Exception {
+		BundleContext bc = Skeleton.newMock(new BundleContextMock(), BundleContext.class);
+		ServiceLookupCache cache = ServiceHelper.getLookupCache();
+		cache.clear();
+
+		Runnable first = Skeleton.newMock(Runnable.class);
+		bc.registerService(Runnable.class.getName(), first, null);
+
+		OsgiName name = new OsgiName("osgi:service/java.lang.Runnable");
+		Map<String, Object> env = new HashMap<String, Object>();
+		assertSame(first, ServiceHelper.getService(bc, name, null, false, env, false));
+
+		// a better ranked service is chosen once it is registered
+		Hashtable<String, Object> props = new Hashtable<String, Object>();
+		props.put(Constants.SERVICE_RANKING, 1);
+		Runnable second = Skeleton.newMock(Runnable.class);
+		ServiceRegistration<?> reg = bc.registerService(Runnable.class.getName(), second, props);
+		assertEquals(0, cache.size());
+		assertSame(second, ServiceHelper.getService(bc, name, null, false, env, false));
+
+		// and forgotten once it goes away
+		long invalidations = cache.getInvalidationCount();
+		reg.unregister();
+		assertEquals(0, cache.size());
+		assertEquals(invalidations + 1, cache.getInvalidationCount());
+		assertSame(first, ServiceHelper.getService(bc, name, null, false, env, false));
+	}
+
+	@After
+	public void clearRegistry() {
+		ServiceHelper.getLookupCache().clear();
+		BundleContextMock.clear();
+	}
+
+	private static ServiceReference<?> newReference(long id, String objectClass, String rubbish) {
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put(Constants.SERVICE_ID, id);
+		props.put(Constants.OBJECTCLASS, new String[] { objectClass });
+		props.put("rubbish", rubbish);
+		props.put("getBundle", newProxy(Bundle.class, new HashMap<String, Object>()));
+		return newProxy(ServiceReference.class, props);
+	}
+
+	private static <T> T newProxy(Class<T> type, final Map<String, Object> props) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getProperty":
+						return props.get(args[0]);
+					case "getPropertyKeys":
+						return props.keySet().toArray(new String[0]);
+					case "equals":
+						return proxy == args[0];
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					default:
+						return props.get(method.getName());
+					}
+				}));
+	}
 }
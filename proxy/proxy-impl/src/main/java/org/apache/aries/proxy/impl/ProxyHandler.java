@@ -29,11 +29,13 @@ public final class ProxyHandler implements InvocationHandler {
   private final Callable<Object> target;
   private final InvocationHandler core;
   private final AbstractProxyManager proxyManager;
+  private final boolean hasListener;
 
   public ProxyHandler(AbstractProxyManager abstractProxyManager, Callable<Object> dispatcher, InvocationListener listener)
   {
     target = dispatcher;
     proxyManager = abstractProxyManager;
+    hasListener = listener != null;
     final InvocationListener nonNullListener;
     if (listener == null) {
       nonNullListener = new DefaultWrapper();
@@ -123,4 +125,13 @@ public final class ProxyHandler implements InvocationHandler {
   {
     return target;
   }
+
+  /**
+   * @return the dispatcher if calls may bypass this handler and go directly to
+   *         the target, or null if an {@link InvocationListener} must see them
+   */
+  public Callable<Object> getDirectDispatcher() 
+  {
+    return hasListener ? null : target;
+  }
 }
\ No newline at end of file
@@ -19,6 +19,8 @@
 package org.apache.aries.proxy.impl;
 
 
+import java.io.Closeable;
+
 import org.apache.aries.proxy.ProxyManager;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
@@ -30,6 +32,7 @@ public class ProxyManagerActivator implements BundleActivator
   private AbstractProxyManager managerService;
   @SuppressWarnings("rawtypes")
   private ServiceRegistration registration;
+  private Object weavingHook;
   
   static
   {
@@ -54,7 +57,7 @@ public class ProxyManagerActivator implements BundleActivator
         //if ASM is available then we should also try weaving
         Class<?> cls = Class.forName("org.apache.aries.proxy.impl.weaving.ProxyWeavingHook",
         		true, ProxyManagerActivator.class.getClassLoader());
-        cls.getConstructor(BundleContext.class).newInstance(context);
+        weavingHook = cls.getConstructor(BundleContext.class).newInstance(context);
       } catch (Throwable t) {
         //We don't care about this, we just won't have registered the hook
       }
@@ -69,5 +72,13 @@ public class ProxyManagerActivator implements BundleActivator
   public void stop(BundleContext context)
   {
     registration.unregister();
+    
+    if (weavingHook instanceof Closeable) {
+      try {
+        ((Closeable) weavingHook).close();
+      } catch (Exception e) {
+        //Nothing useful we can do here
+      }
+    }
   }
 }
\ No newline at end of file
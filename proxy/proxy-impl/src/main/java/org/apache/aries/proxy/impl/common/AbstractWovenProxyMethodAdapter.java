@@ -53,6 +53,10 @@ import org.objectweb.asm.commons.Method;
  * do the following: <code>
  * 
  *      
+    if(dispatcher != null && listener == null) {
+      return ((Template) dispatcher.call()).doStuff(args);
+    }
+    
     if(dispatcher != null) {
       int returnValue;
       Object token = null;
@@ -200,10 +204,20 @@ public abstract class AbstractWovenProxyMethodAdapter extends GeneratorAdapter
   
   /**
    * Write out the bytecode instructions necessary to do the dispatch.
-   * We know the dispatcher is non-null, and we need a try/catch around the
+   * We know the dispatcher is non-null. If there is no listener then we
+   * delegate straight to the target, otherwise we need a try/catch around the
    * invocation and listener calls.
    */
   protected final void writeDispatcher() {
+    // The listener is fixed when the proxy instance is created, so this
+    // branch always goes the same way for a given instance
+    Label listenerPresent = newLabel();
+    loadThis();
+    getField(typeBeingWoven, LISTENER_FIELD, LISTENER_TYPE);
+    ifNonNull(listenerPresent);
+    writeDirectDispatch();
+    mark(listenerPresent);
+    
     // Setup locals we will use in the dispatch
     setupLocals();
     
@@ -225,13 +239,7 @@ public abstract class AbstractWovenProxyMethodAdapter extends GeneratorAdapter
     
     //Dispatch the method and store the result (null for void)
     loadLocal(dispatchTarget);
-    checkCast(methodDeclaringType);
-    loadArgs();
-    if(isMethodDeclaringTypeInterface) {
-      invokeInterface(methodDeclaringType, currentTransformMethod);
-    } else {
-      invokeVirtual(methodDeclaringType, currentTransformMethod);
-    }
+    invokeTarget();
     if(isVoid) {
       visitInsn(ACONST_NULL);
     }
@@ -253,6 +261,33 @@ public abstract class AbstractWovenProxyMethodAdapter extends GeneratorAdapter
     writeMethodCatchHandler();
   }
   
+  /**
+   * Write out a plain delegation to the target, for use when there is no
+   * listener. Any exception is thrown unchanged, which is exactly what the
+   * catch handler does when there is no listener, so none is needed.
+   */
+  private final void writeDirectDispatch() {
+    loadThis();
+    getField(typeBeingWoven, DISPATCHER_FIELD, DISPATCHER_TYPE);
+    invokeInterface(DISPATCHER_TYPE, new Method("call", OBJECT_TYPE, NO_ARGS));
+    invokeTarget();
+    returnValue();
+  }
+  
+  /**
+   * Invoke the current method on the target object at the top of the stack,
+   * leaving the result (if any) on the stack
+   */
+  private final void invokeTarget() {
+    checkCast(methodDeclaringType);
+    loadArgs();
+    if(isMethodDeclaringTypeInterface) {
+      invokeInterface(methodDeclaringType, currentTransformMethod);
+    } else {
+      invokeVirtual(methodDeclaringType, currentTransformMethod);
+    }
+  }
+
   /**
    * Setup the normalResult, inNormalMethod, preInvokeReturnedToken and
    * dispatch target locals.
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.proxy.impl.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * A lazily populated index of the class hierarchy visible to a
+ * {@link ClassLoader}, built from the class files rather than by loading
+ * classes. Each class file is only read once per {@link ClassLoader}, and the
+ * index is discarded when its {@link ClassLoader} is garbage collected, for
+ * example after the owning bundle is refreshed.
+ * <p>
+ * Classes which are not visible are not remembered, as they may later become
+ * visible through a dynamic import.
+ */
+public final class ClassHierarchyIndex {
+
+  private static final Map<ClassLoader, ClassHierarchyIndex> INDEXES =
+      new WeakHashMap<ClassLoader, ClassHierarchyIndex>();
+
+  /** The index must not keep its loader (the key in {@link #INDEXES}) alive */
+  private final WeakReference<ClassLoader> loader;
+  private final ConcurrentMap<String, ClassInfo> classes = new ConcurrentHashMap<String, ClassInfo>();
+
+  private ClassHierarchyIndex(ClassLoader loader) {
+    this.loader = new WeakReference<ClassLoader>(loader);
+  }
+
+  /**
+   * Get the shared index for the supplied {@link ClassLoader}
+   */
+  public static ClassHierarchyIndex forLoader(ClassLoader loader) {
+    synchronized (INDEXES) {
+      ClassHierarchyIndex index = INDEXES.get(loader);
+      if (index == null) {
+        index = new ClassHierarchyIndex(loader);
+        INDEXES.put(loader, index);
+      }
+      return index;
+    }
+  }
+
+  /**
+   * Get the hierarchy information for a class
+   *
+   * @param internalName the internal name of the class, e.g. java/lang/Object
+   * @return the information, or <code>null</code> if the class file is not
+   *         visible to the {@link ClassLoader}
+   * @throws IOException if the class file cannot be read
+   */
+  public ClassInfo getClassInfo(String internalName) throws IOException {
+    ClassInfo info = classes.get(internalName);
+    if (info == null) {
+      ClassLoader cl = loader.get();
+      InputStream is = cl == null ? null : cl.getResourceAsStream(internalName + ".class");
+      if (is == null) {
+        return null;
+      }
+      try {
+        ClassReader cr = new ClassReader(is);
+        info = new ClassInfo(cr.getAccess(), cr.getSuperName(), cr.getInterfaces());
+      } finally {
+        is.close();
+      }
+      ClassInfo existing = classes.putIfAbsent(internalName, info);
+      if (existing != null) {
+        info = existing;
+      }
+    }
+    return info;
+  }
+
+  /**
+   * The supertypes of a class, using internal names
+   */
+  public static final class ClassInfo {
+    private final int access;
+    private final String superName;
+    private final String[] interfaces;
+
+    ClassInfo(int access, String superName, String[] interfaces) {
+      this.access = access;
+      this.superName = superName;
+      this.interfaces = interfaces;
+    }
+
+    public boolean isInterface() {
+      return (access & Opcodes.ACC_INTERFACE) != 0;
+    }
+
+    /**
+     * @return the super class, or <code>null</code> for java/lang/Object
+     */
+    public String getSuperName() {
+      return superName;
+    }
+
+    public String[] getInterfaces() {
+      return interfaces.clone();
+    }
+  }
+}
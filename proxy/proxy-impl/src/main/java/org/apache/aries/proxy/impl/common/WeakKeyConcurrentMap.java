@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.proxy.impl.common;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A minimal concurrent map with weakly referenced keys, compared by identity.
+ * This is used in place of a synchronized {@link java.util.WeakHashMap} for
+ * caches keyed by {@link ClassLoader} or bundle wiring, so that lookups never
+ * block. A <code>null</code> key is supported, and is strongly held.
+ * <p>
+ * Entries whose keys have been garbage collected are removed on writes.
+ */
+public final class WeakKeyConcurrentMap<K, V> {
+
+  private static final Object NULL_KEY = new Object();
+
+  private final ConcurrentMap<Object, V> map = new ConcurrentHashMap<Object, V>();
+  private final ReferenceQueue<K> queue = new ReferenceQueue<K>();
+
+  public V get(K key) {
+    return map.get(key == null ? NULL_KEY : new LookupKey(key));
+  }
+
+  public V putIfAbsent(K key, V value) {
+    expunge();
+    if (key == null) {
+      return map.putIfAbsent(NULL_KEY, value);
+    }
+    V existing = map.get(new LookupKey(key));
+    return existing != null ? existing : map.putIfAbsent(new WeakKey<K>(key, queue), value);
+  }
+
+  public boolean replace(K key, V oldValue, V newValue) {
+    expunge();
+    return map.replace(key == null ? NULL_KEY : new LookupKey(key), oldValue, newValue);
+  }
+
+  public boolean remove(K key, V value) {
+    return map.remove(key == null ? NULL_KEY : new LookupKey(key), value);
+  }
+
+  private void expunge() {
+    Reference<? extends K> ref;
+    while ((ref = queue.poll()) != null) {
+      map.remove(ref);
+    }
+  }
+
+  /** The key stored in the map */
+  private static final class WeakKey<K> extends WeakReference<K> {
+    private final int hash;
+
+    WeakKey(K key, ReferenceQueue<K> queue) {
+      super(key, queue);
+      hash = System.identityHashCode(key);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      }
+      Object key = get();
+      if (key == null) {
+        return false;
+      }
+      if (o instanceof LookupKey) {
+        return ((LookupKey) o).key == key;
+      }
+      return o instanceof WeakKey && ((WeakKey<?>) o).get() == key;
+    }
+  }
+
+  /** A short lived, strong key used to find entries */
+  private static final class LookupKey {
+    private final Object key;
+    private final int hash;
+
+    LookupKey(Object key) {
+      this.key = key;
+      hash = System.identityHashCode(key);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof WeakKey) {
+        return ((WeakKey<?>) o).get() == key;
+      }
+      return o instanceof LookupKey && ((LookupKey) o).key == key;
+    }
+  }
+}
@@ -22,6 +22,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.Callable;
 
 import org.apache.aries.proxy.impl.ProxyUtils;
 import org.apache.aries.proxy.impl.SystemModuleClassLoader;
@@ -30,6 +32,7 @@ import org.objectweb.asm.Attribute;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -47,9 +50,16 @@ public class ProxySubclassAdapter extends ClassVisitor implements Opcodes
   private static final Type OBJECT_TYPE = Type.getType(Object.class);
   private static final Type METHOD_TYPE = Type.getType(java.lang.reflect.Method.class);
   private static final Type IH_TYPE = Type.getType(InvocationHandler.class);
+  private static final Type CALLABLE_TYPE = Type.getType(Callable.class);
   private static final Type[] NO_ARGS = new Type[] {};
 
   private static final String IH_FIELD = "ih";
+  private static final String DISPATCHER_FIELD = "dispatcher";
+  /** 
+   * The name of the generated method used to enable direct dispatch, see
+   * {@link ProxySubclassGenerator#newProxySubclassInstance(Class, ClassLoader, InvocationHandler)}
+   */
+  static final String SET_DISPATCHER_METHOD = "setDirectDispatcher";
 
   private static Logger LOGGER = LoggerFactory.getLogger(ProxySubclassAdapter.class);
 
@@ -126,6 +136,9 @@ public class ProxySubclassAdapter extends ClassVisitor implements Opcodes
     // this isn't static in case we have multiple instances of the same
     // proxy
     cv.visitField(ACC_PRIVATE, IH_FIELD, Type.getDescriptor(InvocationHandler.class), null, null);
+    // add a private field for the dispatcher used when calls can go straight
+    // to the target, rather than through the invocation handler
+    cv.visitField(ACC_PRIVATE, DISPATCHER_FIELD, CALLABLE_TYPE.getDescriptor(), null, null);
 
     // create a static adapter for generating a static initialiser method in
     // the generated subclass
@@ -233,6 +246,15 @@ public class ProxySubclassAdapter extends ClassVisitor implements Opcodes
     methodAdapter.returnValue();
     methodAdapter.endMethod();
 
+    // add a method for setting the direct dispatcher
+    m = new Method(SET_DISPATCHER_METHOD, Type.VOID_TYPE, new Type[] { CALLABLE_TYPE });
+    methodAdapter = new GeneratorAdapter(ACC_PUBLIC | ACC_FINAL, m, null, null, cv);
+    methodAdapter.loadThis();
+    methodAdapter.loadArgs();
+    methodAdapter.putField(newClassType, DISPATCHER_FIELD, CALLABLE_TYPE);
+    methodAdapter.returnValue();
+    methodAdapter.endMethod();
+
     // loop through the class hierarchy to get any needed methods off the
     // supertypes
     // start by finding the methods declared on the class of interest (the
@@ -535,6 +557,26 @@ public class ProxySubclassAdapter extends ClassVisitor implements Opcodes
     // store the reflected method in the static field
     staticAdapter.putStatic(newClassType, methodStaticFieldName, METHOD_TYPE);
 
+    /*
+     * Stage 2a if we have a direct dispatcher then call the method on the
+     * target without reflection: return ((Super) dispatcher.call()).method(parms)
+     */
+    if (canDispatchDirectly(access, name, targetMethodParameters)) {
+      Label useInvocationHandler = methodAdapter.newLabel();
+      methodAdapter.loadThis();
+      methodAdapter.getField(newClassType, DISPATCHER_FIELD, CALLABLE_TYPE);
+      methodAdapter.dup();
+      methodAdapter.ifNull(useInvocationHandler);
+      methodAdapter.invokeInterface(CALLABLE_TYPE, new Method("call", OBJECT_TYPE, NO_ARGS));
+      Type superType = Type.getType(superclassClass);
+      methodAdapter.checkCast(superType);
+      methodAdapter.loadArgs();
+      methodAdapter.invokeVirtual(superType, currentTransformMethod);
+      methodAdapter.returnValue();
+      methodAdapter.mark(useInvocationHandler);
+      methodAdapter.pop();
+    }
+
     /*
      * Stage 2 call the ih.invoke(this,supermethod,parms)
      */
@@ -657,6 +699,24 @@ public class ProxySubclassAdapter extends ClassVisitor implements Opcodes
     LOGGER.debug(Constants.LOG_EXIT, "processMethod");
   }
 
+  /**
+   * Direct dispatch is only used for public methods, as the target is not an
+   * instance of the proxy class and may not be in the same runtime package.
+   * Calls to equals and finalize need the special handling in 
+   * {@link org.apache.aries.proxy.impl.ProxyHandler}, so always go through the
+   * invocation handler.
+   */
+  private boolean canDispatchDirectly(int access, String name, Type[] params)
+  {
+    if ((access & ACC_PUBLIC) == 0 || !Modifier.isPublic(superclassClass.getModifiers())) {
+      return false;
+    }
+    if (name.equals("finalize") && params.length == 0) {
+      return false;
+    }
+    return !(name.equals("equals") && params.length == 1 && params[0].equals(OBJECT_TYPE));
+  }
+
   private void addClassStaticField(String classBinaryName)
   {
     LOGGER.debug(Constants.LOG_ENTRY, "addClassStaticField",
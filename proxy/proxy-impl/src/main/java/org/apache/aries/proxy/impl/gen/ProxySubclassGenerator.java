@@ -28,15 +28,18 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.apache.aries.proxy.FinalModifierException;
 import org.apache.aries.proxy.UnableToProxyException;
+import org.apache.aries.proxy.impl.ProxyHandler;
+import org.apache.aries.proxy.impl.common.OSGiFriendlyClassWriter;
+import org.apache.aries.proxy.impl.common.WeakKeyConcurrentMap;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
@@ -55,96 +58,122 @@ public class ProxySubclassGenerator
   // It is a weak map (so when a ClassLoader is garbage collected we remove
   // the map of
   // Class names to sub-Class names)
-  private static final Map<ClassLoader, ConcurrentMap<String, String>> proxyClassesByClassLoader;
+  private static final WeakKeyConcurrentMap<ClassLoader, LoaderProxies> proxyClassesByClassLoader =
+      new WeakKeyConcurrentMap<ClassLoader, LoaderProxies>();
   
   private static final ClassLoader defaultClassLoader = new ClassLoader() {};
 
-  static {
-    // Ensure that this is a synchronized map as we may use it from multiple
-    // threads concurrently
-    //
-    proxyClassesByClassLoader = Collections
-        .synchronizedMap(new WeakHashMap<ClassLoader, ConcurrentMap<String, String>>());
-  }
-
   private static final char FINAL_MODIFIER = '!';
   private static final char UNABLE_TO_PROXY = '#';
 
+  /**
+   * The proxy subclasses generated in a single {@link ClassLoader}
+   */
+  private static final class LoaderProxies {
+    /** Class names to the proxy class name, or the reason it cannot be proxied */
+    final ConcurrentMap<String, String> names = new ConcurrentHashMap<String, String>();
+    /**
+     * The subclasses currently being generated. Only one thread generates
+     * a given subclass, other threads asking for it wait for that thread
+     */
+    final ConcurrentMap<String, FutureTask<Object>> inFlight = new ConcurrentHashMap<String, FutureTask<Object>>();
+  }
+
   public static Class<?> getProxySubclass(Class<?> aClass) throws UnableToProxyException
   {
     return getProxySubclass(aClass, aClass.getClassLoader());
   }
 
-  public static Class<?> getProxySubclass(Class<?> aClass, ClassLoader loader) throws UnableToProxyException
+  public static Class<?> getProxySubclass(final Class<?> aClass, final ClassLoader classLoader) throws UnableToProxyException
   {
     LOGGER.debug(Constants.LOG_ENTRY, "getProxySubclass", new Object[] { aClass });
 
     // in the special case where the loader is null we use a default classloader
     // this is for subclassing java.* or javax.* packages, so that one will do
-    if (loader == null) loader = defaultClassLoader;
-
-    ConcurrentMap<String, String> proxyMap;
-    synchronized (loader) {
-      proxyMap = proxyClassesByClassLoader.get(loader);
-      if (proxyMap == null) {
-        proxyMap = new ConcurrentHashMap<String, String>();
-        proxyClassesByClassLoader.put(loader, proxyMap);
+    final ClassLoader loader = classLoader == null ? defaultClassLoader : classLoader;
+
+    LoaderProxies proxies = proxyClassesByClassLoader.get(loader);
+    if (proxies == null) {
+      LoaderProxies newProxies = new LoaderProxies();
+      proxies = proxyClassesByClassLoader.putIfAbsent(loader, newProxies);
+      if (proxies == null) {
+        proxies = newProxies;
       }
     }
+    final ConcurrentMap<String, String> proxyMap = proxies.names;
 
     // check the map to see if we have already generated a subclass for this
     // class
     // if we have return the mapped class object
     // if we haven't generate the subclass and return it
     Class<?> classToReturn = null;
-    synchronized (aClass) {
-      String key = aClass.getName();
-      String className = proxyMap.get(key);
-      if (className != null) {
-
-        LOGGER.debug("Found proxy subclass with key {} and name {}.", key, className);
-
-        if (className.charAt(0) == FINAL_MODIFIER) {
-          String[] exceptionParts = className.substring(1).split(":");
-          if (exceptionParts.length == 1) {
-            throw new FinalModifierException(aClass);
-          } else {
-            throw new FinalModifierException(aClass, exceptionParts[1]);
+    final String key = aClass.getName();
+    String className = proxyMap.get(key);
+    if (className == null) {
+      FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+        public Object call() throws UnableToProxyException {
+          // Another thread may have finished generating since we looked
+          String name = proxyMap.get(key);
+          if (name != null) {
+            return name;
           }
-        } else if (className.charAt(0) == UNABLE_TO_PROXY) {
-          throw new UnableToProxyException(aClass);
+          LOGGER.debug("Need to generate subclass. Using key {}.", key);
+          try {
+            scanForFinalModifiers(aClass);
+            Class<?> generated = generateAndLoadSubclass(aClass, loader);
+            if (generated != null) {
+              proxyMap.put(key, generated.getName());
+              return generated;
+            }
+            name = UNABLE_TO_PROXY + aClass.getName();
+          } catch (FinalModifierException e) {
+            if (e.isFinalClass()) {
+              name = FINAL_MODIFIER + e.getClassName();
+            } else {
+              name = FINAL_MODIFIER + e.getClassName() + ':' + e.getFinalMethods();
+            }
+          }
+          proxyMap.put(key, name);
+          return name;
         }
-
+      });
+      FutureTask<Object> existing = proxies.inFlight.putIfAbsent(key, task);
+      if (existing == null) {
         try {
-          classToReturn = loader.loadClass(className);
-        } catch (ClassNotFoundException cnfe) {
-          LOGGER.debug(Constants.LOG_EXCEPTION, cnfe);
-          throw new UnableToLoadProxyException(className, cnfe);
+          task.run();
+        } finally {
+          proxies.inFlight.remove(key, task);
         }
+        existing = task;
+      }
+      Object result = awaitGeneration(existing, aClass);
+      if (result instanceof Class) {
+        classToReturn = (Class<?>) result;
       } else {
+        className = (String) result;
+      }
+    }
 
-        LOGGER.debug("Need to generate subclass. Using key {}.", key);
-        try {
-          scanForFinalModifiers(aClass);
+    if (classToReturn == null) {
 
-          classToReturn = generateAndLoadSubclass(aClass, loader);
+      LOGGER.debug("Found proxy subclass with key {} and name {}.", key, className);
 
-          if (classToReturn != null) {
-            proxyMap.put(key, classToReturn.getName());
-          } else {
-            proxyMap.put(key, UNABLE_TO_PROXY + aClass.getName());
-            throw new UnableToProxyException(aClass);
-          }
-        } catch (FinalModifierException e) {
-          if (e.isFinalClass()) {
-            proxyMap.put(key, FINAL_MODIFIER + e.getClassName());
-            throw e;
-          } else {
-            proxyMap.put(key, FINAL_MODIFIER + e.getClassName() + ':' + e.getFinalMethods());
-            throw e;
-          }
+      if (className.charAt(0) == FINAL_MODIFIER) {
+        String[] exceptionParts = className.substring(1).split(":");
+        if (exceptionParts.length == 1) {
+          throw new FinalModifierException(aClass);
+        } else {
+          throw new FinalModifierException(aClass, exceptionParts[1]);
         }
+      } else if (className.charAt(0) == UNABLE_TO_PROXY) {
+        throw new UnableToProxyException(aClass);
+      }
 
+      try {
+        classToReturn = loader.loadClass(className);
+      } catch (ClassNotFoundException cnfe) {
+        LOGGER.debug(Constants.LOG_EXCEPTION, cnfe);
+        throw new UnableToLoadProxyException(className, cnfe);
       }
     }
 
@@ -153,6 +182,35 @@ public class ProxySubclassGenerator
     return classToReturn;
   }
 
+  private static Object awaitGeneration(FutureTask<Object> task, Class<?> aClass) throws UnableToProxyException
+  {
+    boolean interrupted = false;
+    try {
+      for (;;) {
+        try {
+          return task.get();
+        } catch (InterruptedException ie) {
+          // Generation is short lived, so finish waiting and restore the flag
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof UnableToProxyException) {
+        throw (UnableToProxyException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new UnableToProxyException(aClass, cause);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
   public static Object newProxySubclassInstance(Class<?> classToProxy, InvocationHandler ih)
       throws UnableToProxyException
   {
@@ -182,6 +240,15 @@ public class ProxySubclassGenerator
       
       Method setIHMethod = proxySubclassInstance.getClass().getMethod("setInvocationHandler", InvocationHandler.class);
       setIHMethod.invoke(proxySubclassInstance, ih);
+      // If nothing needs to intercept calls then they can go straight to the target
+      if (ih instanceof ProxyHandler) {
+        Callable<Object> dispatcher = ((ProxyHandler) ih).getDirectDispatcher();
+        if (dispatcher != null) {
+          Method setDispatcherMethod = proxySubclassInstance.getClass().getMethod(
+              ProxySubclassAdapter.SET_DISPATCHER_METHOD, Callable.class);
+          setDispatcherMethod.invoke(proxySubclassInstance, dispatcher);
+        }
+      }
       LOGGER.debug("Invoked proxy subclass constructor");
     } catch (NoSuchMethodException nsme) {
       LOGGER.debug(Constants.LOG_EXCEPTION, nsme);
@@ -229,7 +296,8 @@ public class ProxySubclassGenerator
       ClassReader cReader = new ClassReader(loader.getResourceAsStream(aClass.getName().replaceAll(
           "\\.", "/")
           + ".class"));
-      ClassWriter cWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+      // Frames are needed for the direct dispatch branch in each method
+      ClassWriter cWriter = new OSGiFriendlyClassWriter(ClassWriter.COMPUTE_FRAMES, loader);
       ClassVisitor dynamicSubclassAdapter = new ProxySubclassAdapter(cWriter, fullNewClassName,
           loader);
       byte[] byteClassData = processClass(cReader, cWriter, dynamicSubclassAdapter);
@@ -314,9 +382,9 @@ public class ProxySubclassGenerator
     // We will always have a proxy map for the class loader of any proxy
     // class, so if
     // this is null we know to return false
-    Map<String, String> proxies = proxyClassesByClassLoader.get(aClass.getClassLoader());
+    LoaderProxies proxies = proxyClassesByClassLoader.get(aClass.getClassLoader());
 
-    boolean isProxySubclass = (proxies != null && proxies.containsValue(aClass.getName()));
+    boolean isProxySubclass = (proxies != null && proxies.names.containsValue(aClass.getName()));
 
     LOGGER.debug(Constants.LOG_EXIT, "isProxySubclass", isProxySubclass);
 
@@ -24,15 +24,14 @@ import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 
 import org.apache.aries.proxy.FinalModifierException;
 import org.apache.aries.proxy.InvocationListener;
 import org.apache.aries.proxy.UnableToProxyException;
+import org.apache.aries.proxy.impl.common.WeakKeyConcurrentMap;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Opcodes;
 import org.osgi.framework.Bundle;
@@ -52,8 +51,8 @@ public final class InterfaceProxyGenerator extends ClassVisitor implements Opcod
     
   }
 
-  private static final Map<BundleWiring, WeakReference<ProxyClassLoader>> cache =
-            new WeakHashMap<BundleWiring, WeakReference<ProxyClassLoader>>(128);
+  private static final WeakKeyConcurrentMap<BundleWiring, WeakReference<ProxyClassLoader>> cache =
+            new WeakKeyConcurrentMap<BundleWiring, WeakReference<ProxyClassLoader>>();
   
   /**
    * Generate a new proxy instance implementing the supplied interfaces and using the supplied
@@ -76,8 +75,8 @@ public final class InterfaceProxyGenerator extends ClassVisitor implements Opcod
     
     SortedSet<Class<?>> interfaces = createSet(ifaces);
     
-    synchronized (cache) {
-      BundleWiring wiring = client == null ? null : (BundleWiring)client.adapt(BundleWiring.class);
+    BundleWiring wiring = client == null ? null : (BundleWiring)client.adapt(BundleWiring.class);
+    while (pcl == null) {
       WeakReference<ProxyClassLoader> ref = cache.get(wiring);
       
       if(ref != null)
@@ -85,12 +84,17 @@ public final class InterfaceProxyGenerator extends ClassVisitor implements Opcod
       
       if (pcl != null && pcl.isInvalid(interfaces)) {
           pcl = null;
-          cache.remove(wiring);
+          cache.remove(wiring, ref);
+          continue;
       }
       
       if(pcl == null) {
-        pcl = new ProxyClassLoader(client);
-        cache.put(wiring, new WeakReference<ProxyClassLoader>(pcl));
+        //Only use our new loader if no other thread beat us to it
+        ProxyClassLoader created = new ProxyClassLoader(client);
+        WeakReference<ProxyClassLoader> newRef = new WeakReference<ProxyClassLoader>(created);
+        if (ref == null ? cache.putIfAbsent(wiring, newRef) == null : cache.replace(wiring, ref, newRef)) {
+          pcl = created;
+        }
       }
     }
 
@@ -27,8 +27,12 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -51,9 +55,12 @@ final class ProxyClassLoader extends ClassLoader {
     PROXY_PROTECTION_DOMAIN = new ProtectionDomain(null, pc);
   }
   
-  /** A {@link Map} of classes we already know */
-  private final ConcurrentMap<LinkedHashSet<Class<?>>, String> classes = 
-                new ConcurrentHashMap<LinkedHashSet<Class<?>>, String>();
+  /** 
+   * A {@link Map} of classes we already know, or are generating. Only one thread
+   * generates the class for a given key, other threads wait for it to finish
+   */
+  private final ConcurrentMap<LinkedHashSet<Class<?>>, Future<Class<?>>> classes = 
+                new ConcurrentHashMap<LinkedHashSet<Class<?>>, Future<Class<?>>>();
   
   private final ConcurrentMap<String, Class<?>> locatedClasses = 
                 new ConcurrentHashMap<String, Class<?>>();
@@ -123,22 +130,58 @@ final class ProxyClassLoader extends ClassLoader {
       return false;
   }
 
-  public Class<?> createProxyClass(Class<?> superclass, SortedSet<Class<?>> interfaces) throws UnableToProxyException {
+  public Class<?> createProxyClass(final Class<?> superclass, final SortedSet<Class<?>> interfaces) throws UnableToProxyException {
     
-    LinkedHashSet<Class<?>> createSet = new LinkedHashSet<Class<?>>(interfaces);
+    final LinkedHashSet<Class<?>> createSet = new LinkedHashSet<Class<?>>(interfaces);
     //Even a null superclass helps with key uniqueness
     createSet.add(superclass);
     
-    String className = classes.get(createSet);
+    Future<Class<?>> future = classes.get(createSet);
     
-    if(className != null) {
-      try {
-        return Class.forName(className, false, this);
-      } catch (ClassNotFoundException cnfe) {
-        //This is odd, but we should be able to recreate the class, continue
-        classes.remove(createSet);
+    if(future == null) {
+      FutureTask<Class<?>> task = new FutureTask<Class<?>>(new Callable<Class<?>>() {
+        public Class<?> call() throws UnableToProxyException {
+          return generateProxyClass(superclass, interfaces, createSet);
+        }
+      });
+      future = classes.putIfAbsent(createSet, task);
+      if(future == null) {
+        future = task;
+        task.run();
+      }
+    }
+    
+    boolean interrupted = false;
+    try {
+      for (;;) {
+        try {
+          return future.get();
+        } catch (InterruptedException ie) {
+          // Generation is short lived, so finish waiting and restore the flag
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException ee) {
+      //Don't remember failures, a later attempt may succeed
+      classes.remove(createSet, future);
+      Throwable cause = ee.getCause();
+      if (cause instanceof UnableToProxyException) {
+        throw (UnableToProxyException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new UnableToProxyException(createSet.iterator().next(), cause);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
       }
     }
+  }
+
+  private Class<?> generateProxyClass(Class<?> superclass, SortedSet<Class<?>> interfaces,
+      LinkedHashSet<Class<?>> createSet) throws UnableToProxyException {
     
     Lock wLock = ifacesLock.writeLock();
     wLock.lock();
@@ -150,7 +193,7 @@ final class ProxyClassLoader extends ClassLoader {
       wLock.unlock();
     }
     
-    className = "Proxy" + AbstractWovenProxyAdapter.getSanitizedUUIDString();
+    String className = "Proxy" + AbstractWovenProxyAdapter.getSanitizedUUIDString();
     
     InterfaceCombiningClassAdapter icca = new InterfaceCombiningClassAdapter(
         className, this, superclass, interfaces);
@@ -161,17 +204,10 @@ final class ProxyClassLoader extends ClassLoader {
     
     try {
       byte[] bytes = icca.generateBytes();
-      Class<?> c = defineClass(className, bytes, 0, bytes.length, 
+      return defineClass(className, bytes, 0, bytes.length, 
           PROXY_PROTECTION_DOMAIN);
-      String old = classes.putIfAbsent(createSet, className);
-      if(old != null) {
-        c = Class.forName(className, false, this);
-      }
-      return c;
     } catch (ClassFormatError cfe) {
       throw new UnableToProxyException(createSet.iterator().next(), cfe);
-    } catch (ClassNotFoundException e) {
-      throw new UnableToProxyException(createSet.iterator().next(), e);
     }
   }
 }
\ No newline at end of file
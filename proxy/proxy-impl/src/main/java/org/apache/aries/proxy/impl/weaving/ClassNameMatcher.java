@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.proxy.impl.weaving;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Matches class names against a comma separated list of globs, where
+ * <code>*</code> matches any sequence of characters. The common forms, an
+ * exact name, a prefix followed by a single trailing <code>*</code>, or just
+ * <code>*</code>, are compiled into a hash set and a prefix trie so that a
+ * match costs at most one pass over the class name. Other globs fall back to
+ * regular expressions.
+ */
+final class ClassNameMatcher {
+
+  private final boolean matchAll;
+  private final Set<String> exact = new HashSet<String>();
+  private final Node prefixes = new Node();
+  private final List<Pattern> patterns = new ArrayList<Pattern>();
+
+  ClassNameMatcher(String globs) {
+    boolean all = false;
+    for (String str : globs.split(",")) {
+      str = str.trim();
+      if (str.length() == 0) {
+        continue;
+      }
+      int star = str.indexOf('*');
+      if (star < 0) {
+        exact.add(str);
+      } else if (star == str.length() - 1) {
+        if (star == 0) {
+          all = true;
+        } else {
+          prefixes.add(str.substring(0, star));
+        }
+      } else {
+        str = str.replaceAll("\\.", "\\\\.");
+        str = str.replaceAll("\\*", ".*");
+        patterns.add(Pattern.compile(str));
+      }
+    }
+    matchAll = all;
+  }
+
+  boolean matches(String className) {
+    if (matchAll || exact.contains(className) || prefixes.matchesPrefixOf(className)) {
+      return true;
+    }
+    for (Pattern p : patterns) {
+      if (p.matcher(className).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** A node in a trie of prefixes */
+  private static final class Node {
+    private final Map<Character, Node> children = new HashMap<Character, Node>();
+    /** True if a prefix ends at this node */
+    private boolean end;
+
+    void add(String prefix) {
+      Node n = this;
+      for (int i = 0; i < prefix.length(); i++) {
+        Character c = Character.valueOf(prefix.charAt(i));
+        Node child = n.children.get(c);
+        if (child == null) {
+          child = new Node();
+          n.children.put(c, child);
+        }
+        n = child;
+      }
+      n.end = true;
+    }
+
+    boolean matchesPrefixOf(String s) {
+      Node n = this;
+      for (int i = 0; i < s.length(); i++) {
+        if (n.end) {
+          return true;
+        }
+        n = n.children.get(Character.valueOf(s.charAt(i)));
+        if (n == null) {
+          return false;
+        }
+      }
+      return n.end;
+    }
+  }
+}
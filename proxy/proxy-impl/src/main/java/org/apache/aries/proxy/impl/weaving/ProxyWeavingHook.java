@@ -20,13 +20,13 @@ package org.apache.aries.proxy.impl.weaving;
 
 import static java.lang.String.format;
 
-import java.util.ArrayList;
+import java.io.Closeable;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.List;
-import java.util.regex.Pattern;
 
 import org.apache.aries.proxy.UnableToProxyException;
+import org.apache.aries.proxy.impl.common.WeakKeyConcurrentMap;
 import org.apache.aries.proxy.weaving.WovenProxy;
 import org.apache.aries.proxy.weavinghook.ProxyWeavingController;
 import org.apache.aries.proxy.weavinghook.WeavingHelper;
@@ -41,7 +41,7 @@ import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public final class ProxyWeavingHook implements WeavingHook, WeavingHelper {
+public final class ProxyWeavingHook implements WeavingHook, WeavingHelper, Closeable {
 
   public static final String WEAVING_ENABLED_CLASSES = "org.apache.aries.proxy.weaving.enabled";
   public static final String WEAVING_DISABLED_CLASSES = "org.apache.aries.proxy.weaving.disabled";
@@ -49,6 +49,9 @@ public final class ProxyWeavingHook implements WeavingHook, WeavingHelper {
   public static final String WEAVING_ENABLED_CLASSES_DEFAULT = "*";
   public static final String WEAVING_DISABLED_CLASSES_DEFAULT = "org.objectweb.asm.*,org.slf4j.*,org.apache.log4j.*,javax.*,ch.qos.logback.*";
 
+  /** A bundle manifest header which, when set to false, stops any class in the bundle being woven */
+  public static final String WEAVING_BUNDLE_HEADER = "Aries-Proxy-Weaving";
+
   private static final Logger LOGGER = LoggerFactory.getLogger(ProxyWeavingHook.class);
   /** An import of the WovenProxy package */
   private static final String IMPORT_A = "org.apache.aries.proxy.weaving";
@@ -59,20 +62,30 @@ public final class ProxyWeavingHook implements WeavingHook, WeavingHelper {
    */
   private static final String IMPORT_B = "org.apache.aries.proxy";
 
-  private final List<Pattern> enabled;
-  private final List<Pattern> disabled;
+  private final ClassNameMatcher enabled;
+  private final ClassNameMatcher disabled;
+  /** Whether each bundle wiring may have classes woven, computed on first use */
+  private final WeakKeyConcurrentMap<BundleWiring, Boolean> wiringDecisions =
+      new WeakKeyConcurrentMap<BundleWiring, Boolean>();
   @SuppressWarnings("rawtypes")
   private final ServiceTracker controllers;
+  /** The persistent cache of woven bytes, or null if caching is disabled */
+  private final WovenClassCache cache;
 
   @SuppressWarnings({
  "unchecked", "rawtypes"
 })
 public ProxyWeavingHook(BundleContext context) {
     String enabledProp = context != null ? context.getProperty(WEAVING_ENABLED_CLASSES) : null;
-    enabled = parseMatchers(enabledProp, WEAVING_ENABLED_CLASSES_DEFAULT);
-    disabled = parseMatchers(context != null ? context.getProperty(WEAVING_DISABLED_CLASSES) : null, WEAVING_DISABLED_CLASSES_DEFAULT);
+    String enabledClasses = enabledProp != null ? enabledProp : WEAVING_ENABLED_CLASSES_DEFAULT;
+    enabled = new ClassNameMatcher(enabledClasses);
+    String disabledProp = context != null ? context.getProperty(WEAVING_DISABLED_CLASSES) : null;
+    String disabledClasses = disabledProp != null ? disabledProp : WEAVING_DISABLED_CLASSES_DEFAULT;
+    disabled = new ClassNameMatcher(disabledClasses);
     controllers = new ServiceTracker(context, ProxyWeavingController.class.getName(), null);
     controllers.open();
+    cache = "none".equals(enabledProp) ? null : WovenClassCache.create(context,
+        enabledClasses + "|" + disabledClasses);
     
     if (!"none".equals(enabledProp)) {
         Dictionary<String,String> props = new Hashtable<String,String>();
@@ -88,14 +101,8 @@ public ProxyWeavingHook(BundleContext context) {
   public final void weave(WovenClass wovenClass) {
     BundleWiring bw = wovenClass.getBundleWiring();
     
-    if (bw != null) {
-        Bundle b = bw.getBundle();
-        
-        if(b.getBundleId() == 0 || 
-            b.getSymbolicName().startsWith("org.apache.aries.proxy") ||
-            b.getSymbolicName().startsWith("org.apache.aries.util")) {
-          return;
-        }
+    if (bw != null && !isWeavingAllowed(bw)) {
+        return;
     }
 
     if (!isEnabled(wovenClass.getClassName()) || isDisabled(wovenClass.getClassName())) {
@@ -103,21 +110,46 @@ public ProxyWeavingHook(BundleContext context) {
     }
 
     if (shouldWeave(wovenClass)) {
+      byte[] original = wovenClass.getBytes();
       byte[] bytes = null;
+      String key = null;
       
-      try {
-        bytes = WovenProxyGenerator.getWovenProxy(wovenClass.getBytes(),
-                wovenClass.getBundleWiring().getClassLoader());
+      if (cache != null && bw != null) {
+        // The key needs neither the class to be parsed nor its superclass to
+        // be loaded. The superclass is only loaded to check a hit, and the
+        // framework must load it to define this class in any case
+        key = cache.key(wovenClass.getClassName(), original, bw);
+        WovenClassCache.Entry entry = cache.get(key);
+        if (entry != null && Boolean.valueOf(entry.superClassWoven).equals(
+            superClassWoven(entry.superName, wovenClass))) {
+          bytes = entry.bytes;
+        }
+      }
+      
+      if (bytes == null) {
+        try {
+          bytes = WovenProxyGenerator.getWovenProxy(original,
+                  wovenClass.getBundleWiring().getClassLoader());
+          
+        } catch (Exception e) {
+          if(e instanceof RuntimeException && 
+              e.getCause() instanceof UnableToProxyException){
+            //This is a weaving failure that should be logged, but the class
+            //can still be loaded
+            LOGGER.trace(String.format("The class %s cannot be woven, it may not be possible for the runtime to proxy this class.",
+                                       wovenClass.getClassName()), e);
+          } else {
+            throw weavingException(wovenClass, e);
+          }
+        }
         
-      } catch (Exception e) {
-        if(e instanceof RuntimeException && 
-            e.getCause() instanceof UnableToProxyException){
-          //This is a weaving failure that should be logged, but the class
-          //can still be loaded
-          LOGGER.trace(String.format("The class %s cannot be woven, it may not be possible for the runtime to proxy this class.",
-                                     wovenClass.getClassName()), e);
-        } else {
-          throw weavingException(wovenClass, e);
+        if (key != null) {
+          String superName = new ClassReader(original).getSuperName();
+          Boolean superClassWoven = superClassWoven(superName, wovenClass);
+          if (superClassWoven != null) {
+            //Also remember the classes we don't weave, so that we don't have to look again
+            cache.put(key, superName, superClassWoven.booleanValue(), bytes);
+          }
         }
       }
       
@@ -131,36 +163,34 @@ public ProxyWeavingHook(BundleContext context) {
   }
 
 
-    private List<Pattern> parseMatchers(String matchers, String def) {
-        String[] strings = (matchers != null ? matchers : def).split(",");
-        List<Pattern> patterns = new ArrayList<Pattern>();
-        for (String str : strings) {
-            str = str.trim();
-            if (str.length() != 0) {
-                str = str.replaceAll("\\.", "\\\\.");
-                str = str.replaceAll("\\*", ".*");
-                Pattern p = Pattern.compile(str);
-                patterns.add(p);
-            }
-        }
-        return patterns;
-    }
-
     boolean isEnabled(String className) {
-        return matches(enabled, className);
+        return enabled.matches(className);
     }
 
     boolean isDisabled(String className) {
-        return matches(disabled, className);
+        return disabled.matches(className);
     }
 
-    private boolean matches(List<Pattern> patterns, String className) {
-        for (Pattern p : patterns) {
-            if (p.matcher(className).matches()) {
-                return true;
+    /**
+     * Decide once per wiring whether any of its classes may be woven
+     */
+    private boolean isWeavingAllowed(BundleWiring bw) {
+        Boolean allowed = wiringDecisions.get(bw);
+        if (allowed == null) {
+            Bundle b = bw.getBundle();
+            String symbolicName = b.getSymbolicName();
+            boolean weave = b.getBundleId() != 0 &&
+                !(symbolicName != null && (symbolicName.startsWith("org.apache.aries.proxy") ||
+                    symbolicName.startsWith("org.apache.aries.util")));
+            if (weave) {
+                Dictionary<String, String> headers = b.getHeaders("");
+                String header = headers == null ? null : headers.get(WEAVING_BUNDLE_HEADER);
+                weave = header == null || !"false".equalsIgnoreCase(header.trim());
             }
+            allowed = Boolean.valueOf(weave);
+            wiringDecisions.putIfAbsent(bw, allowed);
         }
-        return false;
+        return allowed.booleanValue();
     }
     
     public boolean isWoven(Class<?> clazz)
@@ -180,6 +210,29 @@ public ProxyWeavingHook(BundleContext context) {
       }
     }
     
+  /**
+   * Whether the named superclass of a class about to be woven already
+   * implements WovenProxy, or <code>null</code> if it cannot be loaded. The
+   * woven output depends on this, and it in turn depends on the weaving
+   * decisions made for every class above this one, so a cached result is
+   * only used if this has not changed.
+   */
+  private Boolean superClassWoven(String superName, WovenClass wovenClass) {
+    if (superName == null || wovenClass.getBundleWiring() == null) {
+      return null;
+    }
+    try {
+      Class<?> superClass = Class.forName(superName.replace('/', '.'), false,
+          wovenClass.getBundleWiring().getClassLoader());
+      return Boolean.valueOf(WovenProxy.class.isAssignableFrom(superClass));
+    } catch (ClassNotFoundException e) {
+      // Leave the weaver to report this
+      return null;
+    } catch (LinkageError e) {
+      return null;
+    }
+  }
+
   private boolean shouldWeave(WovenClass wovenClass)
   {
     // assume we weave
@@ -202,6 +255,12 @@ public ProxyWeavingHook(BundleContext context) {
     return result;
   }
 
+  public void close() {
+    if (cache != null) {
+      cache.close();
+    }
+  }
+
   private WeavingException weavingException(WovenClass wovenClass, Exception e) {
     String msg = format("There was a serious error trying to weave the class %s. See the associated exception for more information.",
                             wovenClass.getClassName());
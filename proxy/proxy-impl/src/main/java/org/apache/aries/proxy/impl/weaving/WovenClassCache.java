@@ -0,0 +1,511 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.proxy.impl.weaving;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An on-disk cache of woven class bytes, stored in the data area of the proxy
+ * bundle. Entries are keyed by a digest of the original class bytes, the
+ * version and configuration of this bundle, and the wiring of the bundle
+ * defining the class. The woven output also depends on whether any class
+ * above it in the hierarchy already implements WovenProxy, so each entry
+ * records its superclass and whether that superclass was woven. This lets
+ * the key be computed without parsing the class or loading its superclass.
+ * <p>
+ * Each entry carries a checksum, and entries which fail to read back are
+ * deleted and treated as misses. When the total size of the cache exceeds its
+ * bound the least recently used entries are removed.
+ */
+final class WovenClassCache implements WovenClassCacheMBean {
+
+  public static final String WEAVING_CACHE_ENABLED = "org.apache.aries.proxy.weaving.cache";
+  public static final String WEAVING_CACHE_SIZE = "org.apache.aries.proxy.weaving.cache.size";
+
+  /** 64MB is enough for tens of thousands of typical classes */
+  public static final long WEAVING_CACHE_SIZE_DEFAULT = 64L * 1024 * 1024;
+
+  static final String OBJECT_NAME = "org.apache.aries.proxy:type=WeavingCache";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(WovenClassCache.class);
+
+  private static final int MAGIC = 0xA1E5CAC4;
+  private static final int FORMAT_VERSION = 2;
+  /** The number of bytes used by the entry header */
+  private static final int HEADER_SIZE = 20;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final File root;
+  private final long maxSize;
+  private final String proxyVersion;
+  private final String configuration;
+  private final AtomicLong currentSize = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong stores = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong corruptions = new AtomicLong();
+
+  /** The wiring fingerprints, which are discarded along with their wiring */
+  private final Map<BundleWiring, String> fingerprints = new WeakHashMap<BundleWiring, String>();
+
+  private ObjectName registeredName;
+
+  WovenClassCache(File root, long maxSize, String proxyVersion, String configuration) {
+    this.root = root;
+    this.maxSize = maxSize;
+    this.proxyVersion = proxyVersion;
+    this.configuration = configuration;
+    currentSize.set(sizeOf(root));
+  }
+
+  /**
+   * Create a cache in the data area of the supplied bundle, or return
+   * <code>null</code> if caching is disabled or no data area is available.
+   * Entries stored with a different configuration are never returned.
+   */
+  static WovenClassCache create(BundleContext context, String configuration) {
+    if (context == null || "false".equalsIgnoreCase(context.getProperty(WEAVING_CACHE_ENABLED))) {
+      return null;
+    }
+    Bundle bundle = context.getBundle();
+    File root = context.getDataFile("woven-classes");
+    if (bundle == null || root == null) {
+      return null;
+    }
+    if (!root.isDirectory() && !root.mkdirs()) {
+      LOGGER.warn("Unable to create the woven class cache directory {}, woven classes will not be cached", root);
+      return null;
+    }
+
+    long maxSize = WEAVING_CACHE_SIZE_DEFAULT;
+    String size = context.getProperty(WEAVING_CACHE_SIZE);
+    if (size != null) {
+      try {
+        maxSize = Long.parseLong(size.trim());
+      } catch (NumberFormatException nfe) {
+        LOGGER.warn("The value {} of {} is not a valid cache size, using the default of {}",
+            new Object[] {size, WEAVING_CACHE_SIZE, WEAVING_CACHE_SIZE_DEFAULT});
+      }
+    }
+    if (maxSize <= 0) {
+      return null;
+    }
+
+    WovenClassCache cache = new WovenClassCache(root, maxSize, String.valueOf(bundle.getVersion()),
+        configuration);
+    cache.registerMBean();
+    return cache;
+  }
+
+  /**
+   * Compute the cache key for a class about to be woven
+   */
+  String key(String className, byte[] original, BundleWiring wiring) {
+    MessageDigest md = newDigest();
+    update(md, proxyVersion);
+    update(md, configuration);
+    update(md, fingerprint(wiring));
+    update(md, className);
+    md.update(original);
+    byte[] digest = md.digest();
+    char[] chars = new char[digest.length * 2];
+    for (int i = 0; i < digest.length; i++) {
+      chars[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+      chars[2 * i + 1] = HEX[digest[i] & 0xF];
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Look up the entry for a key, or return <code>null</code> if there is no
+   * usable entry.
+   */
+  Entry get(String key) {
+    File f = fileFor(key);
+    if (!f.isFile()) {
+      misses.incrementAndGet();
+      return null;
+    }
+    Entry entry = null;
+    try {
+      byte[] bytes = read(f);
+      entry = bytes == null ? null : Entry.decode(bytes);
+    } catch (IOException ioe) {
+      LOGGER.debug("Unable to read the woven class cache entry " + f, ioe);
+    }
+    if (entry == null) {
+      corruptions.incrementAndGet();
+      misses.incrementAndGet();
+      remove(f);
+      return null;
+    }
+    hits.incrementAndGet();
+    // Used to approximate least recently used eviction
+    f.setLastModified(System.currentTimeMillis());
+    return entry;
+  }
+
+  /**
+   * Store the woven bytes for a key, along with the superclass they were
+   * woven against. A <code>null</code> value records that the class is not
+   * woven.
+   */
+  void put(String key, String superName, boolean superClassWoven, byte[] woven) {
+    byte[] bytes;
+    try {
+      bytes = new Entry(superName, superClassWoven, woven).encode();
+    } catch (IOException ioe) {
+      LOGGER.debug("Unable to encode the woven class cache entry " + key, ioe);
+      return;
+    }
+    File f = fileFor(key);
+    File dir = f.getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      return;
+    }
+    File tmp = new File(dir, f.getName() + "." + Thread.currentThread().getId() + ".tmp");
+    try {
+      write(tmp, bytes);
+      long previous = f.length();
+      if (f.exists() && !f.delete()) {
+        tmp.delete();
+        return;
+      }
+      if (!tmp.renameTo(f)) {
+        tmp.delete();
+        return;
+      }
+      stores.incrementAndGet();
+      if (currentSize.addAndGet(f.length() - previous) > maxSize) {
+        evict();
+      }
+    } catch (IOException ioe) {
+      LOGGER.debug("Unable to write the woven class cache entry " + f, ioe);
+      tmp.delete();
+    }
+  }
+
+  void close() {
+    if (registeredName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+      } catch (Throwable t) {
+        LOGGER.debug("Unable to unregister the woven class cache MBean", t);
+      }
+      registeredName = null;
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getStores() {
+    return stores.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public long getCorruptEntries() {
+    return corruptions.get();
+  }
+
+  public long getSize() {
+    return currentSize.get();
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  public synchronized void clear() {
+    File[] dirs = root.listFiles();
+    if (dirs != null) {
+      for (File dir : dirs) {
+        File[] entries = dir.listFiles();
+        if (entries != null) {
+          for (File f : entries) {
+            remove(f);
+          }
+        }
+      }
+    }
+    currentSize.set(sizeOf(root));
+  }
+
+  private void registerMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(this, name);
+        registeredName = name;
+      }
+    } catch (Throwable t) {
+      // JMX is not required for the cache to work
+      LOGGER.debug("Unable to register the woven class cache MBean", t);
+    }
+  }
+
+  /**
+   * Remove the least recently used entries until the cache is back to 3/4 of
+   * its maximum size, leaving room for new entries before evicting again
+   */
+  private synchronized void evict() {
+    if (currentSize.get() <= maxSize) {
+      return;
+    }
+    List<File> entries = new ArrayList<File>();
+    File[] dirs = root.listFiles();
+    if (dirs != null) {
+      for (File dir : dirs) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+          entries.addAll(Arrays.asList(files));
+        }
+      }
+    }
+    final Map<File, Long> lastModified = new HashMap<File, Long>();
+    long total = 0;
+    for (File f : entries) {
+      lastModified.put(f, f.lastModified());
+      total += f.length();
+    }
+    Collections.sort(entries, new Comparator<File>() {
+      public int compare(File a, File b) {
+        long la = lastModified.get(a);
+        long lb = lastModified.get(b);
+        return la < lb ? -1 : (la == lb ? 0 : 1);
+      }
+    });
+    long target = maxSize - maxSize / 4;
+    for (File f : entries) {
+      if (total <= target) {
+        break;
+      }
+      long length = f.length();
+      if (f.delete()) {
+        total -= length;
+        evictions.incrementAndGet();
+      }
+    }
+    currentSize.set(total);
+  }
+
+  private void remove(File f) {
+    long length = f.length();
+    if (f.delete()) {
+      currentSize.addAndGet(-length);
+    }
+  }
+
+  private File fileFor(String key) {
+    return new File(new File(root, key.substring(0, 2)), key.substring(2));
+  }
+
+  /**
+   * Read an entry, returning <code>null</code> if it is not valid
+   */
+  private static byte[] read(File f) throws IOException {
+    long fileLength = f.length();
+    if (fileLength < HEADER_SIZE) {
+      return null;
+    }
+    DataInputStream dis = new DataInputStream(new FileInputStream(f));
+    try {
+      if (dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION) {
+        return null;
+      }
+      long checksum = dis.readLong();
+      int length = dis.readInt();
+      if (length < 0 || length != fileLength - HEADER_SIZE) {
+        return null;
+      }
+      byte[] bytes = new byte[length];
+      dis.readFully(bytes);
+      CRC32 crc = new CRC32();
+      crc.update(bytes);
+      return crc.getValue() == checksum ? bytes : null;
+    } finally {
+      dis.close();
+    }
+  }
+
+  private static void write(File f, byte[] bytes) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    FileOutputStream fos = new FileOutputStream(f);
+    try {
+      DataOutputStream dos = new DataOutputStream(fos);
+      dos.writeInt(MAGIC);
+      dos.writeInt(FORMAT_VERSION);
+      dos.writeLong(crc.getValue());
+      dos.writeInt(bytes.length);
+      dos.write(bytes);
+      dos.flush();
+    } finally {
+      fos.close();
+    }
+  }
+
+  /**
+   * Describe the wiring of a bundle such that any update or refresh which
+   * could change the classes visible to it also changes the fingerprint
+   */
+  private String fingerprint(BundleWiring wiring) {
+    if (wiring == null) {
+      return "";
+    }
+    synchronized (fingerprints) {
+      String fp = fingerprints.get(wiring);
+      if (fp != null) {
+        return fp;
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    append(sb, wiring.getRevision());
+    List<BundleWire> wires = wiring.getRequiredWires(null);
+    if (wires != null) {
+      for (BundleWire wire : wires) {
+        sb.append('|').append(wire.getCapability().getNamespace()).append('=');
+        append(sb, wire.getProviderWiring() == null ? wire.getCapability().getRevision()
+            : wire.getProviderWiring().getRevision());
+      }
+    }
+    String fp = sb.toString();
+    synchronized (fingerprints) {
+      fingerprints.put(wiring, fp);
+    }
+    return fp;
+  }
+
+  private static void append(StringBuilder sb, BundleRevision revision) {
+    if (revision == null) {
+      return;
+    }
+    Bundle b = revision.getBundle();
+    sb.append(revision.getSymbolicName()).append(':').append(revision.getVersion());
+    if (b != null) {
+      sb.append(':').append(b.getBundleId()).append(':').append(b.getLastModified());
+    }
+  }
+
+  /**
+   * A cached weaving result, which is only valid while the named superclass
+   * is still woven, or not, as it was when the entry was stored
+   */
+  static final class Entry {
+    final String superName;
+    final boolean superClassWoven;
+    /** The woven bytes, or a zero length array if the class is not woven */
+    final byte[] bytes;
+
+    Entry(String superName, boolean superClassWoven, byte[] bytes) {
+      this.superName = superName;
+      this.superClassWoven = superClassWoven;
+      this.bytes = bytes == null ? new byte[0] : bytes;
+    }
+
+    byte[] encode() throws IOException {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length + superName.length() + 8);
+      DataOutputStream dos = new DataOutputStream(baos);
+      dos.writeUTF(superName);
+      dos.writeBoolean(superClassWoven);
+      dos.write(bytes);
+      dos.flush();
+      return baos.toByteArray();
+    }
+
+    static Entry decode(byte[] encoded) throws IOException {
+      DataInputStream dis = new DataInputStream(new ByteArrayInputStream(encoded));
+      String superName = dis.readUTF();
+      boolean superClassWoven = dis.readBoolean();
+      byte[] bytes = new byte[dis.available()];
+      dis.readFully(bytes);
+      return new Entry(superName, superClassWoven, bytes);
+    }
+  }
+
+  private static void update(MessageDigest md, String s) {
+    try {
+      md.update(s.getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+    md.update((byte) 0);
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static long sizeOf(File dir) {
+    long size = 0;
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        size += f.isDirectory() ? sizeOf(f) : f.length();
+      }
+    }
+    return size;
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.proxy.impl.weaving;
+
+/**
+ * Management interface for the woven class cache, registered as
+ * <code>org.apache.aries.proxy:type=WeavingCache</code>
+ */
+public interface WovenClassCacheMBean {
+
+  /** The number of classes whose woven bytes were found in the cache */
+  long getHits();
+
+  /** The number of classes that had to be woven */
+  long getMisses();
+
+  /** The number of entries written to the cache */
+  long getStores();
+
+  /** The number of entries removed to keep the cache within its size bound */
+  long getEvictions();
+
+  /** The number of entries discarded because they failed validation */
+  long getCorruptEntries();
+
+  /** The approximate number of bytes used by the cache on disk */
+  long getSize();
+
+  /** The number of bytes the cache may use before entries are evicted */
+  long getMaxSize();
+
+  /** Remove all entries from the cache */
+  void clear();
+}
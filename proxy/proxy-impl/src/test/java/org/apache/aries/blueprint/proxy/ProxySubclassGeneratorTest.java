@@ -122,7 +122,8 @@ public class ProxySubclassGeneratorTest extends AbstractProxyTest
     Method[] ihMethods = new Method[] {
         generatedProxySubclass.getMethod("setInvocationHandler",
             new Class[] { InvocationHandler.class }),
-        generatedProxySubclass.getMethod("getInvocationHandler", new Class[] {}) };
+        generatedProxySubclass.getMethod("getInvocationHandler", new Class[] {}),
+        generatedProxySubclass.getMethod("setDirectDispatcher", new Class[] { Callable.class }) };
     expectedMethods.addMethodArray(ihMethods);
 
     Method[] generatedProxySubclassMethods = generatedProxySubclass.getDeclaredMethods();
@@ -143,6 +144,29 @@ public class ProxySubclassGeneratorTest extends AbstractProxyTest
 
   }
   
+  /**
+   * Without an InvocationListener public methods are called directly on the
+   * target rather than through the InvocationHandler
+   */
+  @Test
+  public void testDirectDispatch() throws Exception
+  {
+    ProxyTestClassGeneral target = new ProxyTestClassGeneral();
+    Object proxy = ProxySubclassGenerator.newProxySubclassInstance(getTestClass(),
+        new ProxyHandler(new AsmProxyManager(), new SingleInstanceDispatcher(target), null));
+    // Replace the handler with one that fails, public calls must not use it
+    proxy.getClass().getMethod("setInvocationHandler", InvocationHandler.class).invoke(proxy,
+        new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            throw new AssertionError("Unexpected call to " + method);
+          }
+        });
+
+    assertEquals("hello", ((ProxyTestClassGeneral) proxy).testMethod("hello", 1, null));
+    assertEquals("d", ((ProxyTestClassGeneral) proxy).testArgs(1d, (short) 2, 3L, 'd', (byte) 4, true));
+    assertEquals(Integer.valueOf(1), ((ProxyTestClassGeneral) proxy).testReturnInteger());
+  }
+
   /**
    * Test a method marked final
    */
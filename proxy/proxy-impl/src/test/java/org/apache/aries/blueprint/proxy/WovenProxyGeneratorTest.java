@@ -29,6 +29,7 @@ import static org.mockito.Mockito.when;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.ArrayList;
@@ -38,6 +39,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.aries.blueprint.proxy.ProxyTestClassInnerClasses.ProxyTestClassInner;
 import org.apache.aries.blueprint.proxy.ProxyTestClassInnerClasses.ProxyTestClassStaticInner;
@@ -291,6 +293,59 @@ public class WovenProxyGeneratorTest extends AbstractProxyTest
     		tl.getLastMethod());
   }
   
+  /**
+   * A proxy without a listener delegates directly to the target, so only a
+   * proxy with a listener may call it
+   */
+  @Test
+  public void testListenerIsOnlyCalledWhenPresent() throws Exception
+  {
+    final Object target = getProxyInstance(getProxyClass(getTestClass()));
+    final AtomicInteger dispatches = new AtomicInteger();
+    Callable<Object> dispatcher = new Callable<Object>() {
+      public Object call() throws Exception {
+        dispatches.incrementAndGet();
+        return target;
+      }
+    };
+    TestListener tl = new TestListener();
+    WovenProxy template = (WovenProxy) target;
+    Object withoutListener = template.
+        org_apache_aries_proxy_weaving_WovenProxy_createNewProxyInstance(dispatcher, null);
+    Object withListener = template.
+        org_apache_aries_proxy_weaving_WovenProxy_createNewProxyInstance(dispatcher, tl);
+    
+    Method returnInteger = getDeclaredMethod(getTestClass(), "testReturnInteger", new Class[] {});
+    Method exception = getDeclaredMethod(getTestClass(), "testException", new Class[] {});
+    
+    assertEquals(Integer.valueOf(1), returnInteger.invoke(withoutListener));
+    assertEquals(1, dispatches.get());
+    assertCalled(tl, false, false, false);
+    
+    try {
+      exception.invoke(withoutListener);
+      fail("Should throw an exception");
+    } catch (InvocationTargetException ite) {
+      assertEquals(RuntimeException.class, ite.getTargetException().getClass());
+    }
+    assertEquals(2, dispatches.get());
+    assertCalled(tl, false, false, false);
+    
+    assertEquals(Integer.valueOf(1), returnInteger.invoke(withListener));
+    assertEquals(3, dispatches.get());
+    assertCalled(tl, true, true, false);
+    
+    tl.clear();
+    try {
+      exception.invoke(withListener);
+      fail("Should throw an exception");
+    } catch (InvocationTargetException ite) {
+      assertEquals(RuntimeException.class, ite.getTargetException().getClass());
+    }
+    assertEquals(4, dispatches.get());
+    assertCalled(tl, true, false, true);
+  }
+  
   @Test
   public void testUnweavableSuperWithNoNoargsAllTheWay() throws Exception
   {
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.proxy.impl.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.aries.proxy.impl.common.ClassHierarchyIndex.ClassInfo;
+import org.junit.Test;
+
+public class ClassHierarchyIndexTest {
+
+    @Test
+    public void testClassInfo() throws Exception {
+        ClassHierarchyIndex index = ClassHierarchyIndex.forLoader(getClass().getClassLoader());
+
+        ClassInfo info = index.getClassInfo("java/util/ArrayList");
+        assertEquals("java/util/AbstractList", info.getSuperName());
+        assertFalse(info.isInterface());
+        assertTrue(info.getInterfaces().length > 0);
+        assertSame(info, index.getClassInfo("java/util/ArrayList"));
+
+        assertTrue(index.getClassInfo("java/util/List").isInterface());
+        assertNull(index.getClassInfo("java/lang/Object").getSuperName());
+        assertNull(index.getClassInfo("org/apache/aries/DoesNotExist"));
+    }
+
+    @Test
+    public void testSharedPerLoader() {
+        ClassLoader loader = getClass().getClassLoader();
+        assertSame(ClassHierarchyIndex.forLoader(loader), ClassHierarchyIndex.forLoader(loader));
+    }
+}
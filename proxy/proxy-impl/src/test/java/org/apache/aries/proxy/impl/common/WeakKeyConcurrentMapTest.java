@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.proxy.impl.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class WeakKeyConcurrentMapTest {
+
+    @Test
+    public void testIdentityKeys() {
+        WeakKeyConcurrentMap<String, String> map = new WeakKeyConcurrentMap<String, String>();
+        String key = new String("key");
+
+        assertNull(map.putIfAbsent(key, "a"));
+        assertEquals("a", map.putIfAbsent(key, "b"));
+        assertEquals("a", map.get(key));
+        // Keys are compared by identity, not equality
+        assertNull(map.get(new String("key")));
+
+        assertFalse(map.replace(key, "b", "c"));
+        assertTrue(map.replace(key, "a", "c"));
+        assertEquals("c", map.get(key));
+
+        assertFalse(map.remove(key, "a"));
+        assertTrue(map.remove(key, "c"));
+        assertNull(map.get(key));
+    }
+
+    @Test
+    public void testNullKey() {
+        WeakKeyConcurrentMap<Object, String> map = new WeakKeyConcurrentMap<Object, String>();
+        assertNull(map.get(null));
+        assertNull(map.putIfAbsent(null, "a"));
+        assertEquals("a", map.get(null));
+        assertTrue(map.remove(null, "a"));
+        assertNull(map.get(null));
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.proxy.impl.weaving;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ClassNameMatcherTest {
+
+    @Test
+    public void testPrefixes() {
+        ClassNameMatcher m = new ClassNameMatcher("org.objectweb.asm.*, javax.*,org.apache.foo.*");
+        assertTrue(m.matches("org.objectweb.asm.ClassReader"));
+        assertTrue(m.matches("javax.naming.Context"));
+        assertTrue(m.matches("org.apache.foo.bar.Bar"));
+        assertTrue(m.matches("org.apache.foo."));
+        assertFalse(m.matches("org.apache.fooBar"));
+        assertFalse(m.matches("orgXapache.foo.Bar"));
+        assertFalse(m.matches("org.apache"));
+        assertFalse(m.matches("java.lang.Object"));
+    }
+
+    @Test
+    public void testExactAndAll() {
+        ClassNameMatcher m = new ClassNameMatcher("org.apache.foo.Bar");
+        assertTrue(m.matches("org.apache.foo.Bar"));
+        assertFalse(m.matches("org.apache.foo.BarBaz"));
+
+        assertTrue(new ClassNameMatcher("*").matches("anything.At.All"));
+        assertFalse(new ClassNameMatcher("").matches("anything.At.All"));
+    }
+
+    @Test
+    public void testInnerWildcards() {
+        ClassNameMatcher m = new ClassNameMatcher("org.*.impl.*,*Test");
+        assertTrue(m.matches("org.apache.impl.Foo"));
+        assertTrue(m.matches("com.acme.FooTest"));
+        assertFalse(m.matches("org.apache.api.Foo"));
+        assertFalse(m.matches("com.acme.TestFoo"));
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.proxy.impl.weaving;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+
+import org.apache.aries.blueprint.proxy.ProxyTestClassGeneral;
+import org.apache.aries.blueprint.proxy.ProxyTestClassSuper;
+import org.apache.aries.proxy.weaving.WovenProxy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.objectweb.asm.ClassReader;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+import org.osgi.framework.hooks.weaving.WovenClass;
+import org.osgi.framework.wiring.BundleWiring;
+
+public class WovenClassCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStoreAndLoad() throws Exception {
+        WovenClassCache cache = new WovenClassCache(folder.getRoot(), 1024 * 1024, "1.0.0", "*|");
+        byte[] original = new byte[] {1, 2, 3};
+        String key = cache.key("org.apache.foo.Bar", original, null);
+
+        assertNull(cache.get(key));
+        cache.put(key, "org/apache/foo/Super", true, new byte[] {4, 5, 6});
+        WovenClassCache.Entry entry = cache.get(key);
+        assertArrayEquals(new byte[] {4, 5, 6}, entry.bytes);
+        assertEquals("org/apache/foo/Super", entry.superName);
+        assertTrue(entry.superClassWoven);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // A fresh cache over the same directory sees the entry
+        WovenClassCache reopened = new WovenClassCache(folder.getRoot(), 1024 * 1024, "1.0.0", "*|");
+        assertEquals(cache.getSize(), reopened.getSize());
+        assertArrayEquals(new byte[] {4, 5, 6}, reopened.get(key).bytes);
+    }
+
+    @Test
+    public void testNotWovenIsRemembered() throws Exception {
+        WovenClassCache cache = new WovenClassCache(folder.getRoot(), 1024 * 1024, "1.0.0", "*|");
+        String key = cache.key("org.apache.foo.Bar", new byte[] {1}, null);
+        cache.put(key, "java/lang/Object", false, null);
+        assertEquals(0, cache.get(key).bytes.length);
+    }
+
+    @Test
+    public void testKeyDependsOnInputs() throws Exception {
+        WovenClassCache cache = new WovenClassCache(folder.getRoot(), 1024 * 1024, "1.0.0", "*|");
+        WovenClassCache other = new WovenClassCache(folder.getRoot(), 1024 * 1024, "1.0.1", "*|");
+        byte[] original = new byte[] {1, 2, 3};
+        String key = cache.key("org.apache.foo.Bar", original, null);
+
+        assertEquals(key, cache.key("org.apache.foo.Bar", original.clone(), null));
+        assertFalse(key.equals(cache.key("org.apache.foo.Bar", new byte[] {1, 2, 4}, null)));
+        assertFalse(key.equals(cache.key("org.apache.foo.Baz", original, null)));
+        assertFalse(key.equals(other.key("org.apache.foo.Bar", original, null)));
+
+        WovenClassCache reconfigured = new WovenClassCache(folder.getRoot(), 1024 * 1024, "1.0.0", "*|org.apache.*");
+        assertFalse(key.equals(reconfigured.key("org.apache.foo.Bar", original, null)));
+    }
+
+    @Test
+    public void testWeavingConfigurationChangeIsNotServedFromCache() throws Exception {
+        byte[] original = bytesOf(ProxyTestClassGeneral.class);
+
+        // First the superclass is woven, so the subclass need not implement WovenProxy
+        ProxyWeavingHook hook = new ProxyWeavingHook(context(null));
+        byte[] first = weave(hook, original, new HierarchyLoader(true));
+        hook.close();
+        assertNotNull(first);
+        assertFalse(implementsWovenProxy(first));
+
+        // Then the superclass is excluded, so the subclass must implement WovenProxy itself
+        hook = new ProxyWeavingHook(context(ProxyTestClassSuper.class.getName()));
+        byte[] second = weave(hook, original, new HierarchyLoader(false));
+        hook.close();
+
+        assertNotNull(second);
+        assertTrue(implementsWovenProxy(second));
+    }
+
+    @Test
+    public void testSuperClassChangeIsNotServedFromCache() throws Exception {
+        byte[] original = bytesOf(ProxyTestClassGeneral.class);
+        ProxyWeavingHook hook = new ProxyWeavingHook(context(null));
+        try {
+            // The same configuration and wiring, but the superclass was loaded unwoven
+            byte[] first = weave(hook, original, new HierarchyLoader(true));
+            byte[] second = weave(hook, original, new HierarchyLoader(false));
+            byte[] third = weave(hook, original, new HierarchyLoader(false));
+
+            assertFalse(implementsWovenProxy(first));
+            assertTrue(implementsWovenProxy(second));
+            assertArrayEquals(second, third);
+        } finally {
+            hook.close();
+        }
+    }
+
+    private static boolean implementsWovenProxy(byte[] bytes) {
+        return Arrays.asList(new ClassReader(bytes).getInterfaces()).contains(
+            WovenProxy.class.getName().replace('.', '/'));
+    }
+
+    private BundleContext context(String disabledClasses) {
+        BundleContext context = mock(BundleContext.class);
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getVersion()).thenReturn(new Version("1.0.0"));
+        when(context.getBundle()).thenReturn(bundle);
+        when(context.getDataFile("woven-classes")).thenReturn(folder.getRoot());
+        when(context.getProperty(ProxyWeavingHook.WEAVING_DISABLED_CLASSES)).thenReturn(disabledClasses);
+        return context;
+    }
+
+    private static byte[] weave(ProxyWeavingHook hook, byte[] original, ClassLoader loader) {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(5L);
+        when(bundle.getSymbolicName()).thenReturn("test.bundle");
+        when(bundle.getHeaders("")).thenReturn(new Hashtable<String, String>());
+        BundleWiring wiring = mock(BundleWiring.class);
+        when(wiring.getBundle()).thenReturn(bundle);
+        when(wiring.getClassLoader()).thenReturn(loader);
+        WovenClass wovenClass = mock(WovenClass.class);
+        when(wovenClass.getClassName()).thenReturn(ProxyTestClassGeneral.class.getName());
+        when(wovenClass.getBytes()).thenReturn(original);
+        when(wovenClass.getBundleWiring()).thenReturn(wiring);
+        when(wovenClass.getDynamicImports()).thenReturn(new ArrayList<String>());
+
+        hook.weave(wovenClass);
+
+        ArgumentCaptor<byte[]> woven = ArgumentCaptor.forClass(byte[].class);
+        verify(wovenClass, atMost(1)).setBytes(woven.capture());
+        return woven.getAllValues().isEmpty() ? null : woven.getValue();
+    }
+
+    private static byte[] bytesOf(Class<?> clazz) throws IOException {
+        InputStream is = clazz.getClassLoader().getResourceAsStream(clazz.getName().replace('.', '/') + ".class");
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[2048];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                baos.write(buffer, 0, read);
+            }
+            return baos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Defines its own copy of the superclass being woven, either woven or not,
+     * as the framework would depending on the weaving configuration
+     */
+    private static final class HierarchyLoader extends ClassLoader {
+        private final boolean weaveSuper;
+
+        HierarchyLoader(boolean weaveSuper) {
+            super(WovenClassCacheTest.class.getClassLoader());
+            this.weaveSuper = weaveSuper;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!ProxyTestClassSuper.class.getName().equals(name)) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> clazz = findLoadedClass(name);
+            if (clazz == null) {
+                try {
+                    byte[] bytes = bytesOf(ProxyTestClassSuper.class);
+                    if (weaveSuper) {
+                        bytes = WovenProxyGenerator.getWovenProxy(bytes, this);
+                    }
+                    clazz = defineClass(name, bytes, 0, bytes.length);
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+            return clazz;
+        }
+    }
+
+    @Test
+    public void testCorruptEntryIsDiscarded() throws Exception {
+        WovenClassCache cache = new WovenClassCache(folder.getRoot(), 1024 * 1024, "1.0.0", "*|");
+        String key = cache.key("org.apache.foo.Bar", new byte[] {1}, null);
+        cache.put(key, "java/lang/Object", false, new byte[] {4, 5, 6});
+
+        File entry = new File(new File(folder.getRoot(), key.substring(0, 2)), key.substring(2));
+        RandomAccessFile raf = new RandomAccessFile(entry, "rw");
+        try {
+            raf.seek(raf.length() - 1);
+            raf.write(7);
+        } finally {
+            raf.close();
+        }
+
+        assertNull(cache.get(key));
+        assertEquals(1, cache.getCorruptEntries());
+        assertFalse(entry.exists());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testSizeIsBounded() throws Exception {
+        WovenClassCache cache = new WovenClassCache(folder.getRoot(), 1000, "1.0.0", "*|");
+        for (int i = 0; i < 20; i++) {
+            cache.put(cache.key("org.apache.foo.Bar" + i, new byte[] {1}, null), "java/lang/Object", false, new byte[100]);
+        }
+        assertTrue(cache.getSize() <= 1000);
+        assertTrue(cache.getEvictions() > 0);
+    }
+}
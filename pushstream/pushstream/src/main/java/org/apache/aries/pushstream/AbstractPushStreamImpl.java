@@ -19,28 +19,32 @@
 package org.apache.aries.pushstream;
 
 import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.apache.aries.pushstream.AbstractPushStreamImpl.State.*;
 import static org.osgi.util.pushstream.PushEventConsumer.*;
 
 import java.time.Duration;
-import java.util.AbstractQueue;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.ConcurrentModificationException;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -51,6 +55,7 @@ import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
@@ -77,6 +82,17 @@ public abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 	public static enum State {
 		BUILDING, STARTED, CLOSED
 	}
+
+	/**
+	 * The number of events that each partition created by
+	 * {@link #partitionBy(Function, int, Executor)} can hold
+	 */
+	private static final int	PARTITION_BUFFER_SIZE	= 32;
+
+	/**
+	 * Marks a slot in an {@link OrderedMapper} whose event produced no result
+	 */
+	private static final Object	SKIPPED					= new Object();
 	
 	protected final PushStreamProvider								psp;
 	
@@ -126,6 +142,48 @@ public abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 		}
 		return ABORT;
 	}
+
+	/**
+	 * Deliver a batch of data events downstream. If the next consumer is able
+	 * to accept batches then the whole batch is passed in a single call,
+	 * otherwise the events are passed one at a time. The back pressure
+	 * returned is the largest requested by any event in the batch.
+	 * 
+	 * @param events the data events to deliver
+	 * @return the back pressure for the batch
+	 */
+	protected long handleBatch(List<PushEvent< ? extends T>> events) {
+		if(closed.get() != CLOSED) {
+			try {
+				PushEventConsumer<T> consumer = next.get();
+				long val = CONTINUE;
+				if(consumer == null) {
+					//TODO log a warning
+				} else if (consumer instanceof BatchedPushEventConsumer) {
+					val = ((BatchedPushEventConsumer<T>) consumer)
+							.acceptBatch(events);
+				} else {
+					for (PushEvent< ? extends T> event : events) {
+						long l = consumer.accept(event);
+						if (l < 0) {
+							val = l;
+							break;
+						} else if (l > val) {
+							val = l;
+						}
+					}
+				}
+				if(val < 0) {
+					close();
+				}
+				return val;
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+				return ABORT;
+			}
+		}
+		return ABORT;
+	}
 	
 	@Override
 	public void close() {
@@ -213,19 +271,40 @@ public abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 	public PushStream<T> filter(Predicate< ? super T> predicate) {
 		AbstractPushStreamImpl<T> eventStream = new IntermediatePushStreamImpl<>(
 				psp, defaultExecutor, scheduler, this);
-		updateNext((event) -> {
-			try {
-				if (!event.isTerminal()) {
-					if (predicate.test(event.getData())) {
-						return eventStream.handleEvent(event);
-					} else {
-						return CONTINUE;
+		updateNext(new BatchedPushEventConsumer<T>() {
+			@Override
+			public long accept(PushEvent< ? extends T> event) {
+				try {
+					if (!event.isTerminal()) {
+						if (predicate.test(event.getData())) {
+							return eventStream.handleEvent(event);
+						} else {
+							return CONTINUE;
+						}
 					}
+					return eventStream.handleEvent(event);
+				} catch (Exception e) {
+					close(PushEvent.error(e));
+					return ABORT;
+				}
+			}
+
+			@Override
+			public long acceptBatch(List<PushEvent< ? extends T>> events) {
+				try {
+					List<PushEvent< ? extends T>> accepted = new ArrayList<>(
+							events.size());
+					for (PushEvent< ? extends T> event : events) {
+						if (predicate.test(event.getData())) {
+							accepted.add(event);
+						}
+					}
+					return accepted.isEmpty() ? CONTINUE
+							: eventStream.handleBatch(accepted);
+				} catch (Exception e) {
+					close(PushEvent.error(e));
+					return ABORT;
 				}
-				return eventStream.handleEvent(event);
-			} catch (Exception e) {
-				close(PushEvent.error(e));
-				return ABORT;
 			}
 		});
 		return eventStream;
@@ -236,17 +315,36 @@ public abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 		
 		AbstractPushStreamImpl<R> eventStream = new IntermediatePushStreamImpl<>(
 				psp, defaultExecutor, scheduler, this);
-		updateNext(event -> {
-			try {
-				if (!event.isTerminal()) {
-					return eventStream.handleEvent(
-							PushEvent.data(mapper.apply(event.getData())));
-				} else {
-					return eventStream.handleEvent(event.nodata());
+		updateNext(new BatchedPushEventConsumer<T>() {
+			@Override
+			public long accept(PushEvent< ? extends T> event) {
+				try {
+					if (!event.isTerminal()) {
+						return eventStream.handleEvent(
+								PushEvent.data(mapper.apply(event.getData())));
+					} else {
+						return eventStream.handleEvent(event.nodata());
+					}
+				} catch (Exception e) {
+					close(PushEvent.error(e));
+					return ABORT;
+				}
+			}
+
+			@Override
+			public long acceptBatch(List<PushEvent< ? extends T>> events) {
+				try {
+					List<PushEvent< ? extends R>> mapped = new ArrayList<>(
+							events.size());
+					for (PushEvent< ? extends T> event : events) {
+						mapped.add(
+								PushEvent.data(mapper.apply(event.getData())));
+					}
+					return eventStream.handleBatch(mapped);
+				} catch (Exception e) {
+					close(PushEvent.error(e));
+					return ABORT;
 				}
-			} catch (Exception e) {
-				close(PushEvent.error(e));
-				return ABORT;
 			}
 		});
 		return eventStream;
@@ -433,6 +531,346 @@ public abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 
 		return eventStream;
 	}
+
+	@Override
+	public PushStream<T> partitionBy(Function< ? super T, ? > keyFunction,
+			int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException(
+					"The parallelism must be greater than zero");
+		}
+		ExecutorService ex = Executors.newFixedThreadPool(parallelism);
+		return partition(keyFunction, parallelism, ex,
+				this.<T> shutdownOnClose(ex));
+	}
+
+	@Override
+	public PushStream<T> partitionBy(Function< ? super T, ? > keyFunction,
+			int parallelism, Executor ex) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException(
+					"The parallelism must be greater than zero");
+		}
+		if (ex == null) {
+			throw new NullPointerException("The executor must not be null");
+		}
+		return partition(keyFunction, parallelism, ex,
+				new IntermediatePushStreamImpl<>(psp, ex, scheduler, this));
+	}
+
+	private PushStream<T> partition(Function< ? super T, ? > keyFunction,
+			int parallelism, Executor ex,
+			AbstractPushStreamImpl<T> eventStream) {
+		List<PartitionLane> lanes = new ArrayList<>(parallelism);
+		for (int i = 0; i < parallelism; i++) {
+			lanes.add(new PartitionLane(eventStream, ex));
+		}
+		updateNext(event -> {
+			try {
+				if (event.isTerminal()) {
+					for (PartitionLane lane : lanes) {
+						lane.awaitIdle();
+					}
+					eventStream.handleEvent(event.nodata());
+					return ABORT;
+				}
+				if (eventStream.closed.get() == CLOSED) {
+					return ABORT;
+				}
+
+				int hash = Objects.hashCode(keyFunction.apply(event.getData()));
+				hash ^= (hash >>> 16);
+				return lanes.get(Math.floorMod(hash, parallelism))
+						.offer(event);
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+				return ABORT;
+			}
+		});
+		return eventStream;
+	}
+
+	/**
+	 * Create the downstream for an operator which owns its executor. The
+	 * executor is shut down when the downstream closes, leaving the close
+	 * handler of the returned stream free for the caller.
+	 */
+	private <R> AbstractPushStreamImpl<R> shutdownOnClose(ExecutorService ex) {
+		return new IntermediatePushStreamImpl<R>(psp, ex, scheduler, this) {
+			@Override
+			protected boolean close(PushEvent<R> event) {
+				boolean closing = super.close(event);
+				if (closing) {
+					ex.shutdown();
+				}
+				return closing;
+			}
+		};
+	}
+
+	/**
+	 * A single partition used by {@link #partitionBy(Function, int, Executor)}.
+	 * Events are delivered downstream by at most one thread at a time, in the
+	 * order they were offered.
+	 */
+	private final class PartitionLane {
+
+		private final Queue<PushEvent< ? extends T>>	queue			= new ConcurrentLinkedQueue<>();
+
+		private final Semaphore							permits			= new Semaphore(
+				PARTITION_BUFFER_SIZE);
+
+		private final AtomicBoolean						running			= new AtomicBoolean();
+
+		private final AtomicLong						backPressure	= new AtomicLong();
+
+		private final AbstractPushStreamImpl<T>			downstream;
+
+		private final Executor							executor;
+
+		PartitionLane(AbstractPushStreamImpl<T> downstream, Executor executor) {
+			this.downstream = downstream;
+			this.executor = executor;
+		}
+
+		long offer(PushEvent< ? extends T> event) throws InterruptedException {
+			permits.acquire();
+			queue.offer(event);
+			if (running.compareAndSet(false, true)) {
+				try {
+					executor.execute(this::drain);
+				} catch (RejectedExecutionException ree) {
+					// The caller closes the stream with this failure
+					discard();
+					throw ree;
+				}
+			}
+			return backPressure.get();
+		}
+
+		private void drain() {
+			PushEvent< ? extends T> event;
+			while ((event = queue.poll()) != null) {
+				long delay;
+				try {
+					delay = downstream.handleEvent(event);
+				} finally {
+					permits.release();
+				}
+				// A negative value means that the downstream is closed, in
+				// which case we keep draining to release any waiting threads
+				backPressure.set(Math.max(0, delay));
+				if (delay > 0) {
+					try {
+						scheduler.schedule(this::resume, delay, MILLISECONDS);
+					} catch (RejectedExecutionException ree) {
+						fail(ree);
+					}
+					return;
+				}
+			}
+			running.set(false);
+			if (queue.peek() != null && running.compareAndSet(false, true)) {
+				resume();
+			}
+		}
+
+		private void resume() {
+			try {
+				executor.execute(this::drain);
+			} catch (RejectedExecutionException ree) {
+				fail(ree);
+			}
+		}
+
+		/**
+		 * No drain is running or will run for the queued events, so drop
+		 * them and close the stream. Closing delivers the failure downstream
+		 * once every lane is idle.
+		 */
+		private void fail(RejectedExecutionException ree) {
+			discard();
+			close(PushEvent.error(ree));
+		}
+
+		/**
+		 * Drop the queued events, releasing their permits so that a terminal
+		 * event waiting in {@link #awaitIdle()} can proceed. The lane is
+		 * marked idle first so that an event offered concurrently starts a
+		 * new drain rather than being stranded.
+		 */
+		private void discard() {
+			running.set(false);
+			while (queue.poll() != null) {
+				permits.release();
+			}
+		}
+
+		void awaitIdle() throws InterruptedException {
+			permits.acquire(PARTITION_BUFFER_SIZE);
+			permits.release(PARTITION_BUFFER_SIZE);
+		}
+	}
+
+	@Override
+	public <R> PushStream<R> mapOrdered(int parallelism,
+			Function< ? super T, ? extends R> mapper) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException(
+					"The parallelism must be greater than zero");
+		}
+		ExecutorService ex = Executors.newFixedThreadPool(parallelism);
+		return mapOrdered(parallelism, ex, mapper,
+				this.<R> shutdownOnClose(ex));
+	}
+
+	@Override
+	public <R> PushStream<R> mapOrdered(int parallelism, Executor ex,
+			Function< ? super T, ? extends R> mapper) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException(
+					"The parallelism must be greater than zero");
+		}
+		if (ex == null) {
+			throw new NullPointerException("The executor must not be null");
+		}
+		return mapOrdered(parallelism, ex, mapper,
+				new IntermediatePushStreamImpl<>(psp, ex, scheduler, this));
+	}
+
+	private <R> PushStream<R> mapOrdered(int parallelism, Executor ex,
+			Function< ? super T, ? extends R> mapper,
+			AbstractPushStreamImpl<R> eventStream) {
+		OrderedMapper<R> orderedMapper = new OrderedMapper<>(eventStream,
+				mapper, ex, parallelism);
+		updateNext(event -> {
+			try {
+				return orderedMapper.accept(event);
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+				return ABORT;
+			}
+		});
+		return eventStream;
+	}
+
+	/**
+	 * Runs the mapping function for {@link #mapOrdered(int, Executor, Function)}
+	 * and re-orders the results. Each event is given a sequence number on
+	 * arrival and its result is stored in the slot for that sequence. Results
+	 * are emitted once all earlier results have been emitted. The number of
+	 * events between arrival and emission is bounded by the number of slots,
+	 * so a slot is never reused before its previous result has been emitted.
+	 */
+	private final class OrderedMapper<R> {
+
+		private final AbstractPushStreamImpl<R>			downstream;
+
+		private final Function< ? super T, ? extends R>	mapper;
+
+		private final Executor							executor;
+
+		private final int								window;
+
+		private final Semaphore							permits;
+
+		private final AtomicReferenceArray<Object>		slots;
+
+		private final AtomicLong						nextSequence	= new AtomicLong();
+
+		private final Lock								emitLock		= new ReentrantLock();
+
+		private volatile long							nextToEmit;
+
+		private volatile long							backPressure;
+
+		OrderedMapper(AbstractPushStreamImpl<R> downstream,
+				Function< ? super T, ? extends R> mapper, Executor executor,
+				int window) {
+			this.downstream = downstream;
+			this.mapper = mapper;
+			this.executor = executor;
+			this.window = window;
+			this.permits = new Semaphore(window);
+			this.slots = new AtomicReferenceArray<>(window);
+		}
+
+		long accept(PushEvent< ? extends T> event) throws Exception {
+			if (event.isTerminal()) {
+				// Wait for all of the outstanding results to be emitted
+				permits.acquire(window);
+				downstream.handleEvent(event.nodata());
+				return ABORT;
+			}
+			if (downstream.closed.get() == CLOSED) {
+				return ABORT;
+			}
+
+			permits.acquire();
+			long sequence = nextSequence.getAndIncrement();
+			try {
+				executor.execute(() -> process(sequence, event));
+			} catch (RejectedExecutionException ree) {
+				complete(sequence, SKIPPED);
+				throw ree;
+			}
+			return backPressure;
+		}
+
+		private void process(long sequence, PushEvent< ? extends T> event) {
+			Object result;
+			Exception failure = null;
+			try {
+				result = PushEvent.data(mapper.apply(event.getData()));
+			} catch (Exception e) {
+				result = SKIPPED;
+				failure = e;
+			}
+			complete(sequence, result);
+			if (failure != null) {
+				close(PushEvent.error(failure));
+			}
+		}
+
+		private void complete(long sequence, Object result) {
+			slots.set((int) (sequence % window), result);
+			emit();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void emit() {
+			// Only one thread emits at a time. A thread which fails to get
+			// the lock leaves its result for the current holder, who checks
+			// for new results after releasing it
+			while (emitLock.tryLock()) {
+				try {
+					for (;;) {
+						int idx = (int) (nextToEmit % window);
+						Object result = slots.get(idx);
+						if (result == null) {
+							break;
+						}
+						slots.set(idx, null);
+						nextToEmit++;
+						try {
+							if (result != SKIPPED) {
+								long delay = downstream
+										.handleEvent((PushEvent<R>) result);
+								backPressure = Math.max(0, delay);
+							}
+						} finally {
+							permits.release();
+						}
+					}
+				} finally {
+					emitLock.unlock();
+				}
+				if (slots.get((int) (nextToEmit % window)) == null) {
+					return;
+				}
+			}
+		}
+	}
 	
 	@Override
 	public PushStream<T> buffer() {
@@ -450,6 +888,59 @@ public abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 		});
 	}
 
+	@Override
+	public PushStream<List<T>> batched(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException(
+					"The batch size must be greater than zero");
+		}
+		AbstractPushStreamImpl<List<T>> eventStream = new IntermediatePushStreamImpl<>(
+				psp, defaultExecutor, scheduler, this);
+		updateNext(new BatchedPushEventConsumer<T>() {
+			@Override
+			public long accept(PushEvent< ? extends T> event) {
+				try {
+					if (!event.isTerminal()) {
+						List<T> list = new ArrayList<>(1);
+						list.add(event.getData());
+						return eventStream.handleEvent(PushEvent.data(list));
+					} else {
+						return eventStream.handleEvent(event.nodata());
+					}
+				} catch (Exception e) {
+					close(PushEvent.error(e));
+					return ABORT;
+				}
+			}
+
+			@Override
+			public long acceptBatch(List<PushEvent< ? extends T>> events) {
+				try {
+					long backpressure = CONTINUE;
+					int size = events.size();
+					for (int i = 0; i < size; i += maxSize) {
+						int end = Math.min(size, i + maxSize);
+						List<T> list = new ArrayList<>(end - i);
+						for (int j = i; j < end; j++) {
+							list.add(events.get(j).getData());
+						}
+						long l = eventStream.handleEvent(PushEvent.data(list));
+						if (l < 0) {
+							return l;
+						} else if (l > backpressure) {
+							backpressure = l;
+						}
+					}
+					return backpressure;
+				} catch (Exception e) {
+					close(PushEvent.error(e));
+					return ABORT;
+				}
+			}
+		});
+		return eventStream;
+	}
+
 	@Override
 	public PushStream<T> merge(
 			PushEventSource< ? extends T> source) {
@@ -671,11 +1162,15 @@ public abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 	@Override
 	public <R> PushStream<R> coalesce(IntSupplier count,
 			Function<Collection<T>,R> f) {
-		AtomicReference<Queue<T>> queueRef = new AtomicReference<Queue<T>>(
-				null);
-
-		Runnable init = () -> queueRef
-				.set(getQueueForInternalBuffering(count.getAsInt()));
+		AtomicReference<WindowBuffer<T>> current = new AtomicReference<>();
+		AtomicReference<WindowBuffer<T>> spare = new AtomicReference<>();
+
+		Runnable init = () -> {
+			WindowBuffer<T> buffer = nextWindowBuffer(spare,
+					count.getAsInt());
+			buffer.open(0, 0);
+			current.set(buffer);
+		};
 
 		@SuppressWarnings("resource")
 		AbstractPushStreamImpl<R> eventStream = new IntermediatePushStreamImpl<R>(
@@ -690,43 +1185,61 @@ public abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 		Object lock = new Object();
 		updateNext((event) -> {
 			try {
-				Queue<T> queue;
+				WindowBuffer<T> buffer;
 				if (!event.isTerminal()) {
-					synchronized (lock) {
-						for (;;) {
-							queue = queueRef.get();
-							if (queue == null) {
-								if (endPending.get()) {
-									return ABORT;
-								} else {
-									continue;
-								}
-							} else if (queue.offer(event.getData())) {
-								return CONTINUE;
+					T data = event.getData();
+					for (;;) {
+						buffer = current.get();
+						if (buffer == null) {
+							if (endPending.get()) {
+								return ABORT;
 							} else {
-								queueRef.lazySet(null);
-								break;
+								continue;
 							}
 						}
-					}
+						int appended = buffer.tryAppend(data);
+						if (appended == WindowBuffer.APPENDED) {
+							return CONTINUE;
+						} else if (appended == WindowBuffer.SEALED) {
+							// Another thread is completing this buffer
+							continue;
+						}
 
-					queueRef.set(
-							getQueueForInternalBuffering(count.getAsInt()));
+						WindowBuffer<T> next = buffer.isBounded()
+								? nextWindowBuffer(spare, count.getAsInt())
+								: null;
+						synchronized (lock) {
+							if (current.get() != buffer) {
+								recycle(spare, next);
+								continue;
+							}
+							buffer.seal();
+							if (!buffer.isBounded()) {
+								buffer.grow();
+								continue;
+							}
+							buffer.forceAppend(data);
+							next.open(buffer.sequence + 1, 0);
+							current.set(next);
+						}
+						break;
+					}
 
 					// This call is on the same thread and so must happen
-					// outside
-					// the synchronized block.
-					return aggregateAndForward(f, eventStream, event,
-							queue);
+					// outside the synchronized block.
+					return eventStream
+							.handleEvent(PushEvent.data(f.apply(buffer)));
 				} else {
 					synchronized (lock) {
-						queue = queueRef.get();
-						queueRef.lazySet(null);
+						buffer = current.getAndSet(null);
 						endPending.set(true);
+						if (buffer != null) {
+							buffer.seal();
+						}
 					}
-					if (queue != null) {
+					if (buffer != null) {
 						eventStream.handleEvent(
-								PushEvent.data(f.apply(queue)));
+								PushEvent.data(f.apply(buffer)));
 					}
 				}
 				return eventStream.handleEvent(event.nodata());
@@ -737,16 +1250,6 @@ public abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 		});
 		return eventStream;
 	}
-
-	private <R> long aggregateAndForward(Function<Collection<T>,R> f,
-			AbstractPushStreamImpl<R> eventStream,
-			PushEvent< ? extends T> event, Queue<T> queue) {
-		if (!queue.offer(event.getData())) {
-			((ArrayQueue<T>) queue).forcePush(event.getData());
-		}
-		return eventStream.handleEvent(PushEvent.data(f.apply(queue)));
-	}
-	
 	
 	@Override
 	public <R> PushStream<R> window(Duration time,
@@ -772,28 +1275,25 @@ public abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 			IntSupplier maxEvents, Executor ex,
 			BiFunction<Long,Collection<T>,R> f) {
 
-		AtomicLong timestamp = new AtomicLong();
-		AtomicLong counter = new AtomicLong();
 		Object lock = new Object();
-		AtomicReference<Queue<T>> queueRef = new AtomicReference<Queue<T>>(
-				null);
+		AtomicReference<WindowBuffer<T>> current = new AtomicReference<>();
+		AtomicReference<WindowBuffer<T>> spare = new AtomicReference<>();
 
 		// This code is declared as a separate block to avoid any confusion
 		// about which instance's methods and variables are in scope
 		Consumer<AbstractPushStreamImpl<R>> begin = p -> {
 
+			WindowBuffer<T> buffer = nextWindowBuffer(spare,
+					maxEvents.getAsInt());
 			synchronized (lock) {
-				timestamp.lazySet(System.nanoTime());
-				long count = counter.get();
-
+				buffer.open(0, System.nanoTime());
+				current.set(buffer);
 
 				scheduler.schedule(
-						getWindowTask(p, f, time, maxEvents, lock, count,
-								queueRef, timestamp, counter, ex),
+						getWindowTask(p, f, time, maxEvents, lock, 0, current,
+								spare, ex),
 						time.get().toNanos(), NANOSECONDS);
 			}
-
-			queueRef.set(getQueueForInternalBuffering(maxEvents.getAsInt()));
 		};
 
 		@SuppressWarnings("resource")
@@ -811,72 +1311,85 @@ public abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 				if (eventStream.closed.get() == CLOSED) {
 					return ABORT;
 				}
-				Queue<T> queue;
+				WindowBuffer<T> buffer;
 				if (!event.isTerminal()) {
-					long elapsed;
-					long newCount;
-					synchronized (lock) {
-						for (;;) {
-							queue = queueRef.get();
-							if (queue == null) {
-								if (endPending.get()) {
-									return ABORT;
-								} else {
-									continue;
-								}
-							} else if (queue.offer(event.getData())) {
-								return CONTINUE;
+					T data = event.getData();
+					long nextSequence;
+					for (;;) {
+						buffer = current.get();
+						if (buffer == null) {
+							if (endPending.get()) {
+								return ABORT;
 							} else {
-								queueRef.lazySet(null);
-								break;
+								continue;
 							}
 						}
+						// The common case, which takes no lock
+						int appended = buffer.tryAppend(data);
+						if (appended == WindowBuffer.APPENDED) {
+							return CONTINUE;
+						} else if (appended == WindowBuffer.SEALED) {
+							// Another thread is completing this window
+							continue;
+						}
 
-						long now = System.nanoTime();
-						elapsed = now - timestamp.get();
-						timestamp.lazySet(now);
-						newCount = counter.get() + 1;
-						counter.lazySet(newCount);
-
-						// This is a non-blocking call, and must happen in the
-						// synchronized block to avoid re=ordering the executor
-						// enqueue with a subsequent incoming close operation
-						aggregateAndForward(f, eventStream, event, queue,
-								ex, elapsed);
+						WindowBuffer<T> next = buffer.isBounded()
+								? nextWindowBuffer(spare, maxEvents.getAsInt())
+								: null;
+						synchronized (lock) {
+							if (current.get() != buffer) {
+								recycle(spare, next);
+								continue;
+							}
+							buffer.seal();
+							if (!buffer.isBounded()) {
+								buffer.grow();
+								continue;
+							}
+							buffer.forceAppend(data);
+
+							long now = System.nanoTime();
+							long elapsed = now - buffer.start;
+							nextSequence = buffer.sequence + 1;
+							next.open(nextSequence, now);
+							current.set(next);
+
+							// This is a non-blocking call, and must happen in
+							// the synchronized block to avoid re=ordering the
+							// executor enqueue with a subsequent incoming close
+							// operation
+							emitWindow(eventStream, f, buffer, elapsed, ex);
+						}
+						break;
 					}
 					// These must happen outside the synchronized block as we
 					// call out to user code
-					queueRef.set(
-							getQueueForInternalBuffering(maxEvents.getAsInt()));
 					scheduler.schedule(
 							getWindowTask(eventStream, f, time, maxEvents, lock,
-									newCount, queueRef, timestamp, counter, ex),
+									nextSequence, current, spare, ex),
 							time.get().toNanos(), NANOSECONDS);
 
 					return CONTINUE;
 				} else {
-					long elapsed;
 					synchronized (lock) {
-						queue = queueRef.get();
-						queueRef.lazySet(null);
+						buffer = current.getAndSet(null);
 						endPending.set(true);
-						long now = System.nanoTime();
-						elapsed = now - timestamp.get();
-						counter.lazySet(counter.get() + 1);
-					}
-					Collection<T> collected = queue == null ? emptyList()
-							: queue;
-					ex.execute(() -> {
-						try {
-							eventStream
-									.handleEvent(PushEvent.data(f.apply(
-											Long.valueOf(NANOSECONDS
-													.toMillis(elapsed)),
-											collected)));
-						} catch (Exception e) {
-							close(PushEvent.error(e));
+						if (buffer != null) {
+							buffer.seal();
+							emitWindow(eventStream, f, buffer,
+									System.nanoTime() - buffer.start, ex);
+						} else {
+							ex.execute(() -> {
+								try {
+									eventStream.handleEvent(PushEvent
+											.data(f.apply(Long.valueOf(0),
+													emptyList())));
+								} catch (Exception e) {
+									close(PushEvent.error(e));
+								}
+							});
 						}
-					});
+					}
 				}
 				ex.execute(() -> eventStream.handleEvent(event.nodata()));
 				return ABORT;
@@ -888,199 +1401,207 @@ public abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 		return eventStream;
 	}
 
-	protected Queue<T> getQueueForInternalBuffering(int size) {
-		if (size == 0) {
-			return new LinkedList<T>();
-		} else {
-			return new ArrayQueue<>(size - 1);
-		}
+	@Override
+	public <A, R> PushStream<R> window(Duration time,
+			Collector< ? super T,A,R> collector) {
+		return window(time, defaultExecutor, collector);
 	}
-	
-	@SuppressWarnings("unchecked")
-	/**
-	 * A special queue that keeps one element in reserve and can have that last
-	 * element set using forcePush. After the element is set the capacity is
-	 * permanently increased by one and cannot grow further.
-	 * 
-	 * @param <E> The element type
-	 */
-	private static class ArrayQueue<E> extends AbstractQueue<E>
-			implements Queue<E> {
 
-		final Object[]	store;
-
-		int				normalLength;
-
-		int				nextIndex;
+	@Override
+	public <A, R> PushStream<R> window(Duration time, Executor ex,
+			Collector< ? super T,A,R> collector) {
 
-		int				size;
+		Supplier<A> supplier = collector.supplier();
+		BiConsumer<A, ? super T> accumulator = collector.accumulator();
+		Function<A,R> finisher = collector.finisher();
 
-		ArrayQueue(int capacity) {
-			store = new Object[capacity + 1];
-			normalLength = store.length - 1;
-		}
+		Object lock = new Object();
+		AtomicReference<WindowAccumulator<A>> current = new AtomicReference<>();
 
-		@Override
-		public boolean offer(E e) {
-			if (e == null)
-				throw new NullPointerException("Null values are not supported");
-			if (size < normalLength) {
-				store[nextIndex] = e;
-				size++;
-				nextIndex++;
-				nextIndex = nextIndex % normalLength;
-				return true;
+		// This code is declared as a separate block to avoid any confusion
+		// about which instance's methods and variables are in scope
+		Consumer<AbstractPushStreamImpl<R>> begin = p -> {
+			WindowAccumulator<A> first = new WindowAccumulator<>(
+					supplier.get(), 0);
+			synchronized (lock) {
+				current.set(first);
+				scheduler.schedule(
+						getAccumulatorTask(p, supplier, finisher, time, lock,
+								0, current, ex),
+						time.toNanos(), NANOSECONDS);
 			}
-			return false;
-		}
-
-		public void forcePush(E e) {
-			store[normalLength] = e;
-			normalLength++;
-			size++;
-		}
+		};
 
-		@Override
-		public E poll() {
-			if (size == 0) {
-				return null;
-			} else {
-				int idx = nextIndex - size;
-				if (idx < 0) {
-					idx += normalLength;
-				}
-				E value = (E) store[idx];
-				store[idx] = null;
-				size--;
-				return value;
+		@SuppressWarnings("resource")
+		AbstractPushStreamImpl<R> eventStream = new IntermediatePushStreamImpl<R>(
+				psp, ex, scheduler, this) {
+			@Override
+			protected void beginning() {
+				begin.accept(this);
 			}
-		}
+		};
 
-		@Override
-		public E peek() {
-			if (size == 0) {
-				return null;
-			} else {
-				int idx = nextIndex - size;
-				if (idx < 0) {
-					idx += normalLength;
+		AtomicBoolean endPending = new AtomicBoolean(false);
+		updateNext((event) -> {
+			try {
+				if (eventStream.closed.get() == CLOSED) {
+					return ABORT;
+				}
+				if (!event.isTerminal()) {
+					T data = event.getData();
+					for (;;) {
+						WindowAccumulator<A> window = current.get();
+						if (window == null) {
+							if (endPending.get()) {
+								return ABORT;
+							} else {
+								continue;
+							}
+						}
+						// Only events for the same window contend here
+						synchronized (window) {
+							if (!window.complete) {
+								accumulator.accept(window.container, data);
+								return CONTINUE;
+							}
+						}
+					}
+				} else {
+					synchronized (lock) {
+						WindowAccumulator<A> window = current.getAndSet(null);
+						endPending.set(true);
+						if (window != null) {
+							emitAccumulator(eventStream, finisher, window, ex);
+						}
+					}
 				}
-				return (E) store[idx];
+				ex.execute(() -> eventStream.handleEvent(event.nodata()));
+				return ABORT;
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+				return ABORT;
 			}
-		}
+		});
+		return eventStream;
+	}
 
-		@Override
-		public Iterator<E> iterator() {
-			final int previousNext = nextIndex;
-			return new Iterator<E>() {
+	private <A, R> Runnable getAccumulatorTask(
+			AbstractPushStreamImpl<R> eventStream, Supplier<A> supplier,
+			Function<A,R> finisher, Duration time, Object lock,
+			long expectedSequence,
+			AtomicReference<WindowAccumulator<A>> current, Executor executor) {
+		return () -> {
+			// This must happen outside the synchronized block as we
+			// call out to user code
+			WindowAccumulator<A> next = new WindowAccumulator<>(
+					supplier.get(), expectedSequence + 1);
+			synchronized (lock) {
+				WindowAccumulator<A> window = current.get();
+				if (window == null || window.sequence != expectedSequence) {
+					return;
+				}
+				current.set(next);
 
-				int idx;
+				// This is a non-blocking call, and must happen in the
+				// synchronized block to avoid re=ordering the executor
+				// enqueue with a subsequent incoming close operation
+				emitAccumulator(eventStream, finisher, window, executor);
+			}
 
-				int	remaining	= size;
+			scheduler.schedule(
+					getAccumulatorTask(eventStream, supplier, finisher, time,
+							lock, expectedSequence + 1, current, executor),
+					time.toNanos(), NANOSECONDS);
+		};
+	}
 
-				{
-					idx = nextIndex - size;
-					if (idx < 0) {
-						idx += normalLength;
-					}
+	private <A, R> void emitAccumulator(AbstractPushStreamImpl<R> eventStream,
+			Function<A,R> finisher, WindowAccumulator<A> window,
+			Executor executor) {
+		// Wait for any in-progress accumulation, and prevent any more
+		synchronized (window) {
+			window.complete = true;
+		}
+		executor.execute(() -> {
+			try {
+				long result = eventStream.handleEvent(
+						PushEvent.data(finisher.apply(window.container)));
+				if (result < 0) {
+					close();
 				}
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+			}
+		});
+	}
 
-				@Override
-				public boolean hasNext() {
-					if (nextIndex != previousNext) {
-						throw new ConcurrentModificationException(
-								"The queue was concurrently modified");
-					}
-					return remaining > 0;
-				}
+	/**
+	 * The mutable result container for a single window collected using
+	 * {@link #window(Duration, Executor, Collector)}. The container is only
+	 * accessed while holding this object's monitor, so the collector need not
+	 * be thread safe.
+	 */
+	private static final class WindowAccumulator<A> {
 
-				@Override
-				public E next() {
-					if (!hasNext()) {
-						throw new NoSuchElementException(
-								"The iterator has no more values");
-					}
-					E value = (E) store[idx];
-					idx++;
-					remaining--;
-					if (idx == normalLength) {
-						idx = 0;
-					}
-					return value;
-				}
+		final A		container;
 
-			};
-		}
+		final long	sequence;
 
-		@Override
-		public int size() {
-			return size;
-		}
+		boolean		complete;
 
+		WindowAccumulator(A container, long sequence) {
+			this.container = container;
+			this.sequence = sequence;
+		}
 	}
 
 	private <R> Runnable getWindowTask(AbstractPushStreamImpl<R> eventStream,
 			BiFunction<Long,Collection<T>,R> f, Supplier<Duration> time,
-			IntSupplier maxEvents, Object lock, long expectedCounter,
-			AtomicReference<Queue<T>> queueRef, AtomicLong timestamp,
-			AtomicLong counter, Executor executor) {
+			IntSupplier maxEvents, Object lock, long expectedSequence,
+			AtomicReference<WindowBuffer<T>> current,
+			AtomicReference<WindowBuffer<T>> spare, Executor executor) {
 		return () -> {
 
-			Queue<T> queue = null;
-			long elapsed;
+			// This must happen outside the synchronized block as we
+			// call out to user code
+			WindowBuffer<T> next = nextWindowBuffer(spare,
+					maxEvents.getAsInt());
 			synchronized (lock) {
-				
-				if (counter.get() != expectedCounter) {
+				WindowBuffer<T> buffer = current.get();
+				if (buffer == null || buffer.sequence != expectedSequence) {
+					recycle(spare, next);
 					return;
 				}
-				counter.lazySet(expectedCounter + 1);
+				buffer.seal();
 
 				long now = System.nanoTime();
-				elapsed = now - timestamp.get();
-				timestamp.lazySet(now);
-
-				queue = queueRef.get();
-				queueRef.lazySet(null);
+				long elapsed = now - buffer.start;
+				next.open(expectedSequence + 1, now);
+				current.set(next);
 
 				// This is a non-blocking call, and must happen in the
 				// synchronized block to avoid re=ordering the executor
 				// enqueue with a subsequent incoming close operation
-
-				Collection<T> collected = queue == null ? emptyList() : queue;
-				executor.execute(() -> {
-					try {
-						eventStream.handleEvent(PushEvent.data(f.apply(
-								Long.valueOf(NANOSECONDS.toMillis(elapsed)),
-								collected)));
-					} catch (Exception e) {
-						close(PushEvent.error(e));
-					}
-				});
+				emitWindow(eventStream, f, buffer, elapsed, executor);
 			}
 
 			// These must happen outside the synchronized block as we
 			// call out to user code
-			queueRef.set(getQueueForInternalBuffering(maxEvents.getAsInt()));
 			scheduler.schedule(
 					getWindowTask(eventStream, f, time, maxEvents, lock,
-							expectedCounter + 1, queueRef, timestamp, counter,
-							executor),
+							expectedSequence + 1, current, spare, executor),
 					time.get().toNanos(), NANOSECONDS);
 		};
 	}
 
-	private <R> void aggregateAndForward(BiFunction<Long,Collection<T>,R> f,
-			AbstractPushStreamImpl<R> eventStream,
-			PushEvent< ? extends T> event, Queue<T> queue, Executor executor,
-			long elapsed) {
+	private <R> void emitWindow(AbstractPushStreamImpl<R> eventStream,
+			BiFunction<Long,Collection<T>,R> f, WindowBuffer<T> buffer,
+			long elapsed, Executor executor) {
 		executor.execute(() -> {
 			try {
-				if (!queue.offer(event.getData())) {
-					((ArrayQueue<T>) queue).forcePush(event.getData());
-				}
 				long result = eventStream.handleEvent(PushEvent.data(
 						f.apply(Long.valueOf(NANOSECONDS.toMillis(elapsed)),
-								queue)));
+								buffer)));
 				if (result < 0) {
 					close();
 				}
@@ -1090,6 +1611,196 @@ public abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 		});
 	}
 
+	private static <E> WindowBuffer<E> nextWindowBuffer(
+			AtomicReference<WindowBuffer<E>> spare, int maxEvents) {
+		WindowBuffer<E> buffer = spare.getAndSet(null);
+		if (buffer == null) {
+			buffer = new WindowBuffer<>();
+		}
+		buffer.prepare(maxEvents);
+		return buffer;
+	}
+
+	/**
+	 * Keep a buffer which lost the race to become the current window, so that
+	 * it can be used for the next one. Only buffers which were never opened
+	 * may be kept, as they cannot have been seen by an appender or passed to
+	 * the user's function.
+	 */
+	private static <E> void recycle(AtomicReference<WindowBuffer<E>> spare,
+			WindowBuffer<E> buffer) {
+		if (buffer != null) {
+			spare.lazySet(buffer);
+		}
+	}
+
+	/**
+	 * The events collected for a single window or coalesce operation.
+	 * <p>
+	 * Events are appended without locking by claiming a slot with a compare
+	 * and swap. When the window ends the buffer is sealed, which stops further
+	 * appends and waits for any claimed slots to be written. The sealed buffer
+	 * is then passed to the user's function as a read-only collection. It is
+	 * never opened again, so the function may keep it, and a thread holding a
+	 * stale reference can never append to a later window.
+	 * <p>
+	 * A bounded buffer keeps one slot in reserve, which is filled by the event
+	 * that found the buffer full using {@link #forceAppend(Object)}. An
+	 * unbounded buffer is instead sealed and grown in place.
+	 * 
+	 * @param <E> The element type
+	 */
+	private static final class WindowBuffer<E> extends AbstractCollection<E> {
+
+		static final int				APPENDED			= 0;
+
+		static final int				FULL				= 1;
+
+		static final int				SEALED				= 2;
+
+		private static final int		INITIAL_CAPACITY	= 16;
+
+		/**
+		 * The number of claimed slots, or -1 if the buffer is sealed
+		 */
+		private final AtomicInteger		claimed				= new AtomicInteger(
+				-1);
+
+		/**
+		 * The number of claimed slots which have been written
+		 */
+		private final AtomicInteger		written				= new AtomicInteger();
+
+		private Object[]				slots				= new Object[INITIAL_CAPACITY];
+
+		private int						limit;
+
+		private boolean					bounded;
+
+		private int						size;
+
+		long							sequence;
+
+		long							start;
+
+		/**
+		 * Ready this buffer to collect a window of up to maxEvents, or an
+		 * unlimited number if maxEvents is zero. The buffer stays sealed until
+		 * {@link #open(long, long)} is called, so that a thread holding a stale
+		 * reference cannot append to a buffer which is not in use.
+		 */
+		void prepare(int maxEvents) {
+			bounded = maxEvents > 0;
+			if (bounded) {
+				if (slots.length < maxEvents) {
+					slots = new Object[maxEvents];
+				}
+				limit = maxEvents - 1;
+			} else {
+				limit = slots.length;
+			}
+			size = 0;
+			written.set(0);
+		}
+
+		/**
+		 * Open this buffer for appends. Must only be called while holding the
+		 * window lock, immediately before the buffer is made current.
+		 */
+		void open(long sequence, long start) {
+			this.sequence = sequence;
+			this.start = start;
+			claimed.set(0);
+		}
+
+		boolean isBounded() {
+			return bounded;
+		}
+
+		int tryAppend(E e) {
+			int idx;
+			for (;;) {
+				idx = claimed.get();
+				if (idx < 0) {
+					return SEALED;
+				} else if (idx >= limit) {
+					return FULL;
+				} else if (claimed.compareAndSet(idx, idx + 1)) {
+					break;
+				}
+			}
+			slots[idx] = e;
+			written.incrementAndGet();
+			return APPENDED;
+		}
+
+		/**
+		 * Stop appends to this buffer, waiting for any in-progress appends to
+		 * finish. Must only be called while holding the window lock.
+		 */
+		void seal() {
+			int count = claimed.getAndSet(-1);
+			if (count < 0) {
+				return;
+			}
+			while (written.get() < count) {
+				Thread.yield();
+			}
+			size = count;
+		}
+
+		/**
+		 * Add an event to a sealed buffer. Must only be called by the thread
+		 * which sealed the buffer.
+		 */
+		void forceAppend(E e) {
+			if (size == slots.length) {
+				slots = Arrays.copyOf(slots, size + 1);
+			}
+			slots[size++] = e;
+		}
+
+		/**
+		 * Increase the capacity of a sealed, unbounded buffer and reopen it
+		 * for appends. Must only be called by the thread which sealed the
+		 * buffer.
+		 */
+		void grow() {
+			slots = Arrays.copyOf(slots, slots.length * 2);
+			limit = slots.length;
+			written.set(size);
+			claimed.set(size);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Iterator<E> iterator() {
+			return new Iterator<E>() {
+
+				int idx;
+
+				@Override
+				public boolean hasNext() {
+					return idx < size;
+				}
+
+				@SuppressWarnings("unchecked")
+				@Override
+				public E next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException(
+								"The iterator has no more values");
+					}
+					return (E) slots[idx++];
+				}
+			};
+		}
+	}
+
 	@Override
 	public Promise<Void> forEach(Consumer< ? super T> action) {
 		Deferred<Void> d = new Deferred<>();
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.pushstream;
+
+import java.util.List;
+
+import org.osgi.util.pushstream.PushEvent;
+import org.osgi.util.pushstream.PushEventConsumer;
+
+/**
+ * A {@link PushEventConsumer} which is able to receive several data events in
+ * a single call. Streams hand batches to consumers of this type as a unit,
+ * other consumers receive the events of a batch one at a time.
+ *
+ * @param <T> The type of the event data
+ */
+interface BatchedPushEventConsumer<T> extends PushEventConsumer<T> {
+
+	/**
+	 * Accept a batch of data events. The batch never contains terminal events
+	 * and must not be retained after this method returns.
+	 *
+	 * @param events the events, in order of arrival
+	 * @return the back pressure for the whole batch, or a negative value to
+	 *         close the stream
+	 * @throws Exception
+	 */
+	long acceptBatch(List<PushEvent< ? extends T>> events) throws Exception;
+
+}
@@ -21,7 +21,10 @@ package org.apache.aries.pushstream;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.apache.aries.pushstream.AbstractPushStreamImpl.State.CLOSED;
 import static org.osgi.util.pushstream.PushEventConsumer.ABORT;
+import static org.osgi.util.pushstream.PushEventConsumer.CONTINUE;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
@@ -58,14 +61,22 @@ public class BufferedPushStreamImpl<T, U extends BlockingQueue<PushEvent< ? exte
 
 	private final int					parallelism;
 
+	/**
+	 * The maximum number of events drained from the queue in one pass. A
+	 * value of one delivers events individually
+	 */
+	private final int					batchSize;
+
 	public BufferedPushStreamImpl(PushStreamProvider psp,
 			ScheduledExecutorService scheduler, U eventQueue,
-			int parallelism, Executor worker, QueuePolicy<T,U> queuePolicy,
+			int parallelism, int batchSize, Executor worker,
+			QueuePolicy<T,U> queuePolicy,
 			PushbackPolicy<T,U> pushbackPolicy,
 			Function<PushEventConsumer<T>,AutoCloseable> connector) {
 		super(psp, worker, scheduler, connector);
 		this.eventQueue = eventQueue;
 		this.parallelism = parallelism;
+		this.batchSize = batchSize;
 		this.semaphore = new Semaphore(parallelism);
 		this.worker = worker;
 		this.queuePolicy = queuePolicy;
@@ -99,6 +110,10 @@ public class BufferedPushStreamImpl<T, U extends BlockingQueue<PushEvent< ? exte
 	}
 
 	private void startWorker() {
+		if (batchSize > 1) {
+			startBatchWorker();
+			return;
+		}
 		worker.execute(() -> {
 			try {
 				PushEvent< ? extends T> event;
@@ -133,4 +148,57 @@ public class BufferedPushStreamImpl<T, U extends BlockingQueue<PushEvent< ? exte
 		});
 		
 	}
+
+	/**
+	 * A worker which drains up to {@link #batchSize} events from the queue at
+	 * a time, delivers them downstream as a single batch, and then honours the
+	 * back pressure for the batch as a whole. Each worker allocates one drain
+	 * list, which is cleared and reused for every pass that worker makes
+	 * until the queue is empty or back pressure is applied.
+	 */
+	private void startBatchWorker() {
+		worker.execute(() -> {
+			try {
+				List<PushEvent< ? extends T>> batch = new ArrayList<>(
+						batchSize);
+				while (eventQueue.drainTo(batch, batchSize) > 0) {
+					// Terminal events are always the last thing queued
+					PushEvent< ? extends T> terminal = null;
+					if (batch.get(batch.size() - 1).isTerminal()) {
+						terminal = batch.remove(batch.size() - 1);
+					}
+
+					long backpressure = batch.isEmpty() ? CONTINUE
+							: handleBatch(batch);
+					batch.clear();
+
+					if (terminal != null && backpressure >= 0) {
+						// Wait for the other threads to finish
+						semaphore.acquire(parallelism - 1);
+						backpressure = super.handleEvent(terminal);
+					}
+
+					if(backpressure < 0) {
+						close();
+						return;
+					} else if(backpressure > 0) {
+						scheduler.schedule(this::startWorker, backpressure,
+								MILLISECONDS);
+						return;
+					}
+				}
+
+				semaphore.release();
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+			}
+			if(eventQueue.peek() != null && semaphore.tryAcquire()) {
+				try {
+					startWorker();
+				} catch (Exception e) {
+					close(PushEvent.error(e));
+				}
+			}
+		});
+	}
 }
@@ -0,0 +1,342 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.pushstream;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, preallocated, lock-free {@link BlockingQueue} based on a ring of
+ * sequenced slots.
+ * <p>
+ * The producer side can either be restricted to a single thread, in which
+ * case no compare and swap is needed to claim a slot, or may be used by many
+ * threads. The consumer side always tolerates several threads, as buffers may
+ * deliver events in parallel and the
+ * {@link org.osgi.util.pushstream.QueuePolicyOption#DISCARD_OLDEST} policy
+ * polls from the producing thread.
+ * <p>
+ * Blocking operations use the supplied {@link WaitStrategy} between attempts
+ * rather than locks and conditions.
+ * <p>
+ * Elements can only be removed from the head of the queue. The
+ * {@link #remove(Object)}, {@link #removeAll(Collection)} and
+ * {@link #retainAll(Collection)} operations, and removal through the
+ * iterator, are not supported and throw
+ * {@link UnsupportedOperationException}.
+ *
+ * @param <E> The element type
+ */
+public class RingBufferQueue<E> extends AbstractQueue<E>
+		implements BlockingQueue<E> {
+
+	private final int							capacity;
+
+	/**
+	 * The number of slots, the capacity rounded up to a power of two
+	 */
+	private final int							ringSize;
+
+	private final int							mask;
+
+	private final AtomicReferenceArray<E>		slots;
+
+	/**
+	 * For each slot, the position at which the slot may next be written (when
+	 * equal to the tail) or read (when one greater than the head)
+	 */
+	private final AtomicLongArray				sequences;
+
+	private final AtomicLong					head	= new AtomicLong();
+
+	private final AtomicLong					tail	= new AtomicLong();
+
+	private final boolean						singleProducer;
+
+	private final WaitStrategy					waitStrategy;
+
+	/**
+	 * @param capacity The maximum number of elements held by the queue
+	 * @param singleProducer true if only one thread will ever add to this
+	 *            queue
+	 * @param waitStrategy the strategy used by blocking operations
+	 */
+	public RingBufferQueue(int capacity, boolean singleProducer,
+			WaitStrategy waitStrategy) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException(
+					"The ring buffer capacity must be greater than zero");
+		}
+		if (capacity > (1 << 30)) {
+			throw new IllegalArgumentException(
+					"The ring buffer capacity is too large " + capacity);
+		}
+		this.capacity = capacity;
+		this.ringSize = capacity == 1 ? 1
+				: Integer.highestOneBit(capacity - 1) << 1;
+		this.mask = ringSize - 1;
+		this.slots = new AtomicReferenceArray<>(ringSize);
+		this.sequences = new AtomicLongArray(ringSize);
+		for (int i = 0; i < ringSize; i++) {
+			sequences.lazySet(i, i);
+		}
+		this.singleProducer = singleProducer;
+		this.waitStrategy = waitStrategy == null ? WaitStrategy.PARK
+				: waitStrategy;
+	}
+
+	@Override
+	public boolean offer(E e) {
+		if (e == null)
+			throw new NullPointerException("Null values are not supported");
+
+		long pos = tail.get();
+		int idx;
+		for (;;) {
+			if (pos - head.get() >= capacity) {
+				// The ring may have free slots, but the queue is at capacity
+				return false;
+			}
+			idx = (int) (pos & mask);
+			long diff = sequences.get(idx) - pos;
+			if (diff == 0) {
+				if (singleProducer) {
+					tail.lazySet(pos + 1);
+					break;
+				} else if (tail.compareAndSet(pos, pos + 1)) {
+					break;
+				}
+				pos = tail.get();
+			} else if (diff < 0) {
+				// The slot has not yet been consumed, so we are full
+				return false;
+			} else {
+				pos = tail.get();
+			}
+		}
+		slots.lazySet(idx, e);
+		sequences.lazySet(idx, pos + 1);
+		return true;
+	}
+
+	@Override
+	public E poll() {
+		long pos = head.get();
+		int idx;
+		for (;;) {
+			idx = (int) (pos & mask);
+			long diff = sequences.get(idx) - (pos + 1);
+			if (diff == 0) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					break;
+				}
+				pos = head.get();
+			} else if (diff < 0) {
+				// The slot has not yet been written, so we are empty
+				return null;
+			} else {
+				pos = head.get();
+			}
+		}
+		E e = slots.get(idx);
+		slots.lazySet(idx, null);
+		sequences.lazySet(idx, pos + ringSize);
+		return e;
+	}
+
+	@Override
+	public E peek() {
+		for (;;) {
+			long pos = head.get();
+			int idx = (int) (pos & mask);
+			if (sequences.get(idx) != pos + 1) {
+				if (pos == head.get()) {
+					return null;
+				}
+				continue;
+			}
+			E e = slots.get(idx);
+			if (e != null && pos == head.get()) {
+				return e;
+			}
+		}
+	}
+
+	@Override
+	public void put(E e) throws InterruptedException {
+		int attempt = 0;
+		while (!offer(e)) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			waitStrategy.idle(attempt++);
+		}
+	}
+
+	@Override
+	public boolean offer(E e, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int attempt = 0;
+		while (!offer(e)) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (deadline - System.nanoTime() <= 0) {
+				return false;
+			}
+			waitStrategy.idle(attempt++);
+		}
+		return true;
+	}
+
+	@Override
+	public E take() throws InterruptedException {
+		int attempt = 0;
+		E e;
+		while ((e = poll()) == null) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			waitStrategy.idle(attempt++);
+		}
+		return e;
+	}
+
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int attempt = 0;
+		E e;
+		while ((e = poll()) == null) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (deadline - System.nanoTime() <= 0) {
+				return null;
+			}
+			waitStrategy.idle(attempt++);
+		}
+		return e;
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return capacity - size();
+	}
+
+	@Override
+	public int drainTo(Collection< ? super E> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection< ? super E> c, int maxElements) {
+		if (c == this) {
+			throw new IllegalArgumentException(
+					"A queue cannot be drained into itself");
+		}
+		int drained = 0;
+		E e;
+		while (drained < maxElements && (e = poll()) != null) {
+			c.add(e);
+			drained++;
+		}
+		return drained;
+	}
+
+	@Override
+	public int size() {
+		long after = head.get();
+		for (;;) {
+			long before = after;
+			long currentTail = tail.get();
+			after = head.get();
+			if (before == after) {
+				long size = currentTail - after;
+				return (int) Math.max(0, Math.min(capacity, size));
+			}
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Not supported, elements can only be removed from the head of the queue
+	 * 
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public boolean remove(Object o) {
+		throw new UnsupportedOperationException(
+				"Elements can only be removed from the head of a ring buffer");
+	}
+
+	/**
+	 * Not supported, elements can only be removed from the head of the queue
+	 * 
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public boolean removeAll(Collection< ? > c) {
+		throw new UnsupportedOperationException(
+				"Elements can only be removed from the head of a ring buffer");
+	}
+
+	/**
+	 * Not supported, elements can only be removed from the head of the queue
+	 * 
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public boolean retainAll(Collection< ? > c) {
+		throw new UnsupportedOperationException(
+				"Elements can only be removed from the head of a ring buffer");
+	}
+
+	/**
+	 * Returns a weakly consistent snapshot of the queue contents. The
+	 * iterator does not support removal.
+	 */
+	@Override
+	public Iterator<E> iterator() {
+		List<E> snapshot = new ArrayList<>();
+		long end = tail.get();
+		for (long pos = head.get(); pos < end; pos++) {
+			int idx = (int) (pos & mask);
+			E e = slots.get(idx);
+			if (e != null && sequences.get(idx) == pos + 1) {
+				snapshot.add(e);
+			}
+		}
+		return Collections.unmodifiableList(snapshot).iterator();
+	}
+}
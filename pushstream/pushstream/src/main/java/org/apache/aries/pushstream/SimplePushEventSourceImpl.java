@@ -18,17 +18,17 @@
  */
 package org.apache.aries.pushstream;
 
-import static java.util.Collections.emptyList;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
-import static java.util.stream.Collectors.toList;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.osgi.util.promise.Deferred;
 import org.osgi.util.promise.Promise;
@@ -41,6 +41,9 @@ import org.osgi.util.pushstream.SimplePushEventSource;
 public class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends T>>>
 		implements SimplePushEventSource<T> {
 
+	@SuppressWarnings("rawtypes")
+	private static final PushEventConsumer[]			NO_CONSUMERS	= new PushEventConsumer[0];
+
 	private final Object								lock		= new Object();
 
 	private final Executor								worker;
@@ -55,11 +58,17 @@ public class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? e
 
 	private final Semaphore								semaphore;
 
-	private final List<PushEventConsumer< ? super T>>	connected	= new ArrayList<>();
+	/**
+	 * A copy-on-write snapshot of the connected consumers. The array is
+	 * replaced (while holding the lock) whenever a consumer connects or
+	 * disconnects, and is never modified after publication, so readers need
+	 * neither the lock nor a copy.
+	 */
+	private volatile PushEventConsumer< ? super T>[]	connected		= noConsumers();
 
 	private final Runnable								onClose;
 
-	private boolean										closed;
+	private volatile boolean							closed;
 	
 	private Deferred<Void>								connectPromise;
 
@@ -93,7 +102,11 @@ public class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? e
 			toResolve = connectPromise;
 			connectPromise = null;
 
-			connected.add(pec);
+			PushEventConsumer< ? super T>[] current = connected;
+			PushEventConsumer< ? super T>[] updated = Arrays.copyOf(current,
+					current.length + 1);
+			updated[current.length] = pec;
+			connected = updated;
 		}
 
 		if (toResolve != null) {
@@ -107,9 +120,22 @@ public class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? e
 
 	private void closeConsumer(PushEventConsumer< ? super T> pec,
 			PushEvent<T> event) {
-		boolean sendClose;
+		boolean sendClose = false;
 		synchronized (lock) {
-			sendClose = connected.remove(pec);
+			PushEventConsumer< ? super T>[] current = connected;
+			for (int i = 0; i < current.length; i++) {
+				if (pec.equals(current[i])) {
+					PushEventConsumer< ? super T>[] updated = noConsumers();
+					if (current.length > 1) {
+						updated = Arrays.copyOf(current, current.length - 1);
+						System.arraycopy(current, i + 1, updated, i,
+								current.length - i - 1);
+					}
+					connected = updated;
+					sendClose = true;
+					break;
+				}
+			}
 		}
 		if (sendClose) {
 			doSend(pec, event);
@@ -129,24 +155,213 @@ public class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? e
 		}
 	}
 
-	@SuppressWarnings("boxing")
-	private Promise<Long> doSendWithBackPressure(
-			PushEventConsumer< ? super T> pec, PushEvent<T> event) {
-		Deferred<Long> d = new Deferred<>();
+	private void doSendWithBackPressure(PushEventConsumer< ? super T> pec,
+			PushEvent<T> event, PendingSends pending) {
+		PendingSends.Send send = pending.add(pec, event);
 		try {
-			worker.execute(
-					() -> d.resolve(System.nanoTime() + safePush(pec, event)));
+			worker.execute(send);
 		} catch (RejectedExecutionException ree) {
 			// TODO log?
+			send.rejected();
 			if (!event.isTerminal()) {
+				// The data must not reach the consumer after the error
+				send.cancel();
 				close(PushEvent.error(ree));
-				return Promises.resolved(System.nanoTime());
+			}
+			// Otherwise the send will be run by the waiting thread
+		}
+	}
+
+	/**
+	 * Deliver an event to each of the supplied consumers, returning the
+	 * {@link System#nanoTime()} before which no further event should be
+	 * delivered. Consumers are called on this thread unless a spare permit
+	 * is available, in which case they are handed to the worker and this
+	 * thread waits for them to finish. The last consumer is always called on
+	 * this thread, as it would otherwise sit idle.
+	 */
+	private long deliver(PushEventConsumer< ? super T>[] toCall,
+			PushEvent<T> event, PendingSends pending)
+			throws InterruptedException {
+		long deadline = System.nanoTime();
+		boolean async = false;
+		pending.reset();
+		int last = toCall.length - 1;
+		for (int i = 0; i <= last; i++) {
+			if (closed && !event.isTerminal()) {
+				// The consumers have already been sent a terminal event
+				break;
+			}
+			PushEventConsumer< ? super T> pec = toCall[i];
+			if (i < last && semaphore.tryAcquire()) {
+				try {
+					async = true;
+					doSendWithBackPressure(pec, event, pending);
+				} finally {
+					semaphore.release();
+				}
 			} else {
-				return Promises
-						.resolved(System.nanoTime() + safePush(pec, event));
+				deadline = Math.max(deadline,
+						System.nanoTime() + safePush(pec, event));
+			}
+		}
+		return async ? Math.max(deadline, pending.await()) : deadline;
+	}
+
+	/**
+	 * Tracks the asynchronous deliveries of a single event, and the latest
+	 * back pressure deadline that they request. Each delivery runs exactly
+	 * once, either on the worker or, if the worker has not yet started it, on
+	 * the thread waiting for the deliveries to finish. This prevents a
+	 * deadlock when the worker has no free threads.
+	 * <p>
+	 * Each worker task reuses one instance, and its sends, for every event it
+	 * delivers, so fanning out to several consumers does not allocate. A send
+	 * is only reused once the executor no longer holds it.
+	 */
+	private final class PendingSends {
+
+		private final List<Send>	pool		= new ArrayList<>();
+
+		private final List<Send>	current		= new ArrayList<>();
+
+		private int					outstanding;
+
+		private long				deadline	= Long.MIN_VALUE;
+
+		void reset() {
+			current.clear();
+			synchronized (this) {
+				outstanding = 0;
+				deadline = Long.MIN_VALUE;
+			}
+		}
+
+		Send add(PushEventConsumer< ? super T> pec, PushEvent<T> event) {
+			Send send = null;
+			for (int i = 0; i < pool.size(); i++) {
+				if (pool.get(i).isFree()) {
+					send = pool.get(i);
+					break;
+				}
+			}
+			if (send == null) {
+				send = new Send();
+				pool.add(send);
+			}
+			send.prepare(pec, event);
+			current.add(send);
+			synchronized (this) {
+				outstanding++;
+			}
+			return send;
+		}
+
+		synchronized void complete(long requested) {
+			if (requested > deadline) {
+				deadline = requested;
+			}
+			if (--outstanding == 0) {
+				notifyAll();
+			}
+		}
+
+		long await() throws InterruptedException {
+			for (int i = 0; i < current.size(); i++) {
+				current.get(i).deliver();
+			}
+			synchronized (this) {
+				while (outstanding > 0) {
+					wait();
+				}
+				return deadline;
+			}
+		}
+
+		final class Send implements Runnable {
+
+			/** Set while the send has been handed to the executor */
+			private static final int		SUBMITTED	= 1;
+
+			/** Set once the send has been delivered or cancelled */
+			private static final int		CLAIMED		= 2;
+
+			private final AtomicInteger		state		= new AtomicInteger(
+					CLAIMED);
+
+			private PushEventConsumer< ? super T>	pec;
+
+			private PushEvent<T>			event;
+
+			boolean isFree() {
+				return state.get() == CLAIMED;
+			}
+
+			void prepare(PushEventConsumer< ? super T> pec,
+					PushEvent<T> event) {
+				this.pec = pec;
+				this.event = event;
+				state.set(SUBMITTED);
+			}
+
+			@Override
+			public void run() {
+				try {
+					deliver();
+				} finally {
+					state.addAndGet(-SUBMITTED);
+				}
+			}
+
+			/**
+			 * Delivers the event, unless this send has already been run or
+			 * cancelled
+			 */
+			void deliver() {
+				if (claim()) {
+					PushEventConsumer< ? super T> toCall = pec;
+					PushEvent<T> toSend = event;
+					clear();
+					complete(System.nanoTime() + safePush(toCall, toSend));
+				}
+			}
+
+			/**
+			 * Completes this send without delivering it, unless it has
+			 * already been run
+			 */
+			void cancel() {
+				if (claim()) {
+					clear();
+					complete(Long.MIN_VALUE);
+				}
+			}
+
+			/**
+			 * Records that the executor refused this send, so it will only
+			 * ever be run by the waiting thread
+			 */
+			void rejected() {
+				state.addAndGet(-SUBMITTED);
+			}
+
+			private boolean claim() {
+				for (;;) {
+					int value = state.get();
+					if ((value & CLAIMED) != 0) {
+						return false;
+					}
+					if (state.compareAndSet(value, value | CLAIMED)) {
+						return true;
+					}
+				}
+			}
+
+			private void clear() {
+				pec = null;
+				event = null;
 			}
 		}
-		return d.getPromise();
 	}
 
 	private long safePush(PushEventConsumer< ? super T> pec,
@@ -173,14 +388,14 @@ public class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? e
 	}
 
 	private void close(PushEvent<T> event) {
-		List<PushEventConsumer< ? super T>> toClose;
+		PushEventConsumer< ? super T>[] toClose;
 		Deferred<Void> toFail = null;
 		synchronized (lock) {
 			if(!closed) {
 				closed = true;
 				
-				toClose = new ArrayList<>(connected);
-				connected.clear();
+				toClose = connected;
+				connected = noConsumers();
 				queue.clear();
 
 				if(connectPromise != null) {
@@ -188,11 +403,13 @@ public class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? e
 					connectPromise = null;
 				}
 			} else {
-				toClose = emptyList();
+				toClose = noConsumers();
 			}
 		}
 
-		toClose.stream().forEach(pec -> doSend(pec, event));
+		for (PushEventConsumer< ? super T> pec : toClose) {
+			doSend(pec, event);
+		}
 
 		if (toFail != null) {
 			toFail.resolveWith(closedConnectPromise());
@@ -217,10 +434,8 @@ public class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? e
 	}
 
 	private void enqueueEvent(PushEvent<T> event) {
-		synchronized (lock) {
-			if (closed || connected.isEmpty()) {
-				return;
-			}
+		if (closed || connected.length == 0) {
+			return;
 		}
 
 		try {
@@ -239,16 +454,14 @@ public class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? e
 		}
 	}
 
-	@SuppressWarnings({
-			"unchecked", "boxing"
-	})
+	@SuppressWarnings("unchecked")
 	private void startWorker() {
 		worker.execute(() -> {
 			try {
-				
+				PendingSends pending = new PendingSends();
 				for(;;) {
 					PushEvent<T> event;
-					List<PushEventConsumer< ? super T>> toCall;
+					PushEventConsumer< ? super T>[] toCall;
 					boolean resetWait = false;
 					synchronized (lock) {
 						if(waitForFinishes) {
@@ -266,35 +479,19 @@ public class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? e
 							break;
 						}
 
-						toCall = new ArrayList<>(connected);
+						toCall = connected;
 						if (event.isTerminal()) {
 							waitForFinishes = true;
 							resetWait = true;
-							connected.clear();
+							connected = noConsumers();
 							while (!semaphore.tryAcquire(parallelism - 1)) {
 								lock.wait();
 							}
 						}
 					}
 					
-					List<Promise<Long>> calls = toCall.stream().map(pec -> {
-						if (semaphore.tryAcquire()) {
-							try {
-								return doSendWithBackPressure(pec, event);
-							} finally {
-								semaphore.release();
-							}
-						} else {
-							return Promises.resolved(
-									System.nanoTime() + safePush(pec, event));
-						}
-					}).collect(toList());
-
-					long toWait = Promises.<Long,Long>all(calls)
-							.map(l -> l.stream()
-									.max((a,b) -> a.compareTo(b))
-										.orElseGet(() -> System.nanoTime()))
-							.getValue() - System.nanoTime();
+					long toWait = deliver(toCall, event, pending)
+							- System.nanoTime();
 					
 					
 					if (toWait > 0) {
@@ -328,9 +525,7 @@ public class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? e
 
 	@Override
 	public boolean isConnected() {
-		synchronized (lock) {
-			return !connected.isEmpty();
-		}
+		return connected.length != 0;
 	}
 
 	@Override
@@ -340,7 +535,7 @@ public class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? e
 				return closedConnectPromise();
 			}
 
-			if (connected.isEmpty()) {
+			if (connected.length == 0) {
 				if (connectPromise == null) {
 					connectPromise = new Deferred<>();
 				}
@@ -351,6 +546,11 @@ public class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? e
 		}
 	}
 
+	@SuppressWarnings("unchecked")
+	private static <T> PushEventConsumer< ? super T>[] noConsumers() {
+		return NO_CONSUMERS;
+	}
+
 	private Promise<Void> closedConnectPromise() {
 		return Promises.failed(new IllegalStateException(
 				"This SimplePushEventSource is closed"));
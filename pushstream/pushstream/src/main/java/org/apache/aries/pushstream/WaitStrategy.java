@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.pushstream;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.osgi.util.pushstream.BufferBuilder;
+import org.osgi.util.pushstream.QueuePolicyOption;
+
+/**
+ * {@link WaitStrategy} controls what a thread does while it waits for space
+ * or events in a {@link RingBufferQueue}. Waiting only occurs for blocking
+ * operations, for example when the {@link QueuePolicyOption#BLOCK} policy is
+ * used with a full buffer. Ring buffers created using
+ * {@link BufferBuilder#withRingBuffer(int)} use {@link #PARK}.
+ */
+public enum WaitStrategy {
+	/**
+	 * Busy spin without giving up the CPU. This gives the lowest latency, but
+	 * occupies a whole core while waiting.
+	 */
+	SPIN {
+		@Override
+		public void idle(int attempt) {
+			// Nothing to do, just try again
+		}
+	},
+	/**
+	 * Yield the CPU to other threads between attempts.
+	 */
+	YIELD {
+		@Override
+		public void idle(int attempt) {
+			Thread.yield();
+		}
+	},
+	/**
+	 * Park the waiting thread, backing off exponentially from one microsecond
+	 * up to one millisecond between attempts.
+	 */
+	PARK {
+		@Override
+		public void idle(int attempt) {
+			long nanos = TimeUnit.MICROSECONDS.toNanos(1) << Math.min(attempt,
+					10);
+			LockSupport.parkNanos(Math.min(MAX_PARK, nanos));
+		}
+	};
+
+	private static final long MAX_PARK = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * Wait before the next attempt to access the buffer
+	 *
+	 * @param attempt the number of attempts that have already failed
+	 */
+	public abstract void idle(int attempt);
+}
@@ -29,6 +29,7 @@ abstract class AbstractBufferBuilder<R, T, U extends BlockingQueue<PushEvent< ?
 	protected PushbackPolicy<T,U>	backPressure;
 	protected QueuePolicy<T,U>		bufferingPolicy;
 	protected U						buffer;
+	protected int					batchSize	= 1;
 
 	@Override
 	public BufferBuilder<R,T,U> withBuffer(U queue) {
@@ -36,6 +37,22 @@ abstract class AbstractBufferBuilder<R, T, U extends BlockingQueue<PushEvent< ?
 		return this;
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public BufferBuilder<R,T,U> withRingBuffer(int capacity) {
+		this.buffer = (U) PushStreamProvider
+				.<PushEvent< ? extends T>> createRingBuffer(capacity, false);
+		return this;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public BufferBuilder<R,T,U> withSingleProducerRingBuffer(int capacity) {
+		this.buffer = (U) PushStreamProvider
+				.<PushEvent< ? extends T>> createRingBuffer(capacity, true);
+		return this;
+	}
+
 	@Override
 	public BufferBuilder<R,T,U> withQueuePolicy(
 			QueuePolicy<T,U> queuePolicy) {
@@ -75,4 +92,10 @@ abstract class AbstractBufferBuilder<R, T, U extends BlockingQueue<PushEvent< ?
 		this.worker = executor;
 		return this;
 	}
+
+	@Override
+	public BufferBuilder<R,T,U> withBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+		return this;
+	}
 }
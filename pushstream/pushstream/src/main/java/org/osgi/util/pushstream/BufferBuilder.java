@@ -35,6 +35,31 @@ public interface BufferBuilder<R, T, U extends BlockingQueue<PushEvent<? extends
 	 */
 	BufferBuilder<R, T, U> withBuffer(U queue);
 
+	/**
+	 * Use a preallocated, lock-free ring buffer as the queue for this buffer.
+	 * The ring buffer may safely receive events from several threads at once.
+	 * All of the {@link QueuePolicyOption}s may be used with a ring buffer.
+	 * Threads waiting for a blocking operation to complete back off by
+	 * parking.
+	 * 
+	 * @param capacity the maximum number of events held by the ring buffer
+	 * @return this builder
+	 */
+	BufferBuilder<R,T,U> withRingBuffer(int capacity);
+
+	/**
+	 * Use a preallocated, lock-free ring buffer as the queue for this buffer,
+	 * optimised for the case where events are only ever delivered to the
+	 * buffer by one thread at a time. This must not be used if the upstream
+	 * events may arrive concurrently, for example after a
+	 * {@link PushStream#fork(int, int, Executor)} or a
+	 * {@link PushStream#merge(PushStream)}.
+	 * 
+	 * @param capacity the maximum number of events held by the ring buffer
+	 * @return this builder
+	 */
+	BufferBuilder<R,T,U> withSingleProducerRingBuffer(int capacity);
+
 	/**
 	 * Set the {@link QueuePolicy} of this Builder
 	 * 
@@ -85,6 +110,19 @@ public interface BufferBuilder<R, T, U extends BlockingQueue<PushEvent<? extends
 	 * @return this builder
 	 */
 	BufferBuilder<R, T, U> withExecutor(Executor executor);
+
+	/**
+	 * Set the maximum number of events that should be removed from the buffer
+	 * and delivered in a single pass. A value greater than one allows the
+	 * buffer to drain several events at once, checking back pressure once per
+	 * batch rather than once per event. Batches are passed as a unit to
+	 * downstream operations which support them, such as
+	 * {@link PushStream#batched(int)}.
+	 * 
+	 * @param batchSize
+	 * @return this builder
+	 */
+	BufferBuilder<R, T, U> withBatchSize(int batchSize);
 	
 	/**
 	 * @return the object being built
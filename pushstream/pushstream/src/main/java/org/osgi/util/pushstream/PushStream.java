@@ -19,6 +19,7 @@ package org.osgi.util.pushstream;
 import java.time.Duration;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
@@ -161,6 +162,87 @@ public interface PushStream<T> extends AutoCloseable {
 	PushStream<T> fork(int n, int delay, Executor e)
 			throws IllegalArgumentException, NullPointerException;
 
+	/**
+	 * Deliver the downstream events using several threads, while keeping the
+	 * order of events which share a key. Events are assigned to one of
+	 * {@code parallelism} partitions using the hash of the key returned by
+	 * {@code keyFunction}. Each partition delivers its events one at a time,
+	 * in the order they arrived, and different partitions deliver their events
+	 * concurrently.
+	 * <p>
+	 * Each partition buffers a bounded number of events. When a partition is
+	 * full the delivering thread waits for space, and back pressure from the
+	 * downstream channel is returned to the source.
+	 * <p>
+	 * The threads used are owned by this stream, and are released when the
+	 * stream closes.
+	 * 
+	 * @param keyFunction a function returning the partitioning key for an
+	 *            event
+	 * @param parallelism the number of partitions
+	 * @return Builder style (can be a new or the same object)
+	 * @throws IllegalArgumentException if the parallelism is &lt; 1
+	 */
+	PushStream<T> partitionBy(Function< ? super T, ? > keyFunction,
+			int parallelism) throws IllegalArgumentException;
+
+	/**
+	 * Deliver the downstream events using several threads, while keeping the
+	 * order of events which share a key. This method behaves like
+	 * {@link #partitionBy(Function, int)}, but uses the supplied executor for
+	 * the partitions. The executor must be able to run {@code parallelism}
+	 * tasks without relying on the thread delivering events to this stream.
+	 * 
+	 * @param keyFunction a function returning the partitioning key for an
+	 *            event
+	 * @param parallelism the number of partitions
+	 * @param executor an executor to use for the partitions
+	 * @return Builder style (can be a new or the same object)
+	 * @throws IllegalArgumentException if the parallelism is &lt; 1
+	 * @throws NullPointerException if the Executor is null
+	 */
+	PushStream<T> partitionBy(Function< ? super T, ? > keyFunction,
+			int parallelism, Executor executor)
+			throws IllegalArgumentException, NullPointerException;
+
+	/**
+	 * Map the events using up to {@code parallelism} threads, delivering the
+	 * results downstream in the same order as the events arrived. At most
+	 * {@code parallelism} events may be being mapped or waiting for an earlier
+	 * result at any one time. When this limit is reached the delivering thread
+	 * waits, and back pressure from the downstream channel is returned to the
+	 * source.
+	 * <p>
+	 * The threads used are owned by this stream, and are released when the
+	 * stream closes.
+	 * 
+	 * @param parallelism the maximum number of events to process concurrently
+	 * @param mapper The map function
+	 * @return Builder style (can be a new or the same object)
+	 * @throws IllegalArgumentException if the parallelism is &lt; 1
+	 */
+	<R> PushStream<R> mapOrdered(int parallelism,
+			Function< ? super T, ? extends R> mapper)
+			throws IllegalArgumentException;
+
+	/**
+	 * Map the events using the supplied executor, delivering the results
+	 * downstream in the same order as the events arrived. This method behaves
+	 * like {@link #mapOrdered(int, Function)}. The executor must be able to
+	 * run {@code parallelism} tasks without relying on the thread delivering
+	 * events to this stream.
+	 * 
+	 * @param parallelism the maximum number of events to process concurrently
+	 * @param executor an executor to use for the mapping
+	 * @param mapper The map function
+	 * @return Builder style (can be a new or the same object)
+	 * @throws IllegalArgumentException if the parallelism is &lt; 1
+	 * @throws NullPointerException if the Executor is null
+	 */
+	<R> PushStream<R> mapOrdered(int parallelism, Executor executor,
+			Function< ? super T, ? extends R> mapper)
+			throws IllegalArgumentException, NullPointerException;
+
 	/**
 	 * Buffer the events in a queue using default values for the queue size and
 	 * other behaviours. Buffered work will be processed asynchronously in the
@@ -208,6 +290,22 @@ public interface PushStream<T> extends AutoCloseable {
 	 */
 	<U extends BlockingQueue<PushEvent< ? extends T>>> PushStreamBuilder<T,U> buildBuffer();
 
+	/**
+	 * Group the events of this stream into lists of at most {@code maxSize}
+	 * events. Events which are delivered together, for example by a buffer
+	 * configured using {@link BufferBuilder#withBatchSize(int)}, are passed
+	 * downstream as a single list. Events which arrive individually are passed
+	 * downstream as a list containing one element.
+	 * <p>
+	 * This operation never waits for further events to arrive in order to fill
+	 * a batch, so it adds no latency to the stream.
+	 * 
+	 * @param maxSize the largest number of events to deliver in one list
+	 * @return Builder style (can be a new or the same object)
+	 * @throws IllegalArgumentException if {@code maxSize} is less than one
+	 */
+	PushStream<List<T>> batched(int maxSize);
+
 	/**
 	 * Merge in the events from another source. The resulting channel is not
 	 * closed until this channel and the channel from the source are closed.
@@ -272,6 +370,8 @@ public interface PushStream<T> extends AutoCloseable {
 	 * Coalesces a number of events into a new type of event. A fixed number of
 	 * input events are forwarded to a accumulator function. This function
 	 * returns new event data to be forwarded on.
+	 * The collection passed to the accumulator function is never reused for
+	 * later events, and so may be retained, but it cannot be modified.
 	 * 
 	 * @param count
 	 * @param f
@@ -284,6 +384,8 @@ public interface PushStream<T> extends AutoCloseable {
 	 * of input events are forwarded to a accumulator function. The number of
 	 * events to be forwarded is determined by calling the count function. The
 	 * accumulator function then returns new event data to be forwarded on.
+	 * The collection passed to the accumulator function is never reused for
+	 * later events, and so may be retained, but it cannot be modified.
 	 * 
 	 * @param count
 	 * @param f
@@ -299,6 +401,9 @@ public interface PushStream<T> extends AutoCloseable {
 	 * <ul>
 	 * <li>The collection forwarded to the accumulator function will be empty if
 	 * no events arrived during the time interval.</li>
+	 * <li>The collection forwarded to the accumulator function is never
+	 * reused for a later window, and so may be retained, but it cannot be
+	 * modified.</li>
 	 * <li>The accumulator function will be run and the forwarded event
 	 * delivered as a different task, (and therefore potentially on a different
 	 * thread) from the one that delivered the event to this {@link PushStream}.
@@ -320,6 +425,9 @@ public interface PushStream<T> extends AutoCloseable {
 	 * <ul>
 	 * <li>The collection forwarded to the accumulator function will be empty if
 	 * no events arrived during the time interval.</li>
+	 * <li>The collection forwarded to the accumulator function is never
+	 * reused for a later window, and so may be retained, but it cannot be
+	 * modified.</li>
 	 * <li>The accumulator function will be run and the forwarded event
 	 * delivered by a task given to the supplied executor.</li>
 	 * <li>Due to the buffering and asynchronous delivery required, this method
@@ -334,6 +442,45 @@ public interface PushStream<T> extends AutoCloseable {
 	<R> PushStream<R> window(Duration d, Executor executor,
 			Function<Collection<T>,R> f);
 
+	/**
+	 * Aggregates the events that arrive over a fixed time interval using a
+	 * {@link Collector}, and then forwards the result. Unlike
+	 * {@link #window(Duration, Function)} the events are accumulated as they
+	 * arrive, and are never buffered. Note that:
+	 * <ul>
+	 * <li>A result will be forwarded for every time interval, using an empty
+	 * result container if no events arrived during the interval.</li>
+	 * <li>Accumulation into a result container is never concurrent, so the
+	 * collector does not need to be thread safe.</li>
+	 * <li>The finisher function will be run and the forwarded event delivered
+	 * as a different task, (and therefore potentially on a different thread)
+	 * from the one that delivered the event to this {@link PushStream}.</li>
+	 * <li>Due to the asynchronous delivery required, this method prevents the
+	 * propagation of back-pressure to earlier stages</li>
+	 * </ul>
+	 * 
+	 * @param d
+	 * @param collector
+	 * @return Builder style (can be a new or the same object)
+	 */
+	<A, R> PushStream<R> window(Duration d,
+			Collector< ? super T,A,R> collector);
+
+	/**
+	 * Aggregates the events that arrive over a fixed time interval using a
+	 * {@link Collector}, and then forwards the result. This method behaves
+	 * like {@link #window(Duration, Collector)}, except that the finisher
+	 * function will be run and the forwarded event delivered by a task given
+	 * to the supplied executor.
+	 * 
+	 * @param d
+	 * @param executor
+	 * @param collector
+	 * @return Builder style (can be a new or the same object)
+	 */
+	<A, R> PushStream<R> window(Duration d, Executor executor,
+			Collector< ? super T,A,R> collector);
+
 	/**
 	 * Buffers a number of events over a variable time interval and then
 	 * forwards the events to an accumulator function. The length of time over
@@ -347,6 +494,9 @@ public interface PushStream<T> extends AutoCloseable {
 	 * <ul>
 	 * <li>The collection forwarded to the accumulator function will be empty if
 	 * no events arrived during the time interval.</li>
+	 * <li>The collection forwarded to the accumulator function is never
+	 * reused for a later window, and so may be retained, but it cannot be
+	 * modified.</li>
 	 * <li>The accumulator function will be run and the forwarded event
 	 * delivered as a different task, (and therefore potentially on a different
 	 * thread) from the one that delivered the event to this {@link PushStream}.
@@ -380,6 +530,9 @@ public interface PushStream<T> extends AutoCloseable {
 	 * <ul>
 	 * <li>The collection forwarded to the accumulator function will be empty if
 	 * no events arrived during the time interval.</li>
+	 * <li>The collection forwarded to the accumulator function is never
+	 * reused for a later window, and so may be retained, but it cannot be
+	 * modified.</li>
 	 * <li>The accumulator function will be run and the forwarded event
 	 * delivered as a different task, (and therefore potentially on a different
 	 * thread) from the one that delivered the event to this {@link PushStream}.
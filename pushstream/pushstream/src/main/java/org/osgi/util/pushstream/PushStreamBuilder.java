@@ -45,6 +45,12 @@ public interface PushStreamBuilder<T, U extends BlockingQueue<PushEvent< ? exten
 	@Override
 	PushStreamBuilder<T,U> withBuffer(U queue);
 
+	@Override
+	PushStreamBuilder<T,U> withRingBuffer(int capacity);
+
+	@Override
+	PushStreamBuilder<T,U> withSingleProducerRingBuffer(int capacity);
+
 	@Override
 	PushStreamBuilder<T,U> withQueuePolicy(QueuePolicy<T,U> queuePolicy);
 
@@ -64,4 +70,7 @@ public interface PushStreamBuilder<T, U extends BlockingQueue<PushEvent< ? exten
 
 	@Override
 	PushStreamBuilder<T,U> withExecutor(Executor executor);
+
+	@Override
+	PushStreamBuilder<T,U> withBatchSize(int batchSize);
 }
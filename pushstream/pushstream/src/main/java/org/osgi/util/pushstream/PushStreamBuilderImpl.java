@@ -45,6 +45,19 @@ class PushStreamBuilderImpl<T, U extends BlockingQueue<PushEvent< ? extends T>>>
 		return (PushStreamBuilder<T,U>) super.withBuffer(queue);
 	}
 
+	@Override
+	public PushStreamBuilder<T,U> withRingBuffer(int capacity) {
+		unbuffered = false;
+		return (PushStreamBuilder<T,U>) super.withRingBuffer(capacity);
+	}
+
+	@Override
+	public PushStreamBuilder<T,U> withSingleProducerRingBuffer(int capacity) {
+		unbuffered = false;
+		return (PushStreamBuilder<T,U>) super.withSingleProducerRingBuffer(
+				capacity);
+	}
+
 	@Override
 	public PushStreamBuilder<T,U> withQueuePolicy(
 			QueuePolicy<T,U> queuePolicy) {
@@ -88,6 +101,12 @@ class PushStreamBuilderImpl<T, U extends BlockingQueue<PushEvent< ? extends T>>>
 		return (PushStreamBuilder<T,U>) super.withExecutor(executor);
 	}
 
+	@Override
+	public PushStreamBuilder<T,U> withBatchSize(int batchSize) {
+		unbuffered = false;
+		return (PushStreamBuilder<T,U>) super.withBatchSize(batchSize);
+	}
+
 	@Override
 	public PushStreamBuilder<T,U> unbuffered() {
 		unbuffered = true;
@@ -99,8 +118,8 @@ class PushStreamBuilderImpl<T, U extends BlockingQueue<PushEvent< ? extends T>>>
 		if (unbuffered) {
 			return psp.createUnbufferedStream(eventSource, previousExecutor);
 		} else {
-			return psp.createStream(eventSource, concurrency, worker, buffer,
-					bufferingPolicy, backPressure);
+			return psp.createStream(eventSource, concurrency, batchSize,
+					worker, buffer, bufferingPolicy, backPressure);
 		}
 	}
 }
@@ -37,8 +37,10 @@ import java.util.function.Function;
 import java.util.stream.Stream;
 
 import org.apache.aries.pushstream.BufferedPushStreamImpl;
+import org.apache.aries.pushstream.RingBufferQueue;
 import org.apache.aries.pushstream.SimplePushEventSourceImpl;
 import org.apache.aries.pushstream.UnbufferedPushStreamImpl;
+import org.apache.aries.pushstream.WaitStrategy;
 
 /**
  * A factory for {@link PushStream} instances, and utility methods for handling
@@ -118,8 +120,9 @@ public final class PushStreamProvider {
 	 * @return A {@link PushStream} with a default initial buffer
 	 */
 	public <T> PushStream<T> createStream(PushEventSource<T> eventSource) {
-		return createStream(eventSource, 1, null, new ArrayBlockingQueue<>(32),
-				FAIL.getPolicy(), LINEAR.getPolicy(1000));
+		return createStream(eventSource, 1, 1, null,
+				new ArrayBlockingQueue<>(32), FAIL.getPolicy(),
+				LINEAR.getPolicy(1000));
 	}
 	
 	/**
@@ -143,14 +146,22 @@ public final class PushStreamProvider {
 			"rawtypes", "unchecked"
 	})
 	<T, U extends BlockingQueue<PushEvent< ? extends T>>> PushStream<T> createStream(
-			PushEventSource<T> eventSource, int parallelism, Executor executor,
-			U queue, QueuePolicy<T,U> queuePolicy,
+			PushEventSource<T> eventSource, int parallelism, int batchSize,
+			Executor executor, U queue, QueuePolicy<T,U> queuePolicy,
 			PushbackPolicy<T,U> pushbackPolicy) {
 
 		if (eventSource == null) {
 			throw new NullPointerException("There is no source of events");
 		}
 
+		if (batchSize < 0) {
+			throw new IllegalArgumentException(
+					"The supplied batch size cannot be less than zero. It was "
+							+ batchSize);
+		} else if (batchSize == 0) {
+			batchSize = 1;
+		}
+
 		if (parallelism < 0) {
 			throw new IllegalArgumentException(
 					"The supplied parallelism cannot be less than zero. It was "
@@ -183,8 +194,8 @@ public final class PushStreamProvider {
 
 		@SuppressWarnings("resource")
 		PushStream<T> stream = new BufferedPushStreamImpl<>(this,
-				acquireScheduler(), queue, parallelism, toUse, queuePolicy,
-				pushbackPolicy, aec -> {
+				acquireScheduler(), queue, parallelism, batchSize, toUse,
+				queuePolicy, pushbackPolicy, aec -> {
 					try {
 						return eventSource.open(aec);
 					} catch (Exception e) {
@@ -202,6 +213,17 @@ public final class PushStreamProvider {
 		return stream;
 	}
 
+	/**
+	 * Create the ring buffer used by
+	 * {@link BufferBuilder#withRingBuffer(int)}, keeping the implementation
+	 * types out of the builders
+	 */
+	static <E> BlockingQueue<E> createRingBuffer(int capacity,
+			boolean singleProducer) {
+		return new RingBufferQueue<>(capacity, singleProducer,
+				WaitStrategy.PARK);
+	}
+
 	<T> PushStream<T> createUnbufferedStream(PushEventSource<T> eventSource,
 			Executor executor) {
 
@@ -443,7 +465,8 @@ public final class PushStreamProvider {
 			public PushEventConsumer<T> create() {
 				PushEventPipe<T> pipe = new PushEventPipe<>();
 				
-				createStream(pipe, concurrency, worker, buffer, bufferingPolicy, backPressure)
+				createStream(pipe, concurrency, batchSize, worker, buffer,
+						bufferingPolicy, backPressure)
 					.forEachEvent(delegate);
 				
 				return pipe;
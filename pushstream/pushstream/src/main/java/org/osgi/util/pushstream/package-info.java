@@ -33,7 +33,7 @@
  * @author $Id: 6a28fa0b5c2036486a22a7ca1254729d7848ca43 $
  */
 
-@Version("1.0")
+@Version("1.1")
 package org.osgi.util.pushstream;
 
 import org.osgi.annotation.versioning.Version;
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.pushstream;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.osgi.util.pushstream.PushbackPolicyOption.FIXED;
+import static org.osgi.util.pushstream.QueuePolicyOption.FAIL;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.osgi.util.promise.Promise;
+import org.osgi.util.pushstream.PushEvent;
+import org.osgi.util.pushstream.PushEventSource;
+import org.osgi.util.pushstream.PushStream;
+import org.osgi.util.pushstream.PushStreamProvider;
+
+public class BatchedPushStreamTest {
+
+	/**
+	 * An executor which holds on to its tasks until they are run by the test,
+	 * so that all of the events are queued before the buffer is drained
+	 */
+	static class ManualExecutor implements Executor {
+		private final LinkedBlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		void runAll() throws InterruptedException {
+			Runnable r;
+			while ((r = tasks.poll(100, TimeUnit.MILLISECONDS)) != null) {
+				r.run();
+			}
+		}
+	}
+
+	static PushEventSource<Integer> range(int count) {
+		return pec -> {
+			for (int i = 0; i < count; i++) {
+				pec.accept(PushEvent.data(i));
+			}
+			pec.accept(PushEvent.close());
+			return () -> {};
+		};
+	}
+
+	private PushStream<Integer> batchedStream(ManualExecutor executor,
+			int count, int batchSize) {
+		return new PushStreamProvider().buildStream(range(count))
+				.withBuffer(new ArrayBlockingQueue<>(64))
+				.withQueuePolicy(FAIL)
+				.withPushbackPolicy(FIXED, 0)
+				.withExecutor(executor)
+				.withBatchSize(batchSize)
+				.create();
+	}
+
+	@Test
+	public void testBatchesAreDrainedTogether() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		List<List<Integer>> received = new CopyOnWriteArrayList<>();
+
+		Promise<Void> p = batchedStream(executor, 20, 8).batched(5)
+				.forEach(received::add);
+		executor.runAll();
+		p.getValue();
+
+		// Drains of 8, 8 and 4 events, each split into lists of at most 5
+		List<Integer> sizes = new ArrayList<>();
+		List<Integer> all = new ArrayList<>();
+		for (List<Integer> l : received) {
+			sizes.add(l.size());
+			all.addAll(l);
+		}
+		assertEquals(asList(5, 3, 5, 3, 4), sizes);
+		List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			expected.add(i);
+		}
+		assertEquals(expected, all);
+	}
+
+	@Test
+	public void testMapAndFilterKeepBatches() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		List<List<Integer>> received = new CopyOnWriteArrayList<>();
+
+		Promise<Void> p = batchedStream(executor, 16, 8)
+				.filter(i -> i % 2 == 0)
+				.map(i -> i * 10)
+				.batched(8)
+				.forEach(received::add);
+		executor.runAll();
+		p.getValue();
+
+		assertEquals(asList(asList(0, 20, 40, 60), asList(80, 100, 120, 140)),
+				received);
+	}
+
+	@Test
+	public void testUnbatchedConsumersSeeEveryEvent() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		List<Integer> received = new CopyOnWriteArrayList<>();
+
+		Promise<Void> p = batchedStream(executor, 10, 4)
+				.forEach(received::add);
+		executor.runAll();
+		p.getValue();
+
+		assertEquals(asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), received);
+	}
+}
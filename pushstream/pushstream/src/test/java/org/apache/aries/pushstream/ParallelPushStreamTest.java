@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.pushstream;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.util.promise.Promise;
+import org.osgi.util.pushstream.PushEvent;
+import org.osgi.util.pushstream.PushEventSource;
+import org.osgi.util.pushstream.PushStream;
+import org.osgi.util.pushstream.PushStreamProvider;
+
+public class ParallelPushStreamTest {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * An executor which runs a fixed number of tasks and rejects the rest
+	 */
+	static class RejectingExecutor implements Executor {
+		private final Executor		delegate;
+		private final AtomicInteger	remaining;
+
+		RejectingExecutor(Executor delegate, int accepted) {
+			this.delegate = delegate;
+			this.remaining = new AtomicInteger(accepted);
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			if (remaining.getAndDecrement() <= 0) {
+				throw new RejectedExecutionException("Saturated");
+			}
+			delegate.execute(command);
+		}
+	}
+
+	static PushEventSource<Integer> range(int count) {
+		return pec -> {
+			for (int i = 0; i < count; i++) {
+				pec.accept(PushEvent.data(i));
+			}
+			pec.accept(PushEvent.close());
+			return () -> {};
+		};
+	}
+
+	private static PushStream<Integer> stream(PushEventSource<Integer> source) {
+		return new PushStreamProvider().buildStream(source)
+				.unbuffered()
+				.create();
+	}
+
+	private static List<Integer> upTo(int count) {
+		List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			expected.add(i);
+		}
+		return expected;
+	}
+
+	private static void pause(long millis) {
+		try {
+			MILLISECONDS.sleep(millis);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Throwable awaitFailure(Promise<Void> p) throws Exception {
+		CountDownLatch resolved = new CountDownLatch(1);
+		p.onResolve(resolved::countDown);
+		assertTrue("The stream did not complete",
+				resolved.await(5, SECONDS));
+		return p.getFailure();
+	}
+
+	@Test
+	public void testPartitionByKeepsTheOrderOfEachKey() throws Exception {
+		Map<Integer,List<Integer>> received = new ConcurrentHashMap<>();
+
+		Promise<Void> p = stream(range(1000))
+				.partitionBy(i -> i % 7, 3, executor)
+				.forEach(i -> received
+						.computeIfAbsent(i % 7,
+								k -> new CopyOnWriteArrayList<>())
+						.add(i));
+		p.getValue();
+
+		assertEquals(7, received.size());
+		for (Map.Entry<Integer,List<Integer>> e : received.entrySet()) {
+			List<Integer> expected = new ArrayList<>();
+			for (int i = e.getKey(); i < 1000; i += 7) {
+				expected.add(i);
+			}
+			assertEquals(expected, e.getValue());
+		}
+	}
+
+	@Test
+	public void testPartitionByBlocksTheProducerWhenALaneIsFull()
+			throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger offered = new AtomicInteger();
+		List<Integer> received = new CopyOnWriteArrayList<>();
+
+		PushEventSource<Integer> source = pec -> {
+			Thread t = new Thread(() -> {
+				try {
+					for (int i = 0; i < 100; i++) {
+						pec.accept(PushEvent.data(i));
+						offered.incrementAndGet();
+					}
+					pec.accept(PushEvent.close());
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			});
+			t.start();
+			return () -> {};
+		};
+
+		Promise<Void> p = stream(source).partitionBy(i -> 0, 2, executor)
+				.forEach(i -> {
+					await(release);
+					received.add(i);
+				});
+
+		// The first event holds its slot until it has been delivered, so the
+		// lane accepts no more than its buffer before the producer blocks
+		long deadline = System.nanoTime() + SECONDS.toNanos(5);
+		while (offered.get() < 32 && System.nanoTime() < deadline) {
+			pause(10);
+		}
+		pause(200);
+		assertEquals(32, offered.get());
+
+		release.countDown();
+		p.getValue();
+		assertEquals(upTo(100), received);
+	}
+
+	@Test
+	public void testPartitionByCloseWaitsForBusyLanes() throws Exception {
+		AtomicInteger received = new AtomicInteger();
+
+		Promise<Void> p = stream(range(200))
+				.partitionBy(i -> i, 4, executor)
+				.forEach(i -> {
+					pause(1);
+					received.incrementAndGet();
+				});
+		p.getValue();
+
+		// The close event is only delivered once every lane has drained
+		assertEquals(200, received.get());
+	}
+
+	@Test
+	public void testPartitionByFailsWhenTheExecutorRejects() throws Exception {
+		List<Integer> received = new CopyOnWriteArrayList<>();
+
+		// Only the first two lanes can start draining
+		Promise<Void> p = stream(range(1000))
+				.partitionBy(i -> i, 4, new RejectingExecutor(executor, 2))
+				.forEach(i -> {
+					pause(1);
+					received.add(i);
+				});
+
+		assertSame(RejectedExecutionException.class,
+				awaitFailure(p).getClass());
+		assertTrue(received.size() < 1000);
+	}
+
+	@Test
+	public void testPartitionByFailsWhenTheConsumerFails() throws Exception {
+		IllegalStateException failure = new IllegalStateException("Broken");
+
+		Promise<Void> p = stream(range(1000))
+				.partitionBy(i -> i, 4, executor)
+				.forEach(i -> {
+					if (i == 100) {
+						throw failure;
+					}
+					pause(1);
+				});
+
+		assertSame(failure, awaitFailure(p));
+	}
+
+	@Test
+	public void testMapOrderedKeepsTheArrivalOrder() throws Exception {
+		List<Integer> received = new CopyOnWriteArrayList<>();
+
+		// Earlier events take longer to map than later ones
+		Promise<Void> p = stream(range(100))
+				.mapOrdered(4, executor, i -> {
+					pause((3 - i % 4) * 2);
+					return i;
+				})
+				.forEach(received::add);
+		p.getValue();
+
+		assertEquals(upTo(100), received);
+	}
+
+	@Test
+	public void testMapOrderedFailsWhenTheExecutorRejects() throws Exception {
+		List<Integer> received = new CopyOnWriteArrayList<>();
+
+		Promise<Void> p = stream(range(1000))
+				.mapOrdered(4, new RejectingExecutor(executor, 10), i -> {
+					pause(1);
+					return i;
+				})
+				.forEach(received::add);
+
+		assertSame(RejectedExecutionException.class,
+				awaitFailure(p).getClass());
+		assertEquals(upTo(10), received);
+	}
+
+	@Test
+	public void testMapOrderedFailsWhenTheMapperFails() throws Exception {
+		IllegalStateException failure = new IllegalStateException("Broken");
+		List<Integer> received = new CopyOnWriteArrayList<>();
+
+		Promise<Void> p = stream(range(1000))
+				.mapOrdered(4, executor, i -> {
+					if (i == 100) {
+						throw failure;
+					}
+					pause(1);
+					return i;
+				})
+				.forEach(received::add);
+
+		// Everything before the failure is emitted, in order, before the
+		// failure is delivered
+		assertSame(failure, awaitFailure(p));
+		assertEquals(upTo(100), received.subList(0, 100));
+		assertFalse(received.contains(100));
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.pushstream;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RingBufferQueueTest {
+
+	@Test
+	public void testCapacityIsExact() {
+		RingBufferQueue<Integer> queue = new RingBufferQueue<>(5, false,
+				WaitStrategy.SPIN);
+		for (int i = 0; i < 5; i++) {
+			assertTrue(queue.offer(i));
+		}
+		assertFalse(queue.offer(5));
+		assertEquals(5, queue.size());
+		assertEquals(0, queue.remainingCapacity());
+
+		assertEquals(Integer.valueOf(0), queue.poll());
+		assertEquals(1, queue.remainingCapacity());
+		assertTrue(queue.offer(5));
+		assertFalse(queue.offer(6));
+	}
+
+	@Test
+	public void testFifoOrderAcrossWrap() {
+		RingBufferQueue<Integer> queue = new RingBufferQueue<>(3, true,
+				WaitStrategy.SPIN);
+		List<Integer> out = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			assertTrue(queue.offer(i));
+			if (i % 2 == 1) {
+				queue.drainTo(out);
+			}
+		}
+		assertEquals(asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), out);
+		assertNull(queue.poll());
+		assertNull(queue.peek());
+	}
+
+	@Test
+	public void testDrainToRespectsMaxElements() {
+		RingBufferQueue<Integer> queue = new RingBufferQueue<>(8, false,
+				WaitStrategy.SPIN);
+		for (int i = 0; i < 6; i++) {
+			queue.offer(i);
+		}
+		List<Integer> out = new ArrayList<>();
+		assertEquals(4, queue.drainTo(out, 4));
+		assertEquals(asList(0, 1, 2, 3), out);
+		assertEquals(Integer.valueOf(4), queue.peek());
+		assertEquals(asList(4, 5), new ArrayList<>(queue));
+	}
+
+	@Test
+	public void testBlockingOperationsTimeOut() throws Exception {
+		RingBufferQueue<Integer> queue = new RingBufferQueue<>(1, false,
+				WaitStrategy.PARK);
+		assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+		queue.put(1);
+		assertFalse(queue.offer(2, 10, TimeUnit.MILLISECONDS));
+		assertEquals(Integer.valueOf(1), queue.take());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testRemoveObjectIsNotSupported() {
+		RingBufferQueue<Integer> queue = new RingBufferQueue<>(4, false,
+				WaitStrategy.SPIN);
+		queue.offer(1);
+		queue.remove(Integer.valueOf(1));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testRetainAllIsNotSupported() {
+		RingBufferQueue<Integer> queue = new RingBufferQueue<>(4, false,
+				WaitStrategy.SPIN);
+		queue.retainAll(Collections.emptyList());
+	}
+
+	@Test
+	public void testConcurrentProducersAndConsumers() throws Exception {
+		int producers = 4;
+		int perProducer = 10000;
+		RingBufferQueue<Integer> queue = new RingBufferQueue<>(100, false,
+				WaitStrategy.YIELD);
+		Received received = new Received();
+		CountDownLatch done = new CountDownLatch(producers + 2);
+
+		for (int p = 0; p < producers; p++) {
+			int base = p * perProducer;
+			new Thread(() -> {
+				try {
+					for (int i = 0; i < perProducer; i++) {
+						queue.put(base + i);
+						if (queue.size() > 100) {
+							received.overfilled.set(true);
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				done.countDown();
+			}).start();
+		}
+		for (int c = 0; c < 2; c++) {
+			new Thread(() -> {
+				try {
+					Integer i;
+					while ((i = queue.poll(1, TimeUnit.SECONDS)) != null) {
+						received.add(i);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				done.countDown();
+			}).start();
+		}
+
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		assertEquals(producers * perProducer, received.seen.size());
+		assertEquals(0, received.duplicates.get());
+		assertFalse(received.overfilled.get());
+		assertTrue(queue.isEmpty());
+	}
+
+	/**
+	 * Records what the producers and consumers saw, as assertions cannot be
+	 * made from their threads
+	 */
+	private static class Received {
+		final ConcurrentHashMap<Integer,Boolean>	seen		= new ConcurrentHashMap<>();
+		final AtomicInteger							duplicates	= new AtomicInteger();
+		final AtomicBoolean							overfilled	= new AtomicBoolean();
+
+		void add(Integer i) {
+			if (seen.putIfAbsent(i, Boolean.TRUE) != null) {
+				duplicates.incrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.pushstream;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.osgi.util.pushstream.PushEvent.EventType.ERROR;
+import static org.osgi.util.pushstream.QueuePolicyOption.FAIL;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.util.pushstream.PushEvent;
+import org.osgi.util.pushstream.PushEvent.EventType;
+import org.osgi.util.pushstream.PushEventConsumer;
+import org.osgi.util.pushstream.QueuePolicyOption;
+
+public class SimplePushEventSourceImplTest {
+
+	private final ScheduledExecutorService scheduler = Executors
+			.newSingleThreadScheduledExecutor();
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * An executor which runs its first task on a new thread and rejects every
+	 * task after that
+	 */
+	static class RejectingExecutor implements Executor {
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		@Override
+		public void execute(Runnable command) {
+			if (started.compareAndSet(false, true)) {
+				new Thread(command).start();
+			} else {
+				throw new RejectedExecutionException("saturated");
+			}
+		}
+	}
+
+	@Test
+	public void testRejectedSendIsNotDeliveredAfterClose() throws Exception {
+		CountDownLatch closed = new CountDownLatch(1);
+		SimplePushEventSourceImpl<Integer,ArrayBlockingQueue<PushEvent< ? extends Integer>>> source = new SimplePushEventSourceImpl<>(
+				new RejectingExecutor(), scheduler, FAIL.getPolicy(),
+				new ArrayBlockingQueue<>(16), 2, closed::countDown);
+
+		List<EventType> first = new CopyOnWriteArrayList<>();
+		List<EventType> second = new CopyOnWriteArrayList<>();
+		CountDownLatch errors = new CountDownLatch(2);
+		source.open(recorder(first, errors));
+		source.open(recorder(second, errors));
+
+		// The worker hands the first consumer to the executor, which rejects it
+		source.publish(1);
+
+		assertTrue(closed.await(5, TimeUnit.SECONDS));
+		assertTrue(errors.await(5, TimeUnit.SECONDS));
+		// Give a late data event the chance to arrive
+		Thread.sleep(100);
+
+		assertEquals(asList(ERROR), first);
+		assertEquals(asList(ERROR), second);
+	}
+
+	/**
+	 * Each event is fanned out through the reused pending sends. Every
+	 * consumer must see every event exactly once, and in order.
+	 */
+	@Test
+	public void testFanOutDeliversEachEventOnceToEveryConsumer()
+			throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			SimplePushEventSourceImpl<Integer,ArrayBlockingQueue<PushEvent< ? extends Integer>>> source = new SimplePushEventSourceImpl<>(
+					executor, scheduler, QueuePolicyOption.BLOCK.getPolicy(),
+					new ArrayBlockingQueue<>(16), 2, () -> {});
+
+			int consumers = 3;
+			List<List<Integer>> received = new ArrayList<>();
+			Semaphore delivered = new Semaphore(0);
+			for (int i = 0; i < consumers; i++) {
+				List<Integer> events = new CopyOnWriteArrayList<>();
+				received.add(events);
+				source.open(e -> {
+					if (!e.isTerminal()) {
+						events.add(e.getData());
+						delivered.release();
+					}
+					return 0;
+				});
+			}
+
+			List<Integer> expected = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				source.publish(i);
+				expected.add(i);
+				assertTrue(delivered.tryAcquire(consumers, 5, TimeUnit.SECONDS));
+			}
+			// Give a duplicate or stale delivery the chance to arrive
+			Thread.sleep(100);
+
+			for (List<Integer> events : received) {
+				assertEquals(expected, events);
+			}
+			source.close();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * The back pressure requested by a consumer that was handed to the worker
+	 * keeps the delivering worker waiting, and so holding its permit. The next
+	 * event cannot be handed off and is delivered on a single thread.
+	 */
+	@Test
+	public void testBackPressureOfHandedOffConsumerIsRespected()
+			throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			SimplePushEventSourceImpl<Integer,ArrayBlockingQueue<PushEvent< ? extends Integer>>> source = new SimplePushEventSourceImpl<>(
+					executor, scheduler, QueuePolicyOption.BLOCK.getPolicy(),
+					new ArrayBlockingQueue<>(16), 2, () -> {});
+
+			Map<Integer,Thread> first = new ConcurrentHashMap<>();
+			Map<Integer,Thread> last = new ConcurrentHashMap<>();
+			Semaphore delivered = new Semaphore(0);
+			source.open(e -> {
+				if (e.isTerminal()) {
+					return 0;
+				}
+				first.put(e.getData(), Thread.currentThread());
+				delivered.release();
+				return e.getData() == 1 ? 2000 : 0;
+			});
+			source.open(e -> {
+				if (!e.isTerminal()) {
+					last.put(e.getData(), Thread.currentThread());
+					delivered.release();
+				}
+				return 0;
+			});
+
+			source.publish(1);
+			assertTrue(delivered.tryAcquire(2, 5, TimeUnit.SECONDS));
+			source.publish(2);
+			assertTrue(delivered.tryAcquire(2, 1, TimeUnit.SECONDS));
+
+			assertSame(last.get(2), first.get(2));
+			source.close();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static PushEventConsumer<Integer> recorder(List<EventType> events,
+			CountDownLatch errors) {
+		return e -> {
+			events.add(e.getType());
+			if (e.getType() == ERROR) {
+				errors.countDown();
+			}
+			return 0;
+		};
+	}
+}
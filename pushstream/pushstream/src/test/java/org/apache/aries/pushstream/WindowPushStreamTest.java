@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.pushstream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.util.promise.Promise;
+import org.osgi.util.pushstream.PushEvent;
+import org.osgi.util.pushstream.PushEventSource;
+import org.osgi.util.pushstream.PushStreamProvider;
+
+public class WindowPushStreamTest {
+
+	private final ExecutorService executor = Executors
+			.newSingleThreadExecutor();
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	static PushEventSource<Integer> range(int count) {
+		return pec -> {
+			for (int i = 0; i < count; i++) {
+				pec.accept(PushEvent.data(i));
+			}
+			pec.accept(PushEvent.close());
+			return () -> {};
+		};
+	}
+
+	/**
+	 * Publishes each group of events in turn, pausing between them, from a
+	 * thread of its own
+	 */
+	@SafeVarargs
+	static PushEventSource<Integer> groups(long pauseMillis,
+			List<Integer>... groups) {
+		return pec -> {
+			new Thread(() -> {
+				try {
+					for (List<Integer> group : groups) {
+						for (Integer i : group) {
+							pec.accept(PushEvent.data(i));
+						}
+						MILLISECONDS.sleep(pauseMillis);
+					}
+					pec.accept(PushEvent.close());
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}).start();
+			return () -> {};
+		};
+	}
+
+	@Test
+	public void testCoalescedCollectionsCanBeKept() throws Exception {
+		List<Collection<Integer>> received = new CopyOnWriteArrayList<>();
+
+		Promise<Void> p = new PushStreamProvider().createStream(range(7))
+				.coalesce(3, c -> c)
+				.forEach(received::add);
+		p.getValue();
+
+		assertEquals(asList(asList(0, 1, 2), asList(3, 4, 5), asList(6)),
+				copies(received));
+	}
+
+	@Test
+	public void testWindowedCollectionsCanBeKept() throws Exception {
+		List<Collection<Integer>> received = new CopyOnWriteArrayList<>();
+
+		// The windows are cut by size, as the time limit is never reached
+		Promise<Void> p = new PushStreamProvider().createStream(range(10))
+				.window(() -> Duration.ofMinutes(1), () -> 4, executor,
+						(t, c) -> c)
+				.forEach(received::add);
+		p.getValue();
+
+		assertEquals(
+				asList(asList(0, 1, 2, 3), asList(4, 5, 6, 7), asList(8, 9)),
+				copies(received));
+	}
+
+	@Test
+	public void testTimedWindowsCanBeKept() throws Exception {
+		List<Collection<Integer>> received = new CopyOnWriteArrayList<>();
+		List<List<Integer>> copiesOnArrival = new CopyOnWriteArrayList<>();
+
+		// Each group is published in the middle of its own window
+		Promise<Void> p = new PushStreamProvider()
+				.createStream(groups(750, asList(0, 1, 2), asList(3, 4)))
+				.window(Duration.ofMillis(500), c -> c)
+				.forEach(c -> {
+					received.add(c);
+					copiesOnArrival.add(new ArrayList<>(c));
+				});
+		p.getValue();
+
+		// Later windows must not have changed the earlier collections
+		assertEquals(copiesOnArrival, copies(received));
+		assertEquals(asList(0, 1, 2), copiesOnArrival.get(0));
+		assertEquals(asList(3, 4), copiesOnArrival.get(1));
+		for (List<Integer> l : copiesOnArrival.subList(2,
+				copiesOnArrival.size())) {
+			assertEquals(emptyList(), l);
+		}
+	}
+
+	@Test
+	public void testCollectedWindowsFollowTheInterval() throws Exception {
+		List<List<Integer>> received = new CopyOnWriteArrayList<>();
+
+		Promise<Void> p = new PushStreamProvider()
+				.createStream(groups(750, asList(0, 1, 2), asList(3, 4)))
+				.window(Duration.ofMillis(500), Collectors.toList())
+				.forEach(received::add);
+		p.getValue();
+
+		assertEquals(asList(0, 1, 2), received.get(0));
+		assertEquals(asList(3, 4), received.get(1));
+		for (List<Integer> l : received.subList(2, received.size())) {
+			assertEquals(emptyList(), l);
+		}
+	}
+
+	@Test
+	public void testCollectedWindowsAreDeliveredByTheExecutor()
+			throws Exception {
+		Thread executorThread = executor.submit(Thread::currentThread).get();
+		List<Thread> threads = new CopyOnWriteArrayList<>();
+
+		// The close event ends the window before the interval has passed
+		Promise<List<String>> p = new PushStreamProvider()
+				.createStream(range(5))
+				.window(Duration.ofMinutes(1), executor,
+						Collectors.mapping(String::valueOf,
+								Collectors.toList()))
+				.map(l -> {
+					threads.add(Thread.currentThread());
+					return l;
+				})
+				.collect(Collectors.reducing(emptyList(), (a, b) -> {
+					List<String> l = new ArrayList<>(a);
+					l.addAll(b);
+					return l;
+				}));
+
+		assertEquals(asList("0", "1", "2", "3", "4"), p.getValue());
+		assertEquals(1, threads.size());
+		assertSame(executorThread, threads.get(0));
+	}
+
+	private static List<List<Integer>> copies(
+			List<Collection<Integer>> received) {
+		List<List<Integer>> result = new ArrayList<>();
+		for (Collection<Integer> c : received) {
+			result.add(new ArrayList<>(c));
+		}
+		return result;
+	}
+}
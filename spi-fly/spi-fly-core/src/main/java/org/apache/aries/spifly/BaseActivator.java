@@ -46,6 +46,13 @@ import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.util.tracker.BundleTracker;
 
 public abstract class BaseActivator implements BundleActivator {
+    /**
+     * Framework property that, when <tt>true</tt>, makes woven
+     * <tt>ServiceLoader.load()</tt> calls use a snapshot of the provider
+     * classes rather than scanning the provider bundles every time.
+     */
+    public static final String SERVICELOADER_SNAPSHOTS_PROPERTY = "org.apache.aries.spifly.serviceloader.snapshots";
+
     private static final Set<WeavingData> NON_WOVEN_BUNDLE = Collections.emptySet();
     private static final Logger logger = Logger.getLogger(BaseActivator.class.getName());
 
@@ -67,8 +74,12 @@ public abstract class BaseActivator implements BundleActivator {
     private final ConcurrentMap<Bundle, Map<ConsumerRestriction, List<BundleDescriptor>>> consumerRestrictions =
             new ConcurrentHashMap<Bundle, Map<ConsumerRestriction, List<BundleDescriptor>>>();
 
+    private final ContextClassLoaderCache contextClassLoaderCache = new ContextClassLoaderCache();
+    private volatile boolean serviceLoaderSnapshots;
+
     public synchronized void start(BundleContext context, final String consumerHeaderName) throws Exception {
         bundleContext = context;
+        setServiceLoaderSnapshotsEnabled(Boolean.parseBoolean(context.getProperty(SERVICELOADER_SNAPSHOTS_PROPERTY)));
 
         providerBundleTracker = new BundleTracker(context,
                 Bundle.ACTIVE, new ProviderBundleTrackerCustomizer(this, context.getBundle()));
@@ -141,6 +152,8 @@ public abstract class BaseActivator implements BundleActivator {
 
     public void removeWeavingData(Bundle bundle) {
         bundleWeavingData.remove(bundle);
+        // Don't hold on to the classloaders of consumers that have gone away
+        contextClassLoaderCache.invalidate();
     }
 
     @Override
@@ -220,6 +233,7 @@ public abstract class BaseActivator implements BundleActivator {
 
         SortedMap<Long, Pair<Bundle, Map<String, Object>>> map = registeredProviders.get(registrationClassName);
         map.put(bundle.getBundleId(), new Pair<Bundle, Map<String, Object>>(bundle, customAttributes));
+        contextClassLoaderCache.invalidate();
     }
 
     public void unregisterProviderBundle(Bundle bundle) {
@@ -231,6 +245,7 @@ public abstract class BaseActivator implements BundleActivator {
                 }
             }
         }
+        contextClassLoaderCache.invalidate();
     }
 
     public Collection<Bundle> findProviderBundles(String name) {
@@ -265,6 +280,20 @@ public abstract class BaseActivator implements BundleActivator {
         for (ConsumerRestriction restriction : restrictions) {
             map.put(restriction, allowedBundles);
         }
+        contextClassLoaderCache.invalidate();
+    }
+
+    ContextClassLoaderCache getContextClassLoaderCache() {
+        return contextClassLoaderCache;
+    }
+
+    public boolean isServiceLoaderSnapshotsEnabled() {
+        return serviceLoaderSnapshots;
+    }
+
+    void setServiceLoaderSnapshotsEnabled(boolean enabled) {
+        serviceLoaderSnapshots = enabled;
+        contextClassLoaderCache.invalidate();
     }
 
     public Collection<Bundle> findConsumerRestrictions(Bundle consumer, String className, String methodName,
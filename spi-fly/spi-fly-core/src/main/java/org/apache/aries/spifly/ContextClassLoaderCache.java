@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.spifly;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * Caches the thread context classloader computed for a consumer bundle calling
+ * a woven method, such as <tt>ServiceLoader.load()</tt>. The result only
+ * depends on the registered providers and on the consumer restrictions, so
+ * the whole cache is invalidated whenever either of these change.
+ * <p>
+ * Every invalidation starts a new generation. A classloader computed while an
+ * invalidation took place is tagged with the old generation and is never
+ * returned.
+ */
+class ContextClassLoaderCache {
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @return the current generation, to be passed to {@link #put} with a
+     *         classloader computed after calling this method.
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return the cached entry, or <tt>null</tt> if there is none. The
+     *         classloader of the entry may be <tt>null</tt>, meaning that no
+     *         classloader was found.
+     */
+    Entry get(Bundle consumer, String className, String methodName, String requestedClass) {
+        Entry entry = entries.get(new Key(consumer, className, methodName, requestedClass));
+        if (entry == null || entry.generation != generation.get())
+            return null;
+        return entry;
+    }
+
+    void put(Bundle consumer, String className, String methodName, String requestedClass,
+            long computedGeneration, ClassLoader classLoader) {
+        if (computedGeneration == generation.get()) {
+            entries.put(new Key(consumer, className, methodName, requestedClass),
+                new Entry(classLoader, computedGeneration));
+        }
+    }
+
+    void invalidate() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    static class Entry {
+        private final ClassLoader classLoader;
+        private final long generation;
+
+        Entry(ClassLoader classLoader, long generation) {
+            this.classLoader = classLoader;
+            this.generation = generation;
+        }
+
+        ClassLoader getClassLoader() {
+            return classLoader;
+        }
+    }
+
+    private static class Key {
+        private final Bundle consumer;
+        private final String className;
+        private final String methodName;
+        private final String requestedClass;
+        private final int hashCode;
+
+        Key(Bundle consumer, String className, String methodName, String requestedClass) {
+            this.consumer = consumer;
+            this.className = className;
+            this.methodName = methodName;
+            this.requestedClass = requestedClass;
+
+            int h = consumer.hashCode();
+            h = 31 * h + (className == null ? 0 : className.hashCode());
+            h = 31 * h + (methodName == null ? 0 : methodName.hashCode());
+            h = 31 * h + (requestedClass == null ? 0 : requestedClass.hashCode());
+            hashCode = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+
+            Key other = (Key) obj;
+            return consumer.equals(other.consumer)
+                && equal(className, other.className)
+                && equal(methodName, other.methodName)
+                && equal(requestedClass, other.requestedClass);
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
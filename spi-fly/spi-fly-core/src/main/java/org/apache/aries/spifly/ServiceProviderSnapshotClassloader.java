@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.spifly;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** A classloader that serves a snapshot of the providers of a single service
+ * type to <tt>ServiceLoader</tt>. The <tt>META-INF/services</tt> files of the
+ * provider bundles are read, and the provider classes loaded, once when the
+ * snapshot is taken. After that <tt>ServiceLoader</tt> reads a single in-memory
+ * services file and is handed the preloaded classes, without scanning the
+ * provider bundles again. Everything else is delegated to the classloader that
+ * would otherwise have been used.
+ * <p>
+ * Snapshots are cached with the context classloader they wrap, so they are
+ * discarded whenever provider bundles come or go.
+ */
+public class ServiceProviderSnapshotClassloader extends ClassLoader {
+    private static final String METAINF_SERVICES = "META-INF/services/";
+
+    private final ClassLoader delegate;
+    private final String servicesFile;
+    private final URL servicesURL;
+    private final byte[] servicesContent;
+    private final Map<String, Class<?>> providers = new HashMap<String, Class<?>>();
+
+    public ServiceProviderSnapshotClassloader(ClassLoader delegate, String serviceType,
+            List<ClassLoader> providerLoaders) throws IOException {
+        this.delegate = delegate;
+        servicesFile = METAINF_SERVICES + serviceType;
+
+        Set<String> names = new LinkedHashSet<String>();
+        for (ClassLoader loader : providerLoaders) {
+            for (URL url : Collections.list(loader.getResources(servicesFile))) {
+                for (String name : readProviderNames(url)) {
+                    if (names.add(name)) {
+                        try {
+                            providers.put(name, Class.forName(name, false, loader));
+                        } catch (ClassNotFoundException e) {
+                            // Leave it to ServiceLoader to report, via the delegate
+                        } catch (LinkageError e) {
+                            // Leave it to ServiceLoader to report, via the delegate
+                        }
+                    }
+                }
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            sb.append(name).append('\n');
+        }
+        servicesContent = sb.toString().getBytes("UTF-8");
+        servicesURL = new URL("spifly", "", -1, "/" + servicesFile, new SnapshotURLStreamHandler());
+    }
+
+    private static Set<String> readProviderNames(URL url) throws IOException {
+        Set<String> names = new LinkedHashSet<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                if (comment >= 0)
+                    line = line.substring(0, comment);
+                line = line.trim();
+                if (line.length() > 0)
+                    names.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return names;
+    }
+
+    @Override
+    public URL getResource(String name) {
+        if (servicesFile.equals(name))
+            return servicesURL;
+        return delegate.getResource(name);
+    }
+
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        if (servicesFile.equals(name))
+            return new ByteArrayInputStream(servicesContent);
+        return delegate.getResourceAsStream(name);
+    }
+
+    @Override
+    public Enumeration<URL> getResources(String name) throws IOException {
+        if (servicesFile.equals(name))
+            return Collections.enumeration(Collections.singletonList(servicesURL));
+        return delegate.getResources(name);
+    }
+
+    @Override
+    public Class<?> loadClass(String name) throws ClassNotFoundException {
+        Class<?> cls = providers.get(name);
+        if (cls != null)
+            return cls;
+        return delegate.loadClass(name);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        return loadClass(name);
+    }
+
+    private class SnapshotURLStreamHandler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(URL u) throws IOException {
+            return new URLConnection(u) {
+                @Override
+                public void connect() {
+                    connected = true;
+                }
+
+                @Override
+                public InputStream getInputStream() {
+                    return new ByteArrayInputStream(servicesContent);
+                }
+            };
+        }
+    }
+}
@@ -165,7 +165,6 @@ public class Util {
 
         final ClassLoader cl = findContextClassloader(br.getBundle(), cls, method, clsArg);
         if (cl != null) {
-            BaseActivator.activator.log(Level.INFO, "Temporarily setting Thread Context Classloader to: " + cl);
             AccessController.doPrivileged(new PrivilegedAction<Void>() {
                 @Override
                 public Void run() {
@@ -173,8 +172,6 @@ public class Util {
                     return null;
                 }
             });
-        } else {
-            BaseActivator.activator.log(Level.WARNING, "No classloader found for " + cls + ":" + method + "(" + clsArg + ")");
         }
     }
 
@@ -182,12 +179,11 @@ public class Util {
         BaseActivator activator = BaseActivator.activator;
 
         String requestedClass;
-        Map<Pair<Integer, String>, String> args;
-        if (ServiceLoader.class.getName().equals(className) && "load".equals(methodName)) {
+        boolean serviceLoaderLoad = ServiceLoader.class.getName().equals(className) && "load".equals(methodName);
+        if (serviceLoaderLoad) {
             requestedClass = clsArg.getName();
-            args = new HashMap<Pair<Integer,String>, String>();
-            args.put(new Pair<Integer, String>(0, Class.class.getName()), requestedClass);
 
+            // The permission check depends on the caller, so it is never cached
             SecurityManager sm = System.getSecurityManager();
             if (sm != null) {
                 try {
@@ -200,6 +196,33 @@ public class Util {
             }
         } else {
             requestedClass = className;
+        }
+
+        ContextClassLoaderCache cache = activator.getContextClassLoaderCache();
+        ContextClassLoaderCache.Entry entry = cache.get(consumerBundle, className, methodName, requestedClass);
+        if (entry != null) {
+            return entry.getClassLoader();
+        }
+
+        long generation = cache.getGeneration();
+        ClassLoader cl = computeContextClassloader(activator, consumerBundle, className, methodName, requestedClass, serviceLoaderLoad);
+        cache.put(consumerBundle, className, methodName, requestedClass, generation, cl);
+
+        if (cl != null) {
+            activator.log(Level.FINE, "Thread Context Classloader for " + className + ":" + methodName + "(" + requestedClass + ") in " + consumerBundle + " is: " + cl);
+        } else {
+            activator.log(Level.WARNING, "No classloader found for " + className + ":" + methodName + "(" + requestedClass + ") in " + consumerBundle);
+        }
+        return cl;
+    }
+
+    private static ClassLoader computeContextClassloader(BaseActivator activator, Bundle consumerBundle, String className,
+            String methodName, String requestedClass, boolean serviceLoaderLoad) {
+        Map<Pair<Integer, String>, String> args;
+        if (serviceLoaderLoad) {
+            args = new HashMap<Pair<Integer,String>, String>();
+            args.put(new Pair<Integer, String>(0, Class.class.getName()), requestedClass);
+        } else {
             args = null; // only supported on ServiceLoader.load() at the moment
         }
 
@@ -216,19 +239,37 @@ public class Util {
             }
         }
 
-        switch (bundles.size()) {
-        case 0:
+        if (bundles.isEmpty()) {
             return null;
-        case 1:
-            Bundle bundle = bundles.iterator().next();
-            return getBundleClassLoader(bundle);
-        default:
-            List<ClassLoader> loaders = new ArrayList<ClassLoader>();
-            for (Bundle b : bundles) {
-                loaders.add(getBundleClassLoader(b));
-            }
-            return new MultiDelegationClassloader(loaders.toArray(new ClassLoader[loaders.size()]));
         }
+
+        List<ClassLoader> loaders = new ArrayList<ClassLoader>();
+        for (Bundle b : bundles) {
+            loaders.add(getBundleClassLoader(b));
+        }
+
+        ClassLoader cl = loaders.size() == 1 ? loaders.get(0) :
+            new MultiDelegationClassloader(loaders.toArray(new ClassLoader[loaders.size()]));
+
+        if (serviceLoaderLoad && activator.isServiceLoaderSnapshotsEnabled()) {
+            cl = getServiceProviderSnapshot(activator, cl, requestedClass, loaders);
+        }
+        return cl;
+    }
+
+    private static ClassLoader getServiceProviderSnapshot(final BaseActivator activator, final ClassLoader cl,
+            final String serviceType, final List<ClassLoader> loaders) {
+        return AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
+            @Override
+            public ClassLoader run() {
+                try {
+                    return new ServiceProviderSnapshotClassloader(cl, serviceType, loaders);
+                } catch (IOException e) {
+                    activator.log(Level.WARNING, "Unable to take a snapshot of the providers of " + serviceType, e);
+                    return cl;
+                }
+            }
+        });
     }
 
     private static ClassLoader getBundleClassLoader(final Bundle b) {
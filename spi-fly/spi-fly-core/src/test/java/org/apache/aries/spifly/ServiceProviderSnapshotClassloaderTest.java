@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.spifly;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import org.apache.aries.mytest.MySPI;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ServiceProviderSnapshotClassloaderTest {
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("spifly", "snapshot");
+        dir.delete();
+        File services = new File(dir, "META-INF/services");
+        services.mkdirs();
+        FileOutputStream fos = new FileOutputStream(new File(services, MySPI.class.getName()));
+        try {
+            fos.write(("# A comment\n" + MySPIImpl.class.getName() + " # trailing comment\n\n").getBytes("UTF-8"));
+        } finally {
+            fos.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        new File(dir, "META-INF/services/" + MySPI.class.getName()).delete();
+        new File(dir, "META-INF/services").delete();
+        new File(dir, "META-INF").delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testProvidersAreServedFromTheSnapshot() throws Exception {
+        CountingClassLoader provider = new CountingClassLoader(dir.toURI().toURL());
+        ServiceProviderSnapshotClassloader snapshot = new ServiceProviderSnapshotClassloader(
+            provider, MySPI.class.getName(), Collections.<ClassLoader>singletonList(provider));
+        assertEquals(1, provider.resourceLookups);
+
+        for (int i = 0; i < 3; i++) {
+            List<MySPI> found = new ArrayList<MySPI>();
+            for (MySPI spi : ServiceLoader.load(MySPI.class, snapshot)) {
+                found.add(spi);
+            }
+            assertEquals(1, found.size());
+            assertEquals("axz", found.get(0).someMethod("x"));
+        }
+        // The provider classloader is not scanned again
+        assertEquals(1, provider.resourceLookups);
+        assertSame(MySPIImpl.class, snapshot.loadClass(MySPIImpl.class.getName()));
+    }
+
+    @Test
+    public void testOtherResourcesAreDelegated() throws Exception {
+        CountingClassLoader provider = new CountingClassLoader(dir.toURI().toURL());
+        ServiceProviderSnapshotClassloader snapshot = new ServiceProviderSnapshotClassloader(
+            provider, MySPI.class.getName(), Collections.<ClassLoader>singletonList(provider));
+
+        assertEquals(provider.getResource("META-INF/services/"), snapshot.getResource("META-INF/services/"));
+        assertEquals(Collections.list(provider.getResources("META-INF/MANIFEST.MF")),
+            Collections.list(snapshot.getResources("META-INF/MANIFEST.MF")));
+        assertSame(String.class, snapshot.loadClass(String.class.getName()));
+    }
+
+    private static class CountingClassLoader extends URLClassLoader {
+        int resourceLookups;
+
+        CountingClassLoader(URL url) {
+            super(new URL[] {url}, CountingClassLoader.class.getClassLoader());
+        }
+
+        @Override
+        public Enumeration<URL> getResources(String name) throws IOException {
+            resourceLookups++;
+            return super.getResources(name);
+        }
+    }
+}
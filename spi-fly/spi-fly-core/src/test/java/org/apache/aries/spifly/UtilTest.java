@@ -104,6 +104,56 @@ public class UtilTest {
         assertSame(providerCL, Thread.currentThread().getContextClassLoader());
     }
 
+    @Test
+    public void testContextClassLoaderIsCachedUntilProvidersChange() throws Exception {
+        BaseActivator activator = new BaseActivator() {
+            public void start(BundleContext context) throws Exception {
+            }
+        };
+        BaseActivator.activator = activator;
+
+        URL url = getClass().getResource("/embedded3.jar");
+        assertNotNull("precondition", url);
+
+        Bundle providerBundle = EasyMock.createMock(Bundle.class);
+        final ClassLoader providerCL = new TestBundleClassLoader(new URL [] {url}, getClass().getClassLoader(), providerBundle);
+        // Only expected once, the second lookup must come from the cache
+        EasyMock.expect(providerBundle.getBundleContext()).andThrow(new IllegalStateException("Disable getBundleClassLoaderViaAdapt"));
+        EasyMock.expect(providerBundle.getBundleId()).andReturn(42L).anyTimes();
+        EasyMock.expect(providerBundle.getEntryPaths((String) EasyMock.anyObject())).andReturn(null).anyTimes();
+        Dictionary<String, String> providerHeaders = new Hashtable<String, String>();
+        providerHeaders.put(Constants.BUNDLE_CLASSPATH, ".,embedded3.jar");
+        EasyMock.expect(providerBundle.getHeaders()).andReturn(providerHeaders).anyTimes();
+        EasyMock.expect(providerBundle.getResource("embedded3.jar")).andReturn(url).anyTimes();
+        providerBundle.loadClass((String) EasyMock.anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Class<?>>() {
+            @Override
+            public Class<?> answer() throws Throwable {
+                return providerCL.loadClass((String) EasyMock.getCurrentArguments()[0]);
+            }
+        }).anyTimes();
+        EasyMock.replay(providerBundle);
+        activator.registerProviderBundle(MySPI.class.getName(), providerBundle, new HashMap<String, Object>());
+
+        Bundle clientBundle = EasyMock.createMock(Bundle.class);
+        EasyMock.replay(clientBundle);
+        ClassLoader clientCL = new TestBundleClassLoader(new URL [] {}, getClass().getClassLoader(), clientBundle);
+
+        Thread.currentThread().setContextClassLoader(null);
+        Util.fixContextClassloader(ServiceLoader.class.getName(), "load", MySPI.class, clientCL);
+        assertSame(providerCL, Thread.currentThread().getContextClassLoader());
+
+        Thread.currentThread().setContextClassLoader(null);
+        Util.fixContextClassloader(ServiceLoader.class.getName(), "load", MySPI.class, clientCL);
+        assertSame(providerCL, Thread.currentThread().getContextClassLoader());
+
+        activator.unregisterProviderBundle(providerBundle);
+        Thread.currentThread().setContextClassLoader(null);
+        Util.fixContextClassloader(ServiceLoader.class.getName(), "load", MySPI.class, clientCL);
+        assertSame("The provider has gone away, so the TCCL should not be set",
+                null, Thread.currentThread().getContextClassLoader());
+    }
+
     @Test
     public void testNotInitialized() throws Exception {
         BaseActivator.activator = null;
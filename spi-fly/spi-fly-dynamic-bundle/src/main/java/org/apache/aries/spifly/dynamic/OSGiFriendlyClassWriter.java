@@ -19,10 +19,10 @@
 package org.apache.aries.spifly.dynamic;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.apache.aries.spifly.dynamic.ClassHierarchyIndex.ClassInfo;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 /**
@@ -35,19 +35,19 @@ import org.objectweb.asm.ClassWriter;
 public final class OSGiFriendlyClassWriter extends ClassWriter {
 
   private static final String OBJECT_INTERNAL_NAME = "java/lang/Object";
-  private final ClassLoader loader;
+  private final ClassHierarchyIndex index;
 
 
   public OSGiFriendlyClassWriter(ClassReader arg0, int arg1, ClassLoader loader) {
     super(arg0, arg1);
 
-    this.loader = loader;
+    this.index = ClassHierarchyIndex.forLoader(loader);
   }
 
   public OSGiFriendlyClassWriter(int arg0, ClassLoader loader) {
     super(arg0);
 
-    this.loader = loader;
+    this.index = ClassHierarchyIndex.forLoader(loader);
   }
 
   /**
@@ -56,6 +56,9 @@ public final class OSGiFriendlyClassWriter extends ClassWriter {
    * classloader, though in fact the common parent may only be loadable by another
    * bundle from which an intermediate class is loaded
    *
+   * The supertypes are looked up in the {@link ClassHierarchyIndex} for the loader
+   * so that each class file is read at most once.
+   *
    * precondition: arg0 and arg1 are not equal. (checked before this method is called)
    */
   @Override
@@ -71,15 +74,14 @@ public final class OSGiFriendlyClassWriter extends ClassWriter {
     try {
       boolean bRunning = true;
       boolean aRunning = true;
-      InputStream is;
+      ClassInfo info;
       String arg00 = arg0;
       String arg11 = arg1;
       while(aRunning || bRunning ) {
         if(aRunning) {
-          is = loader.getResourceAsStream(arg00 + ".class");
-          if(is != null) {
-            ClassReader cr = new ClassReader(is);
-            arg00 = cr.getSuperName();
+          info = index.getClassInfo(arg00);
+          if(info != null) {
+            arg00 = info.getSuperName();
             if(arg00 == null) {
               if (names.size() == 2) {
                 return OBJECT_INTERNAL_NAME; //arg0 is an interface
@@ -94,10 +96,9 @@ public final class OSGiFriendlyClassWriter extends ClassWriter {
           }
         }
         if(bRunning) {
-          is = loader.getResourceAsStream(arg11 + ".class");
-          if(is != null) {
-            ClassReader cr = new ClassReader(is);
-            arg11 = cr.getSuperName();
+          info = index.getClassInfo(arg11);
+          if(info != null) {
+            arg11 = info.getSuperName();
             if(arg11 == null) {
               if (names.size() == 3) {
                 return OBJECT_INTERNAL_NAME;  //arg1 is an interface
@@ -195,74 +195,112 @@ public class CapabilitySet
         if (sf.getOperation() == SimpleFilter.MATCH_ALL)
         {
             matches.addAll(caps);
+            return matches;
         }
-        else if (sf.getOperation() == SimpleFilter.AND)
+
+        // Only evaluate the filter against the capabilities selected by the
+        // indices, or all of them if no index applies.
+        Collection<Capability> candidates = select(sf);
+        if (candidates == null)
         {
-            // Evaluate each subfilter against the remaining capabilities.
-            // For AND we calculate the intersection of each subfilter.
-            // We can short-circuit the AND operation if there are no
-            // remaining capabilities.
-            final List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
-            for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
+            candidates = caps;
+        }
+        FilterMatcher matcher = sf.getMatcher();
+        for (Capability cap : candidates)
+        {
+            if (matcher.matches(cap))
             {
-                matches = match(caps, sfs.get(i));
-                caps = matches;
+                matches.add(cap);
             }
         }
-        else if (sf.getOperation() == SimpleFilter.OR)
+        return matches;
+    }
+
+    /**
+     * Uses the indices to select the candidates for an EQ filter on an indexed
+     * attribute, or for an AND filter with one or more such subfilters. In the
+     * latter case the candidates are those in every selected index entry.
+     *
+     * @return The candidates, or null if no index applies.
+     */
+    private Collection<Capability> select(SimpleFilter sf)
+    {
+        if (sf.getOperation() == SimpleFilter.EQ)
+        {
+            return lookup(sf);
+        }
+        if (sf.getOperation() != SimpleFilter.AND)
         {
-            // Evaluate each subfilter against the remaining capabilities.
-            // For OR we calculate the union of each subfilter.
-            List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
-            for (int i = 0; i < sfs.size(); i++)
+            return null;
+        }
+        List<Set<Capability>> selected = null;
+        for (SimpleFilter sf2 : (List<SimpleFilter>) sf.getValue())
+        {
+            if (sf2.getOperation() != SimpleFilter.EQ)
+            {
+                continue;
+            }
+            Set<Capability> caps = lookup(sf2);
+            if (caps == null)
+            {
+                continue;
+            }
+            if (caps.isEmpty())
             {
-                matches.addAll(match(caps, sfs.get(i)));
+                return caps;
             }
+            if (selected == null)
+            {
+                selected = new ArrayList<Set<Capability>>(2);
+            }
+            selected.add(caps);
         }
-        else if (sf.getOperation() == SimpleFilter.NOT)
+        if (selected == null)
         {
-            // Evaluate each subfilter against the remaining capabilities.
-            // For OR we calculate the union of each subfilter.
-            matches.addAll(caps);
-            List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
-            for (int i = 0; i < sfs.size(); i++)
+            return null;
+        }
+        if (selected.size() == 1)
+        {
+            return selected.get(0);
+        }
+        // Start with the smallest index entry and probe the others.
+        Set<Capability> smallest = selected.get(0);
+        for (Set<Capability> caps : selected)
+        {
+            if (caps.size() < smallest.size())
             {
-                matches.removeAll(match(caps, sfs.get(i)));
+                smallest = caps;
             }
         }
-        else
+        List<Capability> result = new ArrayList<Capability>(smallest.size());
+        for (Capability cap : smallest)
         {
-            Map<Object, Set<Capability>> index = m_indices.get(sf.getName());
-            if ((sf.getOperation() == SimpleFilter.EQ) && (index != null))
+            boolean inAll = true;
+            for (int i = 0; inAll && (i < selected.size()); i++)
             {
-                Set<Capability> existingCaps = index.get(sf.getValue());
-                if (existingCaps != null)
-                {
-                    matches.addAll(existingCaps);
-                    if (caps != m_capSet)
-                    {
-                        matches.retainAll(caps);
-                    }
-                }
+                inAll = selected.get(i).contains(cap);
             }
-            else
+            if (inAll)
             {
-                for (Iterator<Capability> it = caps.iterator(); it.hasNext(); )
-                {
-                    Capability cap = it.next();
-                    Object lhs = cap.getAttributes().get(sf.getName());
-                    if (lhs != null)
-                    {
-                        if (compare(lhs, sf.getValue(), sf.getOperation()))
-                        {
-                            matches.add(cap);
-                        }
-                    }
-                }
+                result.add(cap);
             }
         }
+        return result;
+    }
 
-        return matches;
+    /**
+     * @return The indexed capabilities whose attribute equals the value of the
+     *         EQ filter, or null if the attribute is not indexed.
+     */
+    private Set<Capability> lookup(SimpleFilter sf)
+    {
+        Map<Object, Set<Capability>> index = m_indices.get(sf.getName());
+        if (index == null)
+        {
+            return null;
+        }
+        Set<Capability> caps = index.get(sf.getValue());
+        return (caps == null) ? Collections.<Capability>emptySet() : caps;
     }
 
 //    public static boolean matches(Capability cap, SimpleFilter sf)
@@ -384,201 +422,7 @@ public class CapabilitySet
     private static final Class<?>[] STRING_CLASS = new Class[] { String.class };
     private static final String VALUE_OF_METHOD_NAME = "valueOf";
 
-    private static boolean compare(Object lhs, Object rhsUnknown, int op)
-    {
-        if (lhs == null)
-        {
-            return false;
-        }
-
-        // If this is a PRESENT operation, then just return true immediately
-        // since we wouldn't be here if the attribute wasn't present.
-        if (op == SimpleFilter.PRESENT)
-        {
-            return true;
-        }
-
-        //Need a special case here when lhs is a Version and rhs is a VersionRange
-        //Version is comparable so we need to check this first
-        if(lhs instanceof Version && op == SimpleFilter.EQ)
-        {
-            Object rhs = null;
-            try
-            {
-                rhs = coerceType(lhs, (String) rhsUnknown);
-            }
-            catch (Exception ex)
-            {
-                //Do nothing will check later if rhs is null
-            }
-
-            if(rhs != null && rhs instanceof VersionRange)
-            {
-                return ((VersionRange)rhs).includes((Version)lhs);
-            }
-        }
-
-        // If the type is comparable, then we can just return the
-        // result immediately.
-        if (lhs instanceof Comparable)
-        {
-            // Spec says SUBSTRING is false for all types other than string.
-            if ((op == SimpleFilter.SUBSTRING) && !(lhs instanceof String))
-            {
-                return false;
-            }
-
-            Object rhs;
-            if (op == SimpleFilter.SUBSTRING)
-            {
-                rhs = rhsUnknown;
-            }
-            else
-            {
-                try
-                {
-                    rhs = coerceType(lhs, (String) rhsUnknown);
-                }
-                catch (Exception ex)
-                {
-                    return false;
-                }
-            }
-
-            switch (op)
-            {
-                case SimpleFilter.EQ :
-                    try
-                    {
-                        return (((Comparable) lhs).compareTo(rhs) == 0);
-                    }
-                    catch (Exception ex)
-                    {
-                        return false;
-                    }
-                case SimpleFilter.GTE :
-                    try
-                    {
-                        return (((Comparable) lhs).compareTo(rhs) >= 0);
-                    }
-                    catch (Exception ex)
-                    {
-                        return false;
-                    }
-                case SimpleFilter.LTE :
-                    try
-                    {
-                        return (((Comparable) lhs).compareTo(rhs) <= 0);
-                    }
-                    catch (Exception ex)
-                    {
-                        return false;
-                    }
-                case SimpleFilter.APPROX :
-                    return compareApproximate(lhs, rhs);
-                case SimpleFilter.SUBSTRING :
-                    return SimpleFilter.compareSubstring((List<String>) rhs, (String) lhs);
-                default:
-                    throw new RuntimeException(
-                        "Unknown comparison operator: " + op);
-            }
-        }
-        // Booleans do not implement comparable, so special case them.
-        else if (lhs instanceof Boolean)
-        {
-            Object rhs;
-            try
-            {
-                rhs = coerceType(lhs, (String) rhsUnknown);
-            }
-            catch (Exception ex)
-            {
-                return false;
-            }
-
-            switch (op)
-            {
-                case SimpleFilter.EQ :
-                case SimpleFilter.GTE :
-                case SimpleFilter.LTE :
-                case SimpleFilter.APPROX :
-                    return (lhs.equals(rhs));
-                default:
-                    throw new RuntimeException(
-                        "Unknown comparison operator: " + op);
-            }
-        }
-
-        // If the LHS is not a comparable or boolean, check if it is an
-        // array. If so, convert it to a list so we can treat it as a
-        // collection.
-        if (lhs.getClass().isArray())
-        {
-            lhs = convertArrayToList(lhs);
-        }
-
-        // If LHS is a collection, then call compare() on each element
-        // of the collection until a match is found.
-        if (lhs instanceof Collection)
-        {
-            for (Iterator iter = ((Collection) lhs).iterator(); iter.hasNext(); )
-            {
-                if (compare(iter.next(), rhsUnknown, op))
-                {
-                    return true;
-                }
-            }
-
-            return false;
-        }
-
-        // Spec says SUBSTRING is false for all types other than string.
-        if ((op == SimpleFilter.SUBSTRING) && !(lhs instanceof String))
-        {
-            return false;
-        }
-
-        // Since we cannot identify the LHS type, then we can only perform
-        // equality comparison.
-        try
-        {
-            return lhs.equals(coerceType(lhs, (String) rhsUnknown));
-        }
-        catch (Exception ex)
-        {
-            return false;
-        }
-    }
-
-    private static boolean compareApproximate(Object lhs, Object rhs)
-    {
-        if (rhs instanceof String)
-        {
-            return removeWhitespace((String) lhs)
-                .equalsIgnoreCase(removeWhitespace((String) rhs));
-        }
-        else if (rhs instanceof Character)
-        {
-            return Character.toLowerCase(((Character) lhs))
-                == Character.toLowerCase(((Character) rhs));
-        }
-        return lhs.equals(rhs);
-    }
-
-    private static String removeWhitespace(String s)
-    {
-        StringBuffer sb = new StringBuffer(s.length());
-        for (int i = 0; i < s.length(); i++)
-        {
-            if (!Character.isWhitespace(s.charAt(i)))
-            {
-                sb.append(s.charAt(i));
-            }
-        }
-        return sb.toString();
-    }
-
-    private static Object coerceType(Object lhs, String rhsString) throws Exception
+    static Object coerceType(Object lhs, String rhsString) throws Exception
     {
         // If the LHS expects a string, then we can just return
         // the RHS since it is a string.
@@ -655,7 +499,7 @@ public class CapabilitySet
      * @param array An array of primitive types.
      * @return An corresponding array using pritive wrapper objects.
     **/
-    private static List convertArrayToList(Object array)
+    static List convertArrayToList(Object array)
     {
         int len = Array.getLength(array);
         List list = new ArrayList(len);
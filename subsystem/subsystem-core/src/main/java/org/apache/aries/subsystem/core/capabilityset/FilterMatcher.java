@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.subsystem.core.capabilityset;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
+import org.osgi.resource.Capability;
+
+/**
+ * A {@link SimpleFilter} compiled into a tree that is evaluated against one
+ * capability at a time. Each comparison converts the filter value to the type
+ * of the attribute it is compared with only once per attribute type, rather
+ * than once per capability.
+ */
+abstract class FilterMatcher
+{
+    private static final FilterMatcher MATCH_ALL = new FilterMatcher()
+    {
+        @Override
+        boolean matches(Capability cap)
+        {
+            return true;
+        }
+    };
+
+    static FilterMatcher compile(SimpleFilter sf)
+    {
+        switch (sf.getOperation())
+        {
+            case SimpleFilter.MATCH_ALL:
+                return MATCH_ALL;
+            case SimpleFilter.AND:
+                return new And(compile((List<SimpleFilter>) sf.getValue()));
+            case SimpleFilter.OR:
+                return new Or(compile((List<SimpleFilter>) sf.getValue()));
+            case SimpleFilter.NOT:
+                // Like the set based evaluation, a capability matches if it
+                // matches none of the subfilters.
+                return new Not(new Or(compile((List<SimpleFilter>) sf.getValue())));
+            default:
+                return new Compare(sf.getName(), sf.getValue(), sf.getOperation());
+        }
+    }
+
+    private static FilterMatcher[] compile(List<SimpleFilter> sfs)
+    {
+        FilterMatcher[] result = new FilterMatcher[sfs.size()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = sfs.get(i).getMatcher();
+        }
+        return result;
+    }
+
+    abstract boolean matches(Capability cap);
+
+    private static final class And extends FilterMatcher
+    {
+        private final FilterMatcher[] m_matchers;
+
+        And(FilterMatcher[] matchers)
+        {
+            m_matchers = matchers;
+        }
+
+        @Override
+        boolean matches(Capability cap)
+        {
+            for (FilterMatcher matcher : m_matchers)
+            {
+                if (!matcher.matches(cap))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Or extends FilterMatcher
+    {
+        private final FilterMatcher[] m_matchers;
+
+        Or(FilterMatcher[] matchers)
+        {
+            m_matchers = matchers;
+        }
+
+        @Override
+        boolean matches(Capability cap)
+        {
+            for (FilterMatcher matcher : m_matchers)
+            {
+                if (matcher.matches(cap))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Not extends FilterMatcher
+    {
+        private final FilterMatcher m_matcher;
+
+        Not(FilterMatcher matcher)
+        {
+            m_matcher = matcher;
+        }
+
+        @Override
+        boolean matches(Capability cap)
+        {
+            return !m_matcher.matches(cap);
+        }
+    }
+
+    /**
+     * Compares a single attribute. This follows the same rules as the
+     * reflective comparison the Felix resolver uses.
+     */
+    private static final class Compare extends FilterMatcher
+    {
+        /** Marks a filter value that cannot be converted to a type */
+        private static final Object NO_VALUE = new Object();
+
+        private final String m_name;
+        private final Object m_value;
+        private final int m_op;
+        /** The filter value converted to each attribute type seen so far */
+        private final ConcurrentMap<Class<?>, Object> m_coerced =
+            new ConcurrentHashMap<Class<?>, Object>();
+
+        Compare(String name, Object value, int op)
+        {
+            m_name = name;
+            m_value = value;
+            m_op = op;
+        }
+
+        @Override
+        boolean matches(Capability cap)
+        {
+            Object lhs = cap.getAttributes().get(m_name);
+            return (lhs != null) && compare(lhs);
+        }
+
+        private boolean compare(Object lhs)
+        {
+            // If this is a PRESENT operation, then just return true immediately
+            // since we wouldn't be here if the attribute wasn't present.
+            if (m_op == SimpleFilter.PRESENT)
+            {
+                return true;
+            }
+
+            // Strings need no conversion at all.
+            if (lhs instanceof String)
+            {
+                return compareString((String) lhs);
+            }
+
+            if (lhs instanceof Version)
+            {
+                return compareVersion((Version) lhs);
+            }
+
+            if (lhs instanceof Comparable)
+            {
+                // Spec says SUBSTRING is false for all types other than string.
+                if (m_op == SimpleFilter.SUBSTRING)
+                {
+                    return false;
+                }
+                Object rhs = coerce(lhs);
+                if (rhs == NO_VALUE)
+                {
+                    return false;
+                }
+                if (m_op == SimpleFilter.APPROX)
+                {
+                    return compareApproximate(lhs, rhs);
+                }
+                try
+                {
+                    return compareTo(((Comparable) lhs).compareTo(rhs));
+                }
+                catch (Exception ex)
+                {
+                    return false;
+                }
+            }
+
+            // Booleans do not implement comparable, so special case them.
+            if (lhs instanceof Boolean)
+            {
+                Object rhs = coerce(lhs);
+                if (rhs == NO_VALUE)
+                {
+                    return false;
+                }
+                switch (m_op)
+                {
+                    case SimpleFilter.EQ :
+                    case SimpleFilter.GTE :
+                    case SimpleFilter.LTE :
+                    case SimpleFilter.APPROX :
+                        return lhs.equals(rhs);
+                    default:
+                        throw new RuntimeException(
+                            "Unknown comparison operator: " + m_op);
+                }
+            }
+
+            // If the LHS is not a comparable or boolean, check if it is an
+            // array. If so, convert it to a list so we can treat it as a
+            // collection.
+            if (lhs.getClass().isArray())
+            {
+                lhs = CapabilitySet.convertArrayToList(lhs);
+            }
+
+            // If LHS is a collection, then compare each element of the
+            // collection until a match is found.
+            if (lhs instanceof Collection)
+            {
+                for (Iterator<?> iter = ((Collection<?>) lhs).iterator(); iter.hasNext(); )
+                {
+                    Object element = iter.next();
+                    if ((element != null) && compare(element))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            // Spec says SUBSTRING is false for all types other than string.
+            if (m_op == SimpleFilter.SUBSTRING)
+            {
+                return false;
+            }
+
+            // Since we cannot identify the LHS type, then we can only perform
+            // equality comparison.
+            Object rhs = coerce(lhs);
+            return (rhs != NO_VALUE) && lhs.equals(rhs);
+        }
+
+        private boolean compareString(String lhs)
+        {
+            if (m_op == SimpleFilter.SUBSTRING)
+            {
+                return SimpleFilter.compareSubstring((List<String>) m_value, lhs);
+            }
+            if (!(m_value instanceof String))
+            {
+                return false;
+            }
+            if (m_op == SimpleFilter.APPROX)
+            {
+                return compareApproximate(lhs, m_value);
+            }
+            return compareTo(lhs.compareTo((String) m_value));
+        }
+
+        private boolean compareVersion(Version lhs)
+        {
+            // Spec says SUBSTRING is false for all types other than string.
+            if (m_op == SimpleFilter.SUBSTRING)
+            {
+                return false;
+            }
+            Object rhs = coerce(lhs);
+            if (rhs instanceof VersionRange)
+            {
+                // Only equality is defined against a range.
+                return (m_op == SimpleFilter.EQ) && ((VersionRange) rhs).includes(lhs);
+            }
+            if (!(rhs instanceof Version))
+            {
+                return false;
+            }
+            if (m_op == SimpleFilter.APPROX)
+            {
+                return lhs.equals(rhs);
+            }
+            return compareTo(lhs.compareTo((Version) rhs));
+        }
+
+        private Object coerce(Object lhs)
+        {
+            Class<?> type = lhs.getClass();
+            Object rhs = m_coerced.get(type);
+            if (rhs == null)
+            {
+                try
+                {
+                    rhs = CapabilitySet.coerceType(lhs, (String) m_value);
+                }
+                catch (Exception ex)
+                {
+                    rhs = null;
+                }
+                if (rhs == null)
+                {
+                    rhs = NO_VALUE;
+                }
+                m_coerced.putIfAbsent(type, rhs);
+            }
+            return rhs;
+        }
+
+        /**
+         * Applies the EQ, GTE or LTE operator to the result of comparing the
+         * attribute with the filter value.
+         */
+        private boolean compareTo(int result)
+        {
+            switch (m_op)
+            {
+                case SimpleFilter.EQ :
+                    return result == 0;
+                case SimpleFilter.GTE :
+                    return result >= 0;
+                case SimpleFilter.LTE :
+                    return result <= 0;
+                default:
+                    throw new RuntimeException(
+                        "Unknown comparison operator: " + m_op);
+            }
+        }
+    }
+
+    static boolean compareApproximate(Object lhs, Object rhs)
+    {
+        if (rhs instanceof String)
+        {
+            return removeWhitespace((String) lhs)
+                .equalsIgnoreCase(removeWhitespace((String) rhs));
+        }
+        else if (rhs instanceof Character)
+        {
+            return Character.toLowerCase(((Character) lhs))
+                == Character.toLowerCase(((Character) rhs));
+        }
+        return lhs.equals(rhs);
+    }
+
+    private static String removeWhitespace(String s)
+    {
+        StringBuffer sb = new StringBuffer(s.length());
+        for (int i = 0; i < s.length(); i++)
+        {
+            if (!Character.isWhitespace(s.charAt(i)))
+            {
+                sb.append(s.charAt(i));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -47,6 +47,7 @@ public class SimpleFilter
     private final String m_name;
     private final Object m_value;
     private final int m_op;
+    private volatile FilterMatcher m_matcher;
 
     public SimpleFilter(String attr, Object value, int op)
     {
@@ -55,6 +56,21 @@ public class SimpleFilter
         m_op = op;
     }
 
+    /**
+     * Returns this filter compiled for evaluation against capabilities. It is
+     * compiled on first use, so the filter must not be modified afterwards.
+     */
+    FilterMatcher getMatcher()
+    {
+        FilterMatcher matcher = m_matcher;
+        if (matcher == null)
+        {
+            matcher = FilterMatcher.compile(this);
+            m_matcher = matcher;
+        }
+        return matcher;
+    }
+
     public String getName()
     {
         return m_name;
@@ -18,6 +18,12 @@ import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.aries.subsystem.ContentHandler;
 import org.apache.aries.subsystem.core.content.ConfigAdminContentHandler;
@@ -47,6 +53,12 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer<Obje
     private static final Logger logger = LoggerFactory.getLogger(Activator.class);
     public static final String MODELLED_RESOURCE_MANAGER = "org.apache.aries.application.modelling.ModelledResourceManager";
     private static final String LOCK_TIMEOUT = "org.apache.aries.subsystem.lock.timeout";
+    private static final String SERVICE_MODEL_SNAPSHOT = "service-models";
+    /*
+     * The number of threads used to start the bundles of a subsystem that
+     * share a start order. By default bundles are started one at a time.
+     */
+    private static final String START_THREADS = "org.apache.aries.subsystem.start.threads";
 
     public static final String LOG_ENTRY = "Method entry: {}, args {}";
     public static final String LOG_EXIT = "Method exit: {}, returning {}";
@@ -68,11 +80,13 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer<Obje
 	private volatile SubsystemServiceRegistrar registrar;
 	private volatile Resolver resolver;
 	private volatile ServiceModeller serviceModeller;
+	private volatile ExecutorService startExecutor;
 	private volatile Subsystems subsystems;
 	private volatile SystemRepositoryManager systemRepositoryManager;
 	
 	private BundleEventHook bundleEventHook;
 	private ServiceTracker<?,?> serviceTracker;
+	private volatile ServiceTracker<Object, Object> repositoryTracker;
 
 	private final Collection<IDirectoryFinder> finders = Collections.synchronizedSet(new HashSet<IDirectoryFinder>());
 	private final Collection<ServiceRegistration<?>> registrations = new HashSet<ServiceRegistration<?>>();
@@ -105,6 +119,22 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer<Obje
 		return resolver;
 	}
 
+	/**
+	 * Returns the executor used to start bundles concurrently, or null if
+	 * bundles must be started one at a time.
+	 */
+	public ExecutorService getStartExecutor() {
+		return startExecutor;
+	}
+
+	/**
+	 * Returns the tracker for the Repository services, which may implement any
+	 * version of the Repository API.
+	 */
+	public ServiceTracker<Object, Object> getRepositoryTracker() {
+		return repositoryTracker;
+	}
+
 	public Subsystems getSubsystems() {
 		return subsystems;
 	}
@@ -125,6 +155,10 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer<Obje
 		logger.debug(LOG_ENTRY, "start", context);
 		bundleContext = context;
 		lockingStrategy = new LockingStrategy(bundleContext.getProperty(LOCK_TIMEOUT));
+		lockingStrategy.registerMBean();
+		startExecutor = createStartExecutor(bundleContext.getProperty(START_THREADS));
+		repositoryTracker = new ServiceTracker<Object, Object>(bundleContext, "org.osgi.service.repository.Repository", null);
+		repositoryTracker.open(true);
 		serviceTracker = new ServiceTracker<Object, Object>(bundleContext, generateServiceFilter(), this);
 		serviceTracker.open();
 		logger.debug(LOG_EXIT, "start");
@@ -135,6 +169,13 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer<Obje
 		logger.debug(LOG_ENTRY, "stop", context);
 		serviceTracker.close();
 		serviceTracker = null;
+		repositoryTracker.close();
+		repositoryTracker = null;
+		lockingStrategy.unregisterMBean();
+		if (startExecutor != null) {
+			startExecutor.shutdown();
+			startExecutor = null;
+		}
 		bundleContext = null;
 		logger.debug(LOG_EXIT, "stop");
 	}
@@ -153,7 +194,9 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer<Obje
         configAdminHandler = new ConfigAdminContentHandler(bundleContext);
         registrations.add(bundleContext.registerService(ContentHandler.class, configAdminHandler, handlerProps));
 		registrar = new SubsystemServiceRegistrar(bundleContext);
-		systemRepositoryManager = new SystemRepositoryManager(bundleContext.getBundle(0).getBundleContext());
+		systemRepositoryManager = new SystemRepositoryManager(
+				bundleContext.getBundle(0).getBundleContext(),
+				bundleContext.getDataFile(SERVICE_MODEL_SNAPSHOT));
         systemRepositoryManager.open();
 		BasicSubsystem root = subsystems.getRootSubsystem();
 		bundleEventHook.activate();
@@ -182,6 +225,34 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer<Obje
 		}
 	}
 
+	private static ExecutorService createStartExecutor(String threads) {
+		int value = 1;
+		if (threads != null) {
+			try {
+				value = Integer.parseInt(threads.trim());
+			}
+			catch (NumberFormatException e) {
+				logger.warn("Ignoring invalid value of " + START_THREADS + ": " + threads);
+			}
+		}
+		if (value < 2) {
+			return null;
+		}
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(value, value, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Aries Subsystem Start " + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
 	private <T> T findAlternateServiceFor(Class<T> service) {
 		Object[] services = serviceTracker.getServices();
 		if (services == null)
@@ -318,8 +389,8 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer<Obje
                         modelledResourceManager = null;
                         serviceModeller = null;
                     } else {
-                        modelledResourceManager = service;
-                        serviceModeller = new ApplicationServiceModeller(service);
+                        modelledResourceManager = manager;
+                        serviceModeller = new ApplicationServiceModeller(manager);
                     }
                 } catch (ClassNotFoundException e) {
                     // ignore
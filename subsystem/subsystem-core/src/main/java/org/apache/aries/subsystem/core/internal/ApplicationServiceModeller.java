@@ -22,6 +22,8 @@ import org.apache.aries.application.modelling.ModelledResourceManager;
 import org.apache.aries.application.modelling.ModellerException;
 import org.apache.aries.application.modelling.ParsedServiceElements;
 import org.apache.aries.util.filesystem.IDirectory;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
 import org.osgi.namespace.service.ServiceNamespace;
 import org.osgi.resource.Capability;
 import org.osgi.resource.Namespace;
@@ -32,9 +34,23 @@ import org.osgi.service.subsystem.SubsystemException;
 public class ApplicationServiceModeller implements ServiceModeller {
 
     private final ModelledResourceManager manager;
+    private final String identity;
 
     public ApplicationServiceModeller(Object manager) {
         this.manager = (ModelledResourceManager) manager;
+        // The bundle providing the manager, which changes if it is updated
+        Bundle bundle = FrameworkUtil.getBundle(manager.getClass());
+        if (bundle == null) {
+            identity = manager.getClass().getName();
+        }
+        else {
+            identity = bundle.getSymbolicName() + ':' + bundle.getVersion() + ':' + bundle.getLastModified();
+        }
+    }
+
+    @Override
+    public String getIdentity() {
+        return identity;
     }
 
     @Override
@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import org.osgi.framework.Bundle;
 import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.namespace.service.ServiceNamespace;
 import org.osgi.resource.Capability;
@@ -25,11 +26,17 @@ import org.osgi.resource.Resource;
 
 public class BundleRevisionResource implements Resource {
 	private final BundleRevision revision;
+	private final ServiceModelCache cache;
 
 	public BundleRevisionResource(BundleRevision revision) {
+		this(revision, null);
+	}
+
+	public BundleRevisionResource(BundleRevision revision, ServiceModelCache cache) {
 		if (revision == null)
 			throw new NullPointerException();
 		this.revision = revision;
+		this.cache = cache;
 	}
 
 	@Override
@@ -74,8 +81,18 @@ public class BundleRevisionResource implements Resource {
 	    if (modeller == null) {
             return null;
         }
+	    Bundle bundle = revision.getBundle();
+	    if (cache != null) {
+	        ServiceModeller.ServiceModel model = cache.get(bundle.getBundleId(), bundle.getLastModified(), modeller.getIdentity(), this);
+	        if (model != null) {
+	            return model;
+	        }
+	    }
 	    ServiceModeller.ServiceModel model = modeller.computeRequirementsAndCapabilities(this,
-                new BundleDirectory(revision.getBundle()));
+                new BundleDirectory(bundle));
+	    if (cache != null && model != null) {
+	        cache.put(bundle.getBundleId(), bundle.getLastModified(), modeller.getIdentity(), model);
+	    }
 	    return model;
 	}
 	
@@ -52,7 +52,17 @@ public class CompositeRepository implements org.apache.aries.subsystem.core.repo
 			Collection<? extends Requirement> requirements) {
 		Map<Requirement, Collection<Capability>> result = new HashMap<Requirement, Collection<Capability>>();
 		for (Requirement requirement : requirements)
-			result.put(requirement, findProviders(requirement));
+			result.put(requirement, new HashSet<Capability>());
+		// Each repository is asked about all of the requirements at once
+		for (org.apache.aries.subsystem.core.repository.Repository repository : repositories) {
+			Map<Requirement, Collection<Capability>> map = repository.findProviders(requirements);
+			for (Requirement requirement : requirements) {
+				Collection<Capability> capabilities = map.get(requirement);
+				if (capabilities == null)
+					continue;
+				result.get(requirement).addAll(capabilities);
+			}
+		}
 		return result;
 	}
 }
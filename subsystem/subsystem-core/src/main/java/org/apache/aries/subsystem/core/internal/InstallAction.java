@@ -44,9 +44,12 @@ public class InstallAction implements PrivilegedAction<BasicSubsystem> {
 		// Doesn't appear to be any need of protecting against re-entry in the
 		// case of installation.
 		BasicSubsystem result = null;
-		// Acquire the global write lock to prevent all other operations until
-		// the installation is complete. There is no need to hold any other locks.
-		Activator.getInstance().getLockingStrategy().writeLock();
+		// Acquire the write lock of the scope the installation provisions into
+		// to prevent all other operations within it until the installation is
+		// complete. Installations into disjoint scopes may proceed concurrently.
+		// There is no need to hold any other locks.
+		LockingStrategy.ScopeLock scopeLock = Activator.getInstance().getLockingStrategy().writeLock(
+				LockingStrategy.getInstallScope(parent));
 		try {
 			State state = parent.getState();
 			if (State.INSTALLING.equals(state)) {
@@ -100,8 +103,8 @@ public class InstallAction implements PrivilegedAction<BasicSubsystem> {
 			}
 		}
 		finally {
-			// Release the global write lock.
-			Activator.getInstance().getLockingStrategy().writeUnlock();
+			// Release the write lock of the scope.
+			scopeLock.unlock();
 		}
 		return result;
 	}
@@ -1,20 +1,35 @@
 package org.apache.aries.subsystem.core.internal;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.osgi.service.subsystem.Subsystem;
 import org.osgi.service.subsystem.SubsystemException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-public class LockingStrategy {
+public class LockingStrategy implements LockingStrategyMBean {
+	private static final Logger logger = LoggerFactory.getLogger(LockingStrategy.class);
+	private static final String OBJECT_NAME = "org.apache.aries.subsystem:type=Locking";
+	
 	private final int TRY_LOCK_TIME;
 	private final TimeUnit TRY_LOCK_TIME_UNIT = TimeUnit.SECONDS;
 
@@ -43,21 +58,37 @@ public class LockingStrategy {
 	private final Condition condition = lock.newCondition();
 	
 	/*
-	 * Allow only one of the following operations to be executing at the same 
-	 * time.
+	 * Each subsystem has a scope lock covering the subsystem and all of its
+	 * descendants. A read lock on a scope allows any number of the following 
+	 * operations to be executing at the same time.
+	 * 
+	 * (1) Resolve
+	 * (2) Start
+	 * (3) Stop
+	 * 
+	 * A write lock on a scope allows only one of the following operations to
+	 * be executing within the scope at the same time.
 	 * 
 	 * (1) Install
 	 * (2) Install Dependencies
 	 * (3) Uninstall
 	 * 
-	 * Allow any number of the following operations to be executing at the same
-	 * time.
-	 * 
-	 * (1) Resolve
-	 * (2) Start
-	 * (3) Stop
+	 * Locking a scope takes intention locks on all of its ancestors, so two 
+	 * operations only exclude each other when their scopes overlap. All of the
+	 * locks for a scope are acquired in the order of subsystem id. A node is
+	 * removed as soon as no thread holds or waits for it, so that the nodes of
+	 * uninstalled subsystems do not accumulate.
 	 */
-	private final ReentrantReadWriteLock rwlock = new ReentrantReadWriteLock();
+	private final ConcurrentMap<Long, ScopeNode> scopes = new ConcurrentHashMap<Long, ScopeNode>();
+	
+	private final AtomicLong acquisitions = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong waitTime = new AtomicLong();
+	private final AtomicLong maxWaitTime = new AtomicLong();
+	private final AtomicLong holdTime = new AtomicLong();
+	private final AtomicLong maxHoldTime = new AtomicLong();
+	
+	private ObjectName registeredName;
 	
 	private final ThreadLocal<Map<Subsystem.State, Set<BasicSubsystem>>> local = new ThreadLocal<Map<Subsystem.State, Set<BasicSubsystem>>>() {
 		@Override
@@ -144,33 +175,350 @@ public class LockingStrategy {
 		}
 	}
 	
-	public void readLock() {
+	/**
+	 * Acquires the read lock of the root scope, which prevents installs and
+	 * uninstalls anywhere but allows starts and stops.
+	 */
+	public ScopeLock readLock() {
+		return readLock(Activator.getInstance().getSubsystems().getRootSubsystem());
+	}
+	
+	public ScopeLock readLock(BasicSubsystem scope) {
+		return acquire(scope, S);
+	}
+	
+	/**
+	 * Acquires the write lock of the root scope, which prevents all other 
+	 * operations.
+	 */
+	public ScopeLock writeLock() {
+		return writeLock(Activator.getInstance().getSubsystems().getRootSubsystem());
+	}
+	
+	public ScopeLock writeLock(BasicSubsystem scope) {
+		return acquire(scope, X);
+	}
+	
+	/**
+	 * Returns the scope that must be write locked in order to install into the
+	 * specified parent. Dependencies are provisioned into the first subsystem
+	 * accepting them, so everything an install changes lies within it.
+	 */
+	public static BasicSubsystem getInstallScope(BasicSubsystem parent) {
+		return Utils.findFirstSubsystemAcceptingDependenciesStartingFrom(parent);
+	}
+	
+	/**
+	 * Registers the lock statistics with the platform MBean server, if there
+	 * is one.
+	 */
+	public synchronized void registerMBean() {
 		try {
-			if (!rwlock.readLock().tryLock(TRY_LOCK_TIME, TRY_LOCK_TIME_UNIT)) {
-				throw new SubsystemException("Unable to acquire the global read lock in time.");
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+				registeredName = name;
 			}
 		}
-		catch (InterruptedException e) {
-			throw new SubsystemException(e);
+		catch (Throwable t) {
+			// JMX is not required for locking to work.
+			logger.debug("Unable to register the locking MBean", t);
+		}
+	}
+	
+	public synchronized void unregisterMBean() {
+		if (registeredName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
 		}
+		catch (Throwable t) {
+			logger.debug("Unable to unregister the locking MBean", t);
+		}
+		registeredName = null;
+	}
+	
+	@Override
+	public long getAcquisitions() {
+		return acquisitions.get();
+	}
+	
+	@Override
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+	
+	@Override
+	public long getTotalWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
 	}
 	
-	public void readUnlock() {
-		rwlock.readLock().unlock();
+	@Override
+	public long getMaxWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
 	}
 	
-	public void writeLock() {
+	@Override
+	public long getTotalHoldTime() {
+		return TimeUnit.NANOSECONDS.toMillis(holdTime.get());
+	}
+	
+	@Override
+	public long getMaxHoldTime() {
+		return TimeUnit.NANOSECONDS.toMillis(maxHoldTime.get());
+	}
+	
+	@Override
+	public void resetStatistics() {
+		acquisitions.set(0);
+		timeouts.set(0);
+		waitTime.set(0);
+		maxWaitTime.set(0);
+		holdTime.set(0);
+		maxHoldTime.set(0);
+	}
+	
+	private ScopeLock acquire(BasicSubsystem scope, int mode) {
+		long start = System.nanoTime();
+		// Lock the scope itself in the requested mode and its ancestors in the
+		// corresponding intention mode. Locks held by this thread never block
+		// it, so a write lock may be downgraded by acquiring the read lock 
+		// before releasing it.
+		List<BasicSubsystem> subsystems = getAncestors(scope);
+		int[] modes = new int[subsystems.size()];
+		Collections.sort(subsystems, new Comparator<BasicSubsystem>() {
+			@Override
+			public int compare(BasicSubsystem s1, BasicSubsystem s2) {
+				long id1 = s1.getSubsystemId();
+				long id2 = s2.getSubsystemId();
+				return id1 < id2 ? -1 : id1 == id2 ? 0 : 1;
+			}
+		});
+		long deadline = start + TRY_LOCK_TIME_UNIT.toNanos(TRY_LOCK_TIME);
+		List<ScopeNode> nodes = new ArrayList<ScopeNode>(subsystems.size());
 		try {
-			if (!rwlock.writeLock().tryLock(TRY_LOCK_TIME, TRY_LOCK_TIME_UNIT)) {
-				throw new SubsystemException("Unable to acquire the global write lock in time.");
+			// Acquire in the order of subsystem id to prevent deadlocks.
+			for (BasicSubsystem subsystem : subsystems) {
+				int nodeMode = subsystem == scope ? mode : mode == X ? IX : IS;
+				ScopeNode node = getNode(subsystem);
+				boolean acquired = false;
+				try {
+					acquired = node.acquire(nodeMode, deadline);
+				}
+				finally {
+					if (!acquired) {
+						leave(node);
+					}
+				}
+				if (!acquired) {
+					release(nodes, modes);
+					timeouts.incrementAndGet();
+					throw new SubsystemException("Unable to acquire the " 
+							+ (mode == X ? "write" : "read") + " lock of scope " 
+							+ scope.getSubsystemId() + " in time.");
+				}
+				modes[nodes.size()] = nodeMode;
+				nodes.add(node);
 			}
 		}
 		catch (InterruptedException e) {
+			release(nodes, modes);
 			throw new SubsystemException(e);
 		}
+		long acquired = System.nanoTime();
+		acquisitions.incrementAndGet();
+		waitTime.addAndGet(acquired - start);
+		updateMax(maxWaitTime, acquired - start);
+		return new ScopeLock(this, nodes, modes, acquired);
 	}
 	
-	public void writeUnlock() {
-		rwlock.writeLock().unlock();
+	private static List<BasicSubsystem> getAncestors(BasicSubsystem scope) {
+		List<BasicSubsystem> result = new ArrayList<BasicSubsystem>();
+		Set<BasicSubsystem> visited = new HashSet<BasicSubsystem>();
+		result.add(scope);
+		visited.add(scope);
+		for (int i = 0; i < result.size(); i++) {
+			for (Subsystem parent : result.get(i).getParents()) {
+				if (visited.add((BasicSubsystem)parent)) {
+					result.add((BasicSubsystem)parent);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/*
+	 * Returns the node of the subsystem's scope, registering the calling
+	 * thread as a user of it until it leaves the node again.
+	 */
+	private ScopeNode getNode(BasicSubsystem subsystem) {
+		Long id = subsystem.getSubsystemId();
+		while (true) {
+			ScopeNode node = scopes.get(id);
+			if (node == null) {
+				node = new ScopeNode(id);
+				ScopeNode existing = scopes.putIfAbsent(id, node);
+				if (existing != null) {
+					node = existing;
+				}
+			}
+			if (node.enter()) {
+				return node;
+			}
+			// The node was retired after being looked up. Help remove it and
+			// try again.
+			scopes.remove(id, node);
+		}
+	}
+	
+	private void leave(ScopeNode node) {
+		if (node.exit()) {
+			scopes.remove(node.id, node);
+		}
+	}
+	
+	private void release(List<ScopeNode> nodes, int[] modes) {
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+			ScopeNode node = nodes.get(i);
+			node.release(modes[i]);
+			leave(node);
+		}
+	}
+	
+	int getScopeCount() {
+		return scopes.size();
+	}
+	
+	private void released(long acquired) {
+		long held = System.nanoTime() - acquired;
+		holdTime.addAndGet(held);
+		updateMax(maxHoldTime, held);
+	}
+	
+	private static void updateMax(AtomicLong max, long value) {
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+	
+	/*
+	 * Intention shared, intention exclusive, shared and exclusive lock modes.
+	 */
+	private static final int IS = 0;
+	private static final int IX = 1;
+	private static final int S = 2;
+	private static final int X = 3;
+	
+	private static final boolean[][] COMPATIBLE = {
+		//         IS     IX     S      X
+		/* IS */ { true,  true,  true,  false },
+		/* IX */ { true,  true,  false, false },
+		/* S  */ { true,  false, true,  false },
+		/* X  */ { false, false, false, false }
+	};
+	
+	/*
+	 * The lock of a single scope. Locks are reentrant, and a thread never
+	 * conflicts with itself. Every acquisition, whether it succeeds or not,
+	 * counts as a user of the node. Once the last user has left, the node is
+	 * retired and must be replaced by a new one.
+	 */
+	private static class ScopeNode {
+		private final Map<Thread, int[]> holders = new HashMap<Thread, int[]>();
+		private final Long id;
+		private int users;
+		private boolean retired;
+		
+		ScopeNode(Long id) {
+			this.id = id;
+		}
+		
+		synchronized boolean enter() {
+			if (retired) {
+				return false;
+			}
+			users++;
+			return true;
+		}
+		
+		synchronized boolean exit() {
+			if (--users == 0) {
+				retired = true;
+			}
+			return retired;
+		}
+		
+		synchronized boolean acquire(int mode, long deadline) throws InterruptedException {
+			Thread current = Thread.currentThread();
+			while (!isCompatible(mode, current)) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+			int[] counts = holders.get(current);
+			if (counts == null) {
+				counts = new int[4];
+				holders.put(current, counts);
+			}
+			counts[mode]++;
+			return true;
+		}
+		
+		synchronized void release(int mode) {
+			Thread current = Thread.currentThread();
+			int[] counts = holders.get(current);
+			if (counts == null || counts[mode] == 0) {
+				throw new IllegalMonitorStateException();
+			}
+			counts[mode]--;
+			if (counts[IS] + counts[IX] + counts[S] + counts[X] == 0) {
+				holders.remove(current);
+			}
+			notifyAll();
+		}
+		
+		private boolean isCompatible(int mode, Thread current) {
+			for (Iterator<Map.Entry<Thread, int[]>> i = holders.entrySet().iterator(); i.hasNext();) {
+				Map.Entry<Thread, int[]> entry = i.next();
+				if (entry.getKey() == current) {
+					continue;
+				}
+				int[] counts = entry.getValue();
+				for (int held = 0; held < counts.length; held++) {
+					if (counts[held] > 0 && !COMPATIBLE[mode][held]) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * A held read or write lock of a scope. It must be unlocked by the thread
+	 * that acquired it.
+	 */
+	public static class ScopeLock {
+		private final LockingStrategy strategy;
+		private final List<ScopeNode> nodes;
+		private final int[] modes;
+		private final long acquired;
+		
+		private ScopeLock(LockingStrategy strategy, List<ScopeNode> nodes, int[] modes, long acquired) {
+			this.strategy = strategy;
+			this.nodes = nodes;
+			this.modes = modes;
+			this.acquired = acquired;
+		}
+		
+		public void unlock() {
+			strategy.release(nodes, modes);
+			strategy.released(acquired);
+		}
 	}
 }
@@ -0,0 +1,42 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.subsystem.core.internal;
+
+/**
+ * Statistics of the scope locks taken by installs, uninstalls, starts and 
+ * stops, registered as <code>org.apache.aries.subsystem:type=Locking</code>.
+ * Times are in milliseconds.
+ */
+public interface LockingStrategyMBean {
+	/** The number of scope locks acquired */
+	long getAcquisitions();
+	
+	/** The number of scope locks that could not be acquired in time */
+	long getTimeouts();
+	
+	/** The total time spent waiting for scope locks */
+	long getTotalWaitTime();
+	
+	/** The longest time spent waiting for a scope lock */
+	long getMaxWaitTime();
+	
+	/** The total time scope locks were held */
+	long getTotalHoldTime();
+	
+	/** The longest time a scope lock was held */
+	long getMaxHoldTime();
+	
+	/** Sets all of the statistics back to zero */
+	void resetStatistics();
+}
@@ -430,8 +430,9 @@ public class RawSubsystemResource implements Resource {
 		// being they will contain more current content than the subsystem
 		// archive?
 		CompositeRepository compositeRepo = new CompositeRepository(localRepository, serviceRepo);
+		Map<Requirement, Collection<Capability>> providers = compositeRepo.findProviders(requirements);
 		for (Requirement requirement : requirements) {
-			Collection<Capability> capabilities = compositeRepo.findProviders(requirement);
+			Collection<Capability> capabilities = providers.get(requirement);
 			if (!capabilities.isEmpty()) {
 				resources.add(capabilities.iterator().next().getResource());
 			}
@@ -14,96 +14,147 @@
 package org.apache.aries.subsystem.core.internal;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.osgi.framework.BundleContext;
-import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
 import org.osgi.service.repository.Repository;
 import org.osgi.service.subsystem.SubsystemException;
+import org.osgi.util.tracker.ServiceTracker;
 
+/**
+ * Finds providers using the registered Repository services. 
+ * <p>
+ * Results are remembered for the lifetime of this object, which is normally
+ * a single install, and forgotten whenever the set of Repository services
+ * changes. Requirements that are not yet known are passed to each repository
+ * in a single call.
+ */
 public class RepositoryServiceRepository implements org.apache.aries.subsystem.core.repository.Repository {
-    final BundleContext context;
+    final ServiceTracker<Object, Object> tracker;
+    
+    /**
+     * The findProviders method to use for each repository class, or null if
+     * the class does not implement any version of the Repository interface
+     */
+    private final Map<Class<?>, Method> methods = new HashMap<Class<?>, Method>();
+    /** The providers found for each requirement */
+    private final Map<Requirement, Set<Capability>> providers = new HashMap<Requirement, Set<Capability>>();
+    /** The tracking count of the tracker when the remembered providers were found */
+    private int trackingCount = -1;
 
 	public RepositoryServiceRepository() {
-		this(Activator.getInstance().getBundleContext());
+		this(Activator.getInstance().getRepositoryTracker());
 	}
 
-	RepositoryServiceRepository(BundleContext ctx) {
-	    context = ctx;
+	RepositoryServiceRepository(ServiceTracker<Object, Object> tracker) {
+	    this.tracker = tracker;
 	}
 
-	@SuppressWarnings("unchecked")
 	public Collection<Capability> findProviders(Requirement requirement) {
-		Set<Capability> result = new HashSet<Capability>();
-		ServiceReference<?>[] references;
+		return findProviders(Collections.singleton(requirement)).get(requirement);
+	}
+
+	@Override
+	public synchronized Map<Requirement, Collection<Capability>> findProviders(Collection<? extends Requirement> requirements) {
+		int count = tracker.getTrackingCount();
+		if (count != trackingCount) {
+			// A repository came, went or changed, so what we know may be wrong
+			providers.clear();
+			trackingCount = count;
+		}
+		
+		Map<Requirement, Set<Capability>> found = new HashMap<Requirement, Set<Capability>>();
+		for (Requirement requirement : requirements) {
+			if (!providers.containsKey(requirement)) {
+				found.put(requirement, new HashSet<Capability>());
+			}
+		}
+		if (!found.isEmpty()) {
+			ServiceReference<Object>[] references = tracker.getServiceReferences();
+			if (references != null) {
+				List<Requirement> unknown = new ArrayList<Requirement>(found.keySet());
+				for (ServiceReference<Object> reference : references) {
+					addProviders(reference, unknown, found);
+				}
+			}
+			// Only remember the providers once every repository has answered
+			providers.putAll(found);
+		}
+		
+		Map<Requirement, Collection<Capability>> result = new HashMap<Requirement, Collection<Capability>>();
+		for (Requirement requirement : requirements) {
+			// Callers are free to modify the result
+			result.put(requirement, new HashSet<Capability>(providers.get(requirement)));
+		}
+		return result;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void addProviders(ServiceReference<Object> reference, List<Requirement> requirements, Map<Requirement, Set<Capability>> found) {
+		Object repository = tracker.getService(reference);
+		if (repository == null)
+			return;
+		Method method = getFindProvidersMethod(repository.getClass());
+		if (method == null) {
+			return;
+		}
+		Map<Requirement, Collection<Capability>> map;
 		try {
-			references = context.getAllServiceReferences("org.osgi.service.repository.Repository", null);
-			if (references == null)
-				return result;
+			map = (Map<Requirement, Collection<Capability>>)method.invoke(repository, requirements);
 		}
-		catch (InvalidSyntaxException e) {
-			throw new IllegalStateException(e);
+		catch (Exception e) {
+			throw new SubsystemException(e);
 		}
-		for (ServiceReference<?> reference : references) {
-			Object repository = context.getService(reference);
-			if (repository == null)
+		if (map == null)
+			return;
+		for (Requirement requirement : requirements) {
+			Collection<Capability> capabilities = map.get(requirement);
+			if (capabilities == null)
 				continue;
-			try {
-			    // Reflection is used here to allow the service to work with a mixture of
-			    // Repository services implementing different versions of the API.
-
-				Class<?> clazz = repository.getClass();
-				Class<?> repoInterface = null;
-
-				while (clazz != null && repoInterface == null) {
-				    for (Class<?> intf : clazz.getInterfaces()) {
-				        if (Repository.class.getName().equals(intf.getName())) {
-				            // Compare interfaces by name so that we can work with different versions of the
-				            // interface.
-				            repoInterface = intf;
-				            break;
-				        }
-				    }
-                    clazz = clazz.getSuperclass();
-				}
+			found.get(requirement).addAll(capabilities);
+		}
+	}
+	
+	private Method getFindProvidersMethod(Class<?> repositoryClass) {
+		if (methods.containsKey(repositoryClass)) {
+			return methods.get(repositoryClass);
+		}
+		Method method = null;
+	    // Reflection is used here to allow the service to work with a mixture of
+	    // Repository services implementing different versions of the API.
+		Class<?> clazz = repositoryClass;
+		Class<?> repoInterface = null;
 
-				if (repoInterface == null) {
-				    continue;
-				}
+		while (clazz != null && repoInterface == null) {
+		    for (Class<?> intf : clazz.getInterfaces()) {
+		        if (Repository.class.getName().equals(intf.getName())) {
+		            // Compare interfaces by name so that we can work with different versions of the
+		            // interface.
+		            repoInterface = intf;
+		            break;
+		        }
+		    }
+            clazz = clazz.getSuperclass();
+		}
 
-				Map<Requirement, Collection<Capability>> map;
-				try {
-					Method method = repoInterface.getMethod("findProviders", Collection.class);
-					map = (Map<Requirement, Collection<Capability>>)method.invoke(repository, Collections.singleton(requirement));
-				}
-				catch (Exception e) {
-					throw new SubsystemException(e);
-				}
-				Collection<Capability> capabilities = map.get(requirement);
-				if (capabilities == null)
-					continue;
-				result.addAll(capabilities);
+		if (repoInterface != null) {
+			try {
+				method = repoInterface.getMethod("findProviders", Collection.class);
 			}
-			finally {
-				context.ungetService(reference);
+			catch (Exception e) {
+				throw new SubsystemException(e);
 			}
 		}
-		return result;
-	}
-
-	@Override
-	public Map<Requirement, Collection<Capability>> findProviders(Collection<? extends Requirement> requirements) {
-		Map<Requirement, Collection<Capability>> result = new HashMap<Requirement, Collection<Capability>>();
-		for (Requirement requirement : requirements)
-			result.put(requirement, findProviders(requirement));
-		return result;
+		methods.put(repositoryClass, method);
+		return method;
 	}
 }
@@ -0,0 +1,409 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.subsystem.core.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the service capabilities and requirements computed by the
+ * {@link ServiceModeller} for each bundle, keyed by bundle id and last
+ * modified time, so that the system repository does not have to model every
+ * installed bundle again each time the subsystems implementation starts.
+ * Each entry also records the {@link ServiceModeller#getIdentity() identity}
+ * of the modeller, and is not used once that modeller has changed.
+ * <p>
+ * Entries are held in their serialized form and are written to a single
+ * snapshot file by {@link #save(BundleContext)}. Entries that cannot be read
+ * are dropped and the bundle is modelled again.
+ */
+public class ServiceModelCache {
+	private static final Logger logger = LoggerFactory.getLogger(ServiceModelCache.class);
+	
+	private static final int MAGIC = 0x41535343; // ASSC
+	private static final int VERSION = 2;
+	
+	private static final byte TYPE_STRING = 'S';
+	private static final byte TYPE_LONG = 'L';
+	private static final byte TYPE_INTEGER = 'I';
+	private static final byte TYPE_DOUBLE = 'D';
+	private static final byte TYPE_BOOLEAN = 'B';
+	private static final byte TYPE_VERSION = 'V';
+	private static final byte TYPE_LIST = 'l';
+	private static final byte TYPE_ARRAY = 'A';
+	
+	private static class Entry {
+		private final long lastModified;
+		private final String modeller;
+		private final byte[] data;
+		
+		private Entry(long lastModified, String modeller, byte[] data) {
+			this.lastModified = lastModified;
+			this.modeller = modeller;
+			this.data = data;
+		}
+	}
+	
+	private static class CachedServiceModel implements ServiceModeller.ServiceModel {
+		private final List<Requirement> requirements = new ArrayList<Requirement>();
+		private final List<Capability> capabilities = new ArrayList<Capability>();
+		
+		@Override
+		public List<Requirement> getServiceRequirements() {
+			return requirements;
+		}
+		
+		@Override
+		public List<Capability> getServiceCapabilities() {
+			return capabilities;
+		}
+	}
+	
+	private static class UnsupportedValueException extends IOException {
+		private static final long serialVersionUID = 1L;
+		
+		private UnsupportedValueException(Object value) {
+			super("Unsupported attribute value type: " + value.getClass().getName());
+		}
+	}
+	
+	private final ConcurrentMap<Long, Entry> entries = new ConcurrentHashMap<Long, Entry>();
+	private final File file;
+	
+	/**
+	 * @param file The snapshot file, or <code>null</code> if nothing should be
+	 *        persisted.
+	 */
+	public ServiceModelCache(File file) {
+		this.file = file;
+		if (file != null && file.isFile()) {
+			try {
+				load();
+			}
+			catch (IOException e) {
+				logger.debug("Discarding unreadable service model snapshot " + file, e);
+				entries.clear();
+				file.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the remembered model for the bundle with the specified id, with
+	 * every capability and requirement belonging to the specified resource, or
+	 * <code>null</code> if there is none for the specified last modified time
+	 * and modeller identity.
+	 */
+	public ServiceModeller.ServiceModel get(long bundleId, long lastModified, String modeller, Resource resource) {
+		Entry entry = entries.get(bundleId);
+		if (entry == null || entry.lastModified != lastModified || !entry.modeller.equals(modeller)) {
+			return null;
+		}
+		try {
+			return decode(entry.data, resource);
+		}
+		catch (IOException e) {
+			logger.debug("Discarding unreadable service model for bundle " + bundleId, e);
+			entries.remove(bundleId, entry);
+			return null;
+		}
+	}
+	
+	public void put(long bundleId, long lastModified, String modeller, ServiceModeller.ServiceModel model) {
+		try {
+			entries.put(bundleId, new Entry(lastModified, modeller, encode(model)));
+		}
+		catch (IOException e) {
+			// The model cannot be represented, so it will be computed again.
+			logger.debug("Not remembering the service model for bundle " + bundleId, e);
+			entries.remove(bundleId);
+		}
+	}
+	
+	public void remove(long bundleId) {
+		entries.remove(bundleId);
+	}
+	
+	public int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Writes the entries for bundles that are still installed, unchanged, to
+	 * the snapshot file.
+	 */
+	public void save(BundleContext context) {
+		if (file == null) {
+			return;
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				List<Map.Entry<Long, Entry>> toWrite = new ArrayList<Map.Entry<Long, Entry>>(entries.size());
+				for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+					Bundle bundle = context.getBundle(entry.getKey());
+					if (bundle != null && bundle.getLastModified() == entry.getValue().lastModified) {
+						toWrite.add(entry);
+					}
+				}
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(toWrite.size());
+				for (Map.Entry<Long, Entry> entry : toWrite) {
+					out.writeLong(entry.getKey());
+					out.writeLong(entry.getValue().lastModified);
+					writeString(out, entry.getValue().modeller);
+					out.writeInt(entry.getValue().data.length);
+					out.write(entry.getValue().data);
+				}
+			}
+			finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				if (!tmp.renameTo(file)) {
+					throw new IOException("Unable to rename " + tmp + " to " + file);
+				}
+			}
+		}
+		catch (IOException e) {
+			logger.warn("Unable to save the service model snapshot " + file, e);
+			tmp.delete();
+		}
+	}
+	
+	private void load() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a service model snapshot or an unknown version");
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				long bundleId = in.readLong();
+				long lastModified = in.readLong();
+				String modeller = readString(in);
+				byte[] data = new byte[in.readInt()];
+				in.readFully(data);
+				entries.put(bundleId, new Entry(lastModified, modeller, data));
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+	
+	private static byte[] encode(ServiceModeller.ServiceModel model) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		List<Capability> capabilities = model.getServiceCapabilities();
+		out.writeInt(capabilities.size());
+		for (Capability capability : capabilities) {
+			out.writeUTF(capability.getNamespace());
+			writeAttributes(out, capability.getAttributes());
+			writeDirectives(out, capability.getDirectives());
+		}
+		List<Requirement> requirements = model.getServiceRequirements();
+		out.writeInt(requirements.size());
+		for (Requirement requirement : requirements) {
+			out.writeUTF(requirement.getNamespace());
+			writeAttributes(out, requirement.getAttributes());
+			writeDirectives(out, requirement.getDirectives());
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+	
+	private static ServiceModeller.ServiceModel decode(byte[] data, Resource resource) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		CachedServiceModel model = new CachedServiceModel();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			model.capabilities.add(new BasicCapability.Builder()
+					.namespace(in.readUTF())
+					.attributes(readAttributes(in))
+					.directives(readDirectives(in))
+					.resource(resource)
+					.build());
+		}
+		count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			model.requirements.add(new BasicRequirement.Builder()
+					.namespace(in.readUTF())
+					.attributes(readAttributes(in))
+					.directives(readDirectives(in))
+					.resource(resource)
+					.build());
+		}
+		return model;
+	}
+	
+	private static void writeAttributes(DataOutputStream out, Map<String, Object> attributes) throws IOException {
+		out.writeInt(attributes.size());
+		for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+			writeString(out, attribute.getKey());
+			writeValue(out, attribute.getValue());
+		}
+	}
+	
+	private static void writeDirectives(DataOutputStream out, Map<String, String> directives) throws IOException {
+		out.writeInt(directives.size());
+		for (Map.Entry<String, String> directive : directives.entrySet()) {
+			writeString(out, directive.getKey());
+			writeString(out, directive.getValue());
+		}
+	}
+	
+	private static Map<String, Object> readAttributes(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		Map<String, Object> result = new HashMap<String, Object>(size * 2);
+		for (int i = 0; i < size; i++) {
+			result.put(readString(in), readValue(in));
+		}
+		return result;
+	}
+	
+	private static Map<String, String> readDirectives(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		Map<String, String> result = new HashMap<String, String>(size * 2);
+		for (int i = 0; i < size; i++) {
+			result.put(readString(in), readString(in));
+		}
+		return result;
+	}
+	
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value instanceof String) {
+			out.writeByte(TYPE_STRING);
+			writeString(out, (String)value);
+		}
+		else if (value instanceof Long) {
+			out.writeByte(TYPE_LONG);
+			out.writeLong((Long)value);
+		}
+		else if (value instanceof Integer) {
+			out.writeByte(TYPE_INTEGER);
+			out.writeInt((Integer)value);
+		}
+		else if (value instanceof Double) {
+			out.writeByte(TYPE_DOUBLE);
+			out.writeDouble((Double)value);
+		}
+		else if (value instanceof Boolean) {
+			out.writeByte(TYPE_BOOLEAN);
+			out.writeBoolean((Boolean)value);
+		}
+		else if (value instanceof Version) {
+			out.writeByte(TYPE_VERSION);
+			writeString(out, value.toString());
+		}
+		else if (value instanceof List) {
+			List<?> list = (List<?>)value;
+			out.writeByte(TYPE_LIST);
+			out.writeInt(list.size());
+			for (Object element : list) {
+				writeValue(out, element);
+			}
+		}
+		else if (value instanceof String[]) {
+			String[] array = (String[])value;
+			out.writeByte(TYPE_ARRAY);
+			out.writeInt(array.length);
+			for (String element : array) {
+				writeString(out, element);
+			}
+		}
+		else {
+			throw new UnsupportedValueException(value);
+		}
+	}
+	
+	private static Object readValue(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+			case TYPE_STRING:
+				return readString(in);
+			case TYPE_LONG:
+				return in.readLong();
+			case TYPE_INTEGER:
+				return in.readInt();
+			case TYPE_DOUBLE:
+				return in.readDouble();
+			case TYPE_BOOLEAN:
+				return in.readBoolean();
+			case TYPE_VERSION:
+				try {
+					return Version.parseVersion(readString(in));
+				}
+				catch (IllegalArgumentException e) {
+					throw new IOException(e.getMessage());
+				}
+			case TYPE_LIST: {
+				int size = in.readInt();
+				List<Object> list = new ArrayList<Object>(size);
+				for (int i = 0; i < size; i++) {
+					list.add(readValue(in));
+				}
+				return list;
+			}
+			case TYPE_ARRAY: {
+				String[] array = new String[in.readInt()];
+				for (int i = 0; i < array.length; i++) {
+					array[i] = readString(in);
+				}
+				return array;
+			}
+			default:
+				throw new IOException("Unknown attribute value type: " + type);
+		}
+	}
+	
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		// Filters and service properties may exceed the 64K limit of writeUTF.
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
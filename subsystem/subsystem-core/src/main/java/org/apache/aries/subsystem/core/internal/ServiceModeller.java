@@ -30,4 +30,11 @@ public interface ServiceModeller {
 
     ServiceModel computeRequirementsAndCapabilities(Resource resource, IDirectory directory) throws SubsystemException;
 
+    /**
+     * Identifies the implementation computing the models. The identity
+     * changes whenever that implementation might compute different models,
+     * so that models computed by another implementation are not reused.
+     */
+    String getIdentity();
+
 }
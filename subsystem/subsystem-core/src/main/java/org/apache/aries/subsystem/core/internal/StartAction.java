@@ -19,10 +19,18 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.aries.subsystem.ContentHandler;
 import org.apache.aries.subsystem.core.archive.ExportPackageCapability;
@@ -44,6 +52,8 @@ import org.osgi.framework.namespace.IdentityNamespace;
 import org.osgi.framework.startlevel.BundleStartLevel;
 import org.osgi.framework.startlevel.FrameworkStartLevel;
 import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.framework.wiring.FrameworkWiring;
 import org.osgi.resource.Resource;
 import org.osgi.service.coordinator.Coordination;
@@ -202,11 +212,12 @@ public class StartAction extends AbstractAction {
 		}
 		try {
 			AffectedResources affectedResources;
+			LockingStrategy.ScopeLock readLock = null;
 			// We are now protected against re-entry.
 			// If necessary, install the dependencies.
 	    	if (State.INSTALLING.equals(target.getState()) && !Utils.isProvisionDependenciesInstall(target)) {
 	    		// Acquire the global write lock while installing dependencies.
-				Activator.getInstance().getLockingStrategy().writeLock();
+				LockingStrategy.ScopeLock writeLock = Activator.getInstance().getLockingStrategy().writeLock();
 				try {
 					// We are now protected against installs, starts, stops, and uninstalls.
 		    		// We need a separate coordination when installing 
@@ -228,7 +239,7 @@ public class StartAction extends AbstractAction {
 						}
 						// Downgrade to the read lock in order to prevent 
 		    			// installs and uninstalls but allow starts and stops.
-						Activator.getInstance().getLockingStrategy().readLock();
+						readLock = Activator.getInstance().getLockingStrategy().readLock();
 		    		}
 		    		catch (Throwable t) {
 		    			c.fail(t);
@@ -241,13 +252,13 @@ public class StartAction extends AbstractAction {
 				}
 				finally {
 					// Release the global write lock as soon as possible.
-					Activator.getInstance().getLockingStrategy().writeUnlock();
+					writeLock.unlock();
 				}
 	    	}
 	    	else {
 	    		// Acquire the read lock in order to prevent installs and
 	    		// uninstalls but allow starts and stops.
-	    		Activator.getInstance().getLockingStrategy().readLock();
+	    		readLock = Activator.getInstance().getLockingStrategy().readLock();
 	    	}
 	    	try {
 	    		// We now hold the read lock and are protected against installs
@@ -300,10 +311,19 @@ public class StartAction extends AbstractAction {
 						}
 					});
 					SubsystemContentHeader header = target.getSubsystemManifest().getSubsystemContentHeader();
-					if (header != null)
-						Collections.sort(affectedResources.resources(), new StartResourceComparator(header));
-					for (Resource resource : affectedResources.resources())
-						startResource(resource, coordination);
+					StartResourceComparator comparator = null;
+					if (header != null) {
+						comparator = new StartResourceComparator(header);
+						Collections.sort(affectedResources.resources(), comparator);
+					}
+					ExecutorService executor = Activator.getInstance().getStartExecutor();
+					if (executor == null) {
+						for (Resource resource : affectedResources.resources())
+							startResource(resource, coordination);
+					}
+					else {
+						startResources(affectedResources.resources(), comparator, executor, coordination);
+					}
 					target.setState(State.ACTIVE);
 					
 				}
@@ -329,7 +349,9 @@ public class StartAction extends AbstractAction {
 	    	}
 	    	finally {
 				// Release the read lock.
-				Activator.getInstance().getLockingStrategy().readUnlock();
+				if (readLock != null) {
+					readLock.unlock();
+				}
 			}
 		}
 		catch (CoordinationException e) {
@@ -540,18 +562,32 @@ public class StartAction extends AbstractAction {
 	}
 
 	private void startBundleResource(Resource resource, Coordination coordination) throws BundleException {
+		Bundle bundle = getBundleToStart(resource);
+		if (bundle == null)
+			return;
+		startBundle(bundle);
+		addStopParticipant(bundle, coordination);
+	}
+	
+	/*
+	 * Returns the bundle of a bundle resource if it must be started, or null.
+	 */
+	private Bundle getBundleToStart(Resource resource) {
 		if (target.isRoot())
 			// Starting the root subsystem should not affect bundles within the
 			// root region.
-			return;
+			return null;
 		if (Utils.isRegionContextBundle(resource))
 			// The region context bundle was persistently started elsewhere.
-			return;
-		final Bundle bundle = ((BundleRevision)resource).getBundle();
+			return null;
+		Bundle bundle = ((BundleRevision)resource).getBundle();
 
 		if ((bundle.getState() & (Bundle.STARTING | Bundle.ACTIVE)) != 0)
-			return;
-
+			return null;
+		return bundle;
+	}
+	
+	private static void startBundle(Bundle bundle) throws BundleException {
 		if (logger.isDebugEnabled()) {
 			int bundleStartLevel = bundle.adapt(BundleStartLevel.class).getStartLevel();
 			Bundle systemBundle=Activator.getInstance().getBundleContext().getBundle(0);
@@ -569,7 +605,9 @@ public class StartAction extends AbstractAction {
 				+ " " + bundle.getVersion().toString()
 				+ " started correctly");
 		}
-
+	}
+	
+	private static void addStopParticipant(final Bundle bundle, Coordination coordination) {
 		if (coordination == null)
 			return;
 		coordination.addParticipant(new Participant() {
@@ -582,6 +620,139 @@ public class StartAction extends AbstractAction {
 			}
 		});
 	}
+	
+	/*
+	 * Starts the resources, which are sorted by start order, using the executor
+	 * to start bundles that share a start order concurrently. Everything other
+	 * than starting a bundle, including starting child subsystems and adding
+	 * participants to the coordination, happens on this thread since it owns
+	 * the locks and the coordination.
+	 */
+	private void startResources(List<Resource> resources, StartResourceComparator comparator, ExecutorService executor, Coordination coordination) throws Exception {
+		int from = 0;
+		while (from < resources.size()) {
+			int to = from + 1;
+			while (to < resources.size() 
+					&& (comparator == null || comparator.compare(resources.get(from), resources.get(to)) == 0)) {
+				to++;
+			}
+			List<Bundle> bundles = new ArrayList<Bundle>();
+			for (Resource resource : resources.subList(from, to)) {
+				if (IdentityNamespace.TYPE_BUNDLE.equals(ResourceHelper.getTypeAttribute(resource))) {
+					Bundle bundle = getBundleToStart(resource);
+					if (bundle != null)
+						bundles.add(bundle);
+				}
+				else {
+					startResource(resource, coordination);
+				}
+			}
+			for (List<Bundle> wave : computeStartWaves(bundles)) {
+				startBundles(wave, executor, coordination);
+			}
+			from = to;
+		}
+	}
+	
+	/*
+	 * Splits the bundles into waves such that no bundle is started before a
+	 * bundle it is wired to. The bundles in a wave have no wires between them.
+	 * Bundles in a wiring cycle share the last wave.
+	 */
+	static List<List<Bundle>> computeStartWaves(List<Bundle> bundles) {
+		if (bundles.size() < 2) {
+			return Collections.singletonList(bundles);
+		}
+		Map<Bundle, Set<Bundle>> providers = new HashMap<Bundle, Set<Bundle>>();
+		for (Bundle bundle : bundles) {
+			Set<Bundle> set = new HashSet<Bundle>();
+			BundleWiring wiring = bundle.adapt(BundleWiring.class);
+			if (wiring != null) {
+				for (BundleWire wire : wiring.getRequiredWires(null)) {
+					Bundle provider = wire.getProviderWiring().getBundle();
+					if (!provider.equals(bundle))
+						set.add(provider);
+				}
+			}
+			providers.put(bundle, set);
+		}
+		List<List<Bundle>> result = new ArrayList<List<Bundle>>();
+		List<Bundle> remaining = new ArrayList<Bundle>(bundles);
+		while (!remaining.isEmpty()) {
+			List<Bundle> wave = new ArrayList<Bundle>();
+			for (Bundle bundle : remaining) {
+				Set<Bundle> set = providers.get(bundle);
+				set.retainAll(remaining);
+				if (set.isEmpty())
+					wave.add(bundle);
+			}
+			if (wave.isEmpty()) {
+				wave = remaining;
+			}
+			result.add(wave);
+			remaining = new ArrayList<Bundle>(remaining);
+			remaining.removeAll(wave);
+		}
+		return result;
+	}
+	
+	static void startBundles(List<Bundle> bundles, ExecutorService executor, Coordination coordination) throws Exception {
+		if (bundles.size() < 2) {
+			for (Bundle bundle : bundles) {
+				startBundle(bundle);
+				addStopParticipant(bundle, coordination);
+			}
+			return;
+		}
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(bundles.size());
+		// The executor is shut down when this bundle stops. Any bundles
+		// already submitted must still be waited for, and the rejection is
+		// reported in preference to their failures.
+		Throwable failure = null;
+		try {
+			for (final Bundle bundle : bundles) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						startBundle(bundle);
+						return null;
+					}
+				}));
+			}
+		}
+		catch (RejectedExecutionException e) {
+			failure = e;
+		}
+		// Wait for every bundle so that all started bundles are stopped if
+		// the coordination fails. This includes waiting after an interrupt,
+		// as a bundle whose start is in progress cannot be abandoned.
+		InterruptedException interruption = null;
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				futures.get(i).get();
+				addStopParticipant(bundles.get(i), coordination);
+			}
+			catch (ExecutionException e) {
+				if (failure == null)
+					failure = e.getCause();
+			}
+			catch (InterruptedException e) {
+				if (interruption == null)
+					interruption = e;
+				// Wait for the same bundle again
+				i--;
+			}
+		}
+		if (interruption != null) {
+			Thread.currentThread().interrupt();
+			if (failure == null)
+				failure = interruption;
+		}
+		if (failure instanceof Exception)
+			throw (Exception)failure;
+		if (failure instanceof Error)
+			throw (Error)failure;
+	}
 
 	private void startResource(Resource resource, Coordination coordination) throws BundleException, IOException {
 		String type = ResourceHelper.getTypeAttribute(resource);
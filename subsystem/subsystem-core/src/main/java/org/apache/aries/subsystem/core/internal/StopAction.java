@@ -51,7 +51,7 @@ public class StopAction extends AbstractAction {
 			// We are now protected against re-entry.
 			// Acquire the global read lock to prevent installs and uninstalls
 			// but allow starts and stops.
-			Activator.getInstance().getLockingStrategy().readLock();
+			LockingStrategy.ScopeLock scopeLock = Activator.getInstance().getLockingStrategy().readLock();
 			try {
 				// We are now protected against installs and uninstalls.
 				checkRoot();
@@ -133,7 +133,7 @@ public class StopAction extends AbstractAction {
 			}
 			finally {
 				// Release the read lock.
-				Activator.getInstance().getLockingStrategy().readUnlock();
+				scopeLock.unlock();
 			}
 		}
 		finally {
@@ -14,6 +14,7 @@
 package org.apache.aries.subsystem.core.internal;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -70,6 +71,11 @@ public class Subsystems {
 	public void addSubsystem(BasicSubsystem subsystem) {
 		synchronized (idToSubsystem) {
 			synchronized (locationToSubsystem) {
+				// Installs into disjoint scopes may run concurrently, so two of
+				// them may have raced to install the same location.
+				BasicSubsystem existing = locationToSubsystem.get(subsystem.getLocation());
+				if (existing != null && existing != subsystem)
+					throw new SubsystemException("Location already exists: " + subsystem.getLocation());
 				addIdToSubsystem(subsystem);
 				addLocationToSubsystem(subsystem);
 			}
@@ -100,7 +106,13 @@ public class Subsystems {
 	public synchronized BasicSubsystem getRootSubsystem() {
 		if (root == null) {
 			File file = Activator.getInstance().getBundleContext().getDataFile("");
-			File[] fileArray = file.listFiles();
+			// Only the directories hold persisted subsystems.
+			File[] fileArray = file.listFiles(new FileFilter() {
+				@Override
+				public boolean accept(File pathname) {
+					return pathname.isDirectory();
+				}
+			});
 			List<File> fileList = new ArrayList<File>(Arrays.asList(fileArray));
 			Collections.sort(fileList, new Comparator<File>() {
 				@Override
@@ -43,9 +43,15 @@ public class SystemRepository
     
     private final BundleContext bundleContext;
     private final CapabilitySetRepository repository;
+    private final ServiceModelCache serviceModelCache;
 
     public SystemRepository(BundleContext bundleContext) {
+        this(bundleContext, new ServiceModelCache(null));
+    }
+
+    public SystemRepository(BundleContext bundleContext, ServiceModelCache serviceModelCache) {
         this.bundleContext = bundleContext;
+        this.serviceModelCache = serviceModelCache;
         repository = new CapabilitySetRepository();
     }
 
@@ -53,7 +59,7 @@ public class SystemRepository
     public AtomicReference<BundleRevisionResource> addingBundle(Bundle bundle, BundleEvent event) {
         // The state mask must guarantee this will only be called when the bundle is in the INSTALLED state.
         BundleRevision revision = bundle.adapt(BundleRevision.class);
-        BundleRevisionResource resource = new BundleRevisionResource(revision);
+        BundleRevisionResource resource = new BundleRevisionResource(revision, serviceModelCache);
         if (ThreadLocalSubsystem.get() == null) {
         	// This is an explicitly installed bundle. It must be prevented
         	// from resolving as part of adding it to the repository. Searching
@@ -93,7 +99,7 @@ public class SystemRepository
     public void modifiedBundle(Bundle bundle, BundleEvent event, AtomicReference<BundleRevisionResource> object) {
         if (BundleEvent.UPDATED == event.getType()) {
             BundleRevision revision = bundle.adapt(BundleRevision.class);
-            BundleRevisionResource resource = new BundleRevisionResource(revision);
+            BundleRevisionResource resource = new BundleRevisionResource(revision, serviceModelCache);
             repository.removeResource(object.getAndSet(resource));
             repository.addResource(resource);
         }
@@ -108,6 +114,7 @@ public class SystemRepository
     public void removedBundle(Bundle bundle, BundleEvent event, AtomicReference<BundleRevisionResource> object) {
         // The state mask must guarantee this will only be called when the bundle is in the UNINSTALLED state.
         repository.removeResource(object.get());
+        serviceModelCache.remove(bundle.getBundleId());
     }
 
     @Override
@@ -18,6 +18,7 @@
  */
 package org.apache.aries.subsystem.core.internal;
 
+import java.io.File;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.aries.subsystem.AriesSubsystem;
@@ -63,10 +64,23 @@ public class SystemRepositoryManager {
     
     private final BundleTracker<AtomicReference<BundleRevisionResource>> bundleTracker;
     private final ServiceTracker<AriesSubsystem, BasicSubsystem> serviceTracker;
+    private final BundleContext bundleContext;
+    private final ServiceModelCache serviceModelCache;
     private final SystemRepository systemRepository;
     
     public SystemRepositoryManager(BundleContext bundleContext) {
-        systemRepository = new SystemRepository(bundleContext);
+        this(bundleContext, null);
+    }
+    
+    /**
+     * @param snapshot The file in which the service capabilities and
+     *        requirements of the installed bundles are remembered between
+     *        restarts, or <code>null</code> to model every bundle each time.
+     */
+    public SystemRepositoryManager(BundleContext bundleContext, File snapshot) {
+        this.bundleContext = bundleContext;
+        serviceModelCache = new ServiceModelCache(snapshot);
+        systemRepository = new SystemRepository(bundleContext, serviceModelCache);
         bundleTracker = new BundleTracker<AtomicReference<BundleRevisionResource>>(
                 bundleContext, ~Bundle.UNINSTALLED, systemRepository);
         serviceTracker = new ServiceTracker<AriesSubsystem, BasicSubsystem>(
@@ -85,5 +99,6 @@ public class SystemRepositoryManager {
     public void close() {
         serviceTracker.close();
         bundleTracker.close();
+        serviceModelCache.save(bundleContext);
     }
 }
@@ -32,7 +32,7 @@ public class UninstallAction extends AbstractAction {
 			// Acquire the global write lock to prevent all other operations 
 			// until the uninstall is complete. There is no need to hold any 
 			// other locks.
-			Activator.getInstance().getLockingStrategy().writeLock();
+			LockingStrategy.ScopeLock scopeLock = Activator.getInstance().getLockingStrategy().writeLock();
 			try {
 				checkRoot();
 				checkValid();
@@ -47,7 +47,7 @@ public class UninstallAction extends AbstractAction {
 			}
 			finally {
 				// Release the global write lock.
-				Activator.getInstance().getLockingStrategy().writeUnlock();
+				scopeLock.unlock();
 			}
 		}
 		finally {
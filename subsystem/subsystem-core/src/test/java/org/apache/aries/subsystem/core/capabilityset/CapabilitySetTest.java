@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.subsystem.core.capabilityset;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+
+public class CapabilitySetTest {
+    private CapabilitySet capabilitySet;
+    private Capability foo1;
+    private Capability foo2;
+    private Capability bar1;
+    private Capability mandatory;
+
+    @Before
+    public void setUp() {
+        capabilitySet = new CapabilitySet(
+                Arrays.asList(PackageNamespace.PACKAGE_NAMESPACE, "vendor"), true);
+        foo1 = add("org.foo", "1.0.0", "acme", Arrays.asList("a", "b"), null);
+        foo2 = add("org.foo", "2.1.0", "other", Arrays.asList("c"), null);
+        bar1 = add("org.bar", "1.5.0", "acme", null, null);
+        mandatory = add("org.baz", "1.0.0", "acme", null, "vendor");
+    }
+
+    @Test
+    public void testIndexedEquality() {
+        assertMatches("(osgi.wiring.package=org.foo)", foo1, foo2);
+        assertMatches("(osgi.wiring.package=org.none)");
+    }
+
+    @Test
+    public void testAndOfIndexedEquality() {
+        assertMatches("(&(osgi.wiring.package=org.foo)(vendor=acme))", foo1);
+        assertMatches("(&(vendor=acme)(osgi.wiring.package=org.bar)(version>=1.0))", bar1);
+        assertMatches("(&(vendor=acme)(osgi.wiring.package=org.none))");
+    }
+
+    @Test
+    public void testVersions() {
+        assertMatches("(&(osgi.wiring.package=org.foo)(version>=2.0.0))", foo2);
+        assertMatches("(&(osgi.wiring.package=org.foo)(version<=1.0.0))", foo1);
+        assertMatches("(&(osgi.wiring.package=org.foo)(!(version>=2.0.0)))", foo1);
+        assertMatches("(version=[1.0,2.0\\))", foo1, bar1, mandatory);
+        assertMatches("(version=2.1)", foo2);
+        assertMatches("(version>=[1.0,2.0\\))");
+        assertMatches("(version=notaversion)");
+    }
+
+    @Test
+    public void testOrNotAndPresent() {
+        assertMatches("(|(osgi.wiring.package=org.bar)(vendor=other))", foo2, bar1);
+        assertMatches("(!(vendor=acme))", foo2);
+        assertMatches("(tags=*)", foo1, foo2);
+        assertMatches("(!(tags=*))", bar1, mandatory);
+    }
+
+    @Test
+    public void testCollectionsAndSubstrings() {
+        assertMatches("(tags=b)", foo1);
+        assertMatches("(osgi.wiring.package=org.b*)", bar1, mandatory);
+        assertMatches("(tags~=C)", foo2);
+    }
+
+    @Test
+    public void testMandatoryAttributes() {
+        Set<Capability> result = capabilitySet.match(SimpleFilter.parse("(osgi.wiring.package=org.baz)"), true);
+        assertEquals(Collections.emptySet(), result);
+        result = capabilitySet.match(SimpleFilter.parse("(&(osgi.wiring.package=org.baz)(vendor=acme))"), true);
+        assertEquals(Collections.singleton(mandatory), result);
+    }
+
+    @Test
+    public void testRemovedCapabilityIsNotMatched() {
+        capabilitySet.removeCapability(foo1);
+        assertMatches("(osgi.wiring.package=org.foo)", foo2);
+        assertMatches("(tags=a)");
+    }
+
+    private void assertMatches(String filter, Capability... expected) {
+        assertEquals(filter, new HashSet<Capability>(Arrays.asList(expected)),
+                capabilitySet.match(SimpleFilter.parse(filter), false));
+    }
+
+    private Capability add(String pkg, String version, String vendor, List<String> tags, String mandatory) {
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put(PackageNamespace.PACKAGE_NAMESPACE, pkg);
+        attributes.put(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE, Version.parseVersion(version));
+        attributes.put("vendor", vendor);
+        if (tags != null) {
+            attributes.put("tags", tags);
+        }
+        final Map<String, String> directives = mandatory == null
+                ? Collections.<String, String>emptyMap()
+                : Collections.singletonMap(PackageNamespace.CAPABILITY_MANDATORY_DIRECTIVE, mandatory);
+        Capability capability = new Capability() {
+            @Override
+            public String getNamespace() {
+                return PackageNamespace.PACKAGE_NAMESPACE;
+            }
+
+            @Override
+            public Map<String, String> getDirectives() {
+                return directives;
+            }
+
+            @Override
+            public Map<String, Object> getAttributes() {
+                return attributes;
+            }
+
+            @Override
+            public Resource getResource() {
+                return null;
+            }
+        };
+        capabilitySet.addCapability(capability);
+        return capability;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.subsystem.core.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.osgi.service.subsystem.Subsystem;
+import org.osgi.service.subsystem.SubsystemException;
+
+public class LockingStrategyTest {
+	private final LockingStrategy strategy = new LockingStrategy("1");
+	private final BasicSubsystem root = subsystem(0, null);
+	private final BasicSubsystem child1 = subsystem(1, root);
+	private final BasicSubsystem child2 = subsystem(2, root);
+	
+	@Test
+	public void testDisjointScopesDoNotBlock() throws Exception {
+		LockingStrategy.ScopeLock lock = strategy.writeLock(child1);
+		try {
+			assertNull(inOtherThread(new Runnable() {
+				@Override
+				public void run() {
+					strategy.writeLock(child2).unlock();
+				}
+			}));
+		}
+		finally {
+			lock.unlock();
+		}
+		assertEquals(2, strategy.getAcquisitions());
+		assertEquals(0, strategy.getTimeouts());
+		assertEquals(0, strategy.getScopeCount());
+	}
+	
+	@Test
+	public void testOverlappingScopesBlock() throws Exception {
+		LockingStrategy.ScopeLock lock = strategy.writeLock(child1);
+		try {
+			Throwable t = inOtherThread(new Runnable() {
+				@Override
+				public void run() {
+					strategy.readLock(root).unlock();
+				}
+			});
+			assertTrue(t instanceof SubsystemException);
+		}
+		finally {
+			lock.unlock();
+		}
+		assertEquals(1, strategy.getTimeouts());
+		// The failed attempt must not have left anything locked.
+		assertNull(inOtherThread(new Runnable() {
+			@Override
+			public void run() {
+				strategy.writeLock(root).unlock();
+			}
+		}));
+	}
+	
+	@Test
+	public void testReadLocksAreShared() throws Exception {
+		LockingStrategy.ScopeLock lock = strategy.readLock(root);
+		try {
+			assertNull(inOtherThread(new Runnable() {
+				@Override
+				public void run() {
+					strategy.readLock(child1).unlock();
+				}
+			}));
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	@Test
+	public void testDowngrade() throws Exception {
+		LockingStrategy.ScopeLock writeLock = strategy.writeLock(root);
+		LockingStrategy.ScopeLock readLock = strategy.readLock(root);
+		writeLock.unlock();
+		try {
+			Throwable t = inOtherThread(new Runnable() {
+				@Override
+				public void run() {
+					strategy.writeLock(child2).unlock();
+				}
+			});
+			assertTrue(t instanceof SubsystemException);
+		}
+		finally {
+			readLock.unlock();
+		}
+	}
+	
+	@Test
+	public void testIdleScopesAreRemoved() throws Exception {
+		LockingStrategy.ScopeLock lock = strategy.writeLock(child1);
+		assertEquals(2, strategy.getScopeCount());
+		Throwable t = inOtherThread(new Runnable() {
+			@Override
+			public void run() {
+				strategy.writeLock(root).unlock();
+			}
+		});
+		assertTrue(t instanceof SubsystemException);
+		assertEquals(2, strategy.getScopeCount());
+		lock.unlock();
+		assertEquals(0, strategy.getScopeCount());
+		// A removed scope is recreated when it is locked again.
+		strategy.writeLock(child1).unlock();
+		assertEquals(0, strategy.getScopeCount());
+	}
+	
+	private static Throwable inOtherThread(final Runnable runnable) throws InterruptedException {
+		final AtomicReference<Throwable> result = new AtomicReference<Throwable>();
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					runnable.run();
+				}
+				catch (Throwable t) {
+					result.set(t);
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		return result.get();
+	}
+	
+	private static BasicSubsystem subsystem(long id, BasicSubsystem parent) {
+		BasicSubsystem result = EasyMock.createNiceMock(BasicSubsystem.class);
+		Collection<Subsystem> parents = parent == null ? Collections.<Subsystem>emptyList() : Collections.<Subsystem>singletonList(parent);
+		EasyMock.expect(result.getSubsystemId()).andReturn(id).anyTimes();
+		EasyMock.expect(result.getParents()).andReturn(parents).anyTimes();
+		EasyMock.replay(result);
+		return result;
+	}
+}
@@ -14,27 +14,33 @@
 package org.apache.aries.subsystem.core.internal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.aries.subsystem.core.internal.sub.Creator;
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.junit.Test;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
 import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
 import org.osgi.resource.Resource;
 import org.osgi.service.repository.Repository;
+import org.osgi.service.subsystem.SubsystemException;
+import org.osgi.util.tracker.ServiceTracker;
 
 public class RepositoryServiceRepositoryTest {
     @Test
     public void testFindProviders() throws Exception {
         BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
-        RepositoryServiceRepository rsr = new RepositoryServiceRepository(bc);
 
         @SuppressWarnings("unchecked")
         ServiceReference<Object> sr = EasyMock.createMock(ServiceReference.class);
@@ -55,6 +61,7 @@ public class RepositoryServiceRepositoryTest {
         Repository tr3 = Creator.create();
         EasyMock.expect(bc.getService(sr3)).andReturn(tr3).anyTimes();
         EasyMock.replay(bc);
+        RepositoryServiceRepository rsr = newRepository(bc);
 
         Map<String, String> dirs = Collections.singletonMap("filter", "(org.foo=bar)");
         Requirement req = new TestRequirement("org.foo", dirs);
@@ -84,6 +91,87 @@ public class RepositoryServiceRepositoryTest {
         assertEquals("y", cap3.getAttributes().get("x"));
     }
 
+    @Test
+    public void testFindProvidersIsBatchedAndCached() throws Exception {
+        BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
+
+        @SuppressWarnings("unchecked")
+        ServiceReference<Object> sr = EasyMock.createMock(ServiceReference.class);
+        @SuppressWarnings("unchecked")
+        ServiceReference<Object> sr2 = EasyMock.createMock(ServiceReference.class);
+
+        EasyMock.expect(bc.getAllServiceReferences("org.osgi.service.repository.Repository", null)).
+            andReturn(new ServiceReference[] {sr}).anyTimes();
+        Capture<ServiceListener> listener = new Capture<ServiceListener>();
+        bc.addServiceListener(EasyMock.capture(listener), EasyMock.<String>anyObject());
+        EasyMock.expectLastCall().anyTimes();
+
+        CountingRepository cr = new CountingRepository();
+        EasyMock.expect(bc.getService(sr)).andReturn(cr).anyTimes();
+        EasyMock.expect(bc.getService(sr2)).andReturn(new ToastRepository()).anyTimes();
+        EasyMock.replay(bc);
+        RepositoryServiceRepository rsr = newRepository(bc);
+
+        Requirement req = new TestRequirement("org.foo",
+                Collections.singletonMap("filter", "(org.foo=bar)"));
+        Requirement req2 = new TestRequirement("poing",
+                Collections.singletonMap("filter", "(org.foo=b)"));
+
+        // Both requirements are passed to the repository in one call
+        Map<Requirement, Collection<Capability>> res = rsr.findProviders(Arrays.asList(req, req2));
+        assertEquals(1, cr.calls);
+        assertEquals(1, res.get(req).size());
+        assertEquals(0, res.get(req2).size());
+
+        // Known requirements do not go back to the repository
+        assertEquals(1, rsr.findProviders(req).size());
+        assertEquals(0, rsr.findProviders(req2).size());
+        assertEquals(1, cr.calls);
+
+        // The results handed out are copies
+        rsr.findProviders(req).clear();
+
+        // A new repository service makes the results stale
+        listener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, sr2));
+        assertEquals(1, rsr.findProviders(req2).size());
+        assertEquals(2, cr.calls);
+        assertEquals(1, rsr.findProviders(req).size());
+        assertEquals(3, cr.calls);
+    }
+
+    @Test
+    public void testFailedLookupIsNotRemembered() throws Exception {
+        BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
+
+        @SuppressWarnings("unchecked")
+        ServiceReference<Object> sr = EasyMock.createMock(ServiceReference.class);
+        EasyMock.expect(bc.getAllServiceReferences("org.osgi.service.repository.Repository", null)).
+            andReturn(new ServiceReference[] {sr}).anyTimes();
+        FailingRepository fr = new FailingRepository();
+        EasyMock.expect(bc.getService(sr)).andReturn(fr).anyTimes();
+        EasyMock.replay(bc);
+        RepositoryServiceRepository rsr = newRepository(bc);
+
+        Requirement req = new TestRequirement("org.foo",
+                Collections.singletonMap("filter", "(org.foo=bar)"));
+        try {
+            rsr.findProviders(req);
+            fail("The repository failure should be reported");
+        } catch (SubsystemException e) {
+            // expected
+        }
+
+        fr.fail = false;
+        assertEquals(1, rsr.findProviders(req).size());
+    }
+
+    private static RepositoryServiceRepository newRepository(BundleContext bc) {
+        ServiceTracker<Object, Object> tracker = new ServiceTracker<Object, Object>(bc,
+                "org.osgi.service.repository.Repository", null);
+        tracker.open(true);
+        return new RepositoryServiceRepository(tracker);
+    }
+
     private static class TestRequirement implements Requirement {
         private final String namespace;
         private final Map<String, String> directives;
@@ -148,4 +236,26 @@ public class RepositoryServiceRepositoryTest {
             return Collections.emptyMap();
         }
     }
+
+    private static class CountingRepository extends TestRepository {
+        private int calls;
+
+        @Override
+        public Map<Requirement, Collection<Capability>> findProviders(Collection<? extends Requirement> requirements) {
+            calls++;
+            return super.findProviders(requirements);
+        }
+    }
+
+    private static class FailingRepository extends TestRepository {
+        private volatile boolean fail = true;
+
+        @Override
+        public Map<Requirement, Collection<Capability>> findProviders(Collection<? extends Requirement> requirements) {
+            if (fail) {
+                throw new IllegalStateException("Repository unavailable");
+            }
+            return super.findProviders(requirements);
+        }
+    }
 }
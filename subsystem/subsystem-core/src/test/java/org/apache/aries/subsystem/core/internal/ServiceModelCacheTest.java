@@ -0,0 +1,161 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.subsystem.core.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+import org.osgi.namespace.service.ServiceNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Namespace;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+
+public class ServiceModelCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSnapshotSurvivesRestart() throws Exception {
+        File file = new File(folder.getRoot(), "snapshot");
+        ServiceModelCache cache = new ServiceModelCache(file);
+        cache.put(1, 100, "modeller", createModel());
+        cache.put(2, 200, "modeller", createModel());
+
+        Bundle bundle = EasyMock.createNiceMock(Bundle.class);
+        EasyMock.expect(bundle.getLastModified()).andReturn(100L).anyTimes();
+        BundleContext context = EasyMock.createNiceMock(BundleContext.class);
+        EasyMock.expect(context.getBundle(1)).andReturn(bundle).anyTimes();
+        EasyMock.replay(bundle, context);
+        // Bundle 2 is no longer installed
+        cache.save(context);
+
+        ServiceModelCache reloaded = new ServiceModelCache(file);
+        assertEquals(1, reloaded.size());
+        Resource resource = EasyMock.createNiceMock(Resource.class);
+        ServiceModeller.ServiceModel model = reloaded.get(1, 100, "modeller", resource);
+
+        Capability capability = model.getServiceCapabilities().get(0);
+        assertEquals(ServiceNamespace.SERVICE_NAMESPACE, capability.getNamespace());
+        assertEquals(Arrays.asList("org.foo.Bar"),
+                capability.getAttributes().get(ServiceNamespace.CAPABILITY_OBJECTCLASS_ATTRIBUTE));
+        assertEquals(Long.valueOf(5), capability.getAttributes().get("ranking"));
+        assertEquals(Version.parseVersion("1.2.3"), capability.getAttributes().get("version"));
+        assertSame(resource, capability.getResource());
+
+        Requirement requirement = model.getServiceRequirements().get(0);
+        assertEquals("(objectClass=org.foo.Baz)",
+                requirement.getDirectives().get(Namespace.REQUIREMENT_FILTER_DIRECTIVE));
+        assertSame(resource, requirement.getResource());
+    }
+
+    @Test
+    public void testModifiedBundleIsNotServed() throws Exception {
+        ServiceModelCache cache = new ServiceModelCache(null);
+        cache.put(1, 100, "modeller", createModel());
+        assertNull(cache.get(1, 101, "modeller", EasyMock.createNiceMock(Resource.class)));
+        cache.remove(1);
+        assertNull(cache.get(1, 100, "modeller", EasyMock.createNiceMock(Resource.class)));
+    }
+
+    @Test
+    public void testOtherModellerIsNotServed() throws Exception {
+        ServiceModelCache cache = new ServiceModelCache(null);
+        cache.put(1, 100, "modeller", createModel());
+        assertNotNull(cache.get(1, 100, "modeller", EasyMock.createNiceMock(Resource.class)));
+        assertNull(cache.get(1, 100, "updated modeller", EasyMock.createNiceMock(Resource.class)));
+    }
+
+    @Test
+    public void testUnsupportedValueIsNotRemembered() throws Exception {
+        ServiceModelCache cache = new ServiceModelCache(null);
+        final List<Capability> capabilities = Collections.<Capability>singletonList(
+                new BasicCapability.Builder()
+                        .namespace(ServiceNamespace.SERVICE_NAMESPACE)
+                        .attribute("thing", new Object())
+                        .resource(EasyMock.createNiceMock(Resource.class))
+                        .build());
+        cache.put(1, 100, "modeller", new ServiceModeller.ServiceModel() {
+            @Override
+            public List<Requirement> getServiceRequirements() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public List<Capability> getServiceCapabilities() {
+                return capabilities;
+            }
+        });
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testCorruptSnapshotIsDiscarded() throws Exception {
+        File file = new File(folder.getRoot(), "snapshot");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[] {1, 2, 3});
+        }
+        finally {
+            out.close();
+        }
+        ServiceModelCache cache = new ServiceModelCache(file);
+        assertEquals(0, cache.size());
+    }
+
+    private static ServiceModeller.ServiceModel createModel() {
+        Resource resource = EasyMock.createNiceMock(Resource.class);
+        final List<Capability> capabilities = new ArrayList<Capability>();
+        capabilities.add(new BasicCapability.Builder()
+                .namespace(ServiceNamespace.SERVICE_NAMESPACE)
+                .attribute(ServiceNamespace.CAPABILITY_OBJECTCLASS_ATTRIBUTE, Arrays.asList("org.foo.Bar"))
+                .attribute("ranking", Long.valueOf(5))
+                .attribute("version", Version.parseVersion("1.2.3"))
+                .resource(resource)
+                .build());
+        final List<Requirement> requirements = new ArrayList<Requirement>();
+        requirements.add(new BasicRequirement.Builder()
+                .namespace(ServiceNamespace.SERVICE_NAMESPACE)
+                .directive(Namespace.REQUIREMENT_FILTER_DIRECTIVE, "(objectClass=org.foo.Baz)")
+                .resource(resource)
+                .build());
+        return new ServiceModeller.ServiceModel() {
+            @Override
+            public List<Requirement> getServiceRequirements() {
+                return requirements;
+            }
+
+            @Override
+            public List<Capability> getServiceCapabilities() {
+                return capabilities;
+            }
+        };
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.subsystem.core.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.service.coordinator.Coordination;
+import org.osgi.service.coordinator.Participant;
+
+public class StartActionTest {
+	private final ExecutorService executor = Executors.newFixedThreadPool(2);
+	
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+	
+	@Test
+	public void testWavesFollowWiring() throws Exception {
+		Bundle a = bundle("a");
+		Bundle b = bundle("b", a);
+		Bundle c = bundle("c", b, a);
+		Bundle d = bundle("d");
+		
+		List<List<Bundle>> waves = StartAction.computeStartWaves(Arrays.asList(c, b, d, a));
+		assertEquals(3, waves.size());
+		assertEquals(new HashSet<Bundle>(Arrays.asList(a, d)), new HashSet<Bundle>(waves.get(0)));
+		assertEquals(Collections.singletonList(b), waves.get(1));
+		assertEquals(Collections.singletonList(c), waves.get(2));
+	}
+	
+	@Test
+	public void testWiringCycleSharesTheLastWave() throws Exception {
+		Bundle a = bundle("a");
+		Bundle[] cycle = new Bundle[2];
+		cycle[0] = bundle("x", a);
+		cycle[1] = cyclicBundle("y", cycle[0]);
+		
+		List<List<Bundle>> waves = StartAction.computeStartWaves(Arrays.asList(cycle[0], cycle[1], a));
+		assertEquals(2, waves.size());
+		assertEquals(Collections.singletonList(a), waves.get(0));
+		assertEquals(new HashSet<Bundle>(Arrays.asList(cycle)), new HashSet<Bundle>(waves.get(1)));
+	}
+	
+	@Test
+	public void testBundlesInAWaveStartConcurrently() throws Exception {
+		final CountDownLatch started = new CountDownLatch(2);
+		IAnswer<Void> awaitOther = new IAnswer<Void>() {
+			@Override
+			public Void answer() throws Throwable {
+				started.countDown();
+				// Only returns in time if the other bundle is starting too
+				if (!started.await(10, TimeUnit.SECONDS))
+					throw new BundleException("Not started concurrently");
+				return null;
+			}
+		};
+		List<Participant> participants = new ArrayList<Participant>();
+		StartAction.startBundles(
+				Arrays.asList(startable("a", awaitOther), startable("b", awaitOther)),
+				executor, coordination(participants));
+		assertEquals(2, participants.size());
+	}
+	
+	@Test
+	public void testStartedBundlesAreRegisteredWhenOneFails() throws Exception {
+		Bundle failing = startable("a", new IAnswer<Void>() {
+			@Override
+			public Void answer() throws Throwable {
+				throw new BundleException("Failed");
+			}
+		});
+		Bundle ok = startable("b", null);
+		List<Participant> participants = new ArrayList<Participant>();
+		try {
+			StartAction.startBundles(Arrays.asList(failing, ok), executor, coordination(participants));
+			fail("The start failure should be reported");
+		}
+		catch (BundleException e) {
+			assertEquals("Failed", e.getMessage());
+		}
+		assertEquals(1, participants.size());
+	}
+	
+	@Test
+	public void testStartedBundlesAreRegisteredWhenInterrupted() throws Exception {
+		IAnswer<Void> slowStart = new IAnswer<Void>() {
+			@Override
+			public Void answer() throws Throwable {
+				Thread.sleep(100);
+				return null;
+			}
+		};
+		List<Participant> participants = new ArrayList<Participant>();
+		Thread.currentThread().interrupt();
+		try {
+			StartAction.startBundles(
+					Arrays.asList(startable("a", slowStart), startable("b", slowStart)),
+					executor, coordination(participants));
+			fail("The interrupt should be reported");
+		}
+		catch (InterruptedException e) {
+			// expected
+		}
+		assertTrue(Thread.interrupted());
+		assertEquals(2, participants.size());
+	}
+	
+	@Test
+	public void testSubmittedBundlesAreRegisteredWhenRejected() throws Exception {
+		IAnswer<Void> slowStart = new IAnswer<Void>() {
+			@Override
+			public Void answer() throws Throwable {
+				Thread.sleep(200);
+				return null;
+			}
+		};
+		// Has room for the first bundle only
+		ExecutorService saturated = new ThreadPoolExecutor(
+				1, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+		List<Participant> participants = new ArrayList<Participant>();
+		try {
+			StartAction.startBundles(
+					Arrays.asList(startable("a", slowStart), startable("b", slowStart)),
+					saturated, coordination(participants));
+			fail("The rejection should be reported");
+		}
+		catch (RejectedExecutionException e) {
+			// expected
+		}
+		finally {
+			saturated.shutdownNow();
+		}
+		assertEquals(1, participants.size());
+	}
+	
+	private static Bundle bundle(String name, Bundle... providers) {
+		Bundle bundle = EasyMock.createNiceMock(Bundle.class);
+		EasyMock.expect(bundle.getSymbolicName()).andReturn(name).anyTimes();
+		BundleWiring wiring = EasyMock.createNiceMock(BundleWiring.class);
+		EasyMock.expect(wiring.getRequiredWires(null)).andReturn(wires(providers)).anyTimes();
+		EasyMock.expect(bundle.adapt(BundleWiring.class)).andReturn(wiring).anyTimes();
+		EasyMock.replay(bundle, wiring);
+		return bundle;
+	}
+	
+	/*
+	 * Creates a bundle wired to the provider, which is itself wired back to
+	 * the new bundle.
+	 */
+	private static Bundle cyclicBundle(String name, Bundle provider) {
+		Bundle bundle = bundle(name, provider);
+		List<BundleWire> wires = provider.adapt(BundleWiring.class).getRequiredWires(null);
+		wires.addAll(wires(bundle));
+		return bundle;
+	}
+	
+	private static List<BundleWire> wires(Bundle... providers) {
+		List<BundleWire> wires = new ArrayList<BundleWire>();
+		for (Bundle provider : providers) {
+			BundleWiring providerWiring = EasyMock.createNiceMock(BundleWiring.class);
+			EasyMock.expect(providerWiring.getBundle()).andReturn(provider).anyTimes();
+			BundleWire wire = EasyMock.createNiceMock(BundleWire.class);
+			EasyMock.expect(wire.getProviderWiring()).andReturn(providerWiring).anyTimes();
+			EasyMock.replay(providerWiring, wire);
+			wires.add(wire);
+		}
+		return wires;
+	}
+	
+	private static Bundle startable(String name, IAnswer<Void> onStart) throws Exception {
+		Bundle bundle = EasyMock.createNiceMock(Bundle.class);
+		EasyMock.expect(bundle.getSymbolicName()).andReturn(name).anyTimes();
+		bundle.start(EasyMock.anyInt());
+		if (onStart != null)
+			EasyMock.expectLastCall().andAnswer(onStart);
+		EasyMock.replay(bundle);
+		return bundle;
+	}
+	
+	private static Coordination coordination(final List<Participant> participants) {
+		Coordination coordination = EasyMock.createNiceMock(Coordination.class);
+		coordination.addParticipant(EasyMock.<Participant>anyObject());
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
+			@Override
+			public Void answer() throws Throwable {
+				synchronized (participants) {
+					participants.add((Participant)EasyMock.getCurrentArguments()[0]);
+				}
+				return null;
+			}
+		}).anyTimes();
+		EasyMock.replay(coordination);
+		return coordination;
+	}
+}
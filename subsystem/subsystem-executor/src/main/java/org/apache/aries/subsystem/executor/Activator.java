@@ -13,23 +13,42 @@
  */
 package org.apache.aries.subsystem.executor;
 
-import java.util.concurrent.Executor;
-
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class Activator implements BundleActivator {
 
+    private static final Logger logger = LoggerFactory.getLogger(Activator.class);
+
+    /**
+     * The maximum number of jobs the executor runs at the same time. Defaults
+     * to twice the number of processors.
+     */
+    private static final String THREADS = "org.apache.aries.subsystem.executor.threads";
+
+    private SimpleExecutor executor;
     private ServiceRegistration executorSR;
     
     public void start(BundleContext context) throws Exception {
-        Executor executor = new SimpleExecutor();
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+        String value = context.getProperty(THREADS);
+        if (value != null) {
+            try {
+                threads = Math.max(1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid value of " + THREADS + ": " + value);
+            }
+        }
+        executor = new SimpleExecutor(threads);
         executorSR = context.registerService(java.util.concurrent.Executor.class.getName(), executor, null);
     }
 
     public void stop(BundleContext context) throws Exception {
         executorSR.unregister();
+        executor.shutdown();
     }
 
 }
@@ -14,24 +14,56 @@
 package org.apache.aries.subsystem.executor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A simple <code>Executor</code> that just runs each job submitted on a
- * new thread. This executor is intended to be registered as a services for
- * use by the SubsystemAdmin. It can be replaced by a different executor with
- * different policies (e.g. maybe using a host runtime's thread pool).
+ * A simple <code>Executor</code> that runs each job submitted on a bounded
+ * pool of threads. Jobs wait in a queue when all of the threads are busy, and
+ * idle threads go away after a minute. This executor is intended to be
+ * registered as a services for use by the SubsystemAdmin. It can be replaced
+ * by a different executor with different policies (e.g. maybe using a host
+ * runtime's thread pool).
  * 
  */
 public class SimpleExecutor implements Executor {
 
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param threads
+     *            The maximum number of jobs run at the same time.
+     */
+    public SimpleExecutor(int threads) {
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "Aries Subsystem Executor " + count.incrementAndGet());
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
     /**
-     * Runs any submitted job on a new thread.
+     * Runs any submitted job on a pooled thread.
      * 
      * @param command
-     *            The <code>Runnable</code> to be executed on a new thread.
+     *            The <code>Runnable</code> to be executed.
      */
     public void execute(Runnable command) {
-        new Thread(command).start();
+        executor.execute(command);
+    }
+
+    /**
+     * Lets the jobs already submitted finish but accepts no more.
+     */
+    public void shutdown() {
+        executor.shutdown();
     }
 
 }
@@ -27,6 +27,8 @@ import org.apache.aries.util.internal.MessageUtil;
 
 public class ManifestHeaderUtils {
 
+    private static final String REGEX_META_CHARS = ".$|()[{^?*+\\";
+
      /**
      * 
      * Splits a delimiter separated string, tolerating presence of non separator commas
@@ -43,6 +45,10 @@ public class ManifestHeaderUtils {
      */
     public static List<String> split(String value, String delimiter)
     {
+      if (value != null && delimiter.length() == 1 && REGEX_META_CHARS.indexOf(delimiter.charAt(0)) == -1) {
+        return split(value, delimiter.charAt(0));
+      }
+
       List<String> result = new ArrayList<String>();
       if (value != null) {
         String[] packages = value.split(delimiter);
@@ -66,6 +72,54 @@ public class ManifestHeaderUtils {
       return result;
     }  
    
+    /**
+     * Splits on a single literal delimiter character by scanning the string,
+     * giving the same result as the regular expression based split above.
+     */
+    private static List<String> split(String value, char delimiter)
+    {
+      List<String> result = new ArrayList<String>();
+      int length = value.length();
+      // String.split drops trailing empty segments
+      int end = length;
+      while (end > 0 && value.charAt(end - 1) == delimiter) end--;
+      if (end == 0) {
+        if (length == 0) result.add("");
+        return result;
+      }
+
+      StringBuilder joined = null;
+      int quotes = 0;
+      int start = 0;
+      while (start <= end) {
+        int next = value.indexOf(delimiter, start);
+        if (next == -1 || next > end) next = end;
+
+        String segment = value.substring(start, next).trim();
+        for (int i = 0; i < segment.length(); i++) {
+          if (segment.charAt(i) == '"') quotes++;
+        }
+
+        if (joined != null) {
+          joined.append(delimiter).append(segment);
+        } else if (quotes % 2 != 0) {
+          joined = new StringBuilder(segment);
+        }
+
+        if (quotes % 2 == 0) {
+          result.add(joined == null ? segment : joined.toString());
+          joined = null;
+        }
+        start = next + 1;
+      }
+
+      if (joined != null) {
+        // oops. The double quotes are not paired up. We have reached to the end of the string.
+        throw new IllegalArgumentException(MessageUtil.getMessage("UTIL0008E", joined.toString()));
+      }
+      return result;
+    }
+
     /**
      * count the number of characters in a string
      * @param parent The string to be searched
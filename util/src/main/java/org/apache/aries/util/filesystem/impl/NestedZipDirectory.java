@@ -94,6 +94,9 @@ public class NestedZipDirectory extends NestedZipFile implements IDirectory {
 		} else {
 			ZipInputStream zis = null;
 			try {
+				NestedZipIndex.Contents contents = index.getContents();
+				if (contents != null) return contents.getEntries();
+
 				zis = new ZipInputStream(archive.open());
 
 				List<ZipEntry> result = new ArrayList<ZipEntry>();
@@ -157,6 +160,11 @@ public class NestedZipDirectory extends NestedZipFile implements IDirectory {
 			ZipInputStream zis = null;
 
 			try {
+				NestedZipIndex.Contents contents = index.getContents();
+				if (contents != null) {
+					return getFile(name, contents);
+				}
+
 				zis = new ZipInputStream(archive.open());
 
 				ze = zis.getNextEntry();
@@ -183,6 +191,27 @@ public class NestedZipDirectory extends NestedZipFile implements IDirectory {
 	}
 
 
+	private IFile getFile(String name, NestedZipIndex.Contents contents) {
+		Map<String,ZipEntry> entries = new HashMap<String, ZipEntry>();
+
+		String[] segments = name.split("/");
+		StringBuilder path = new StringBuilder();
+		for (String s : segments) {
+			path.append(s).append('/');
+			ZipEntry p = contents.getEntry(path.toString());
+			if (p != null) entries.put(path.toString(), p);
+		}
+
+		ZipEntry ze = contents.getEntry(name);
+		if (ze != null) {
+			NestedZipDirectory parent = buildParent(ze, entries);
+			if (ze.isDirectory()) return new NestedZipDirectory(archive, ze, parent, cache);
+			else return new NestedZipFile(archive, ze, parent, cache);
+		} else {
+			return null;
+		}
+	}
+
 	public boolean isDirectory() {
 		return true;
 	}
@@ -37,6 +37,8 @@ public class NestedZipFile implements IFile {
 	protected final IFile archive;
 	private final String nameInZip;
 	protected final NestedCloseableDirectory cache;
+	/** The index of the nested archive, shared by all of its files */
+	protected final NestedZipIndex index;
 	
 	/**
 	 * Construct a nested zip file
@@ -53,6 +55,7 @@ public class NestedZipFile implements IFile {
 		size = entry.getSize();
 		lastModified = entry.getTime();
 		this.cache = cache;
+		this.index = parent != null ? parent.index : new NestedZipIndex(archive);
 	}
 	
 	public NestedZipFile(IFile archive, String pathInZip, NestedZipDirectory parent, NestedCloseableDirectory cache) {
@@ -64,6 +67,7 @@ public class NestedZipFile implements IFile {
 		size = -1;
 		lastModified = -1;
 		this.cache = cache;
+		this.index = parent != null ? parent.index : new NestedZipIndex(archive);
 	}
 	
 	
@@ -76,6 +80,7 @@ public class NestedZipFile implements IFile {
 		lastModified = archive.getLastModified();
 		size = archive.getSize();
 		cache = null;
+		index = new NestedZipIndex(archive);
 	}
 	
 	public NestedZipFile(NestedZipFile other, NestedCloseableDirectory cache) {
@@ -85,6 +90,7 @@ public class NestedZipFile implements IFile {
 		parent = other.parent;
 		archive = other.archive;
 		nameInZip = other.nameInZip;
+		index = other.index;
 		
 		this.cache = cache;
 	}
@@ -134,6 +140,14 @@ public class NestedZipFile implements IFile {
 			
 			if (ze != null) return zip.getInputStream(ze);
 			else return null;
+		}
+
+		NestedZipIndex.Contents contents = index.getContents();
+		if (contents != null) {
+			ZipEntry ze = contents.getEntry(nameInZip);
+
+			if (ze != null) return contents.getInputStream(ze);
+			else return null;
 		} else {
 			final ZipInputStream zis = new ZipInputStream(archive.open());
 			
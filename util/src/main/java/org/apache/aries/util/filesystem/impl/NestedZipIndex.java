@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.util.filesystem.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import org.apache.aries.util.filesystem.IFile;
+import org.apache.aries.util.io.IOUtils;
+
+/**
+ * A random access index over a zip archive that is itself an entry of another
+ * archive. The first use reads the nested archive into memory once and parses
+ * its central directory, after which entries can be looked up and opened
+ * without scanning the archive again. The contents are softly referenced, so
+ * they may be reclaimed under memory pressure and are then read again on the
+ * next use. Archives that are larger than the limit, or that use features the
+ * index does not understand (such as zip64), are not indexed, and callers fall
+ * back to streaming through the archive. Such an archive is checked again once
+ * its last modified time changes.
+ *
+ * The limit defaults to 32MB and can be changed with the
+ * {@value #SIZE_LIMIT_PROPERTY} system property. A limit of 0 disables the
+ * index.
+ *
+ * A single index is shared by all of the {@link NestedZipFile}s of a nested
+ * archive.
+ */
+public class NestedZipIndex {
+	/** The system property giving the largest nested archive, in bytes, that will be held in memory */
+	public static final String SIZE_LIMIT_PROPERTY = "org.apache.aries.util.filesystem.nestedZipIndexLimit";
+	private static final long DEFAULT_SIZE_LIMIT = 32 * 1024 * 1024;
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_HEADER = 0x06054b50;
+	private static final int END_HEADER_SIZE = 22;
+	private static final int MAX_COMMENT_SIZE = 0xffff;
+
+	private final IFile archive;
+	private final long sizeLimit;
+	private SoftReference<Contents> contents;
+	private long lastModified;
+	private boolean indexable = true;
+
+	public NestedZipIndex(IFile archive) {
+		this.archive = archive;
+		this.sizeLimit = Long.getLong(SIZE_LIMIT_PROPERTY, DEFAULT_SIZE_LIMIT);
+	}
+
+	/**
+	 * Get the indexed contents of the nested archive, reading them if
+	 * necessary.
+	 * @return the contents, or null if the archive cannot be indexed
+	 * @throws IOException
+	 */
+	public synchronized Contents getContents() throws IOException {
+		long modified = archive.getLastModified();
+		if (modified == lastModified) {
+			if (!!!indexable) return null;
+
+			Contents result = contents == null ? null : contents.get();
+			if (result != null) return result;
+		}
+
+		Contents result = null;
+		long size = archive.getSize();
+		if (size <= sizeLimit) {
+			byte[] data = read(archive.open(), size);
+			if (data != null) result = Contents.parse(data);
+		}
+
+		indexable = result != null;
+		contents = result == null ? null : new SoftReference<Contents>(result);
+		lastModified = modified;
+		return result;
+	}
+
+	private byte[] read(InputStream in, long size) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(size > 0 ? (int) size : 8192);
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+				if (out.size() > sizeLimit) return null;
+			}
+			return out.toByteArray();
+		} finally {
+			IOUtils.close(in);
+		}
+	}
+
+	/**
+	 * The entries of a nested archive, in the order of its central directory,
+	 * together with the bytes of the archive. The entries handed out are
+	 * copies, so callers may modify them freely.
+	 */
+	public static final class Contents {
+		private final byte[] data;
+		private final Map<String, IndexedEntry> entries;
+
+		private Contents(byte[] data, Map<String, IndexedEntry> entries) {
+			this.data = data;
+			this.entries = Collections.unmodifiableMap(entries);
+		}
+
+		public List<ZipEntry> getEntries() {
+			List<ZipEntry> result = new ArrayList<ZipEntry>(entries.size());
+			for (IndexedEntry entry : entries.values()) {
+				result.add(new ZipEntry(entry));
+			}
+			return result;
+		}
+
+		public ZipEntry getEntry(String name) {
+			IndexedEntry entry = entries.get(name);
+			return entry == null ? null : new ZipEntry(entry);
+		}
+
+		public InputStream getInputStream(ZipEntry entry) throws IOException {
+			IndexedEntry ie = entries.get(entry.getName());
+			if (ie == null) return null;
+
+			int header = ie.localHeaderOffset;
+			if (header + 30 > data.length || readInt(data, header) != LOCAL_HEADER) {
+				throw new ZipException("Invalid local header for " + ie.getName());
+			}
+			int start = header + 30 + readShort(data, header + 26) + readShort(data, header + 28);
+			int length = (int) ie.getCompressedSize();
+			if (start + length > data.length) {
+				throw new ZipException("Truncated entry " + ie.getName());
+			}
+
+			switch (ie.getMethod()) {
+			case ZipEntry.STORED:
+				return new ByteArrayInputStream(data, start, length);
+			case ZipEntry.DEFLATED:
+				// The inflater may need a trailing dummy byte when reading raw
+				// deflate data. Something always follows an entry's data.
+				final Inflater inflater = new Inflater(true);
+				return new InflaterInputStream(new ByteArrayInputStream(data, start,
+						Math.min(length + 1, data.length - start)), inflater) {
+					private boolean closed;
+
+					@Override
+					public void close() throws IOException {
+						if (!!!closed) {
+							closed = true;
+							inflater.end();
+						}
+						super.close();
+					}
+				};
+			default:
+				throw new ZipException("Unsupported compression method " + ie.getMethod() + " for " + ie.getName());
+			}
+		}
+
+		/**
+		 * Parse the central directory of a zip archive.
+		 * @return the contents, or null if the archive is not understood
+		 */
+		static Contents parse(byte[] data) {
+			int end = findEndHeader(data);
+			if (end < 0) return null;
+
+			int count = readShort(data, end + 10);
+			long directoryOffset = readInt(data, end + 16) & 0xffffffffL;
+			// zip64 archives mark these fields as overflowing
+			if (count == 0xffff || directoryOffset == 0xffffffffL || directoryOffset > end) return null;
+
+			Map<String, IndexedEntry> entries = new LinkedHashMap<String, IndexedEntry>();
+			int pos = (int) directoryOffset;
+			try {
+				for (int i = 0; i < count; i++) {
+					if (pos + 46 > end || readInt(data, pos) != CENTRAL_HEADER) return null;
+
+					int nameLength = readShort(data, pos + 28);
+					int extraLength = readShort(data, pos + 30);
+					int commentLength = readShort(data, pos + 32);
+					long compressedSize = readInt(data, pos + 20) & 0xffffffffL;
+					long size = readInt(data, pos + 24) & 0xffffffffL;
+					long offset = readInt(data, pos + 42) & 0xffffffffL;
+					if (compressedSize == 0xffffffffL || size == 0xffffffffL || offset >= directoryOffset) return null;
+
+					String name = new String(data, pos + 46, nameLength, "UTF-8");
+					IndexedEntry entry = new IndexedEntry(name, (int) offset);
+					entry.setMethod(readShort(data, pos + 10));
+					entry.setTime(dosToJavaTime(readShort(data, pos + 14), readShort(data, pos + 12)));
+					entry.setCrc(readInt(data, pos + 16) & 0xffffffffL);
+					entry.setCompressedSize(compressedSize);
+					entry.setSize(size);
+					// keep the first entry of a name, as a stream scan would
+					if (!!!entries.containsKey(name)) entries.put(name, entry);
+
+					pos += 46 + nameLength + extraLength + commentLength;
+				}
+			} catch (UnsupportedEncodingException e) {
+				return null;
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+
+			return new Contents(data, entries);
+		}
+
+		private static int findEndHeader(byte[] data) {
+			int min = Math.max(0, data.length - END_HEADER_SIZE - MAX_COMMENT_SIZE);
+			for (int pos = data.length - END_HEADER_SIZE; pos >= min; pos--) {
+				if (readInt(data, pos) == END_HEADER) return pos;
+			}
+			return -1;
+		}
+
+		private static long dosToJavaTime(int date, int time) {
+			Calendar cal = new GregorianCalendar(((date >> 9) & 0x7f) + 1980, ((date >> 5) & 0x0f) - 1,
+					date & 0x1f, (time >> 11) & 0x1f, (time >> 5) & 0x3f, (time & 0x1f) * 2);
+			return cal.getTimeInMillis();
+		}
+
+		private static int readShort(byte[] data, int pos) {
+			return (data[pos] & 0xff) | ((data[pos + 1] & 0xff) << 8);
+		}
+
+		private static int readInt(byte[] data, int pos) {
+			return readShort(data, pos) | (readShort(data, pos + 2) << 16);
+		}
+	}
+
+	private static final class IndexedEntry extends ZipEntry {
+		private final int localHeaderOffset;
+
+		IndexedEntry(String name, int localHeaderOffset) {
+			super(name);
+			this.localHeaderOffset = localHeaderOffset;
+		}
+	}
+}
@@ -20,11 +20,14 @@
 package org.apache.aries.util.manifest;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -41,6 +44,20 @@ public class ManifestHeaderProcessor
   private static final String LESS_EQ_OP = "<=";
   private static final String GREATER_EQ_OP = ">=";
 
+  /**
+   * The largest number of parsed headers that will be cached. The cache is
+   * emptied when it grows any larger.
+   */
+  private static final int MAX_CACHED_HEADERS = 4096;
+
+  /**
+   * Parsed import, export, capability and requirement headers, keyed by the
+   * header. The same headers of the same bundles are parsed again and again,
+   * so the parsed entries are kept, in an immutable form, for as long as the
+   * header string is reachable. Callers always get their own copies.
+   */
+  private static final Map<String, List<NameValuePair>> parsedHeaders = new WeakHashMap<String, List<NameValuePair>>();
+
   /**
    * A GenericMetadata is either a Generic Capability or a Generic Requirement
    */
@@ -319,15 +336,69 @@ public class ManifestHeaderProcessor
    * @param s The data to parse
    */
   private static void genericImportExportProcess(NameValueCollection out, String s){
-    List<String> packages = split(s, ",");
-    for(String pkg : packages){
-      List<NameValuePair> ps = genericNameWithNameValuePairProcess(pkg);
-      for (NameValuePair p : ps) {
-        out.addToCollection(p.getName(), p.getAttributes());
+    // names that shared an attribute map when parsed share a copy of it
+    Map<Map<String,String>, Map<String,String>> copies = new IdentityHashMap<Map<String,String>, Map<String,String>>();
+    for (NameValuePair p : getParsedEntries(s)) {
+      Map<String,String> attributes = p.getAttributes();
+      Map<String,String> copy = null;
+      if (attributes != null) {
+        copy = copies.get(attributes);
+        if (copy == null) {
+          copy = new HashMap<String,String>(attributes);
+          copies.put(attributes, copy);
+        }
       }
+      out.addToCollection(p.getName(), copy);
     }
   }
 
+  /**
+   * Get the entries of a comma separated header, such as an import or export,
+   * from the cache, parsing the header if necessary.
+   *
+   * @param s The data to parse
+   * @return an unmodifiable list of entries with unmodifiable attribute maps,
+   *         which must not be handed to callers.
+   */
+  private static List<NameValuePair> getParsedEntries(String s){
+    if (s == null) return Collections.emptyList();
+
+    List<NameValuePair> result;
+    synchronized (parsedHeaders) {
+      result = parsedHeaders.get(s);
+    }
+    if (result != null) return result;
+
+    List<NameValuePair> entries = new ArrayList<NameValuePair>();
+    Map<Map<String,String>, Map<String,String>> frozen = new IdentityHashMap<Map<String,String>, Map<String,String>>();
+    for (String entry : split(s, ",")) {
+      for (NameValuePair p : genericNameWithNameValuePairProcess(entry)) {
+        Map<String,String> attributes = p.getAttributes();
+        Map<String,String> immutable = null;
+        if (attributes != null) {
+          immutable = frozen.get(attributes);
+          if (immutable == null) {
+            Map<String,String> interned = new HashMap<String,String>(attributes.size() * 4 / 3 + 1);
+            // attribute and directive names come from a small vocabulary
+            for (Map.Entry<String,String> e : attributes.entrySet()) {
+              interned.put(e.getKey().intern(), e.getValue());
+            }
+            immutable = Collections.unmodifiableMap(interned);
+            frozen.put(attributes, immutable);
+          }
+        }
+        entries.add(new NameValuePair(p.getName(), immutable));
+      }
+    }
+    result = Collections.unmodifiableList(entries);
+
+    synchronized (parsedHeaders) {
+      if (parsedHeaders.size() >= MAX_CACHED_HEADERS) parsedHeaders.clear();
+      parsedHeaders.put(s, result);
+    }
+    return result;
+  }
+
   /**
    * Parse an export style header.<p>
    *   pkg1;attrib=value;attrib=value,pkg2;attrib=value,pkg3;attrib=value2
@@ -410,31 +481,26 @@ public class ManifestHeaderProcessor
   private static List<GenericMetadata> parseGenericMetadata(String s) {
     List<GenericMetadata> capabilities = new ArrayList<GenericMetadata>();
 
-    List<String> entries = split(s, ",");
-    for(String e : entries){
-      List<NameValuePair> nvpList = genericNameWithNameValuePairProcess(e);
-
-      for(NameValuePair nvp : nvpList) {
-        String namespace = nvp.getName();
-        GenericMetadata cap = new GenericMetadata(namespace);
-        capabilities.add(cap);
-
-        Map<String, String> attrMap = nvp.getAttributes();
-        for (Map.Entry<String, String> entry : attrMap.entrySet()) {
-          String k = entry.getKey();
-          String v = entry.getValue();
-          if (k.contains(":")) {
-            if (k.endsWith(":")) {
-              // a directive
-              cap.getDirectives().put(k.substring(0, k.length() - 1), v);
-            } else {
-              // an attribute with its datatype specified
-              parseTypedAttribute(k, v, cap);
-            }
+    for(NameValuePair nvp : getParsedEntries(s)) {
+      String namespace = nvp.getName();
+      GenericMetadata cap = new GenericMetadata(namespace);
+      capabilities.add(cap);
+
+      Map<String, String> attrMap = nvp.getAttributes();
+      for (Map.Entry<String, String> entry : attrMap.entrySet()) {
+        String k = entry.getKey();
+        String v = entry.getValue();
+        if (k.contains(":")) {
+          if (k.endsWith(":")) {
+            // a directive
+            cap.getDirectives().put(k.substring(0, k.length() - 1), v);
           } else {
-            // ordinary (String) attribute
-            cap.getAttributes().put(k, v);
+            // an attribute with its datatype specified
+            parseTypedAttribute(k, v, cap);
           }
+        } else {
+          // ordinary (String) attribute
+          cap.getAttributes().put(k, v);
         }
       }
     }
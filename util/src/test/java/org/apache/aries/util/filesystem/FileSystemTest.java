@@ -26,6 +26,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -42,6 +43,7 @@ import java.util.zip.ZipOutputStream;
 
 import org.apache.aries.unittest.junit.Assert;
 import org.apache.aries.util.IORuntimeException;
+import org.apache.aries.util.filesystem.impl.NestedZipIndex;
 import org.apache.aries.util.io.IOUtils;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -192,8 +194,8 @@ public class FileSystemTest
 
 	  File desiredFile = new File(new File(getTestResourceDir(), "/app1"), "META-INF/APPLICATION.MF");
 
-	  // no size information when stream reading :(
-	  runBasicDirTest(inner, "app2.zip/", -1, desiredFile.lastModified());
+	  // sizes come from the central directory of the nested zip
+	  runBasicDirTest(inner, "app2.zip/", desiredFile.length(), desiredFile.lastModified());
 	  runBasicDirTest(inner.toCloseable(), "app2.zip/", desiredFile.length(), desiredFile.lastModified());
   }
 
@@ -213,8 +215,8 @@ public class FileSystemTest
 
       File desiredFile = new File(new File(getTestResourceDir(), "/app1"), "META-INF/APPLICATION.MF");
 
-      // no size information when stream reading :(
-      runBasicDirTest(inner, "app2.zip/", -1, desiredFile.lastModified());
+      // sizes come from the central directory of the nested zip
+      runBasicDirTest(inner, "app2.zip/", desiredFile.length(), desiredFile.lastModified());
       runBasicDirTest(inner.toCloseable(), "app2.zip/", desiredFile.length(), desiredFile.lastModified());
     } finally {
       outer.close();
@@ -226,6 +228,92 @@ public class FileSystemTest
     }
   }
 
+  /**
+   * Make sure that entries of a nested zip read through its index match those
+   * read from an extracted copy.
+   */
+  @Test
+  public void nestedZipInZipContents() throws IOException
+  {
+    IDirectory outer = FileSystem.getFSRoot(new File("fileSystemTest/outer.zip"));
+    IDirectory inner = outer.getFile("app2.zip").convertNested();
+    ICloseableDirectory extracted = inner.toCloseable();
+    try {
+      List<IFile> files = inner.listAllFiles();
+      assertEquals(extracted.listAllFiles().size(), files.size());
+      for (IFile file : files) {
+        if (file.isFile()) {
+          String name = file.getName().substring("app2.zip/".length());
+          assertEquals(name, readFully(extracted.getFile(name).open()), readFully(file.open()));
+          assertEquals(name, readFully(inner.getFile(name).open()), readFully(file.open()));
+        }
+      }
+    } finally {
+      extracted.close();
+    }
+  }
+
+  /**
+   * Make sure that nested zips beyond the index size limit are still read
+   * correctly by streaming through them.
+   */
+  @Test
+  public void nestedZipInZipWithoutIndex() throws IOException
+  {
+    System.setProperty(NestedZipIndex.SIZE_LIMIT_PROPERTY, "0");
+    try {
+      IDirectory outer = FileSystem.getFSRoot(new File("fileSystemTest/outer.zip"));
+      IDirectory inner = outer.getFile("app2.zip").convertNested();
+
+      File desiredFile = new File(new File(getTestResourceDir(), "/app1"), "META-INF/APPLICATION.MF");
+
+      // no size information when stream reading
+      runBasicDirTest(inner, "app2.zip/", -1, desiredFile.lastModified());
+
+      ICloseableDirectory extracted = inner.toCloseable();
+      try {
+        for (IFile file : inner.listAllFiles()) {
+          if (file.isFile()) {
+            String name = file.getName().substring("app2.zip/".length());
+            assertEquals(name, readFully(extracted.getFile(name).open()), readFully(file.open()));
+          }
+        }
+      } finally {
+        extracted.close();
+      }
+    } finally {
+      System.clearProperty(NestedZipIndex.SIZE_LIMIT_PROPERTY);
+    }
+  }
+
+  /**
+   * Make sure that entries handed out by the index cannot change it.
+   */
+  @Test
+  public void nestedZipIndexEntriesAreCopies() throws IOException
+  {
+    IDirectory outer = FileSystem.getFSRoot(new File("fileSystemTest/outer.zip"));
+    NestedZipIndex.Contents contents = new NestedZipIndex(outer.getFile("app2.zip")).getContents();
+    assertNotNull(contents);
+
+    String name = "META-INF/APPLICATION.MF";
+    long size = contents.getEntry(name).getSize();
+    contents.getEntry(name).setSize(size + 1);
+    for (ZipEntry entry : contents.getEntries()) entry.setSize(size + 1);
+
+    assertEquals(size, contents.getEntry(name).getSize());
+    for (ZipEntry entry : contents.getEntries()) {
+      if (entry.getName().equals(name)) assertEquals(size, entry.getSize());
+    }
+  }
+
+  private static String readFully(InputStream is) throws IOException
+  {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    IOUtils.copy(is, baos);
+    return baos.toString("UTF-8");
+  }
+
   /**
    * Make sure we correctly understand the directory structure for zips.
    *
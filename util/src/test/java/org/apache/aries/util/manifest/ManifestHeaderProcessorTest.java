@@ -592,6 +592,29 @@ public class ManifestHeaderProcessorTest
       assertTrue(found3);
     }
 
+    @Test
+    public void testParsedHeadersAreNotShared() {
+      String imports = "a.b;version=\"[1.0,2.0)\",c.d;e.f;resolution:=optional";
+
+      Map<String, Map<String, String>> first = ManifestHeaderProcessor.parseImportString(imports);
+      assertEquals("[1.0,2.0)", first.get("a.b").get("version"));
+      // packages declared together share their attributes
+      assertTrue(first.get("c.d") == first.get("e.f"));
+      first.get("a.b").put("version", "3.0");
+      first.remove("c.d");
+
+      Map<String, Map<String, String>> second = ManifestHeaderProcessor.parseImportString(new String(imports));
+      assertNotSame(first, second);
+      assertEquals(3, second.size());
+      assertEquals("[1.0,2.0)", second.get("a.b").get("version"));
+      assertEquals("optional", second.get("c.d").get("resolution:"));
+
+      List<NameValuePair> exports = ManifestHeaderProcessor.parseExportString(imports);
+      assertEquals(3, exports.size());
+      exports.get(0).getAttributes().clear();
+      assertEquals("[1.0,2.0)", ManifestHeaderProcessor.parseExportString(imports).get(0).getAttributes().get("version"));
+    }
+
     private void testDictionaryCapability1(GenericMetadata cap) {
       assertEquals(2, cap.getDirectives().size());
       assertEquals("resolve", cap.getDirectives().get("effective"));